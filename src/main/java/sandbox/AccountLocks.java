@@ -0,0 +1,57 @@
+package sandbox;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of lock stripes shared by all accounts. Operations touching two accounts take both stripes
+ * in ascending order, so concurrent transfers in opposite directions can never deadlock.
+ */
+public class AccountLocks {
+
+    private final ReentrantLock[] stripes;
+
+    public AccountLocks() {
+        this(256);
+    }
+
+    public AccountLocks(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("stripeCount must be positive");
+        }
+        stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public void lock(int accountId) {
+        stripes[stripeIndex(accountId)].lock();
+    }
+
+    public void unlock(int accountId) {
+        stripes[stripeIndex(accountId)].unlock();
+    }
+
+    // lowest stripe first. both accounts may share a stripe, in which case it is only taken once
+    public void lockBoth(int firstAccountId, int secondAccountId) {
+        int first = stripeIndex(firstAccountId);
+        int second = stripeIndex(secondAccountId);
+        stripes[Math.min(first, second)].lock();
+        if (first != second) {
+            stripes[Math.max(first, second)].lock();
+        }
+    }
+
+    public void unlockBoth(int firstAccountId, int secondAccountId) {
+        int first = stripeIndex(firstAccountId);
+        int second = stripeIndex(secondAccountId);
+        if (first != second) {
+            stripes[Math.max(first, second)].unlock();
+        }
+        stripes[Math.min(first, second)].unlock();
+    }
+
+    int stripeIndex(int accountId) {
+        return Math.floorMod(accountId, stripes.length);
+    }
+}
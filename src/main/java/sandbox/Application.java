@@ -2,18 +2,45 @@ package sandbox;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import sandbox.admission.AdmissionController;
+import sandbox.batch.DormantAccountArchiveJob;
+import sandbox.batch.InterestAccrualJob;
+import sandbox.deadline.DeadlineAtmSimulator;
+import sandbox.http.AtmHttpServer;
+import sandbox.maintenance.MaintenanceScheduler;
+import sandbox.maintenance.MaintenanceSettings;
+import sandbox.net.AtmServer;
+import sandbox.replication.FollowerAtmSimulator;
+import sandbox.replication.ReplicationFollower;
+import sandbox.replication.ReplicationPrimary;
+import sandbox.report.EndOfDayReport;
+import sandbox.traffic.RecordingAtmSimulator;
+import sandbox.traffic.ReplayResult;
+import sandbox.traffic.TrafficRecorder;
+import sandbox.traffic.TrafficReplayer;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Optional;
 
 /**
  * Main starting point for interacting with the atm simulator.  Various actions are supported
- * creating an account, logging in, viewing a balance, deposits and withdrawals
+ * creating an account, logging in, viewing a balance, deposits, withdrawals and transfers
  */
 @Slf4j
 public class Application {
 
+    private static final String REPLICATION_SECRET_ENV = "ATM_REPLICATION_SECRET";
+
     // see printUsage below for expected inputs and action
     public static void main(String[] args) {
 
@@ -30,11 +57,12 @@ public class Application {
             return;
         }
 
-        try (AtmSimulatorImpl atm = new AtmSimulatorImpl()) {
+        try (AtmSimulatorImpl atm = new AtmSimulatorImpl(openDao(args))) {
 
             Optional<String> token = parseArg(args, "token");
             Optional<Integer> amount = parseArg(args, "amount")
                     .map(Integer::parseInt);
+            String requestId = parseArg(args, "requestId").orElse(null);
             switch (action.get().toLowerCase()) {
                 case "login":
                     login(args, atm);
@@ -42,6 +70,14 @@ public class Application {
                 case "createaccount":
                     createAccount(args);
                     break;
+                case "logout":
+                    if (token.isEmpty()) {
+                        log.warn("must provide a valid token to logout");
+                        return;
+                    }
+                    atm.logout(token.get());
+                    log.info("logged out");
+                    break;
                 case "viewbalance":
                     if (token.isEmpty()) {
                         log.warn("must provide a valid token to view a balance");
@@ -58,7 +94,7 @@ public class Application {
                         log.warn("must provide a valid amount to make a deposit");
                         return;
                     }
-                    atm.deposit(token.get(), amount.get());
+                    atm.deposit(token.get(), amount.get(), requestId);
                     break;
                 case "withdraw":
                     if (token.isEmpty()) {
@@ -69,7 +105,123 @@ public class Application {
                         log.warn("must provide a valid amount to make a withdrawal");
                         return;
                     }
-                    atm.withdraw(token.get(), amount.get());
+                    atm.withdraw(token.get(), amount.get(), requestId);
+                    break;
+                case "transfer":
+                    Optional<Integer> target = parseArg(args, "target")
+                            .map(Integer::parseInt);
+                    if (token.isEmpty()) {
+                        log.warn("must provide a valid token to make a transfer");
+                        return;
+                    }
+                    if (target.isEmpty() || amount.isEmpty()) {
+                        log.warn("must provide a valid target account and amount to make a transfer");
+                        return;
+                    }
+                    if (!atm.transfer(token.get(), target.get(), amount.get())) {
+                        log.warn("transfer failed.");
+                    }
+                    break;
+                case "statement":
+                    if (token.isEmpty()) {
+                        log.warn("must provide a valid token to print a statement");
+                        return;
+                    }
+                    int count = parseArg(args, "count")
+                            .map(Integer::parseInt)
+                            .orElse(10);
+                    atm.recentTransactions(token.get(), count)
+                            .forEach(t -> log.info("{} {} {} cents, balance {} cents",
+                                    t.getCreated(), t.getType(), t.getAmount(), t.getBalance()));
+                    break;
+                case "accrueinterest":
+                    Optional<Long> rate = parseArg(args, "rate")
+                            .map(Long::parseLong);
+                    Optional<String> jobId = parseArg(args, "jobId");
+                    if (rate.isEmpty() || jobId.isEmpty()) {
+                        log.warn("must provide a rate in basis points and a jobId to accrue interest");
+                        return;
+                    }
+                    try (SqliteDao sqliteDao = openDao(args)) {
+                        new InterestAccrualJob(sqliteDao, jobId.get(), rate.get()).run();
+                    }
+                    break;
+                case "archivedormant":
+                    Optional<Long> dormantDays = parseArg(args, "dormantDays")
+                            .map(Long::parseLong);
+                    if (dormantDays.isEmpty() || parseArg(args, "archive").isEmpty()) {
+                        log.warn("must provide dormantDays and an archive file to archive dormant accounts");
+                        return;
+                    }
+                    try (SqliteDao sqliteDao = openDao(args)) {
+                        new DormantAccountArchiveJob(sqliteDao, Duration.ofDays(dormantDays.get())).run();
+                    }
+                    break;
+                case "backup":
+                    Optional<String> backupDir = parseArg(args, "dir");
+                    if (backupDir.isEmpty()) {
+                        log.warn("must provide a dir to back up to");
+                        return;
+                    }
+                    MaintenanceSettings settings = MaintenanceSettings.builder()
+                            .backupDir(Path.of(backupDir.get()))
+                            .build();
+                    try (SqliteDao sqliteDao = openDao(args);
+                         MaintenanceScheduler maintenance = new MaintenanceScheduler(sqliteDao, settings)) {
+                        log.info("backed up to {}", maintenance.backup());
+                    }
+                    break;
+                case "endofday":
+                    try (SqliteDao sqliteDao = openDao(args)) {
+                        EndOfDayReport report = new EndOfDayReport(sqliteDao);
+                        report.reconcile();
+                        Optional<String> export = parseArg(args, "export");
+                        if (export.isPresent()) {
+                            if ("columnar".equalsIgnoreCase(parseArg(args, "format").orElse("csv"))) {
+                                report.exportColumnar(Path.of(export.get()));
+                            } else {
+                                report.exportCsv(Path.of(export.get()));
+                            }
+                        }
+                    }
+                    break;
+                case "serve":
+                    int port = parseArg(args, "port")
+                            .map(Integer::parseInt)
+                            .orElse(9090);
+                    try (TrafficRecorder recorder = openRecorder(args, atm.getSqliteDao());
+                         MaintenanceScheduler maintenance = startMaintenance(args, atm.getSqliteDao());
+                         ReplicationPrimary replication = startReplication(args, atm.getSqliteDao());
+                         AtmServer server = new AtmServer(recording(admitted(args, withDeadline(args, atm)), recorder), new InetSocketAddress(port))) {
+                        server.join();
+                    }
+                    break;
+                case "http":
+                    int httpPort = parseArg(args, "port")
+                            .map(Integer::parseInt)
+                            .orElse(8080);
+                    try (TrafficRecorder recorder = openRecorder(args, atm.getSqliteDao());
+                         MaintenanceScheduler maintenance = startMaintenance(args, atm.getSqliteDao());
+                         ReplicationPrimary replication = startReplication(args, atm.getSqliteDao());
+                         AtmHttpServer server = new AtmHttpServer(recording(admitted(args, withDeadline(args, atm)), recorder), new InetSocketAddress(httpPort))) {
+                        Thread.currentThread().join();
+                    }
+                    break;
+                case "follow":
+                    Optional<String> primary = parseArg(args, "primary");
+                    if (primary.isEmpty()) {
+                        log.warn("must provide the primary's replication address as host:port");
+                        return;
+                    }
+                    follow(args, primary.get());
+                    break;
+                case "replay":
+                    Optional<String> logFile = parseArg(args, "log");
+                    if (logFile.isEmpty()) {
+                        log.warn("must provide a traffic log to replay");
+                        return;
+                    }
+                    replay(args, Path.of(logFile.get()));
                     break;
                 default:
                     printUsage();
@@ -90,7 +242,7 @@ public class Application {
             return true;
         }
 
-        try (SqliteDao sqliteDao = new SqliteDao()) {
+        try (SqliteDao sqliteDao = openDao(args)) {
             sqliteDao.createAccount(username.get(), pin.get());
             log.info("user created successfully");
             return true;
@@ -117,6 +269,143 @@ public class Application {
         return false;
     }
 
+    // serves balance reads from a replicated db until "promote" is typed, then takes writes as well.
+    // any other line prints how far behind the primary it is
+    private static void follow(String[] args, String primary) throws Exception {
+        int port = parseArg(args, "port")
+                .map(Integer::parseInt)
+                .orElse(9091);
+        String db = parseArg(args, "db").orElse("atm-follower.db");
+        String secret = replicationSecret();
+        int separator = primary.lastIndexOf(':');
+        InetSocketAddress primaryAddress = new InetSocketAddress(primary.substring(0, separator),
+                Integer.parseInt(primary.substring(separator + 1)));
+        SqliteDao followerDao = new SqliteDao("jdbc:sqlite:" + db);
+        ReplicationFollower follower = new ReplicationFollower(followerDao, primaryAddress, secret);
+        try (FollowerAtmSimulator followerAtm = new FollowerAtmSimulator(followerDao, follower);
+             AtmServer server = new AtmServer(followerAtm, new InetSocketAddress(port))) {
+            follower.start();
+            BufferedReader console = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String line;
+            while (!followerAtm.isPromoted() && (line = console.readLine()) != null) {
+                if ("promote".equalsIgnoreCase(line.trim())) {
+                    try {
+                        log.info("promoted at sequence={}, now taking writes", followerAtm.promote());
+                    } catch (IllegalStateException e) {
+                        log.warn("not promoted: {}", e.getMessage());
+                    }
+                } else {
+                    log.info("applied sequence={} primary sequence={} lag={} changes, {}ms, apply delay {}",
+                            follower.getAppliedSequence(), follower.getPrimarySequence(),
+                            follower.getLagEvents(), follower.getLagMillis(), follower.getApplyDelays());
+                }
+            }
+            server.join();
+        }
+    }
+
+    // a fresh db in a temp file, with an account for every user in the log
+    private static void replay(String[] args, Path logFile) throws Exception {
+        String speedArg = parseArg(args, "speed").orElse("1");
+        double speed = "max".equalsIgnoreCase(speedArg) ? TrafficReplayer.MAX_SPEED : Double.parseDouble(speedArg);
+        int concurrency = parseArg(args, "concurrency")
+                .map(Integer::parseInt)
+                .orElse(8);
+        File dbFile = File.createTempFile("atm-replay", ".db");
+        dbFile.deleteOnExit();
+        try (SqliteDao replayDao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath());
+             AtmSimulatorImpl replayAtm = new AtmSimulatorImpl(replayDao)) {
+            TrafficReplayer replayer = new TrafficReplayer(replayAtm, speed, concurrency);
+            replayer.prepare(logFile, replayDao, 1_000_000L);
+            ReplayResult result = replayer.replay(logFile);
+            log.info("{} events/s", String.format("%.0f", result.getEventsPerSecond()));
+            result.getLatencies().forEach((op, latency) -> {
+                if (latency.getCount() > 0) {
+                    log.info("{} {}", op, latency);
+                }
+            });
+        }
+    }
+
+    // null unless record=<path> was given
+    private static TrafficRecorder openRecorder(String[] args, SqliteDao sqliteDao) {
+        return parseArg(args, "record")
+                .map(Path::of)
+                .map(file -> new TrafficRecorder(file, sqliteDao::getUsername))
+                .orElse(null);
+    }
+
+    // the recording sees every request offered, including the ones admission control turns away
+    private static AtmSimulator admitted(String[] args, AtmSimulator atm) {
+        return parseArg(args, "admission").map(Boolean::parseBoolean).orElse(false)
+                ? new AdmissionController(atm)
+                : atm;
+    }
+
+    // null unless maintenance=<backupDir> was given, backs up hourly and vacuums and analyzes when quiet
+    private static MaintenanceScheduler startMaintenance(String[] args, SqliteDao sqliteDao) {
+        return parseArg(args, "maintenance")
+                .map(dir -> {
+                    MaintenanceScheduler maintenance = new MaintenanceScheduler(sqliteDao,
+                            MaintenanceSettings.builder().backupDir(Path.of(dir)).build());
+                    maintenance.start();
+                    return maintenance;
+                })
+                .orElse(null);
+    }
+
+    // null unless replicate=<port> was given, streams committed changes to followers connecting on that port.
+    // only listens on loopback unless replicateHost=<address> says otherwise
+    private static ReplicationPrimary startReplication(String[] args, SqliteDao sqliteDao) throws IOException {
+        Optional<Integer> port = parseArg(args, "replicate")
+                .map(Integer::parseInt);
+        if (port.isEmpty()) {
+            return null;
+        }
+        InetAddress host = parseArg(args, "replicateHost").isPresent()
+                ? InetAddress.getByName(parseArg(args, "replicateHost").get())
+                : InetAddress.getLoopbackAddress();
+        return new ReplicationPrimary(sqliteDao, new InetSocketAddress(host, port.get()), replicationSecret());
+    }
+
+    // from the environment rather than an arg, so it doesn't show up in the process list
+    private static String replicationSecret() {
+        String secret = System.getenv(REPLICATION_SECRET_ENV);
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException(REPLICATION_SECRET_ENV + " must be set to replicate or follow");
+        }
+        return secret;
+    }
+
+    // a request still waiting on the db after deadlineMs fails rather than hold up the ones behind it
+    private static AtmSimulator withDeadline(String[] args, AtmSimulator atm) {
+        return parseArg(args, "deadlineMs")
+                .map(Long::parseLong)
+                .<AtmSimulator>map(millis -> new DeadlineAtmSimulator(atm, Duration.ofMillis(millis)))
+                .orElse(atm);
+    }
+
+    private static AtmSimulator recording(AtmSimulator atm, TrafficRecorder recorder) {
+        return recorder == null ? atm : new RecordingAtmSimulator(atm, recorder);
+    }
+
+    // every action can log statements slower than slowQueryMs, to slowQueryLog or slow-queries.log,
+    // and can find archived accounts in the archive file
+    private static SqliteDao openDao(String[] args) {
+        Optional<Long> slowQueryMs = parseArg(args, "slowQueryMs")
+                .map(Long::parseLong);
+        SqliteDao sqliteDao;
+        if (slowQueryMs.isEmpty()) {
+            sqliteDao = new SqliteDao();
+        } else {
+            Path file = Path.of(parseArg(args, "slowQueryLog").orElse("slow-queries.log"));
+            sqliteDao = new SqliteDao("jdbc:sqlite:atm.db", SqliteTuningProfile.DURABLE,
+                    new SlowQueryLog(Duration.ofMillis(slowQueryMs.get()), file));
+        }
+        parseArg(args, "archive").ifPresent(sqliteDao::attachArchive);
+        return sqliteDao;
+    }
+
     private static Optional<String> parseArg(String[] args, String expectedArgName) {
         return Arrays.stream(args)
                 .filter(a -> a.contains("="))
@@ -128,14 +417,33 @@ public class Application {
     }
 
     private static void printUsage() {
-        log.info("ATM Simulator.  Can create accounts, view balances, make deposits (in cents), and withdrawals (in cents).");
-        log.info("First login to get a valid token, and use that to make deposit, withdraw or view the balance.");
-        log.info("action=<CreateAccount|Login|ViewBalance|Deposit|Withdraw");
+        log.info("ATM Simulator.  Can create accounts, view balances, make deposits (in cents), withdrawals (in cents) and transfers (in cents).");
+        log.info("First login to get a valid token, and use that to make deposit, withdraw, transfer or view the balance.");
+        log.info("action=<CreateAccount|Login|Logout|ViewBalance|Deposit|Withdraw|Transfer|Statement|AccrueInterest|ArchiveDormant|Backup|EndOfDay|Serve|Http|Follow|Replay");
         log.info("examples");
         log.info("action=CreateAccount username=<username> pin=<pin>");
         log.info("action=Login username=<username> pin=<pin>");
+        log.info("action=Logout token=<token>");
         log.info("action=ViewBalance token=<token>");
-        log.info("action=Deposit token=<token> amount=<amount>");
-        log.info("action=Withdraw token=<token> amount=<amount>");
+        log.info("action=Deposit token=<token> amount=<amount> [requestId=<requestId>]");
+        log.info("action=Withdraw token=<token> amount=<amount> [requestId=<requestId>]");
+        log.info("action=Transfer token=<token> target=<accountId> amount=<amount>");
+        log.info("action=Statement token=<token> count=<count>");
+        log.info("action=AccrueInterest rate=<basisPoints> jobId=<jobId>");
+        log.info("action=ArchiveDormant dormantDays=<days> archive=<path>");
+        log.info("action=Backup dir=<path>");
+        log.info("action=EndOfDay [export=<path> format=<csv|columnar>]");
+        log.info("action=Serve port=<port>");
+        log.info("action=Http port=<port>");
+        log.info("action=Serve|Http ... record=<path> records the traffic, anonymized, for replay");
+        log.info("action=Serve|Http ... admission=true sheds load over adaptive read and write limits");
+        log.info("action=Serve|Http ... deadlineMs=<millis> gives up on requests still waiting on the db after that long");
+        log.info("action=Serve|Http ... maintenance=<backupDir> takes hourly backups, and vacuums and analyzes when quiet");
+        log.info("action=Serve|Http ... replicate=<port> [replicateHost=<address>] streams committed changes to followers connecting on that port, on loopback by default");
+        log.info("action=Follow primary=<host:port> [port=<port> db=<path>] serves balance reads from a replica, type promote to take writes");
+        log.info("replicating and following need the shared secret in " + REPLICATION_SECRET_ENV);
+        log.info("action=Replay log=<path> [speed=<1|10|max> concurrency=<threads>]");
+        log.info("any action also takes [archive=<path>] to find accounts that were archived there");
+        log.info("any action also takes [slowQueryMs=<millis> slowQueryLog=<path>] to log slow statements with their query plans");
     }
 }
@@ -1,5 +1,8 @@
 package sandbox;
 
+import sandbox.model.Transaction;
+
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -8,9 +11,21 @@ import java.util.Optional;
 public interface AtmSimulator {
     Optional<String> login(String username, String pin);
 
+    // the token stops working immediately
+    void logout(String token);
+
     long viewBalance(String token);
 
     boolean deposit(String token, long amount);
 
+    // requestId is optional. when given, retries with the same id return the first result
+    boolean deposit(String token, long amount, String requestId);
+
     boolean withdraw(String token, long amount);
+
+    boolean withdraw(String token, long amount, String requestId);
+
+    boolean transfer(String token, int targetAccountId, long amount);
+
+    List<Transaction> recentTransactions(String token, int count);
 }
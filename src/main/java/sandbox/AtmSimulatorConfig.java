@@ -0,0 +1,102 @@
+package sandbox;
+
+import lombok.Builder;
+import lombok.Getter;
+import sandbox.fraud.FraudCheck;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Tunable limits and intervals for the atm simulator. Everything has a default, so only the values that
+ * differ need to be set on the builder.
+ */
+@Builder
+@Getter
+public class AtmSimulatorConfig {
+
+    // in cents
+    @Builder.Default
+    private final long perTransactionWithdrawalLimit = 100_000L;
+
+    // in cents, over any rolling 24 hours
+    @Builder.Default
+    private final long dailyWithdrawalLimit = 200_000L;
+
+    // how often the withdrawal counters are written to the withdrawal_window table
+    @Builder.Default
+    private final Duration withdrawalLimitFlushInterval = Duration.ofSeconds(30);
+
+    // login attempts a username can make in a burst before it is locked out
+    @Builder.Default
+    private final int loginAttemptsPerBucket = 5;
+
+    // one login attempt is given back per interval
+    @Builder.Default
+    private final Duration loginAttemptRefillInterval = Duration.ofMinutes(1);
+
+    @Builder.Default
+    private final Duration loginLockout = Duration.ofMinutes(5);
+
+    // bounds the memory used for throttling, the least recently seen usernames are forgotten first
+    @Builder.Default
+    private final int maxThrottledUsernames = 100_000;
+
+    // how long a client request id is remembered after its first use
+    @Builder.Default
+    private final Duration idempotencyKeyTtl = Duration.ofHours(24);
+
+    // finished keys held in memory, the oldest are forgotten first. a retry of a forgotten key is caught by the
+    // idempotency_key table instead, see IdempotencyCache
+    @Builder.Default
+    private final int maxCachedIdempotencyKeys = 100_000;
+
+    @Builder.Default
+    private final Duration idempotencyCleanupInterval = Duration.ofMinutes(5);
+
+    // expired keys are deleted this many rows at a time, to keep each delete short
+    @Builder.Default
+    private final int idempotencyCleanupBatchSize = 500;
+
+    // an active session is kept alive for this long after its last use
+    @Builder.Default
+    private final Duration sessionTtl = Duration.ofMinutes(10);
+
+    // a session is only extended once less than this is left, so most requests write nothing
+    @Builder.Default
+    private final Duration sessionRefreshThreshold = Duration.ofMinutes(5);
+
+    // how often extended sessions are written to the session table
+    @Builder.Default
+    private final Duration sessionFlushInterval = Duration.ofSeconds(15);
+
+    // when set, login issues signed session tokens that are verified without the session table. see SignedSessionTokens
+    private final byte[] sessionSigningKey;
+
+    // notes loaded in this atm, by denomination in cents. when empty withdrawals are not checked against cash
+    @Builder.Default
+    private final Map<Long, Long> cassettes = Collections.emptyMap();
+
+    // run before every deposit and withdrawal when set, e.g. a VelocityAndAmountCheck
+    private final FraudCheck fraudCheck;
+
+    // a fraud check slower than this is ignored and the operation allowed
+    @Builder.Default
+    private final Duration fraudCheckBudget = Duration.ofNanos(50_000);
+
+    // account ids below this have their balances cached off the heap, see OffHeapBalanceStore. 0 disables it.
+    // the cache is loaded at startup and kept current from the dao's change feed, which sees every write made
+    // through this process, including batch jobs. writes from other processes do not reach it, so balance
+    // reads only see them after a restart
+    @Builder.Default
+    private final int offHeapBalanceCapacity = 0;
+
+    // when set the off-heap balances are memory mapped from this file, otherwise they are in direct memory
+    private final Path offHeapBalanceFile;
+
+    public static AtmSimulatorConfig defaults() {
+        return AtmSimulatorConfig.builder().build();
+    }
+}
@@ -1,15 +1,27 @@
 package sandbox;
 
 import lombok.extern.slf4j.Slf4j;
+import sandbox.cash.CashDispenser;
+import sandbox.cash.DispensePlan;
+import sandbox.feed.ChangeEvent;
+import sandbox.feed.ChangeType;
+import sandbox.fraud.FraudStage;
+import sandbox.jfr.AtmOperationEvent;
 import sandbox.model.Account;
 import sandbox.model.Balance;
+import sandbox.model.IdempotencyKey;
 import sandbox.model.Session;
+import sandbox.model.Transaction;
+import sandbox.model.TransactionType;
+import sandbox.offheap.OffHeapBalanceStore;
 
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 /**
  * An implementation of the ATM simulator, using the sqlite db as the storage mechanism
@@ -17,20 +29,102 @@ import java.util.UUID;
 @Slf4j
 public class AtmSimulatorImpl implements AtmSimulator, AutoCloseable {
 
+    private static final long NOT_CACHED = Long.MIN_VALUE;
+
     private final SqliteDao sqliteDao;
+    private final AccountLocks accountLocks = new AccountLocks();
+    private final TransactionHistory transactionHistory;
+    private final WithdrawalLimiter withdrawalLimiter;
+    private final LoginThrottle loginThrottle;
+    private final IdempotencyCache idempotencyCache;
+    private final SessionExtender sessionExtender;
+    // null unless cassettes are configured
+    private final CashDispenser cashDispenser;
+    // null unless a fraud check is configured
+    private final FraudStage fraudStage;
+    // null unless an off-heap capacity is configured
+    private final OffHeapBalanceStore balances;
+    private final Consumer<ChangeEvent> balanceListener;
+    // null unless a signing key is configured
+    private final SignedSessionTokens signedTokens;
+    private final Duration sessionTtl;
 
     public AtmSimulatorImpl() {
-        sqliteDao = new SqliteDao();
-        sqliteDao.formatTables();
+        this(new SqliteDao());
     }
 
     public AtmSimulatorImpl(SqliteDao sqliteDao) {
+        this(sqliteDao, AtmSimulatorConfig.defaults());
+    }
+
+    public AtmSimulatorImpl(SqliteDao sqliteDao, AtmSimulatorConfig config) {
         this.sqliteDao = sqliteDao;
         this.sqliteDao.formatTables();
+        this.transactionHistory = new TransactionHistory(sqliteDao);
+        this.withdrawalLimiter = new WithdrawalLimiter(sqliteDao, config);
+        this.loginThrottle = new LoginThrottle(config);
+        this.idempotencyCache = new IdempotencyCache(sqliteDao, config);
+        this.sessionExtender = new SessionExtender(sqliteDao, config);
+        this.signedTokens = config.getSessionSigningKey() == null
+                ? null
+                : new SignedSessionTokens(config.getSessionSigningKey());
+        this.sessionTtl = config.getSessionTtl();
+        this.cashDispenser = config.getCassettes().isEmpty()
+                ? null
+                : new CashDispenser(config.getCassettes(), config.getPerTransactionWithdrawalLimit());
+        this.fraudStage = config.getFraudCheck() == null
+                ? null
+                : new FraudStage(config.getFraudCheck(), config.getFraudCheckBudget());
+        this.balances = openBalanceStore(config);
+        this.balanceListener = balances == null ? null : followBalances(sqliteDao, balances);
+    }
+
+    private static OffHeapBalanceStore openBalanceStore(AtmSimulatorConfig config) {
+        if (config.getOffHeapBalanceCapacity() <= 0) {
+            return null;
+        }
+        return config.getOffHeapBalanceFile() == null
+                ? OffHeapBalanceStore.allocate(config.getOffHeapBalanceCapacity())
+                : OffHeapBalanceStore.map(config.getOffHeapBalanceFile(), config.getOffHeapBalanceCapacity());
+    }
+
+    // the store follows every balance this process commits, in commit order, from whichever code wrote it:
+    // deposits, transfers, interest and anything else going through the dao. it is listening before the load
+    // starts, so nothing committed during the load is missed
+    private static Consumer<ChangeEvent> followBalances(SqliteDao sqliteDao, OffHeapBalanceStore store) {
+        // the db is the source of truth, whatever a mapped file held from a previous run is dropped
+        store.clear();
+        Consumer<ChangeEvent> listener = event -> {
+            if (event.getType() == ChangeType.BALANCE && store.covers(event.getAccountId())) {
+                store.set(event.getAccountId(), event.getBalance());
+            }
+        };
+        sqliteDao.getChangeFeed().addListener(listener);
+        store.loadFrom(sqliteDao);
+        return listener;
+    }
+
+    public SqliteDao getSqliteDao() {
+        return sqliteDao;
+    }
+
+    public Optional<CashDispenser> getCashDispenser() {
+        return Optional.ofNullable(cashDispenser);
+    }
+
+    public Optional<FraudStage> getFraudStage() {
+        return Optional.ofNullable(fraudStage);
     }
 
     @Override
     public void close() throws Exception {
+        withdrawalLimiter.close();
+        idempotencyCache.close();
+        sessionExtender.close();
+        if (balances != null) {
+            sqliteDao.getChangeFeed().removeListener(balanceListener);
+            balances.close();
+        }
         if (sqliteDao != null) {
             sqliteDao.close();
         }
@@ -38,18 +132,46 @@ public class AtmSimulatorImpl implements AtmSimulator, AutoCloseable {
 
     @Override
     public Optional<String> login(String username, String pin) {
+        AtmOperationEvent event = AtmOperationEvent.start(AtmOperationEvent.LOGIN, 0L);
+        try {
+            Optional<String> token = login(username, pin, event);
+            event.setSucceeded(token.isPresent());
+            return token;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private Optional<String> login(String username, String pin, AtmOperationEvent event) {
+        // throttled attempts never reach the db
+        if (!loginThrottle.tryAcquire(username)) {
+            log.info("too many login attempts for username={}", username);
+            return Optional.empty();
+        }
+
         Optional<Account> accountOpt = sqliteDao.getAccount(username, pin);
         if (!accountOpt.isPresent()) {
             log.info("not account exists for username={}", username);
             return Optional.empty();
         }
+        loginThrottle.onSuccess(username);
 
         int accountId = accountOpt.get().getId();
+        event.setAccountId(accountId);
+        // signed tokens leave no session row, dormancy goes by this instead
+        sqliteDao.recordActivity(accountId, Timestamp.from(Instant.now()));
+        if (fraudStage != null) {
+            fraudStage.loggedIn(accountId);
+        }
+        if (signedTokens != null) {
+            log.info("issuing a signed session for accountId={}", accountId);
+            return Optional.of(signedTokens.issue(accountId, Instant.now().plus(sessionTtl).toEpochMilli()));
+        }
+
         Optional<Session> sessionOpt = sqliteDao.getSession(accountId);
 
         boolean isSessionActive = sessionOpt
-                .map(Session::getExpires)
-                .map(expiryTime -> expiryTime.toInstant().isAfter(Instant.now()))
+                .map(sessionExtender::isActive)
                 .orElse(false);
         if (isSessionActive) {
             log.debug("found active token, for accountId={}", accountId);
@@ -60,67 +182,251 @@ public class AtmSimulatorImpl implements AtmSimulator, AutoCloseable {
 
         log.info("no active session found for accountId={}, creating new one", accountId);
         UUID token = UUID.randomUUID();
-        sqliteDao.persistSession(accountId, token, Timestamp.from(Instant.now().plus(10, ChronoUnit.MINUTES)));
+        sqliteDao.persistSession(accountId, token, Timestamp.from(Instant.now().plus(sessionTtl)));
         return Optional.of(token.toString());
     }
 
+    // signed tokens go on the deny list, uuid sessions are expired in the session table
+    @Override
+    public void logout(String token) {
+        AtmOperationEvent event = AtmOperationEvent.start(AtmOperationEvent.LOGOUT, 0L);
+        try {
+            if (SignedSessionTokens.isSigned(token)) {
+                if (signedTokens == null || !signedTokens.revoke(token)) {
+                    throw new InvalidTokenException();
+                }
+                event.setSucceeded(true);
+                return;
+            }
+            Integer accountId = getActiveAccountIdFromSessionToken(token)
+                    .orElseThrow(InvalidTokenException::new);
+            event.setAccountId(accountId);
+            sqliteDao.expireSession(accountId, UUID.fromString(token));
+            event.setSucceeded(true);
+            log.info("logged out accountId={}", accountId);
+        } finally {
+            event.commit();
+        }
+    }
+
 
     @Override
     public long viewBalance(String token) {
-        Integer accountId = getActiveAccountIdFromSessionToken(token)
-                .orElseThrow(() -> new RuntimeException("invalid token"));
+        AtmOperationEvent event = AtmOperationEvent.start(AtmOperationEvent.VIEW_BALANCE, 0L);
+        try {
+            Integer accountId = getActiveAccountIdFromSessionToken(token)
+                    .orElseThrow(InvalidTokenException::new);
+            event.setAccountId(accountId);
 
-        Optional<Balance> balanceRow = sqliteDao.getBalance(accountId);
+            long cached = cachedBalance(accountId);
+            if (cached != NOT_CACHED) {
+                event.setSucceeded(true);
+                return cached;
+            }
 
-        return balanceRow
-                .map(Balance::getBalance)
-                .orElse(0L);
+            // an archived account has no hot balance row, it would read as zero
+            sqliteDao.ensureHot(accountId);
+            long balance = sqliteDao.getBalance(accountId)
+                    .map(Balance::getBalance)
+                    .orElse(0L);
+            cacheBalanceIfAbsent(accountId, balance);
+            event.setSucceeded(true);
+            return balance;
+        } finally {
+            event.commit();
+        }
     }
 
     @Override
     public boolean deposit(String token, long amount) {
-        Integer accountId = getActiveAccountIdFromSessionToken(token)
-                .orElseThrow(() -> new RuntimeException("invalid token"));
+        return deposit(token, amount, null);
+    }
 
-        Optional<Balance> balanceRow = sqliteDao.getBalance(accountId);
+    // a repeated requestId returns the original result without depositing again
+    @Override
+    public boolean deposit(String token, long amount, String requestId) {
+        AtmOperationEvent event = AtmOperationEvent.start(AtmOperationEvent.DEPOSIT, amount);
+        try {
+            Integer accountId = getActiveAccountIdFromSessionToken(token)
+                    .orElseThrow(InvalidTokenException::new);
+            event.setAccountId(accountId);
 
-        long currentBalance = balanceRow
-                .map(Balance::getBalance)
-                .orElse(0L);
+            // a negative deposit would debit the account past the limiter, the cassettes and the balance check
+            if (amount <= 0) {
+                throw new IllegalArgumentException("deposit amount must be positive");
+            }
 
-        long newBalanceAmount = currentBalance + amount;
-        persistBalance(accountId, balanceRow, newBalanceAmount);
-        log.info("your new balance is {}", newBalanceAmount);
-        return true;
+            boolean deposited = requestId == null
+                    ? applyDeposit(accountId, amount, null)
+                    : idempotencyCache.execute(IdempotencyCache.key(accountId, "deposit", requestId),
+                            pendingKey -> applyDeposit(accountId, amount, pendingKey));
+            event.setSucceeded(deposited);
+            return deposited;
+        } finally {
+            event.commit();
+        }
     }
 
     @Override
     public boolean withdraw(String token, long amount) {
+        return withdraw(token, amount, null);
+    }
+
+    // a repeated requestId returns the original result without withdrawing again
+    @Override
+    public boolean withdraw(String token, long amount, String requestId) {
+        AtmOperationEvent event = AtmOperationEvent.start(AtmOperationEvent.WITHDRAW, amount);
+        try {
+            Integer accountId = getActiveAccountIdFromSessionToken(token)
+                    .orElseThrow(InvalidTokenException::new);
+            event.setAccountId(accountId);
+
+            if (amount <= 0) {
+                throw new IllegalArgumentException("withdrawal amount must be positive");
+            }
+
+            boolean withdrawn = requestId == null
+                    ? applyWithdrawal(accountId, amount, null)
+                    : idempotencyCache.execute(IdempotencyCache.key(accountId, "withdraw", requestId),
+                            pendingKey -> applyWithdrawal(accountId, amount, pendingKey));
+            event.setSucceeded(withdrawn);
+            return withdrawn;
+        } finally {
+            event.commit();
+        }
+    }
+
+    // the idempotency key, if any, is written in the same transaction as the balance
+    private boolean applyDeposit(Integer accountId, long amount, IdempotencyKey idempotencyKey) {
+        if (fraudStage != null && !fraudStage.allow(accountId, TransactionType.DEPOSIT, amount)) {
+            return false;
+        }
+
+        accountLocks.lock(accountId);
+        try {
+            // added to the balance in sql, the balance and its transaction commit together
+            Transaction transaction = sqliteDao.changeBalance(accountId, TransactionType.DEPOSIT, amount, idempotencyKey);
+            completed(transaction);
+            return true;
+        } finally {
+            accountLocks.unlock(accountId);
+        }
+    }
+
+    private boolean applyWithdrawal(Integer accountId, long amount, IdempotencyKey idempotencyKey) {
+        if (fraudStage != null && !fraudStage.allow(accountId, TransactionType.WITHDRAWAL, amount)) {
+            return false;
+        }
+        // checked against the in-memory counters before any query runs
+        Optional<WithdrawalLimiter.Reservation> reservation = withdrawalLimiter.tryReserve(accountId, amount);
+        if (reservation.isEmpty()) {
+            return false;
+        }
+        // the notes are taken out of the cassettes before the balance is touched
+        Optional<DispensePlan> dispensePlan = Optional.empty();
+        if (cashDispenser != null) {
+            dispensePlan = cashDispenser.reserve(amount);
+            if (dispensePlan.isEmpty()) {
+                withdrawalLimiter.release(reservation.get());
+                return false;
+            }
+        }
+
+        accountLocks.lock(accountId);
+        try {
+            Transaction transaction;
+            // todo overdraft protection?
+            // nothing is written unless the transaction commits, so any failure hands the reservations back
+            try {
+                transaction = sqliteDao.changeBalance(accountId, TransactionType.WITHDRAWAL, amount, idempotencyKey);
+            } catch (RuntimeException e) {
+                withdrawalLimiter.release(reservation.get());
+                dispensePlan.ifPresent(cashDispenser::release);
+                throw e;
+            }
+            dispensePlan.ifPresent(cashDispenser::dispensed);
+            completed(transaction);
+            return true;
+        } finally {
+            accountLocks.unlock(accountId);
+        }
+    }
+
+    // both balance changes are applied in one transaction, with both account locks held
+    @Override
+    public boolean transfer(String token, int targetAccountId, long amount) {
+        AtmOperationEvent event = AtmOperationEvent.start(AtmOperationEvent.TRANSFER, amount);
+        try {
+            boolean transferred = transfer(token, targetAccountId, amount, event);
+            event.setSucceeded(transferred);
+            return transferred;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private boolean transfer(String token, int targetAccountId, long amount, AtmOperationEvent event) {
         Integer accountId = getActiveAccountIdFromSessionToken(token)
-                .orElseThrow(() -> new RuntimeException("invalid token"));
+                .orElseThrow(InvalidTokenException::new);
+        event.setAccountId(accountId);
 
-        Optional<Balance> balanceRow = sqliteDao.getBalance(accountId);
+        if (amount <= 0) {
+            throw new IllegalArgumentException("transfer amount must be positive");
+        }
+        if (accountId == targetAccountId) {
+            throw new IllegalArgumentException("cannot transfer to the same account");
+        }
 
-        long currentBalance = balanceRow
-                .map(Balance::getBalance)
-                .orElse(0L);
+        accountLocks.lockBoth(accountId, targetAccountId);
+        try {
+            List<Transaction> transactions = sqliteDao.transferBalance(accountId, targetAccountId, amount);
+            if (transactions.isEmpty()) {
+                return false;
+            }
+            transactions.forEach(transactionHistory::append);
+            log.info("transferred {} from accountId={} to accountId={}", amount, accountId, targetAccountId);
+            return true;
+        } finally {
+            accountLocks.unlockBoth(accountId, targetAccountId);
+        }
+    }
 
-        // todo overdraft protection?
-        long newBalanceAmount = currentBalance - amount;
+    // served from the in-memory history, only cold accounts read the transaction table
+    @Override
+    public List<Transaction> recentTransactions(String token, int count) {
+        AtmOperationEvent event = AtmOperationEvent.start(AtmOperationEvent.RECENT_TRANSACTIONS, 0L);
+        try {
+            Integer accountId = getActiveAccountIdFromSessionToken(token)
+                    .orElseThrow(InvalidTokenException::new);
+            event.setAccountId(accountId);
 
-        persistBalance(accountId, balanceRow, newBalanceAmount);
-        log.info("your new balance is {}", newBalanceAmount);
-        return true;
+            accountLocks.lock(accountId);
+            try {
+                // cold accounts read the transaction table, which only has hot rows
+                sqliteDao.ensureHot(accountId);
+                List<Transaction> transactions = transactionHistory.recent(accountId, count);
+                event.setSucceeded(true);
+                return transactions;
+            } finally {
+                accountLocks.unlock(accountId);
+            }
+        } finally {
+            event.commit();
+        }
     }
 
     // try to get an active session, validating the expiration time.
     // returns the accountId for later use, if the token is valid
     private Optional<Integer> getActiveAccountIdFromSessionToken(String token) {
+        // signed tokens are checked in memory, only uuid tokens read the session table
+        if (SignedSessionTokens.isSigned(token)) {
+            return signedTokens == null ? Optional.empty() : signedTokens.verify(token);
+        }
+
         Optional<Session> sessionOpt = sqliteDao.getSession(token);
 
         boolean isSessionActive = sessionOpt
-                .map(Session::getExpires)
-                .map(expiryTime -> expiryTime.toInstant().isAfter(Instant.now()))
+                .map(sessionExtender::isActive)
                 .orElse(false);
 
         if (!isSessionActive) {
@@ -128,20 +434,32 @@ public class AtmSimulatorImpl implements AtmSimulator, AutoCloseable {
             return Optional.empty();
         }
 
+        // sliding expiry, usually a no-op
+        sessionExtender.touch(sessionOpt.get());
         return sessionOpt.map(Session::getAccountId);
     }
 
-    // reuse the existing balance row (to keep the ids the same) or make a new one if none was present
-    private void persistBalance(Integer accountId, Optional<Balance> existingBalanceRow, long newBalanceAmount) {
-        Balance newBalanceRow = existingBalanceRow.map(b -> {
-                    b.setBalance(newBalanceAmount);
-                    return b;
-                })
-                .orElseGet(() -> Balance.builder()
-                        .balance(newBalanceAmount)
-                        .accountId(accountId)
-                        .build());
+    // the off-heap balance, or NOT_CACHED when there is no store or it does not hold the account yet
+    private long cachedBalance(int accountId) {
+        if (balances == null || !balances.covers(accountId)) {
+            return NOT_CACHED;
+        }
+        return balances.get(accountId, NOT_CACHED);
+    }
 
-        sqliteDao.persistBalance(newBalanceRow);
+    // for reads, which must never overwrite a newer balance set by the change feed
+    private void cacheBalanceIfAbsent(int accountId, long balance) {
+        if (balances != null && balances.covers(accountId)) {
+            balances.putIfAbsent(accountId, balance);
+        }
+    }
+
+    // bookkeeping once a deposit or withdrawal has committed, with the account lock held
+    private void completed(Transaction transaction) {
+        transactionHistory.append(transaction);
+        if (fraudStage != null) {
+            fraudStage.completed(transaction.getAccountId(), transaction.getType(), transaction.getAmount());
+        }
+        log.info("your new balance is {}", transaction.getBalance());
     }
 }
@@ -0,0 +1,237 @@
+package sandbox;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.deadline.Deadline;
+import sandbox.model.IdempotencyKey;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the result of each operation made with a client request id for a limited time, so retries get
+ * the original result back. Keys still running and the most recent finished keys, up to
+ * maxCachedIdempotencyKeys, are held in memory, checking one is a map lookup. Every result is also kept in
+ * the idempotency_key table, and the most recent are reloaded on startup. An operation that changes the db
+ * writes its key in the same transaction as the change, so a crash can never leave the change without its
+ * key. The table's primary key refuses a second write of the same key, which rolls a repeated change back
+ * when memory has forgotten the first one, and the committed result is returned instead. Expired keys are
+ * dropped from memory and deleted from the table in batches on a schedule.
+ *
+ * A retry that arrives while the original is still running waits for its result. Operations that throw are
+ * forgotten, so they can be retried, unless their key was committed before the exception, in which case the
+ * committed result stands.
+ */
+@Slf4j
+public class IdempotencyCache implements AutoCloseable {
+
+    private final SqliteDao sqliteDao;
+    private final long ttlMillis;
+    private final int cleanupBatchSize;
+    private final int maxCachedKeys;
+    private final Clock clock;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // finished entries, roughly oldest first, so the oldest can be forgotten past maxCachedKeys
+    private final ConcurrentLinkedQueue<Entry> finished = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger finishedCount = new AtomicInteger();
+    private final ScheduledExecutorService cleaner;
+
+    public IdempotencyCache(SqliteDao sqliteDao, AtmSimulatorConfig config) {
+        this(sqliteDao, config, Clock.systemUTC());
+    }
+
+    IdempotencyCache(SqliteDao sqliteDao, AtmSimulatorConfig config, Clock clock) {
+        this.sqliteDao = sqliteDao;
+        this.ttlMillis = config.getIdempotencyKeyTtl().toMillis();
+        this.cleanupBatchSize = config.getIdempotencyCleanupBatchSize();
+        this.maxCachedKeys = config.getMaxCachedIdempotencyKeys();
+        this.clock = clock;
+
+        load();
+
+        long cleanupMillis = config.getIdempotencyCleanupInterval().toMillis();
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "idempotency-key-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleaner.scheduleWithFixedDelay(this::cleanUpQuietly, cleanupMillis, cleanupMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        cleaner.shutdown();
+    }
+
+    // runs the operation once per key, later calls with the same key get the first result
+    public boolean execute(String key, Operation operation) {
+        long now = clock.millis();
+        Entry entry = new Entry(key, now);
+        while (true) {
+            Entry existing = entries.putIfAbsent(key, entry);
+            if (existing == null) {
+                break;
+            }
+            if (!existing.isExpired(now, ttlMillis)) {
+                log.info("repeated request, returning the original result. key={}", key);
+                return existing.await();
+            }
+            if (entries.replace(key, existing, entry)) {
+                break;
+            }
+        }
+
+        IdempotencyKey pendingKey = IdempotencyKey.builder()
+                .key(key)
+                .result(true)
+                .created(entry.created)
+                .build();
+        boolean result;
+        try {
+            result = operation.apply(pendingKey);
+        } catch (RuntimeException e) {
+            Optional<IdempotencyKey> committed = findCommitted(key);
+            if (committed.isPresent()) {
+                log.warn("operation failed after its change committed, returning the committed result. key={}", key, e);
+                entry.result.complete(committed.get().getResult());
+                remember(entry);
+                return committed.get().getResult();
+            }
+            entries.remove(key, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+        entry.result.complete(result);
+        remember(entry);
+        if (!result) {
+            // nothing was changed, so there was no transaction to write the key in. the operation has run, so
+            // its key is kept however late it is
+            Deadline.runUnbounded(() -> sqliteDao.persistIdempotencyKey(IdempotencyKey.builder()
+                    .key(key)
+                    .result(false)
+                    .created(entry.created)
+                    .build()));
+        }
+        return result;
+    }
+
+    public static String key(int accountId, String operation, String requestId) {
+        return accountId + ":" + operation + ":" + requestId;
+    }
+
+    boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    void cleanUp() {
+        long cutoff = clock.millis() - ttlMillis;
+        Entry oldest;
+        while ((oldest = finished.peek()) != null && oldest.created < cutoff) {
+            forget(oldest);
+        }
+        // entries that finished out of order with their creation, at most maxCachedKeys of them
+        entries.values().removeIf(e -> e.result.isDone() && e.created < cutoff);
+
+        int deleted;
+        int total = 0;
+        do {
+            deleted = sqliteDao.deleteExpiredIdempotencyKeys(cutoff, cleanupBatchSize);
+            total += deleted;
+        } while (deleted >= cleanupBatchSize);
+        log.debug("deleted {} expired idempotency keys", total);
+    }
+
+    // the oldest finished entries are forgotten past the bound, in flight ones never are
+    private void remember(Entry entry) {
+        finished.add(entry);
+        finishedCount.incrementAndGet();
+        Entry oldest;
+        while (finishedCount.get() > maxCachedKeys && (oldest = finished.peek()) != null) {
+            forget(oldest);
+        }
+    }
+
+    private void forget(Entry entry) {
+        if (finished.remove(entry)) {
+            finishedCount.decrementAndGet();
+            entries.remove(entry.key, entry);
+        }
+    }
+
+    private void cleanUpQuietly() {
+        try {
+            cleanUp();
+        } catch (Exception e) {
+            log.error("could not clean up idempotency keys", e);
+        }
+    }
+
+    // the key as committed, or empty if it was not, or the table could not be read. in that case the key is
+    // forgotten, and the primary key stops a retry from applying the change twice
+    private Optional<IdempotencyKey> findCommitted(String key) {
+        try {
+            return Deadline.callUnbounded(() -> sqliteDao.getIdempotencyKey(key));
+        } catch (RuntimeException e) {
+            log.error("could not check for a committed idempotency key. key={}", key, e);
+            return Optional.empty();
+        }
+    }
+
+    // only the most recent keys, the rest are left to the table
+    private void load() {
+        List<IdempotencyKey> rows = sqliteDao.getIdempotencyKeys(clock.millis() - ttlMillis, maxCachedKeys);
+        // newest first, remembered oldest first
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            IdempotencyKey row = rows.get(i);
+            Entry entry = new Entry(row.getKey(), row.getCreated());
+            entry.result.complete(row.getResult());
+            entries.put(row.getKey(), entry);
+            remember(entry);
+        }
+        log.debug("loaded {} idempotency keys", rows.size());
+    }
+
+    /**
+     * an operation run under a key. an operation that changes the db writes the key it is given in the same
+     * transaction and returns true. one that returns false must have changed nothing, its key is written for it
+     */
+    @FunctionalInterface
+    public interface Operation {
+        boolean apply(IdempotencyKey pendingKey);
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final long created;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Entry(String key, long created) {
+            this.key = key;
+            this.created = created;
+        }
+
+        boolean isExpired(long now, long ttlMillis) {
+            return result.isDone() && now - created >= ttlMillis;
+        }
+
+        boolean await() {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
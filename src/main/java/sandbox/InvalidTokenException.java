@@ -0,0 +1,16 @@
+package sandbox;
+
+/**
+ * The session token is unknown, expired or fails its signature check. The caller has to log in again,
+ * retrying the same request will not help.
+ */
+public class InvalidTokenException extends RuntimeException {
+
+    public InvalidTokenException() {
+        super("invalid token");
+    }
+
+    public InvalidTokenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,136 @@
+package sandbox;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Throttles login attempts per username with a token bucket, so PIN guessing is rejected before any query
+ * runs. Every attempt takes a token, tokens refill at a fixed interval, and an attempt on an empty bucket
+ * locks the username out for a while. A successful login forgets the username.
+ *
+ * Buckets are updated with compare-and-set. The number of tracked usernames is bounded, the least recently
+ * used of a small sample is evicted once the bound is passed.
+ */
+@Slf4j
+public class LoginThrottle {
+
+    private static final int EVICTION_SAMPLE_SIZE = 32;
+
+    private final int capacity;
+    private final long refillNanos;
+    private final long lockoutNanos;
+    private final int maxTrackedUsernames;
+    private final LongSupplier nanoClock;
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public LoginThrottle(AtmSimulatorConfig config) {
+        this(config, System::nanoTime);
+    }
+
+    LoginThrottle(AtmSimulatorConfig config, LongSupplier nanoClock) {
+        this.capacity = config.getLoginAttemptsPerBucket();
+        this.refillNanos = config.getLoginAttemptRefillInterval().toNanos();
+        this.lockoutNanos = config.getLoginLockout().toNanos();
+        this.maxTrackedUsernames = config.getMaxThrottledUsernames();
+        this.nanoClock = nanoClock;
+    }
+
+    // false if the username is locked out or has run out of attempts
+    public boolean tryAcquire(String username) {
+        long now = nanoClock.getAsLong();
+        Bucket bucket = buckets.get(username);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(username, u -> new Bucket(capacity, now));
+            if (buckets.size() > maxTrackedUsernames) {
+                evictOne(username);
+            }
+        }
+        bucket.lastAccess = now;
+        boolean allowed = bucket.tryTake(now);
+        if (!allowed) {
+            log.debug("login attempt throttled for username={}", username);
+        }
+        return allowed;
+    }
+
+    public void onSuccess(String username) {
+        buckets.remove(username);
+    }
+
+    boolean isTracked(String username) {
+        return buckets.containsKey(username);
+    }
+
+    int trackedUsernames() {
+        return buckets.size();
+    }
+
+    // approximate lru, the oldest of a sample of entries is dropped
+    private void evictOne(String justAdded) {
+        String oldestKey = null;
+        long oldestAccess = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, Bucket>> entries = buckets.entrySet().iterator();
+        for (int i = 0; i < EVICTION_SAMPLE_SIZE && entries.hasNext(); i++) {
+            Map.Entry<String, Bucket> entry = entries.next();
+            if (!entry.getKey().equals(justAdded) && entry.getValue().lastAccess < oldestAccess) {
+                oldestAccess = entry.getValue().lastAccess;
+                oldestKey = entry.getKey();
+            }
+        }
+        if (oldestKey != null) {
+            buckets.remove(oldestKey);
+        }
+    }
+
+    private final class Bucket {
+        private final AtomicReference<State> state;
+        private volatile long lastAccess;
+
+        Bucket(int tokens, long now) {
+            state = new AtomicReference<>(new State(tokens, now, now));
+            lastAccess = now;
+        }
+
+        boolean tryTake(long now) {
+            while (true) {
+                State current = state.get();
+                if (now - current.lockedUntil < 0) {
+                    return false;
+                }
+                State refilled = current.refill(now);
+                State next = refilled.tokens > 0
+                        ? new State(refilled.tokens - 1, refilled.refilledAt, refilled.lockedUntil)
+                        : new State(0, now, now + lockoutNanos);
+                if (state.compareAndSet(current, next)) {
+                    return refilled.tokens > 0;
+                }
+            }
+        }
+    }
+
+    private final class State {
+        private final int tokens;
+        private final long refilledAt;
+        private final long lockedUntil;
+
+        State(int tokens, long refilledAt, long lockedUntil) {
+            this.tokens = tokens;
+            this.refilledAt = refilledAt;
+            this.lockedUntil = lockedUntil;
+        }
+
+        State refill(long now) {
+            long earned = (now - refilledAt) / refillNanos;
+            if (earned <= 0) {
+                return this;
+            }
+            int tokensNow = (int) Math.min(capacity, tokens + earned);
+            return new State(tokensNow, refilledAt + earned * refillNanos, lockedUntil);
+        }
+    }
+}
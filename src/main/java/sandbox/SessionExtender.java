@@ -0,0 +1,136 @@
+package sandbox;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.model.Session;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sliding expiry for sessions in the session table. A session in use is kept alive for the session ttl
+ * after its last request, but it is only extended once less than the refresh threshold is left, so most
+ * requests change nothing. Extensions are held in memory and written in one batch on a schedule.
+ *
+ * An extension only applies to the stored expiry it was made from. Once the row changes, by a flush, a
+ * logout or a new login, the stale extension is ignored. Extensions not yet flushed are lost by a crash, the
+ * session then ends at its stored expiry. Signed session tokens carry their own expiry and are not extended.
+ */
+@Slf4j
+public class SessionExtender implements AutoCloseable {
+
+    private final SqliteDao sqliteDao;
+    private final long ttlMillis;
+    private final long thresholdMillis;
+    private final Clock clock;
+    private final Map<UUID, Extension> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    public SessionExtender(SqliteDao sqliteDao, AtmSimulatorConfig config) {
+        this(sqliteDao, config, Clock.systemUTC());
+    }
+
+    SessionExtender(SqliteDao sqliteDao, AtmSimulatorConfig config, Clock clock) {
+        this.sqliteDao = sqliteDao;
+        this.ttlMillis = config.getSessionTtl().toMillis();
+        this.thresholdMillis = config.getSessionRefreshThreshold().toMillis();
+        this.clock = clock;
+
+        long flushMillis = config.getSessionFlushInterval().toMillis();
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-extension-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+
+    public boolean isActive(Session session) {
+        return expiresAt(session) > clock.millis();
+    }
+
+    // the stored expiry, or a pending extension of it that has not been written yet
+    public long expiresAt(Session session) {
+        long stored = session.getExpires().getTime();
+        Extension extension = pending.get(session.getToken());
+        return extension != null && extension.storedExpires == stored
+                ? Math.max(stored, extension.expires)
+                : stored;
+    }
+
+    // called on every request made with an active session
+    public void touch(Session session) {
+        long now = clock.millis();
+        long remaining = expiresAt(session) - now;
+        if (remaining <= 0 || remaining >= thresholdMillis) {
+            return;
+        }
+        Extension extension = new Extension(session.getAccountId(), session.getExpires().getTime(), now + ttlMillis);
+        pending.merge(session.getToken(), extension, (current, next) ->
+                current.storedExpires == next.storedExpires && current.expires >= next.expires ? current : next);
+        log.debug("extending session for accountId={}", session.getAccountId());
+    }
+
+    int pendingExtensions() {
+        return pending.size();
+    }
+
+    // write every pending extension in one transaction, each against the stored expiry it was made from
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<UUID, Extension>> entries = new ArrayList<>(pending.entrySet());
+        List<Session> sessions = new ArrayList<>(entries.size());
+        List<Timestamp> extendedFrom = new ArrayList<>(entries.size());
+        for (Map.Entry<UUID, Extension> entry : entries) {
+            sessions.add(Session.builder()
+                    .accountId(entry.getValue().accountId)
+                    .token(entry.getKey())
+                    .expires(new Timestamp(entry.getValue().expires))
+                    .build());
+            extendedFrom.add(new Timestamp(entry.getValue().storedExpires));
+        }
+        List<Session> extended = sqliteDao.extendSessions(sessions, extendedFrom);
+
+        // written, or the row changed. either way the stored expiry is now the one to use
+        for (Map.Entry<UUID, Extension> entry : entries) {
+            pending.remove(entry.getKey(), entry.getValue());
+        }
+        log.debug("extended {} of {} sessions", extended.size(), sessions.size());
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("could not flush session extensions", e);
+        }
+    }
+
+    private static final class Extension {
+        private final int accountId;
+        // the stored expiry the extension was made from
+        private final long storedExpires;
+        private final long expires;
+
+        Extension(int accountId, long storedExpires, long expires) {
+            this.accountId = accountId;
+            this.storedExpires = storedExpires;
+            this.expires = expires;
+        }
+    }
+}
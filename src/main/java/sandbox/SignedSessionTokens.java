@@ -0,0 +1,149 @@
+package sandbox;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stateless session tokens, checked without touching the session table. A token carries the accountId and
+ * expiry, signed with HMAC-SHA256:
+ *
+ *   v1.base64url(accountId | expiresMillis | nonce).base64url(hmac)
+ *
+ * Verifying one is a hash and a compare. Revoked tokens go on an in-memory deny list until they would have
+ * expired anyway, so the list only ever holds the revocations of the last session lifetime. The deny list
+ * is not persisted, a restart forgets revocations.
+ */
+@Slf4j
+public class SignedSessionTokens {
+
+    public static final String PREFIX = "v1.";
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MIN_KEY_BYTES = 32;
+    private static final int PAYLOAD_BYTES = Integer.BYTES + Long.BYTES + Long.BYTES;
+
+    private final SecretKeySpec key;
+    private final Clock clock;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Mac> macs;
+    // nonce of each revoked token, to the time it expires
+    private final Map<Long, Long> denied = new ConcurrentHashMap<>();
+
+    public SignedSessionTokens(byte[] signingKey) {
+        this(signingKey, Clock.systemUTC());
+    }
+
+    SignedSessionTokens(byte[] signingKey, Clock clock) {
+        if (signingKey == null || signingKey.length < MIN_KEY_BYTES) {
+            throw new IllegalArgumentException("the session signing key must be at least " + MIN_KEY_BYTES + " bytes");
+        }
+        this.key = new SecretKeySpec(signingKey.clone(), ALGORITHM);
+        this.clock = clock;
+        // a Mac is not thread safe, each thread keeps its own
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("could not create " + ALGORITHM, e);
+            }
+        });
+    }
+
+    public static boolean isSigned(String token) {
+        return token != null && token.startsWith(PREFIX);
+    }
+
+    public String issue(int accountId, long expiresMillis) {
+        byte[] payload = ByteBuffer.allocate(PAYLOAD_BYTES)
+                .putInt(accountId)
+                .putLong(expiresMillis)
+                .putLong(random.nextLong())
+                .array();
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return PREFIX + encoder.encodeToString(payload) + "." + encoder.encodeToString(sign(payload));
+    }
+
+    // the accountId, if the signature is valid and the token has neither expired nor been revoked
+    public Optional<Integer> verify(String token) {
+        Optional<ByteBuffer> payload = verifiedPayload(token);
+        if (payload.isEmpty()) {
+            return Optional.empty();
+        }
+        int accountId = payload.get().getInt();
+        long expiresMillis = payload.get().getLong();
+        long nonce = payload.get().getLong();
+        if (expiresMillis <= clock.millis()) {
+            log.info("signed session has expired for accountId={}", accountId);
+            return Optional.empty();
+        }
+        if (denied.containsKey(nonce)) {
+            log.info("signed session was revoked for accountId={}", accountId);
+            return Optional.empty();
+        }
+        return Optional.of(accountId);
+    }
+
+    // false if the token was not issued by us
+    public boolean revoke(String token) {
+        Optional<ByteBuffer> payload = verifiedPayload(token);
+        if (payload.isEmpty()) {
+            return false;
+        }
+        payload.get().getInt();
+        long expiresMillis = payload.get().getLong();
+        long nonce = payload.get().getLong();
+
+        long now = clock.millis();
+        denied.values().removeIf(expires -> expires <= now);
+        if (expiresMillis > now) {
+            denied.put(nonce, expiresMillis);
+        }
+        return true;
+    }
+
+    int deniedCount() {
+        return denied.size();
+    }
+
+    private Optional<ByteBuffer> verifiedPayload(String token) {
+        if (!isSigned(token)) {
+            return Optional.empty();
+        }
+        int dot = token.indexOf('.', PREFIX.length());
+        if (dot < 0) {
+            return Optional.empty();
+        }
+        byte[] payload;
+        byte[] signature;
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            payload = decoder.decode(token.substring(PREFIX.length(), dot));
+            signature = decoder.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        // constant time, so the signature cannot be guessed byte by byte
+        if (payload.length != PAYLOAD_BYTES || !MessageDigest.isEqual(sign(payload), signature)) {
+            log.info("rejected a signed session token with a bad signature");
+            return Optional.empty();
+        }
+        return Optional.of(ByteBuffer.wrap(payload));
+    }
+
+    private byte[] sign(byte[] payload) {
+        return macs.get().doFinal(payload);
+    }
+}
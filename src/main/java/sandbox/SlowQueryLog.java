@@ -0,0 +1,234 @@
+package sandbox;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.StringJoiner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Records statements slower than a threshold to a rotating file, one line each. A line holds the time,
+ * duration, sql, the values it was bound from and its EXPLAIN QUERY PLAN. Transactions are timed as a
+ * whole and logged as TRANSACTION with the method that ran them.
+ *
+ * The log must never become the bottleneck, so:
+ *   entries are rate limited, anything over the limit is only counted
+ *   the plan is captured once per statement and reused for a minute, plans rarely change
+ *   lines are handed to a writer thread through a bounded queue, and dropped if it is full
+ */
+@Slf4j
+public class SlowQueryLog implements AutoCloseable {
+
+    private static final int QUEUE_SIZE = 1_024;
+    private static final long PLAN_TTL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final long thresholdNanos;
+    private final long minIntervalNanos;
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final AtomicLong nextEntryNanos = new AtomicLong(System.nanoTime());
+    private final ConcurrentHashMap<String, CachedPlan> plans = new ConcurrentHashMap<>();
+    private final BlockingQueue<String> pending = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public SlowQueryLog(Duration threshold, Path file) {
+        this(threshold, file, 10 * 1024 * 1024, 5, 10);
+    }
+
+    // keeps maxFiles files of up to maxFileBytes each, writing at most maxEntriesPerSecond lines
+    public SlowQueryLog(Duration threshold, Path file, long maxFileBytes, int maxFiles, int maxEntriesPerSecond) {
+        if (maxFiles < 2) {
+            throw new IllegalArgumentException("maxFiles must be at least 2, the current file and one rotated");
+        }
+        this.thresholdNanos = threshold.toNanos();
+        this.minIntervalNanos = TimeUnit.SECONDS.toNanos(1) / maxEntriesPerSecond;
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.writer = new Thread(this::writeLoop, "slow-query-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // called with the connection held, right after the statement ran
+    public void recordIfSlow(Connection connection, String sql, Object parameters, long elapsedNanos) {
+        if (elapsedNanos < thresholdNanos) {
+            return;
+        }
+        if (!tryAcquire()) {
+            dropped.increment();
+            return;
+        }
+        enqueue(String.format("%s duration=%.3fms sql=%s params=%s plan=%s",
+                Instant.now(), elapsedNanos / 1_000_000.0, sql, parameters, planOf(connection, sql)));
+    }
+
+    // a unit of several statements, logged under its sql id, e.g. TRANSACTION, and the code that ran it
+    // instead of a plan. the caller is only looked up for a line that is written
+    public void recordUnitIfSlow(String sqlId, Supplier<String> caller, long elapsedNanos) {
+        if (elapsedNanos < thresholdNanos) {
+            return;
+        }
+        if (!tryAcquire()) {
+            dropped.increment();
+            return;
+        }
+        enqueue(String.format("%s duration=%.3fms sql=%s caller=%s",
+                Instant.now(), elapsedNanos / 1_000_000.0, sqlId, caller.get()));
+    }
+
+    public Duration getThreshold() {
+        return Duration.ofNanos(thresholdNanos);
+    }
+
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    // slow statements that were not written, over the rate limit or with the queue full
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        // no interrupt, it would close the file channel under a write
+        running = false;
+        writer.join(5_000);
+    }
+
+    private void enqueue(String line) {
+        if (pending.offer(line)) {
+            recorded.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    // one entry per interval, a burst of slow statements costs one line and a counter for the rest
+    private boolean tryAcquire() {
+        long now = System.nanoTime();
+        long next = nextEntryNanos.get();
+        return now - next >= 0 && nextEntryNanos.compareAndSet(next, now + minIntervalNanos);
+    }
+
+    private String planOf(Connection connection, String sql) {
+        long now = System.nanoTime();
+        CachedPlan cached = plans.get(sql);
+        if (cached != null && now - cached.capturedNanos < PLAN_TTL_NANOS) {
+            return cached.plan;
+        }
+        String plan = explain(connection, sql);
+        plans.put(sql, new CachedPlan(plan, now));
+        return plan;
+    }
+
+    // parameters are left unbound, the plan does not depend on their values
+    private static String explain(Connection connection, String sql) {
+        StringJoiner plan = new StringJoiner("; ", "[", "]");
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (resultSet.next()) {
+                plan.add(resultSet.getString("detail"));
+            }
+        } catch (SQLException e) {
+            log.debug("could not explain sql={}", sql, e);
+            return "unavailable";
+        }
+        return plan.toString();
+    }
+
+    private void writeLoop() {
+        BufferedWriter out = null;
+        try {
+            out = open();
+            // counted as written, the file size lags behind the buffer
+            long fileBytes = Files.size(file);
+            while (running || !pending.isEmpty()) {
+                String line;
+                try {
+                    line = pending.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (line == null) {
+                    continue;
+                }
+                out.write(line);
+                out.newLine();
+                fileBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (pending.isEmpty()) {
+                    out.flush();
+                }
+                if (fileBytes >= maxFileBytes) {
+                    out.close();
+                    rotate();
+                    out = open();
+                    fileBytes = 0;
+                }
+            }
+        } catch (IOException e) {
+            log.error("slow query log stopped writing to file={}", file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    log.error("could not close slow query log", e);
+                }
+            }
+        }
+    }
+
+    private BufferedWriter open() throws IOException {
+        return Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    // file becomes file.1, file.1 becomes file.2 and so on, the oldest is deleted
+    private void rotate() throws IOException {
+        Files.deleteIfExists(rotated(maxFiles - 1));
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            if (Files.exists(rotated(i))) {
+                Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path rotated(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    private static class CachedPlan {
+        private final String plan;
+        private final long capturedNanos;
+
+        CachedPlan(String plan, long capturedNanos) {
+            this.plan = plan;
+            this.capturedNanos = capturedNanos;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package sandbox;
+
+/**
+ * The db stayed locked by another connection past the retry deadline. Unlike other sql errors this is
+ * never turned into an empty result, a read that could not run is not a row that does not exist.
+ */
+public class SqliteBusyException extends RuntimeException {
+
+    public SqliteBusyException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
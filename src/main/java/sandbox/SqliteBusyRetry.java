@@ -0,0 +1,147 @@
+package sandbox;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.deadline.Deadline;
+import sandbox.deadline.DeadlineExceededException;
+import sandbox.metrics.LatencyRecorder;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retries sqlite work that failed because another connection or process held the lock. busy_timeout already
+ * waits out short locks inside sqlite, this covers the busy errors it returns without waiting, such as a
+ * read transaction that can not be upgraded, and locks held longer than the timeout.
+ *
+ * Each retry sleeps a random time up to an exponentially growing cap, so writers that collided do not
+ * collide again in step. Once the deadline has passed the last busy error is given up as a
+ * SqliteBusyException. The work must be safe to run again, so a transaction is rolled back before it is
+ * retried. Every busy error, retry and the time spent waiting is counted.
+ *
+ * Under an operation's Deadline no attempt starts once it has passed, and a backoff that would outlast it
+ * gives up at once with a DeadlineExceededException.
+ */
+@Slf4j
+public class SqliteBusyRetry {
+
+    // primary result codes, extended codes such as SQLITE_BUSY_SNAPSHOT keep them in the low byte
+    private static final int SQLITE_BUSY = 5;
+    private static final int SQLITE_LOCKED = 6;
+
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long deadlineNanos;
+    // time each call that hit a busy error spent waiting, whether it then succeeded or not
+    private final LatencyRecorder waits = new LatencyRecorder();
+    private final LongAdder busyErrors = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public SqliteBusyRetry() {
+        this(Duration.ofMillis(1), Duration.ofMillis(100), Duration.ofSeconds(10));
+    }
+
+    public SqliteBusyRetry(Duration initialBackoff, Duration maxBackoff, Duration deadline) {
+        if (initialBackoff.isNegative() || initialBackoff.isZero() || maxBackoff.compareTo(initialBackoff) < 0) {
+            throw new IllegalArgumentException("initialBackoff must be positive and no more than maxBackoff");
+        }
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.deadlineNanos = deadline.toNanos();
+    }
+
+    public static boolean isBusy(SQLException e) {
+        int code = e.getErrorCode() & 0xff;
+        if (code == SQLITE_BUSY || code == SQLITE_LOCKED) {
+            return true;
+        }
+        // some driver paths only put the code in the message
+        String message = e.getMessage();
+        return message != null && (message.contains("SQLITE_BUSY") || message.contains("SQLITE_LOCKED"));
+    }
+
+    // runs the work until it succeeds, fails with anything other than a busy error, or the deadline passes
+    public <T> T execute(Connection connection, SqliteDao.SqlWork<T> work) throws SQLException {
+        Deadline operationDeadline = Deadline.current().orElse(null);
+        long start = System.nanoTime();
+        long cap = initialBackoffNanos;
+        int attempt = 0;
+        while (true) {
+            if (operationDeadline != null) {
+                operationDeadline.check("sqlite work");
+            }
+            try {
+                T result = work.apply(connection);
+                if (attempt > 0) {
+                    waited(start);
+                }
+                return result;
+            } catch (SQLException e) {
+                if (!isBusy(e)) {
+                    throw e;
+                }
+                busyErrors.increment();
+                long elapsed = System.nanoTime() - start;
+                if (elapsed >= deadlineNanos) {
+                    waited(start);
+                    exhausted.increment();
+                    throw new SqliteBusyException("still busy after " + (attempt + 1) + " attempts in "
+                            + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms", e);
+                }
+                long sleep = Math.min(ThreadLocalRandom.current().nextLong(cap) + 1, deadlineNanos - elapsed);
+                if (operationDeadline != null && operationDeadline.remainingNanos() <= sleep) {
+                    waited(start);
+                    throw new DeadlineExceededException("deadline passed waiting for a busy db after "
+                            + (attempt + 1) + " attempts", e);
+                }
+                log.debug("sqlite busy, retrying in {}us. attempt={}", sleep / 1_000, attempt + 1, e);
+                sleep(sleep, e);
+                cap = Math.min(cap * 2, maxBackoffNanos);
+                attempt++;
+                retries.increment();
+            }
+        }
+    }
+
+    private void waited(long start) {
+        long waited = System.nanoTime() - start;
+        waits.record(waited);
+        waitNanos.add(waited);
+    }
+
+    private static void sleep(long nanos, SQLException cause) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SqliteBusyException("interrupted waiting to retry", cause);
+        }
+    }
+
+    public LatencyRecorder getWaits() {
+        return waits;
+    }
+
+    // attempts that failed with a busy or locked error
+    public long getBusyErrors() {
+        return busyErrors.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    // calls given up at the deadline
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+
+    public Duration getTotalWait() {
+        return Duration.ofNanos(waitNanos.sum());
+    }
+}
@@ -1,15 +1,41 @@
 package sandbox;
 
 import lombok.extern.slf4j.Slf4j;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.DB;
+import sandbox.deadline.Deadline;
+import sandbox.deadline.DeadlineExceededException;
+import sandbox.feed.ChangeEvent;
+import sandbox.feed.ChangeFeed;
+import sandbox.feed.ChangeType;
+import sandbox.feed.ChangeVisitor;
+import sandbox.jfr.SqlStatementEvent;
 import sandbox.model.Account;
 import sandbox.model.Balance;
+import sandbox.model.BatchCheckpoint;
+import sandbox.model.ColdTier;
+import sandbox.model.IdempotencyKey;
+import sandbox.model.ReplicaStaging;
 import sandbox.model.Session;
 import sandbox.model.SqliteTable;
+import sandbox.model.Transaction;
+import sandbox.model.TransactionType;
+import sandbox.model.WithdrawalWindow;
+import sandbox.report.BalanceVisitor;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.LongUnaryOperator;
 
 @Slf4j
 /**
@@ -17,29 +43,115 @@ import java.util.function.Function;
  */
 public class SqliteDao implements AutoCloseable {
 
+    // rows fetched per step of a scan
+    private static final int SCAN_FETCH_SIZE = 1_000;
+    private static final int SQLITE_INTERRUPT = 9;
+
+    private final String connectionUrl;
+    private final SqliteTuningProfile profile;
     private final Connection sqliteConnection;
+    private final ChangeFeed changeFeed = new ChangeFeed();
+    // null unless a slow query log was given
+    private final SlowQueryLog slowQueryLog;
+    private final SqliteBusyRetry busyRetry;
+    private final LongAdder statementCount = new LongAdder();
+    // set once an archive file is attached, accounts missing from the hot tier are looked for there
+    private volatile boolean archiveAttached;
+    // attached to every connection opened after it, so scans read both tiers
+    private volatile String archiveFile;
 
     public SqliteDao() {
-        sqliteConnection = initializeDBConnection("jdbc:sqlite:atm.db");
-        formatTables();
+        this("jdbc:sqlite:atm.db");
     }
 
     public SqliteDao(String connectionUrl) {
+        this(connectionUrl, SqliteTuningProfile.DURABLE);
+    }
+
+    public SqliteDao(String connectionUrl, SqliteTuningProfile profile) {
+        this(connectionUrl, profile, null);
+    }
+
+    public SqliteDao(String connectionUrl, SqliteTuningProfile profile, SlowQueryLog slowQueryLog) {
+        this(connectionUrl, profile, slowQueryLog, new SqliteBusyRetry());
+    }
+
+    public SqliteDao(String connectionUrl, SqliteTuningProfile profile, SlowQueryLog slowQueryLog, SqliteBusyRetry busyRetry) {
+        this.connectionUrl = connectionUrl;
+        this.profile = profile;
+        this.slowQueryLog = slowQueryLog;
+        this.busyRetry = busyRetry;
         sqliteConnection = initializeDBConnection(connectionUrl);
         formatTables();
     }
 
     @Override
     public void close() throws SQLException {
+        changeFeed.close();
+        if (slowQueryLog != null) {
+            try {
+                slowQueryLog.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         if (sqliteConnection != null) {
             sqliteConnection.close();
         }
     }
 
+    public SqliteTuningProfile getProfile() {
+        return profile;
+    }
+
+    // busy errors, retries and the time spent waiting for other writers
+    public SqliteBusyRetry getBusyRetry() {
+        return busyRetry;
+    }
+
+    // statements and transactions run on the shared connection so far, a measure of how busy the db is
+    public long getStatementCount() {
+        return statementCount.sum();
+    }
+
+    // committed balance and session changes, in commit order
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    // a separate connection to the same db, for bulk reads that should not hold up the shared connection.
+    // the caller closes it. an in-memory db is not shared, so this only makes sense for file dbs
+    // a connection of its own, with the archive attached if the shared connection has one
+    public Connection openConnection() {
+        Connection connection = initializeDBConnection(connectionUrl);
+        String archive = archiveFile;
+        if (archive != null) {
+            try (PreparedStatement stmt = connection.prepareStatement(ColdTier.attachQuery)) {
+                stmt.setString(1, archive);
+                stmt.execute();
+            } catch (SQLException e) {
+                log.error("caught exception attaching archive to a new connection. file={}", archive, e);
+                try {
+                    connection.close();
+                } catch (SQLException closing) {
+                    e.addSuppressed(closing);
+                }
+                throw new RuntimeException(e);
+            }
+        }
+        return connection;
+    }
+
     private Connection initializeDBConnection(String connectionUrl) {
         try {
             Class.forName("org.sqlite.JDBC");
             Connection c = DriverManager.getConnection(connectionUrl);
+            try {
+                applyProfile(c);
+            } catch (SQLException e) {
+                c.close();
+                throw e;
+            }
             log.debug("Opened database successfully");
             return c;
         } catch (Exception e) {
@@ -48,9 +160,26 @@ public class SqliteDao implements AutoCloseable {
         }
     }
 
+    // pragmas are per connection, so every connection gets them, not just the shared one
+    private void applyProfile(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // lets maintenance shrink the file in small steps. only takes effect on a new db, and has to come
+            // before journal_mode=WAL, which writes the header
+            stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            for (String pragma : profile.pragmas()) {
+                stmt.execute(pragma);
+            }
+        }
+        log.debug("applied sqlite profile={}", profile);
+    }
+
     private void executeUpdate(String sql) {
-        try (Statement stmt = sqliteConnection.createStatement()) {
-            stmt.executeUpdate(sql);
+        try {
+            onSharedConnection(connection -> {
+                try (Statement stmt = connection.createStatement()) {
+                    return stmt.executeUpdate(sql);
+                }
+            });
         } catch (SQLException e) {
             log.error("caught exception running update statement. sql={}", sql, e);
             throw new RuntimeException(e);
@@ -58,31 +187,204 @@ public class SqliteDao implements AutoCloseable {
     }
 
 
+    // statements lock the shared connection, so they never interleave with another thread's transaction.
+    // another process holding the db is waited out by the busy retry
     private void executePreparedStatement(String sql, SqliteTable sqliteTable) {
-        try (PreparedStatement stmt = sqliteConnection.prepareStatement(sql)) {
-            sqliteTable.setInsertValues(stmt);
-            stmt.execute();
-        } catch (SQLException e) {
-            log.error("caught exception running prepared statement. sql={}", sql, e);
-            throw new RuntimeException(e);
+        statementCount.increment();
+        SqlStatementEvent event = SqlStatementEvent.start(sql);
+        synchronized (sqliteConnection) {
+            event.connectionAcquired();
+            long started = System.nanoTime();
+            try {
+                int rows = onSharedConnection(connection -> {
+                    try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                        sqliteTable.setInsertValues(stmt);
+                        stmt.execute();
+                        return stmt.getUpdateCount();
+                    }
+                });
+                event.setRows(rows);
+                event.setSucceeded(true);
+            } catch (SQLException e) {
+                log.error("caught exception running prepared statement. sql={}", sql, e);
+                throw new RuntimeException(e);
+            } finally {
+                event.commit();
+                recordIfSlow(sql, sqliteTable, started);
+            }
         }
     }
 
     private <T> Optional<T> executePreparedStatement(String sql, SqliteTable sqliteTable, Function<ResultSet, T> resultsMapper) {
-        try (PreparedStatement stmt = sqliteConnection.prepareStatement(sql)) {
-            sqliteTable.setSelectValues(stmt);
-            return Optional.ofNullable(stmt.executeQuery())
-                    .map(resultsMapper);
-        } catch (Exception e) {
-            log.error("caught exception running update statement. sql={}", sql, e);
-            return Optional.empty();
+        statementCount.increment();
+        SqlStatementEvent event = SqlStatementEvent.start(sql);
+        synchronized (sqliteConnection) {
+            event.connectionAcquired();
+            long started = System.nanoTime();
+            try {
+                Optional<T> result = onSharedConnection(connection -> {
+                    try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                        sqliteTable.setSelectValues(stmt);
+                        return Optional.ofNullable(stmt.executeQuery())
+                                .map(resultsMapper);
+                    }
+                });
+                event.setRows(result.map(SqliteDao::rowsOf).orElse(0));
+                event.setSucceeded(true);
+                return result;
+            } catch (SqliteBusyException | DeadlineExceededException e) {
+                // a read that could not run must not look like a missing row
+                log.error("gave up waiting for a busy db. sql={}", sql, e);
+                throw e;
+            } catch (Exception e) {
+                log.error("caught exception running update statement. sql={}", sql, e);
+                return Optional.empty();
+            } finally {
+                event.commit();
+                recordIfSlow(sql, sqliteTable, started);
+            }
+        }
+    }
+
+    // runs work on the shared connection, which the caller holds the lock for, retrying busy errors. under a
+    // deadline sqlite waits for another connection's lock no longer than the time left, and a statement still
+    // running when the deadline passes is interrupted and rolled back
+    private <T> T onSharedConnection(SqlWork<T> work) throws SQLException {
+        Optional<Deadline> deadline = Deadline.current();
+        if (deadline.isEmpty()) {
+            return busyRetry.execute(sqliteConnection, work);
+        }
+        return busyRetry.execute(sqliteConnection, connection -> withinDeadline(deadline.get(), connection, work));
+    }
+
+    private <T> T withinDeadline(Deadline deadline, Connection connection, SqlWork<T> work) throws SQLException {
+        DB db = connection.unwrap(SQLiteConnection.class).getDatabase();
+        // the busy handler sleeps through an interrupt, so it must give up by the deadline on its own
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline.remainingNanos());
+        db.busy_timeout((int) Math.max(1, Math.min(profile.getBusyTimeoutMillis(), remainingMillis)));
+        try (Deadline.Expiry interrupt = deadline.onExpiry(() -> interrupt(db))) {
+            return work.apply(connection);
+        } catch (SQLException e) {
+            if ((e.getErrorCode() & 0xff) == SQLITE_INTERRUPT && deadline.isExpired()) {
+                throw new DeadlineExceededException("deadline passed, statement interrupted", e);
+            }
+            throw e;
+        } finally {
+            db.busy_timeout(profile.getBusyTimeoutMillis());
+        }
+    }
+
+    private static void interrupt(DB db) {
+        try {
+            db.interrupt();
+        } catch (SQLException e) {
+            log.warn("could not interrupt a statement past its deadline", e);
+        }
+    }
+
+    // the table object is logged as the parameters, its fields are what the statement was bound from
+    private void recordIfSlow(String sql, SqliteTable sqliteTable, long startedNanos) {
+        if (slowQueryLog != null) {
+            slowQueryLog.recordIfSlow(sqliteConnection, sql, sqliteTable, System.nanoTime() - startedNanos);
+        }
+    }
+
+    private void recordTransactionIfSlow(long startedNanos) {
+        if (slowQueryLog != null) {
+            slowQueryLog.recordUnitIfSlow(SqlStatementEvent.TRANSACTION, SqliteDao::transactionCaller,
+                    System.nanoTime() - startedNanos);
+        }
+    }
+
+    // the method that called inTransaction, which names the unit of work better than its statements
+    private static String transactionCaller() {
+        return StackWalker.getInstance().walk(frames -> frames
+                .dropWhile(frame -> !frame.getMethodName().equals("inTransaction"))
+                .skip(1)
+                .findFirst()
+                .map(frame -> frame.getClassName().substring(frame.getClassName().lastIndexOf('.') + 1)
+                        + "." + frame.getMethodName())
+                .orElse("unknown"));
+    }
+
+    // the mappers return either one row or a list of them
+    private static int rowsOf(Object mapped) {
+        return mapped instanceof List ? ((List<?>) mapped).size() : 1;
+    }
+
+    /**
+     * a unit of work run against the raw connection, inside a transaction
+     */
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+
+    // run the work in a single transaction, committing on success and rolling back on any failure.
+    // the connection is shared, so other threads wait until the transaction is finished. a transaction that
+    // hit a busy db is rolled back and run again, so the work must only change the db
+    public <T> T inTransaction(SqlWork<T> work) {
+        statementCount.increment();
+        SqlStatementEvent event = SqlStatementEvent.start(SqlStatementEvent.TRANSACTION, null);
+        synchronized (sqliteConnection) {
+            event.connectionAcquired();
+            long started = System.nanoTime();
+            try {
+                T result = onSharedConnection(connection -> runTransaction(connection, work));
+                event.setSucceeded(true);
+                return result;
+            } catch (SqliteBusyException e) {
+                log.error("gave up waiting for a busy db, transaction rolled back", e);
+                throw e;
+            } catch (DeadlineExceededException e) {
+                log.warn("transaction rolled back, {}", e.getMessage());
+                throw e;
+            } catch (Exception e) {
+                log.error("caught exception running transaction, rolled back", e);
+                throw new RuntimeException(e);
+            } finally {
+                event.commit();
+                recordTransactionIfSlow(started);
+            }
+        }
+    }
+
+    // BEGIN IMMEDIATE takes the write lock before the work runs. a deferred transaction would take a read
+    // lock first, and sqlite refuses to upgrade it without waiting when another connection is writing
+    private static <T> T runTransaction(Connection connection, SqlWork<T> work) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("BEGIN IMMEDIATE");
+            try {
+                T result = work.apply(connection);
+                stmt.execute("COMMIT");
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                rollback(stmt);
+                throw e;
+            }
+        }
+    }
+
+    private static void rollback(Statement stmt) {
+        try {
+            stmt.execute("ROLLBACK");
+        } catch (SQLException e) {
+            // some errors have already rolled the transaction back
+            log.debug("could not roll back transaction", e);
         }
     }
 
     public void formatTables() {
         executeUpdate(Account.accountTableCreation);
+        executeUpdate(Account.activityTableCreation);
         executeUpdate(Session.sessionTableCreation);
         executeUpdate(Balance.balanceTableCreation);
+        executeUpdate(Transaction.transactionTableCreation);
+        executeUpdate(Transaction.transactionIndexCreation);
+        executeUpdate(WithdrawalWindow.withdrawalWindowTableCreation);
+        executeUpdate(IdempotencyKey.idempotencyKeyTableCreation);
+        executeUpdate(IdempotencyKey.idempotencyKeyIndexCreation);
+        executeUpdate(BatchCheckpoint.batchCheckpointTableCreation);
     }
 
     public void createAccount(String username, String pin) {
@@ -91,19 +393,73 @@ public class SqliteDao implements AutoCloseable {
                 .pin(pin)
                 .build();
 
-        executePreparedStatement(newAccount.getInsertSqlStatement(), newAccount);
+        synchronized (sqliteConnection) {
+            // an archived username is promoted first, so the unique constraint still covers both tiers
+            if (archiveAttached) {
+                promoteArchivedAccount(ColdTier.archivedUsernameQuery, username);
+            }
+            executePreparedStatement(newAccount.getInsertSqlStatement(), newAccount);
+            // read back for its id, still under the lock so the event is in commit order
+            getAccount(username, pin).ifPresent(account -> changeFeed.accountCreated(account.getId(), username, pin));
+        }
     }
 
     // Account logic
+    // an archived account is promoted back to the hot tier before it is returned
     public Optional<Account> getAccount(String username, String pin) {
         Account account = Account.builder()
                 .username(username)
                 .pin(pin)
                 .build();
-        return executePreparedStatement(
+        Optional<Account> hot = executePreparedStatement(
                 account.getSelectSqlStatement(),
                 account,
                 Account::mapAccountFromResultSet);
+        if (hot.isPresent() || !archiveAttached) {
+            return hot;
+        }
+        synchronized (sqliteConnection) {
+            // another login may have promoted it in the meantime, either way it is hot if it exists
+            promoteArchivedAccount(ColdTier.archivedAccountQuery, username, pin);
+            return executePreparedStatement(
+                    account.getSelectSqlStatement(),
+                    account,
+                    Account::mapAccountFromResultSet);
+        }
+    }
+
+    // called on every login, whatever kind of token it issues. see Account.recordActivityQuery
+    public void recordActivity(Integer accountId, Timestamp at) {
+        synchronized (sqliteConnection) {
+            try {
+                onSharedConnection(connection -> {
+                    recordActivity(connection, accountId, at);
+                    return null;
+                });
+            } catch (SQLException e) {
+                log.error("caught exception recording activity for accountId={}", accountId, e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static void recordActivity(Connection connection, Integer accountId, Timestamp at) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(Account.recordActivityQuery)) {
+            stmt.setInt(1, accountId);
+            stmt.setTimestamp(2, at);
+            stmt.execute();
+        }
+    }
+
+    // brings an archived account back to the hot tier before it is read by id, for callers that did not find
+    // it through getAccount, e.g. with a signed token. a no-op for hot accounts and without an archive
+    public void ensureHot(Integer accountId) {
+        if (!archiveAttached) {
+            return;
+        }
+        synchronized (sqliteConnection) {
+            promoteArchivedAccountId(accountId);
+        }
     }
 
     // Session logic
@@ -118,9 +474,14 @@ public class SqliteDao implements AutoCloseable {
                 Session::mapAccountFromResultSet);
     }
 
+    // empty for a token that is not a uuid, the same as for one that was never issued
     public Optional<Session> getSession(String token) {
+        Optional<UUID> uuid = Session.parseToken(token);
+        if (uuid.isEmpty()) {
+            return Optional.empty();
+        }
         Session session = Session.builder()
-                .token(UUID.fromString(token))
+                .token(uuid.get())
                 .build();
 
         return executePreparedStatement(
@@ -136,7 +497,64 @@ public class SqliteDao implements AutoCloseable {
                 .expires(expiryTime)
                 .build();
 
-        executePreparedStatement(newSession.getInsertSqlStatement(), newSession);
+        synchronized (sqliteConnection) {
+            if (archiveAttached) {
+                promoteArchivedAccountId(accountId);
+            }
+            executePreparedStatement(newSession.getInsertSqlStatement(), newSession);
+            changeFeed.sessionChanged(accountId, token, expiryTime);
+        }
+    }
+
+    public void expireSession(Integer accountId, UUID token) {
+        Timestamp now = Timestamp.from(Instant.now());
+        synchronized (sqliteConnection) {
+            try {
+                onSharedConnection(connection -> {
+                    try (PreparedStatement stmt = connection.prepareStatement(Session.expireSessionQuery)) {
+                        stmt.setTimestamp(1, now);
+                        stmt.setString(2, token.toString());
+                        return stmt.executeUpdate();
+                    }
+                });
+            } catch (SQLException e) {
+                log.error("caught exception expiring a session", e);
+                throw new RuntimeException(e);
+            }
+            changeFeed.sessionChanged(accountId, token, now);
+        }
+    }
+
+    // moves each session to its new expires in one transaction, returning the sessions that were extended.
+    // extendedFrom holds the stored expiry each session was extended from, by position. sessions whose row
+    // changed in the meantime, by a logout or a new login, are left alone
+    public List<Session> extendSessions(List<Session> sessions, List<Timestamp> extendedFrom) {
+        if (sessions.size() != extendedFrom.size()) {
+            throw new IllegalArgumentException("every session needs the expiry it was extended from");
+        }
+        synchronized (sqliteConnection) {
+            List<Session> extended = inTransaction(connection -> {
+                try (PreparedStatement stmt = connection.prepareStatement(Session.extendSessionQuery)) {
+                    for (int i = 0; i < sessions.size(); i++) {
+                        Session session = sessions.get(i);
+                        stmt.setTimestamp(1, session.getExpires());
+                        stmt.setString(2, session.getToken().toString());
+                        stmt.setTimestamp(3, extendedFrom.get(i));
+                        stmt.addBatch();
+                    }
+                    int[] updated = stmt.executeBatch();
+                    List<Session> result = new ArrayList<>();
+                    for (int i = 0; i < updated.length; i++) {
+                        if (updated[i] > 0) {
+                            result.add(sessions.get(i));
+                        }
+                    }
+                    return result;
+                }
+            });
+            extended.forEach(session -> changeFeed.sessionChanged(session.getAccountId(), session.getToken(), session.getExpires()));
+            return extended;
+        }
     }
 
     // Balance logic
@@ -152,7 +570,779 @@ public class SqliteDao implements AutoCloseable {
 
     }
 
+    // published while the connection is still held, so the feed sees changes in commit order
     public void persistBalance(Balance balance) {
-        executePreparedStatement(balance.getInsertSqlStatement(), balance);
+        synchronized (sqliteConnection) {
+            if (archiveAttached) {
+                promoteArchivedAccountId(balance.getAccountId());
+            }
+            executePreparedStatement(balance.getInsertSqlStatement(), balance);
+            changeFeed.balanceChanged(balance.getAccountId(), balance.getBalance());
+        }
+    }
+
+    // adds the amount to the balance, or takes it off for a withdrawal, and records the transaction, in one
+    // transaction. the update is relative to the row as it stands when the transaction runs, so a concurrent
+    // interest credit or a write from another process is never overwritten. the idempotency key, if given,
+    // commits with the change, and a key that was already committed rolls it back. returns the transaction row,
+    // whose balance is the new balance
+    public Transaction changeBalance(Integer accountId, TransactionType type, long amount, IdempotencyKey idempotencyKey) {
+        synchronized (sqliteConnection) {
+            // callers promote with ensureHot before reading the account. this only catches one archived since,
+            // a balance row added in the hot tier would be overwritten when the archived one is promoted
+            if (archiveAttached) {
+                promoteArchivedAccountId(accountId);
+            }
+            Transaction transaction = inTransaction(connection -> {
+                if (idempotencyKey != null) {
+                    try (PreparedStatement stmt = connection.prepareStatement(IdempotencyKey.insertOnceQuery)) {
+                        idempotencyKey.setInsertValues(stmt);
+                        stmt.execute();
+                    }
+                }
+                try (PreparedStatement stmt = connection.prepareStatement(Balance.addQuery)) {
+                    stmt.setInt(1, accountId);
+                    stmt.setLong(2, type.delta(amount));
+                    stmt.execute();
+                }
+                Timestamp now = Timestamp.from(Instant.now());
+                recordActivity(connection, accountId, now);
+                Transaction row = Transaction.builder()
+                        .accountId(accountId)
+                        .type(type)
+                        .amount(amount)
+                        .balance(readBalance(connection, accountId))
+                        .created(now)
+                        .build();
+                writeTransaction(connection, row);
+                return row;
+            });
+            changeFeed.balanceChanged(accountId, transaction.getBalance());
+            return transaction;
+        }
+    }
+
+    // move the amount between two balances in one transaction, recording both sides in the transaction log.
+    // returns the two log rows, or an empty list changing nothing if the target account does not exist
+    // or the source balance is too low
+    public List<Transaction> transferBalance(Integer fromAccountId, Integer toAccountId, long amount) {
+        synchronized (sqliteConnection) {
+            // both balances are read in the transaction, neither account may be left in the archive
+            if (archiveAttached) {
+                promoteArchivedAccountId(fromAccountId);
+                promoteArchivedAccountId(toAccountId);
+            }
+            List<Transaction> transactions = transferBalanceInTransaction(fromAccountId, toAccountId, amount);
+            transactions.forEach(t -> changeFeed.balanceChanged(t.getAccountId(), t.getBalance()));
+            return transactions;
+        }
+    }
+
+    private List<Transaction> transferBalanceInTransaction(Integer fromAccountId, Integer toAccountId, long amount) {
+        return inTransaction(connection -> {
+            if (!accountExists(connection, toAccountId)) {
+                log.info("no account exists for accountId={}, not transferring", toAccountId);
+                return Collections.emptyList();
+            }
+
+            long fromBalance = readBalance(connection, fromAccountId);
+            if (fromBalance < amount) {
+                log.info("insufficient funds for transfer from accountId={}", fromAccountId);
+                return Collections.emptyList();
+            }
+            long toBalance = readBalance(connection, toAccountId);
+
+            writeBalance(connection, Balance.builder()
+                    .accountId(fromAccountId)
+                    .balance(fromBalance - amount)
+                    .build());
+            writeBalance(connection, Balance.builder()
+                    .accountId(toAccountId)
+                    .balance(toBalance + amount)
+                    .build());
+
+            Timestamp now = Timestamp.from(Instant.now());
+            recordActivity(connection, fromAccountId, now);
+            recordActivity(connection, toAccountId, now);
+            Transaction outgoing = Transaction.builder()
+                    .accountId(fromAccountId)
+                    .type(TransactionType.TRANSFER_OUT)
+                    .amount(amount)
+                    .balance(fromBalance - amount)
+                    .created(now)
+                    .build();
+            Transaction incoming = Transaction.builder()
+                    .accountId(toAccountId)
+                    .type(TransactionType.TRANSFER_IN)
+                    .amount(amount)
+                    .balance(toBalance + amount)
+                    .created(now)
+                    .build();
+            writeTransaction(connection, outgoing);
+            writeTransaction(connection, incoming);
+            return List.of(outgoing, incoming);
+        });
+    }
+
+    // reads inside a transaction must fail loudly, an empty result would be taken as a zero balance
+    private long readBalance(Connection connection, Integer accountId) throws SQLException {
+        Balance balance = Balance.builder()
+                .accountId(accountId)
+                .build();
+        try (PreparedStatement stmt = connection.prepareStatement(balance.getSelectSqlStatement())) {
+            balance.setSelectValues(stmt);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong("balance") : 0L;
+            }
+        }
+    }
+
+    private void writeBalance(Connection connection, Balance balance) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(balance.getInsertSqlStatement())) {
+            balance.setInsertValues(stmt);
+            stmt.execute();
+        }
+    }
+
+    // sets the row id on the transaction, the in-memory history compares it with the table's newest
+    private void writeTransaction(Connection connection, Transaction transaction) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(transaction.getInsertSqlStatement())) {
+            transaction.setInsertValues(stmt);
+            stmt.execute();
+        }
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery(Transaction.insertedIdQuery)) {
+            resultSet.next();
+            transaction.setId(resultSet.getInt(1));
+        }
+    }
+
+    private boolean accountExists(Connection connection, Integer accountId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(Account.accountExistsQuery)) {
+            stmt.setInt(1, accountId);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    // the username of a hot or archived account, empty when there is no such account
+    public Optional<String> getUsername(int accountId) {
+        synchronized (sqliteConnection) {
+            try {
+                return onSharedConnection(connection -> {
+                    try (PreparedStatement stmt = connection.prepareStatement(
+                            archiveAttached ? ColdTier.usernameQuery : Account.usernameQuery)) {
+                        stmt.setInt(1, accountId);
+                        if (archiveAttached) {
+                            stmt.setInt(2, accountId);
+                        }
+                        try (ResultSet resultSet = stmt.executeQuery()) {
+                            return resultSet.next() ? Optional.of(resultSet.getString(1)) : Optional.<String>empty();
+                        }
+                    }
+                });
+            } catch (SQLException e) {
+                log.error("caught exception reading the username of accountId={}", accountId, e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // Transaction logic
+    public void persistTransaction(Transaction transaction) {
+        executePreparedStatement(transaction.getInsertSqlStatement(), transaction);
+    }
+
+    // the id of the account's newest transaction, 0 when it has none
+    public int getLatestTransactionId(Integer accountId) {
+        synchronized (sqliteConnection) {
+            try {
+                return onSharedConnection(connection -> {
+                    try (PreparedStatement stmt = connection.prepareStatement(Transaction.latestIdQuery)) {
+                        stmt.setInt(1, accountId);
+                        try (ResultSet resultSet = stmt.executeQuery()) {
+                            return resultSet.next() ? resultSet.getInt(1) : 0;
+                        }
+                    }
+                });
+            } catch (SQLException e) {
+                log.error("caught exception reading the latest transaction of accountId={}", accountId, e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // the latest transactions for the account, newest first, at most Transaction.MAX_STATEMENT_ROWS
+    public List<Transaction> getRecentTransactions(Integer accountId) {
+        Transaction transaction = Transaction.builder()
+                .accountId(accountId)
+                .build();
+
+        return executePreparedStatement(
+                transaction.getSelectSqlStatement(),
+                transaction,
+                Transaction::mapTransactionsFromResultSet)
+                .orElse(Collections.emptyList());
+    }
+
+    // Withdrawal limit logic
+    public List<WithdrawalWindow> getWithdrawalWindows(long afterHour) {
+        WithdrawalWindow window = WithdrawalWindow.builder()
+                .hour(afterHour)
+                .build();
+
+        return executePreparedStatement(
+                window.getSelectSqlStatement(),
+                window,
+                WithdrawalWindow::mapWindowsFromResultSet)
+                .orElse(Collections.emptyList());
+    }
+
+    // upsert the windows and delete everything at or before expiredHour, in one transaction
+    public void persistWithdrawalWindows(List<WithdrawalWindow> windows, long expiredHour) {
+        inTransaction(connection -> {
+            for (WithdrawalWindow window : windows) {
+                try (PreparedStatement stmt = connection.prepareStatement(window.getInsertSqlStatement())) {
+                    window.setInsertValues(stmt);
+                    stmt.execute();
+                }
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(WithdrawalWindow.deleteExpiredWindows)) {
+                stmt.setLong(1, expiredHour);
+                stmt.execute();
+            }
+            return null;
+        });
+    }
+
+    // Idempotency logic
+    public void persistIdempotencyKey(IdempotencyKey idempotencyKey) {
+        executePreparedStatement(idempotencyKey.getInsertSqlStatement(), idempotencyKey);
+    }
+
+    public Optional<IdempotencyKey> getIdempotencyKey(String key) {
+        synchronized (sqliteConnection) {
+            try {
+                return onSharedConnection(connection -> {
+                    try (PreparedStatement stmt = connection.prepareStatement(IdempotencyKey.selectKeyQuery)) {
+                        stmt.setString(1, key);
+                        try (ResultSet resultSet = stmt.executeQuery()) {
+                            return IdempotencyKey.mapKeysFromResultSet(resultSet).stream().findFirst();
+                        }
+                    }
+                });
+            } catch (SQLException e) {
+                log.error("caught exception reading an idempotency key", e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // the newest keys created at or after the given time, at most limit of them, newest first
+    public List<IdempotencyKey> getIdempotencyKeys(long createdSince, int limit) {
+        synchronized (sqliteConnection) {
+            try {
+                return onSharedConnection(connection -> {
+                    try (PreparedStatement stmt = connection.prepareStatement(IdempotencyKey.selectRecentQuery)) {
+                        stmt.setLong(1, createdSince);
+                        stmt.setInt(2, limit);
+                        try (ResultSet resultSet = stmt.executeQuery()) {
+                            return IdempotencyKey.mapKeysFromResultSet(resultSet);
+                        }
+                    }
+                });
+            } catch (SQLException e) {
+                log.error("caught exception reading idempotency keys", e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // deletes at most batchSize keys created before the cutoff, returning how many were deleted
+    public int deleteExpiredIdempotencyKeys(long createdBefore, int batchSize) {
+        synchronized (sqliteConnection) {
+            try {
+                return onSharedConnection(connection -> {
+                    try (PreparedStatement stmt = connection.prepareStatement(IdempotencyKey.deleteExpiredKeys)) {
+                        stmt.setLong(1, createdBefore);
+                        stmt.setInt(2, batchSize);
+                        return stmt.executeUpdate();
+                    }
+                });
+            } catch (SQLException e) {
+                log.error("caught exception deleting expired idempotency keys", e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // Batch logic
+    public List<BatchCheckpoint> getCompletedChunks(String jobId) {
+        BatchCheckpoint checkpoint = BatchCheckpoint.builder()
+                .jobId(jobId)
+                .build();
+
+        return executePreparedStatement(
+                checkpoint.getSelectSqlStatement(),
+                checkpoint,
+                BatchCheckpoint::mapCheckpointsFromResultSet)
+                .orElse(Collections.emptyList());
+    }
+
+    // credits each interest transaction and records the chunk as completed, all in one transaction.
+    // each credit was computed from the balance it was read with, if that balance has changed since, the
+    // interest is computed again from the current balance. an archived account is credited in the archive,
+    // paying interest does not make it active. returns the transactions written
+    public List<Transaction> applyInterestChunk(BatchCheckpoint checkpoint, List<Transaction> credits, LongUnaryOperator interestOf) {
+        synchronized (sqliteConnection) {
+            boolean tiered = archiveAttached;
+            List<Transaction> written = inTransaction(connection -> {
+                List<Transaction> applied = new ArrayList<>(credits.size());
+                List<Transaction> archived = new ArrayList<>();
+                List<Transaction> changed = compareAndSet(connection, Balance.compareAndSetQuery, credits, applied);
+                if (tiered && !changed.isEmpty()) {
+                    changed = compareAndSet(connection, ColdTier.archivedCompareAndSetQuery, changed, archived);
+                }
+
+                // nothing else can write while the transaction holds the connection
+                for (Transaction credit : changed) {
+                    boolean hot = !tiered || accountExists(connection, credit.getAccountId());
+                    Optional<Long> current = hot
+                            ? Optional.of(readBalance(connection, credit.getAccountId()))
+                            : readArchivedBalance(connection, credit.getAccountId());
+                    long interest = current.map(interestOf::applyAsLong).orElse(0L);
+                    if (interest == 0) {
+                        continue;
+                    }
+                    Transaction recomputed = Transaction.builder()
+                            .accountId(credit.getAccountId())
+                            .type(credit.getType())
+                            .amount(interest)
+                            .balance(current.get() + interest)
+                            .created(credit.getCreated())
+                            .build();
+                    if (hot) {
+                        writeBalance(connection, Balance.builder()
+                                .accountId(recomputed.getAccountId())
+                                .balance(recomputed.getBalance())
+                                .build());
+                        applied.add(recomputed);
+                    } else {
+                        try (PreparedStatement stmt = connection.prepareStatement(ColdTier.archivedSetBalanceQuery)) {
+                            stmt.setLong(1, recomputed.getBalance());
+                            stmt.setInt(2, recomputed.getAccountId());
+                            stmt.execute();
+                        }
+                        archived.add(recomputed);
+                    }
+                }
+
+                for (Transaction transaction : applied) {
+                    writeTransaction(connection, transaction);
+                }
+                for (Transaction transaction : archived) {
+                    try (PreparedStatement stmt = connection.prepareStatement(ColdTier.archivedTransactionInsertQuery)) {
+                        transaction.setInsertValues(stmt);
+                        stmt.execute();
+                    }
+                }
+                try (PreparedStatement stmt = connection.prepareStatement(checkpoint.getInsertSqlStatement())) {
+                    checkpoint.setInsertValues(stmt);
+                    stmt.execute();
+                }
+                applied.addAll(archived);
+                return applied;
+            });
+            written.forEach(t -> changeFeed.balanceChanged(t.getAccountId(), t.getBalance()));
+            return written;
+        }
+    }
+
+    // sets each credit's new balance where the balance is still the one it was computed from, adding those to
+    // applied. returns the credits whose balance had changed, or whose row the statement does not cover
+    private static List<Transaction> compareAndSet(Connection connection, String sql, List<Transaction> credits,
+                                                   List<Transaction> applied) throws SQLException {
+        List<Transaction> changed = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (Transaction credit : credits) {
+                stmt.setLong(1, credit.getBalance());
+                stmt.setInt(2, credit.getAccountId());
+                stmt.setLong(3, credit.getBalance() - credit.getAmount());
+                stmt.addBatch();
+            }
+            int[] updated = stmt.executeBatch();
+            for (int i = 0; i < updated.length; i++) {
+                (updated[i] > 0 ? applied : changed).add(credits.get(i));
+            }
+        }
+        return changed;
+    }
+
+    private static Optional<Long> readArchivedBalance(Connection connection, Integer accountId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(ColdTier.archivedBalanceQuery)) {
+            stmt.setInt(1, accountId);
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                return resultSet.next() ? Optional.of(resultSet.getLong(1)) : Optional.empty();
+            }
+        }
+    }
+
+    // Tiering logic
+    // attaches the archive file to the shared connection, and to every connection opened from now on, creating
+    // its tables. accounts moved there by archiveDormantAccounts come back to the hot tier the first time they
+    // log in, are read by id or receive a transfer. scans, and the batch jobs built on them, read both tiers
+    public void attachArchive(String archiveFile) {
+        synchronized (sqliteConnection) {
+            try (PreparedStatement stmt = sqliteConnection.prepareStatement(ColdTier.attachQuery)) {
+                stmt.setString(1, archiveFile);
+                stmt.execute();
+            } catch (SQLException e) {
+                log.error("caught exception attaching archive. file={}", archiveFile, e);
+                throw new RuntimeException(e);
+            }
+            ColdTier.archiveTableCreations().forEach(this::executeUpdate);
+            int reconciled = inTransaction(connection -> updateAll(connection, ColdTier.reconcileStatements()));
+            if (reconciled > 0) {
+                log.warn("dropped {} archive rows of accounts that are also hot", reconciled);
+            }
+            this.archiveFile = archiveFile;
+            archiveAttached = true;
+            log.info("attached archive {}", archiveFile);
+        }
+    }
+
+    public boolean isArchiveAttached() {
+        return archiveAttached;
+    }
+
+    // whether this connection, one of openConnection's, can read the archive. one opened before the archive
+    // was attached cannot
+    public boolean isArchiveAttached(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery(ColdTier.attachedQuery)) {
+            return resultSet.next();
+        }
+    }
+
+    // moves up to limit accounts dormant since the cutoff, with ids after afterAccountId, to the archive.
+    // returns the ids moved in order, empty once there are none left
+    public List<Integer> archiveDormantAccounts(Timestamp dormantSince, int afterAccountId, int limit) {
+        if (!archiveAttached) {
+            throw new IllegalStateException("no archive attached");
+        }
+        synchronized (sqliteConnection) {
+            List<Integer> accountIds = new ArrayList<>();
+            try (PreparedStatement stmt = sqliteConnection.prepareStatement(ColdTier.dormantAccountsQuery)) {
+                stmt.setTimestamp(1, dormantSince);
+                stmt.setInt(2, afterAccountId);
+                stmt.setInt(3, limit);
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        accountIds.add(resultSet.getInt(1));
+                    }
+                }
+            } catch (SQLException e) {
+                log.error("caught exception finding dormant accounts", e);
+                throw new RuntimeException(e);
+            }
+            if (!accountIds.isEmpty()) {
+                moveAccounts(accountIds, ColdTier.HOT, ColdTier.ARCHIVE);
+            }
+            return accountIds;
+        }
+    }
+
+    // the query finds the archived account id from the parameters. returns whether one was promoted
+    private boolean promoteArchivedAccount(String idQuery, Object... params) {
+        Optional<Integer> accountId;
+        try (PreparedStatement stmt = sqliteConnection.prepareStatement(idQuery)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                accountId = resultSet.next() ? Optional.of(resultSet.getInt(1)) : Optional.empty();
+            }
+        } catch (SQLException e) {
+            log.error("caught exception looking up an archived account", e);
+            throw new RuntimeException(e);
+        }
+        accountId.ifPresent(id -> {
+            moveAccounts(List.of(id), ColdTier.ARCHIVE, ColdTier.HOT);
+            log.info("promoted archived accountId={} to the hot tier", id);
+        });
+        return accountId.isPresent();
+    }
+
+    // for writes keyed by account id. a login that read the account just before it was archived must not
+    // leave hot rows for an archived account, the next promotion would overwrite them
+    private boolean promoteArchivedAccountId(Integer accountId) {
+        try {
+            if (accountExists(sqliteConnection, accountId)) {
+                return false;
+            }
+        } catch (SQLException e) {
+            log.error("caught exception checking for a hot account", e);
+            throw new RuntimeException(e);
+        }
+        return promoteArchivedAccount(ColdTier.archivedAccountIdQuery, accountId);
+    }
+
+    // copies then deletes, in two transactions. see ColdTier for why
+    private void moveAccounts(List<Integer> accountIds, String from, String to) {
+        inTransaction(connection -> updateEach(connection, ColdTier.copyAccountStatements(from, to), accountIds));
+        inTransaction(connection -> updateEach(connection, ColdTier.deleteAccountStatements(from), accountIds));
+    }
+
+    private static int updateEach(Connection connection, List<String> statements, List<Integer> accountIds) throws SQLException {
+        int rows = 0;
+        for (String sql : statements) {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (Integer accountId : accountIds) {
+                    stmt.setInt(1, accountId);
+                    stmt.addBatch();
+                }
+                for (int updated : stmt.executeBatch()) {
+                    rows += Math.max(updated, 0);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static int updateAll(Connection connection, List<String> statements) throws SQLException {
+        int rows = 0;
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : statements) {
+                rows += stmt.executeUpdate(sql);
+            }
+        }
+        return rows;
+    }
+
+    // Scan logic
+    // runs the work in one read transaction on its own connection. every scan made with that connection sees
+    // the db as of its first read, whatever commits on the shared connection meanwhile
+    public <T> T inReadSnapshot(SqlWork<T> work) {
+        try (Connection connection = openConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("BEGIN");
+            try {
+                return work.apply(connection);
+            } finally {
+                rollback(stmt);
+            }
+        } catch (SQLException e) {
+            log.error("caught exception reading a snapshot", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    // the lowest and highest account ids, or empty when there are no accounts
+    public Optional<long[]> getAccountIdBounds() {
+        try (Connection connection = openConnection()) {
+            return getAccountIdBounds(connection);
+        } catch (SQLException e) {
+            log.error("caught exception reading account id bounds", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Optional<long[]> getAccountIdBounds(Connection connection) throws SQLException {
+        String sql = isArchiveAttached(connection) ? ColdTier.accountIdBoundsQuery : Account.idBoundsQuery;
+        try (Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery(sql)) {
+            if (!resultSet.next() || resultSet.getObject("min_id") == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new long[]{resultSet.getLong("min_id"), resultSet.getLong("max_id")});
+        }
+    }
+
+    public long scanBalances(BalanceVisitor visitor) {
+        return scanBalances(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+    }
+
+    // streams every account with an id in the inclusive range to the visitor, in id order, returning the row count.
+    // runs on its own connection with a forward only cursor, so the shared connection is not held and only
+    // one fetch of rows is in memory at a time
+    public long scanBalances(long fromAccountId, long toAccountId, BalanceVisitor visitor) {
+        try (Connection connection = openConnection()) {
+            return scanBalances(connection, fromAccountId, toAccountId, visitor);
+        } catch (SQLException e) {
+            log.error("caught exception scanning balances", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    // the same on a connection from inReadSnapshot, so several ranges add up to one point in time
+    public long scanBalances(Connection connection, long fromAccountId, long toAccountId, BalanceVisitor visitor)
+            throws SQLException {
+        boolean tiered = isArchiveAttached(connection);
+        try (PreparedStatement stmt = connection.prepareStatement(tiered ? ColdTier.scanBalancesQuery : Account.scanBalancesQuery,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(SCAN_FETCH_SIZE);
+            stmt.setLong(1, fromAccountId);
+            stmt.setLong(2, toAccountId);
+            if (tiered) {
+                stmt.setLong(3, fromAccountId);
+                stmt.setLong(4, toAccountId);
+            }
+            long rows = 0;
+            try (ResultSet resultSet = stmt.executeQuery()) {
+                while (resultSet.next()) {
+                    visitor.visit(resultSet.getInt(1), resultSet.getString(2), resultSet.getLong(3));
+                    rows++;
+                }
+            }
+            return rows;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Replication logic
+    // streams every account, then every balance and session, to the visitor as change events stamped with the
+    // sequence, returning the row count. archived accounts are included when the archive is attached. one read
+    // transaction on its own connection sees all the tables at the same instant without holding the shared
+    // connection
+    public long scanReplicationSnapshot(long sequence, ChangeVisitor visitor) {
+        long takenAtMillis = System.currentTimeMillis();
+        long rows = 0;
+        try (Connection connection = openConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.setFetchSize(SCAN_FETCH_SIZE);
+            boolean tiered = isArchiveAttached(connection);
+            stmt.execute("BEGIN");
+            try {
+                try (ResultSet resultSet = stmt.executeQuery(tiered ? ColdTier.selectAllAccountsQuery : Account.selectAllQuery)) {
+                    while (resultSet.next()) {
+                        visitor.visit(ChangeEvent.builder()
+                                .sequence(sequence)
+                                .type(ChangeType.ACCOUNT)
+                                .accountId(resultSet.getInt("id"))
+                                .username(resultSet.getString("username"))
+                                .pin(resultSet.getString("pin"))
+                                .committedAtMillis(takenAtMillis)
+                                .build());
+                        rows++;
+                    }
+                }
+                try (ResultSet resultSet = stmt.executeQuery(tiered ? ColdTier.selectAllBalancesQuery : Balance.selectAllQuery)) {
+                    while (resultSet.next()) {
+                        visitor.visit(ChangeEvent.builder()
+                                .sequence(sequence)
+                                .type(ChangeType.BALANCE)
+                                .accountId(resultSet.getInt("account_id"))
+                                .balance(resultSet.getLong("balance"))
+                                .committedAtMillis(takenAtMillis)
+                                .build());
+                        rows++;
+                    }
+                }
+                try (ResultSet resultSet = stmt.executeQuery(tiered ? ColdTier.selectAllSessionsQuery : Session.selectAllQuery)) {
+                    while (resultSet.next()) {
+                        visitor.visit(ChangeEvent.builder()
+                                .sequence(sequence)
+                                .type(ChangeType.SESSION)
+                                .accountId(resultSet.getInt("account_id"))
+                                .token(UUID.fromString(resultSet.getString("token")))
+                                .expires(resultSet.getTimestamp("expires"))
+                                .committedAtMillis(takenAtMillis)
+                                .build());
+                        rows++;
+                    }
+                }
+            } finally {
+                rollback(stmt);
+            }
+            return rows;
+        } catch (SQLException e) {
+            log.error("caught exception scanning a replication snapshot", e);
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // applies changes streamed from a primary in one transaction. they are written as is, without the checks
+    // the live write paths make, and are not published to this dao's change feed
+    public void applyReplicatedChanges(List<ChangeEvent> events) {
+        inTransaction(connection -> writeReplicatedChanges(connection, events,
+                Account.replicateQuery, Balance.upsertQuery, Session.upsertQuery));
+    }
+
+    // empties the staging tables before a follower loads a fresh snapshot into them, dropping whatever an
+    // interrupted snapshot left there. the replicated tables are untouched until swapInReplicatedSnapshot
+    public void beginReplicatedSnapshot() {
+        inTransaction(connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                for (String sql : ReplicaStaging.TABLE_CREATIONS) {
+                    stmt.executeUpdate(sql);
+                }
+                for (String sql : ReplicaStaging.DELETE_ALL) {
+                    stmt.executeUpdate(sql);
+                }
+                return null;
+            }
+        });
+    }
+
+    // adds a chunk of snapshot rows to the staging tables, in one transaction
+    public void stageReplicatedChanges(List<ChangeEvent> events) {
+        inTransaction(connection -> writeReplicatedChanges(connection, events,
+                ReplicaStaging.stageAccountQuery, ReplicaStaging.stageBalanceQuery, ReplicaStaging.stageSessionQuery));
+    }
+
+    // replaces the replicated tables with the staged snapshot in one transaction, so a follower holds either
+    // its previous snapshot or the whole new one, never a mix or a partly emptied db
+    public void swapInReplicatedSnapshot() {
+        inTransaction(connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate(Session.deleteAllQuery);
+                stmt.executeUpdate(Balance.deleteAllQuery);
+                stmt.executeUpdate(Account.deleteAllQuery);
+                for (String sql : ReplicaStaging.SWAP_IN) {
+                    stmt.executeUpdate(sql);
+                }
+                for (String sql : ReplicaStaging.DELETE_ALL) {
+                    stmt.executeUpdate(sql);
+                }
+                return null;
+            }
+        });
+    }
+
+    // the statements take the same parameters whether they write the replicated tables or the staging ones
+    private static int writeReplicatedChanges(Connection connection, List<ChangeEvent> events,
+                                              String accountSql, String balanceSql, String sessionSql) throws SQLException {
+        try (PreparedStatement account = connection.prepareStatement(accountSql);
+             PreparedStatement balance = connection.prepareStatement(balanceSql);
+             PreparedStatement session = connection.prepareStatement(sessionSql)) {
+            for (ChangeEvent event : events) {
+                switch (event.getType()) {
+                    case ACCOUNT:
+                        account.setInt(1, event.getAccountId());
+                        account.setString(2, event.getUsername());
+                        account.setString(3, event.getPin());
+                        account.executeUpdate();
+                        break;
+                    case BALANCE:
+                        balance.setInt(1, event.getAccountId());
+                        balance.setLong(2, event.getBalance());
+                        balance.executeUpdate();
+                        break;
+                    case SESSION:
+                        session.setInt(1, event.getAccountId());
+                        session.setString(2, event.getToken().toString());
+                        session.setTimestamp(3, event.getExpires());
+                        session.executeUpdate();
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown change type " + event.getType());
+                }
+            }
+            return events.size();
+        }
     }
 }
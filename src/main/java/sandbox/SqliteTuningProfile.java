@@ -0,0 +1,73 @@
+package sandbox;
+
+import java.util.List;
+
+/**
+ * Named sets of sqlite pragmas, applied by the SqliteDao to every connection it opens. All of them use the
+ * write ahead log, so readers on other connections never block the writer.
+ *
+ *   DURABLE, every commit is synced to disk before it returns
+ *   BALANCED, the wal is synced at checkpoints only. a power cut can lose the last few commits, but never
+ *     corrupts the db, and a process crash loses nothing
+ *   THROUGHPUT, no syncs at all, a bigger page cache and memory mapped reads. for benchmarks and scratch dbs
+ *
+ * SqliteProfileBenchmark compares them on the same workload.
+ */
+public enum SqliteTuningProfile {
+    DURABLE("WAL", "FULL", 2_000, 0L, "DEFAULT", 5_000),
+    BALANCED("WAL", "NORMAL", 16_000, 64L * 1024 * 1024, "MEMORY", 5_000),
+    THROUGHPUT("WAL", "OFF", 64_000, 256L * 1024 * 1024, "MEMORY", 5_000);
+
+    private final String journalMode;
+    private final String synchronous;
+    // in KiB, sqlite takes a negative cache_size as KiB rather than pages
+    private final int cacheSizeKib;
+    private final long mmapSizeBytes;
+    private final String tempStore;
+    private final int busyTimeoutMillis;
+
+    SqliteTuningProfile(String journalMode, String synchronous, int cacheSizeKib, long mmapSizeBytes,
+                        String tempStore, int busyTimeoutMillis) {
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.cacheSizeKib = cacheSizeKib;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.tempStore = tempStore;
+        this.busyTimeoutMillis = busyTimeoutMillis;
+    }
+
+    // journal_mode goes first, the others are per connection and can be set in any order
+    public List<String> pragmas() {
+        return List.of(
+                "PRAGMA journal_mode=" + journalMode,
+                "PRAGMA synchronous=" + synchronous,
+                "PRAGMA cache_size=-" + cacheSizeKib,
+                "PRAGMA mmap_size=" + mmapSizeBytes,
+                "PRAGMA temp_store=" + tempStore,
+                "PRAGMA busy_timeout=" + busyTimeoutMillis);
+    }
+
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    public int getCacheSizeKib() {
+        return cacheSizeKib;
+    }
+
+    public long getMmapSizeBytes() {
+        return mmapSizeBytes;
+    }
+
+    public String getTempStore() {
+        return tempStore;
+    }
+
+    public int getBusyTimeoutMillis() {
+        return busyTimeoutMillis;
+    }
+}
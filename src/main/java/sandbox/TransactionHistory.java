@@ -0,0 +1,120 @@
+package sandbox;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.model.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Recent transactions per account, held in fixed size rings so mini statements for active customers are
+ * served from memory. A ring is loaded from the account_transaction table the first time a cold account
+ * asks for a statement, and kept up to date by every later change made through the simulator. Other
+ * writers, such as the interest job in another process, also add rows, so before a ring is served its
+ * newest row id is checked against the table's with one index lookup, and the ring is reloaded when they
+ * differ. The least recently used rings are dropped once more than maxAccounts are held.
+ *
+ * Callers hold the account lock, so loading and appending for one account never race.
+ */
+@Slf4j
+public class TransactionHistory {
+
+    private final SqliteDao sqliteDao;
+    private final int capacity;
+    private final Map<Integer, Ring> rings;
+
+    public TransactionHistory(SqliteDao sqliteDao) {
+        this(sqliteDao, Transaction.MAX_STATEMENT_ROWS, 10_000);
+    }
+
+    public TransactionHistory(SqliteDao sqliteDao, int capacity, int maxAccounts) {
+        if (capacity <= 0 || capacity > Transaction.MAX_STATEMENT_ROWS) {
+            throw new IllegalArgumentException("capacity must be between 1 and " + Transaction.MAX_STATEMENT_ROWS);
+        }
+        this.sqliteDao = sqliteDao;
+        this.capacity = capacity;
+        this.rings = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Ring> eldest) {
+                return size() > maxAccounts;
+            }
+        });
+    }
+
+    // the row must already be persisted. cold accounts are skipped, their next statement reads it from the table,
+    // as are rows a reload already picked up
+    public void append(Transaction transaction) {
+        Ring ring = rings.get(transaction.getAccountId());
+        if (ring != null) {
+            ring.addIfNewer(transaction);
+        }
+    }
+
+    // newest first
+    public List<Transaction> recent(Integer accountId, int count) {
+        if (count <= 0) {
+            return Collections.emptyList();
+        }
+        Ring ring = rings.get(accountId);
+        if (ring != null && !Objects.equals(ring.newestId(), sqliteDao.getLatestTransactionId(accountId))) {
+            log.debug("transaction history for accountId={} is behind the table, reloading it", accountId);
+            ring = null;
+        }
+        if (ring == null) {
+            log.debug("loading transaction history for cold accountId={}", accountId);
+            ring = new Ring(capacity);
+            List<Transaction> stored = sqliteDao.getRecentTransactions(accountId);
+            for (int i = Math.min(stored.size(), capacity) - 1; i >= 0; i--) {
+                ring.add(stored.get(i));
+            }
+            rings.put(accountId, ring);
+        }
+        return ring.newest(count);
+    }
+
+    boolean isHot(Integer accountId) {
+        return rings.containsKey(accountId);
+    }
+
+    // overwrites the oldest entry once full
+    private static class Ring {
+        private final Transaction[] entries;
+        private int next;
+        private int size;
+
+        Ring(int capacity) {
+            entries = new Transaction[capacity];
+        }
+
+        synchronized void add(Transaction transaction) {
+            entries[next] = transaction;
+            next = (next + 1) % entries.length;
+            size = Math.min(size + 1, entries.length);
+        }
+
+        synchronized void addIfNewer(Transaction transaction) {
+            Integer newest = newestId();
+            if (newest == null || transaction.getId() == null || transaction.getId() > newest) {
+                add(transaction);
+            }
+        }
+
+        // 0 for an account with no transactions, matching getLatestTransactionId, null if the newest has no id
+        synchronized Integer newestId() {
+            return size == 0 ? Integer.valueOf(0) : entries[Math.floorMod(next - 1, entries.length)].getId();
+        }
+
+        synchronized List<Transaction> newest(int count) {
+            int n = Math.min(count, size);
+            List<Transaction> result = new ArrayList<>(n);
+            for (int i = 1; i <= n; i++) {
+                result.add(entries[Math.floorMod(next - i, entries.length)]);
+            }
+            return result;
+        }
+    }
+}
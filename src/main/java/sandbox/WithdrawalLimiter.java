@@ -0,0 +1,285 @@
+package sandbox;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.model.WithdrawalWindow;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Enforces per transaction and rolling 24 hour withdrawal limits from in-memory counters, so checking a
+ * withdrawal never runs a query. Each account has 24 hourly buckets held in an immutable window that is
+ * swapped with compare-and-set, so concurrent withdrawals on one account can never reserve more than the
+ * daily limit between them.
+ *
+ * Changed accounts are written to the withdrawal_window table periodically and reloaded on startup.
+ * Withdrawals made after the last flush are lost by a crash.
+ */
+@Slf4j
+public class WithdrawalLimiter implements AutoCloseable {
+
+    private static final int HOURS_PER_DAY = 24;
+
+    private final SqliteDao sqliteDao;
+    private final long perTransactionLimit;
+    private final long dailyLimit;
+    private final Clock clock;
+    private final Map<Integer, AtomicReference<Window>> windows = new ConcurrentHashMap<>();
+    private final Set<Integer> dirtyAccounts = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService flusher;
+    private volatile long lastPrunedHour = Long.MIN_VALUE;
+
+    public WithdrawalLimiter(SqliteDao sqliteDao, AtmSimulatorConfig config) {
+        this(sqliteDao, config, Clock.systemUTC());
+    }
+
+    WithdrawalLimiter(SqliteDao sqliteDao, AtmSimulatorConfig config, Clock clock) {
+        this.sqliteDao = sqliteDao;
+        this.perTransactionLimit = config.getPerTransactionWithdrawalLimit();
+        this.dailyLimit = config.getDailyWithdrawalLimit();
+        this.clock = clock;
+
+        load();
+
+        long flushMillis = config.getWithdrawalLimitFlushInterval().toMillis();
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "withdrawal-limit-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+
+    // a reservation if the amount fits under both limits, in which case it is counted against the account
+    public Optional<Reservation> tryReserve(int accountId, long amount) {
+        return tryReserve(accountId, amount, clock.instant());
+    }
+
+    Optional<Reservation> tryReserve(int accountId, long amount, Instant now) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("withdrawal amount must be positive");
+        }
+        if (amount > perTransactionLimit) {
+            log.info("withdrawal of {} is over the per transaction limit for accountId={}", amount, accountId);
+            return Optional.empty();
+        }
+
+        long hour = hourOf(now);
+        AtomicReference<Window> ref = windows.computeIfAbsent(accountId, id -> new AtomicReference<>(Window.EMPTY));
+        while (true) {
+            Window current = ref.get();
+            if (current == Window.RETIRED) {
+                // the flusher dropped this window between the lookup and here, count against its replacement
+                ref = windows.computeIfAbsent(accountId, id -> new AtomicReference<>(Window.EMPTY));
+                continue;
+            }
+            if (current.total(hour) + amount > dailyLimit) {
+                log.info("withdrawal of {} is over the daily limit for accountId={}", amount, accountId);
+                return Optional.empty();
+            }
+            if (ref.compareAndSet(current, current.add(hour, amount))) {
+                dirtyAccounts.add(accountId);
+                return Optional.of(new Reservation(accountId, amount, hour));
+            }
+        }
+    }
+
+    // give back a reservation whose withdrawal did not go through. it comes off the hour it was made in,
+    // which may have slid out of the window by now, in which case it no longer counts anyway
+    public void release(Reservation reservation) {
+        AtomicReference<Window> ref = windows.get(reservation.accountId);
+        if (ref == null) {
+            return;
+        }
+        Window current;
+        do {
+            current = ref.get();
+            if (current == Window.RETIRED) {
+                return;
+            }
+        } while (!ref.compareAndSet(current, current.subtract(reservation.hour, reservation.amount)));
+        dirtyAccounts.add(reservation.accountId);
+    }
+
+    long withdrawnToday(int accountId, Instant now) {
+        AtomicReference<Window> ref = windows.get(accountId);
+        return ref == null ? 0L : ref.get().total(hourOf(now));
+    }
+
+    // write every changed account in one transaction and delete table rows older than a day, which is done
+    // once an hour even when nothing changed. buckets emptied by a release are written as zero, so the table
+    // does not keep the old amount for the next startup. accounts with nothing left in the last day are
+    // dropped from memory
+    public void flush() {
+        flush(clock.instant());
+    }
+
+    void flush(Instant now) {
+        long hour = hourOf(now);
+        if (!dirtyAccounts.isEmpty() || hour != lastPrunedHour) {
+            persist(hour);
+        }
+        retireExpiredWindows(hour);
+    }
+
+    private void persist(long hour) {
+        List<WithdrawalWindow> rows = new ArrayList<>();
+        for (Integer accountId : dirtyAccounts) {
+            dirtyAccounts.remove(accountId);
+            AtomicReference<Window> ref = windows.get(accountId);
+            if (ref != null) {
+                ref.get().addRows(accountId, hour, rows);
+            }
+        }
+        sqliteDao.persistWithdrawalWindows(rows, hour - HOURS_PER_DAY);
+        lastPrunedHour = hour;
+        log.debug("flushed {} withdrawal windows", rows.size());
+    }
+
+    // a retired window is never counted against again, a reservation that races with this starts a new one
+    private void retireExpiredWindows(long hour) {
+        int retired = 0;
+        for (Map.Entry<Integer, AtomicReference<Window>> entry : windows.entrySet()) {
+            AtomicReference<Window> ref = entry.getValue();
+            Window current = ref.get();
+            if (current.isExpired(hour) && !dirtyAccounts.contains(entry.getKey())
+                    && ref.compareAndSet(current, Window.RETIRED)) {
+                windows.remove(entry.getKey(), ref);
+                retired++;
+            }
+        }
+        if (retired > 0) {
+            log.debug("dropped {} expired withdrawal windows", retired);
+        }
+    }
+
+    int trackedAccounts() {
+        return windows.size();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("could not flush withdrawal windows", e);
+        }
+    }
+
+    private void load() {
+        long hour = hourOf(clock.instant());
+        List<WithdrawalWindow> rows = sqliteDao.getWithdrawalWindows(hour - HOURS_PER_DAY);
+        for (WithdrawalWindow row : rows) {
+            AtomicReference<Window> ref = windows.computeIfAbsent(row.getAccountId(), id -> new AtomicReference<>(Window.EMPTY));
+            ref.set(ref.get().add(row.getHour(), row.getAmount()));
+        }
+        log.debug("loaded {} withdrawal windows", rows.size());
+    }
+
+    private static long hourOf(Instant instant) {
+        return instant.getEpochSecond() / 3600;
+    }
+
+    /**
+     * an amount counted against an account, remembering the hour it was counted in so it can be given back
+     */
+    public static final class Reservation {
+        private final int accountId;
+        private final long amount;
+        private final long hour;
+
+        private Reservation(int accountId, long amount, long hour) {
+            this.accountId = accountId;
+            this.amount = amount;
+            this.hour = hour;
+        }
+    }
+
+    // 24 hourly buckets, indexed by hour modulo 24. a bucket only counts while its hour is within the last day
+    private static final class Window {
+        static final Window EMPTY = new Window(new long[HOURS_PER_DAY], new long[HOURS_PER_DAY]);
+        // marks a window removed from the map, compared by identity
+        static final Window RETIRED = new Window(new long[HOURS_PER_DAY], new long[HOURS_PER_DAY]);
+
+        private final long[] hours;
+        private final long[] amounts;
+
+        private Window(long[] hours, long[] amounts) {
+            this.hours = hours;
+            this.amounts = amounts;
+        }
+
+        long total(long currentHour) {
+            long total = 0;
+            for (int i = 0; i < HOURS_PER_DAY; i++) {
+                if (isLive(hours[i], currentHour)) {
+                    total += amounts[i];
+                }
+            }
+            return total;
+        }
+
+        Window add(long hour, long amount) {
+            int slot = (int) Math.floorMod(hour, (long) HOURS_PER_DAY);
+            long[] newHours = hours.clone();
+            long[] newAmounts = amounts.clone();
+            if (newHours[slot] != hour) {
+                newHours[slot] = hour;
+                newAmounts[slot] = 0;
+            }
+            newAmounts[slot] = newAmounts[slot] + amount;
+            return new Window(newHours, newAmounts);
+        }
+
+        // a no-op once the slot holds a later hour, the amount left the window with its own hour
+        Window subtract(long hour, long amount) {
+            int slot = (int) Math.floorMod(hour, (long) HOURS_PER_DAY);
+            if (hours[slot] != hour) {
+                return this;
+            }
+            long[] newAmounts = amounts.clone();
+            newAmounts[slot] = Math.max(0, newAmounts[slot] - amount);
+            return new Window(hours, newAmounts);
+        }
+
+        boolean isExpired(long currentHour) {
+            for (int i = 0; i < HOURS_PER_DAY; i++) {
+                if (amounts[i] > 0 && isLive(hours[i], currentHour)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void addRows(int accountId, long currentHour, List<WithdrawalWindow> rows) {
+            for (int i = 0; i < HOURS_PER_DAY; i++) {
+                if (isLive(hours[i], currentHour)) {
+                    rows.add(WithdrawalWindow.builder()
+                            .accountId(accountId)
+                            .hour(hours[i])
+                            .amount(amounts[i])
+                            .build());
+                }
+            }
+        }
+
+        private static boolean isLive(long bucketHour, long currentHour) {
+            return bucketHour > currentHour - HOURS_PER_DAY && bucketHour <= currentHour;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package sandbox.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrency limit that follows latency, in the style of TCP Vegas. Latencies are averaged over windows
+ * of samples, and the best window seen stands for the latency with nothing queued. From the two the size
+ * of the queue is estimated, limit * (1 - best / current): while it is short the limit grows, once it is
+ * long the limit shrinks, each by about log10 of the limit per window. Growth only happens when the limit
+ * was actually used, so a quiet period does not leave a limit nobody has tested. The best window is
+ * forgotten now and then, so a db that got slower for good does not pin the limit at its minimum.
+ *
+ * Work queued behind a single sqlite writer shows up directly as latency, so the limit settles near the
+ * concurrency the db can serve without a queue building.
+ */
+public class AdaptiveLimit {
+
+    private static final int WINDOW_SAMPLES = 50;
+    // windows between forgetting the best latency
+    private static final int PROBE_WINDOWS = 500;
+    // queue estimates, as multiples of log10 of the limit, under which to grow and over which to shrink
+    private static final double ALPHA = 3;
+    private static final double BETA = 6;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile double limit;
+
+    // guarded by this
+    private long windowNanos;
+    private int windowCount;
+    private int windowMaxInFlight;
+    private int windows;
+    private double noLoadRttNanos;
+
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("limits must satisfy 1 <= min <= initial <= max");
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    // every successful acquire must be followed by a release
+    public boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        admitted.increment();
+        return true;
+    }
+
+    public void release(long latencyNanos) {
+        int wasInFlight = inFlight.getAndDecrement();
+        sample(latencyNanos, wasInFlight);
+    }
+
+    // for work that was turned away without doing what the limit measures, a throttled login or an invalid
+    // token. its latency would pass for the no-load latency and shrink the limit to its minimum
+    public void releaseWithoutSample() {
+        inFlight.decrementAndGet();
+    }
+
+    // for callers that turn work away for reasons of their own
+    void countRejected() {
+        rejected.increment();
+    }
+
+    public boolean isSaturated() {
+        return inFlight.get() >= (int) limit;
+    }
+
+    private synchronized void sample(long latencyNanos, int wasInFlight) {
+        windowNanos += latencyNanos;
+        windowMaxInFlight = Math.max(windowMaxInFlight, wasInFlight);
+        if (++windowCount < WINDOW_SAMPLES) {
+            return;
+        }
+        double rtt = (double) windowNanos / windowCount;
+        boolean used = windowMaxInFlight >= limit / 2;
+        windowNanos = 0;
+        windowCount = 0;
+        windowMaxInFlight = 0;
+
+        if (++windows % PROBE_WINDOWS == 0 || noLoadRttNanos == 0 || rtt < noLoadRttNanos) {
+            noLoadRttNanos = rtt;
+            return;
+        }
+
+        double queue = limit * (1 - noLoadRttNanos / rtt);
+        double step = Math.max(1, Math.log10(limit));
+        if (queue <= ALPHA * step && used) {
+            limit = Math.min(maxLimit, limit + step);
+        } else if (queue >= BETA * step) {
+            limit = Math.max(minLimit, limit - step);
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,132 @@
+package sandbox.admission;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.AtmSimulator;
+import sandbox.model.Transaction;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Sheds load in front of any simulator, so a burst is turned away at the door instead of queueing on the
+ * sqlite writer until everyone times out. Reads and writes have their own adaptive limits, and an operation
+ * over its limit fails at once with an OverloadedException, changing nothing.
+ *
+ * Balance reads come first: while reads are at their limit every write is shed, since the reads are stuck
+ * behind writes on the shared connection. Logouts are never shed, the token should stop working when asked.
+ *
+ * Only calls that return normally feed their latency to the limits. Failed calls and failed logins are
+ * mostly turned away before the db, an invalid token or a throttled username, and would pass for a db
+ * with nothing queued.
+ */
+@Slf4j
+public class AdmissionController implements AtmSimulator {
+
+    private final AtmSimulator delegate;
+    private final AdaptiveLimit reads;
+    private final AdaptiveLimit writes;
+
+    public AdmissionController(AtmSimulator delegate) {
+        this(delegate, new AdaptiveLimit(16, 4, 256), new AdaptiveLimit(8, 1, 64));
+    }
+
+    public AdmissionController(AtmSimulator delegate, AdaptiveLimit reads, AdaptiveLimit writes) {
+        this.delegate = delegate;
+        this.reads = reads;
+        this.writes = writes;
+    }
+
+    @Override
+    public Optional<String> login(String username, String pin) {
+        return write("login", () -> delegate.login(username, pin), Optional::isPresent);
+    }
+
+    @Override
+    public void logout(String token) {
+        delegate.logout(token);
+    }
+
+    @Override
+    public long viewBalance(String token) {
+        return read("viewBalance", () -> delegate.viewBalance(token));
+    }
+
+    @Override
+    public boolean deposit(String token, long amount) {
+        return write("deposit", () -> delegate.deposit(token, amount));
+    }
+
+    @Override
+    public boolean deposit(String token, long amount, String requestId) {
+        return write("deposit", () -> delegate.deposit(token, amount, requestId));
+    }
+
+    @Override
+    public boolean withdraw(String token, long amount) {
+        return write("withdraw", () -> delegate.withdraw(token, amount));
+    }
+
+    @Override
+    public boolean withdraw(String token, long amount, String requestId) {
+        return write("withdraw", () -> delegate.withdraw(token, amount, requestId));
+    }
+
+    @Override
+    public boolean transfer(String token, int targetAccountId, long amount) {
+        return write("transfer", () -> delegate.transfer(token, targetAccountId, amount));
+    }
+
+    @Override
+    public List<Transaction> recentTransactions(String token, int count) {
+        return read("recentTransactions", () -> delegate.recentTransactions(token, count));
+    }
+
+    public AdaptiveLimit getReads() {
+        return reads;
+    }
+
+    public AdaptiveLimit getWrites() {
+        return writes;
+    }
+
+    private <T> T read(String operation, Supplier<T> call) {
+        return admit(reads, operation, call, result -> true);
+    }
+
+    private <T> T write(String operation, Supplier<T> call) {
+        return write(operation, call, result -> true);
+    }
+
+    private <T> T write(String operation, Supplier<T> call, Predicate<T> sampled) {
+        if (reads.isSaturated()) {
+            writes.countRejected();
+            log.debug("reads are at their limit, shedding {}", operation);
+            throw new OverloadedException(operation);
+        }
+        return admit(writes, operation, call, sampled);
+    }
+
+    private static <T> T admit(AdaptiveLimit limit, String operation, Supplier<T> call, Predicate<T> sampled) {
+        if (!limit.tryAcquire()) {
+            log.debug("{} in flight, shedding {}", limit.getInFlight(), operation);
+            throw new OverloadedException(operation);
+        }
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException | Error e) {
+            limit.releaseWithoutSample();
+            throw e;
+        }
+        long latencyNanos = System.nanoTime() - start;
+        if (sampled.test(result)) {
+            limit.release(latencyNanos);
+        } else {
+            limit.releaseWithoutSample();
+        }
+        return result;
+    }
+}
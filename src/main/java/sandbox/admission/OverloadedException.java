@@ -0,0 +1,12 @@
+package sandbox.admission;
+
+/**
+ * The operation was turned away before it ran, because too many like it were already in flight. Nothing
+ * was changed, so the caller can try again later.
+ */
+public class OverloadedException extends RuntimeException {
+
+    public OverloadedException(String operation) {
+        super("overloaded, " + operation + " was not run");
+    }
+}
@@ -0,0 +1,25 @@
+package sandbox.batch;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * How far a batch job has got. Reported after every chunk, and returned when the job finishes.
+ */
+@Value
+@Builder
+public class BatchProgress {
+    String jobId;
+    int chunksTotal;
+    int chunksDone;
+    // completed by an earlier run of the same job
+    int chunksSkipped;
+    long accountsCredited;
+    // in cents
+    long amountCredited;
+    long elapsedMillis;
+
+    public double percentDone() {
+        return chunksTotal == 0 ? 100.0 : 100.0 * (chunksDone + chunksSkipped) / chunksTotal;
+    }
+}
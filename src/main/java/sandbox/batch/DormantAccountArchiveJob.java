@@ -0,0 +1,62 @@
+package sandbox.batch;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.SqliteDao;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Moves accounts nobody has used for a while out of the hot db into the attached archive, so the hot
+ * tables, their indexes and the page cache only hold active customers. An account is dormant once its
+ * last login and its last deposit, withdrawal or transfer are both before the cutoff, with either kind of
+ * session token. Interest credits do not count.
+ *
+ * Accounts are moved a chunk at a time in id order, and the shared connection is free between chunks, so
+ * live traffic carries on while the job runs. The job can be stopped and run again at any time. Pages freed
+ * in the hot file are reused by new rows, the file itself only shrinks with a vacuum.
+ */
+@Slf4j
+public class DormantAccountArchiveJob {
+
+    private final SqliteDao sqliteDao;
+    private final Duration dormantAfter;
+    private final int chunkSize;
+
+    public DormantAccountArchiveJob(SqliteDao sqliteDao, Duration dormantAfter) {
+        this(sqliteDao, dormantAfter, 500);
+    }
+
+    public DormantAccountArchiveJob(SqliteDao sqliteDao, Duration dormantAfter, int chunkSize) {
+        if (!sqliteDao.isArchiveAttached()) {
+            throw new IllegalArgumentException("the dao has no archive attached");
+        }
+        if (dormantAfter.isNegative() || chunkSize <= 0) {
+            throw new IllegalArgumentException("dormantAfter must not be negative and chunkSize must be positive");
+        }
+        this.sqliteDao = sqliteDao;
+        this.dormantAfter = dormantAfter;
+        this.chunkSize = chunkSize;
+    }
+
+    // returns the number of accounts archived
+    public long run() {
+        long started = System.nanoTime();
+        Timestamp cutoff = Timestamp.from(Instant.now().minus(dormantAfter));
+        log.info("archiving accounts dormant since {}", cutoff);
+
+        long archived = 0;
+        int afterAccountId = 0;
+        List<Integer> chunk;
+        while (!(chunk = sqliteDao.archiveDormantAccounts(cutoff, afterAccountId, chunkSize)).isEmpty()) {
+            archived += chunk.size();
+            afterAccountId = chunk.get(chunk.size() - 1);
+            log.debug("archived {} accounts up to accountId={}", archived, afterAccountId);
+        }
+
+        log.info("archived {} dormant accounts in {}ms", archived, (System.nanoTime() - started) / 1_000_000);
+        return archived;
+    }
+}
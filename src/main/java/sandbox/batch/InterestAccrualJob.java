@@ -0,0 +1,230 @@
+package sandbox.batch;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.SqliteDao;
+import sandbox.model.Balance;
+import sandbox.model.BatchCheckpoint;
+import sandbox.model.ColdTier;
+import sandbox.model.Transaction;
+import sandbox.model.TransactionType;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Month end interest on every balance, hot or archived. The balance table is split into id range chunks
+ * that are processed in parallel: each chunk is read over one of a few separate read connections, its
+ * interest computed, and then written back through the dao in one transaction together with the chunk's
+ * checkpoint. A job that fails or is killed can be run again with the same jobId and chunk size, it skips
+ * the chunks that were committed.
+ *
+ * Each credit is written only if the balance is unchanged since it was read, otherwise it is computed again
+ * from the current balance. Deposits and withdrawals add to the balance in sql rather than writing one they
+ * read earlier, so neither side overwrites the other, whether the job runs in the serving process or not.
+ * Statements held in memory by a running simulator do not show the interest until they are reloaded.
+ */
+@Slf4j
+public class InterestAccrualJob {
+
+    private final SqliteDao sqliteDao;
+    private final String jobId;
+    private final long rateBasisPoints;
+    private final int chunkSize;
+    private final int parallelism;
+    private final Consumer<BatchProgress> progressListener;
+
+    // rate in basis points per run, 25 is 0.25%
+    public InterestAccrualJob(SqliteDao sqliteDao, String jobId, long rateBasisPoints) {
+        this(sqliteDao, jobId, rateBasisPoints, 10_000, Runtime.getRuntime().availableProcessors(),
+                progress -> log.info("interest accrual {}: {}% done, {} accounts credited",
+                        progress.getJobId(), String.format("%.1f", progress.percentDone()), progress.getAccountsCredited()));
+    }
+
+    public InterestAccrualJob(SqliteDao sqliteDao, String jobId, long rateBasisPoints, int chunkSize, int parallelism,
+                              Consumer<BatchProgress> progressListener) {
+        if (rateBasisPoints < 0) {
+            throw new IllegalArgumentException("rate must not be negative");
+        }
+        if (chunkSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("chunkSize and parallelism must be positive");
+        }
+        this.sqliteDao = sqliteDao;
+        this.jobId = jobId;
+        this.rateBasisPoints = rateBasisPoints;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.progressListener = progressListener;
+    }
+
+    // rounded half up. nothing is paid on zero or overdrawn balances
+    public long interestOf(long balance) {
+        if (balance <= 0) {
+            return 0;
+        }
+        return (Math.multiplyExact(balance, rateBasisPoints) + 5_000) / 10_000;
+    }
+
+    public BatchProgress run() throws InterruptedException {
+        long started = System.nanoTime();
+        Set<Long> completed = sqliteDao.getCompletedChunks(jobId).stream()
+                .map(BatchCheckpoint::getChunkStart)
+                .collect(Collectors.toSet());
+
+        BlockingQueue<Connection> readers = new ArrayBlockingQueue<>(parallelism);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int i = 0; i < parallelism; i++) {
+                readers.add(sqliteDao.openConnection());
+            }
+            List<Long> chunks = chunkStarts(readers.peek());
+            List<Long> remaining = chunks.stream()
+                    .filter(chunk -> !completed.contains(chunk))
+                    .collect(Collectors.toList());
+            int skipped = chunks.size() - remaining.size();
+            log.info("starting interest accrual {}: {} chunks, {} already done", jobId, chunks.size(), skipped);
+
+            AtomicInteger done = new AtomicInteger();
+            LongAdder accounts = new LongAdder();
+            LongAdder amount = new LongAdder();
+            pool.submit(() -> remaining.parallelStream().forEach(chunk -> {
+                List<Transaction> credits = runChunk(chunk, readers);
+                accounts.add(credits.size());
+                amount.add(credits.stream().mapToLong(Transaction::getAmount).sum());
+                progressListener.accept(progress(chunks.size(), done.incrementAndGet(), skipped, accounts, amount, started));
+            })).get();
+
+            BatchProgress result = progress(chunks.size(), done.get(), skipped, accounts, amount, started);
+            log.info("finished interest accrual {}: {} accounts credited {} cents in {}ms",
+                    jobId, result.getAccountsCredited(), result.getAmountCredited(), result.getElapsedMillis());
+            return result;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("interest accrual " + jobId + " failed, run it again to resume", e.getCause());
+        } finally {
+            pool.shutdown();
+            for (Connection reader : readers) {
+                closeQuietly(reader);
+            }
+        }
+    }
+
+    private List<Transaction> runChunk(long chunkStart, BlockingQueue<Connection> readers) {
+        List<Balance> balances;
+        Connection reader = null;
+        try {
+            reader = readers.take();
+            balances = readChunk(reader, chunkStart);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            if (reader != null) {
+                readers.add(reader);
+            }
+        }
+
+        Timestamp now = Timestamp.from(Instant.now());
+        List<Transaction> credits = new ArrayList<>(balances.size());
+        for (Balance balance : balances) {
+            long interest = interestOf(balance.getBalance());
+            if (interest > 0) {
+                credits.add(Transaction.builder()
+                        .accountId(balance.getAccountId())
+                        .type(TransactionType.INTEREST)
+                        .amount(interest)
+                        .balance(balance.getBalance() + interest)
+                        .created(now)
+                        .build());
+            }
+        }
+        return sqliteDao.applyInterestChunk(BatchCheckpoint.builder()
+                .jobId(jobId)
+                .chunkStart(chunkStart)
+                .completed(System.currentTimeMillis())
+                .build(), credits, this::interestOf);
+    }
+
+    // archived balances too, once the dao has an archive attached
+    private List<Balance> readChunk(Connection reader, long chunkStart) {
+        List<Balance> balances = new ArrayList<>();
+        try {
+            boolean tiered = sqliteDao.isArchiveAttached(reader);
+            try (PreparedStatement stmt = reader.prepareStatement(tiered ? ColdTier.selectBalanceIdRangeQuery : Balance.selectIdRangeQuery)) {
+                stmt.setLong(1, chunkStart);
+                stmt.setLong(2, chunkStart + chunkSize);
+                if (tiered) {
+                    stmt.setLong(3, chunkStart);
+                    stmt.setLong(4, chunkStart + chunkSize);
+                }
+                try (ResultSet resultSet = stmt.executeQuery()) {
+                    while (resultSet.next()) {
+                        balances.add(Balance.builder()
+                                .id(resultSet.getInt("id"))
+                                .accountId(resultSet.getInt("account_id"))
+                                .balance(resultSet.getLong("balance"))
+                                .build());
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            log.error("caught exception reading balances from id {}", chunkStart, e);
+            throw new RuntimeException(e);
+        }
+        return balances;
+    }
+
+    // chunks are aligned to multiples of the chunk size, so a rerun splits the table the same way
+    private List<Long> chunkStarts(Connection reader) {
+        try (Statement stmt = reader.createStatement();
+             ResultSet resultSet = stmt.executeQuery(sqliteDao.isArchiveAttached(reader) ? ColdTier.balanceIdBoundsQuery : Balance.idBoundsQuery)) {
+            List<Long> chunks = new ArrayList<>();
+            if (!resultSet.next() || resultSet.getObject("min_id") == null) {
+                return chunks;
+            }
+            long minId = resultSet.getLong("min_id");
+            long maxId = resultSet.getLong("max_id");
+            for (long start = minId - Math.floorMod(minId, (long) chunkSize); start <= maxId; start += chunkSize) {
+                chunks.add(start);
+            }
+            return chunks;
+        } catch (SQLException e) {
+            log.error("caught exception reading balance id bounds", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private BatchProgress progress(int total, int done, int skipped, LongAdder accounts, LongAdder amount, long started) {
+        return BatchProgress.builder()
+                .jobId(jobId)
+                .chunksTotal(total)
+                .chunksDone(done)
+                .chunksSkipped(skipped)
+                .accountsCredited(accounts.sum())
+                .amountCredited(amount.sum())
+                .elapsedMillis((System.nanoTime() - started) / 1_000_000)
+                .build();
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.error("could not close read connection", e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package sandbox.cash;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The cash in one atm, as a cassette per denomination. A withdrawal reserves its notes before the balance
+ * is touched, so an amount the machine cannot pay out is rejected up front. Reserved notes are given back
+ * if the withdrawal then fails.
+ */
+@Slf4j
+public class CashDispenser {
+
+    // a reservation races other withdrawals for the same notes, it is planned again if it loses
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final Cassette[] cassettes;
+    private final DispensePlanner planner;
+    private final LongAdder dispensedAmount = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // notes loaded per denomination in cents. maxAmount bounds the lookup tables, usually the per transaction limit
+    public CashDispenser(Map<Long, Long> notesByDenomination, long maxAmount) {
+        this.planner = new DispensePlanner(notesByDenomination.keySet().stream().mapToLong(Long::longValue).toArray(), maxAmount);
+        this.cassettes = Arrays.stream(planner.getDenominations())
+                .mapToObj(denomination -> new Cassette(denomination, notesByDenomination.get(denomination)))
+                .toArray(Cassette[]::new);
+    }
+
+    // largest denomination first
+    public List<Cassette> getCassettes() {
+        return Collections.unmodifiableList(Arrays.asList(cassettes));
+    }
+
+    public long getCashAvailable() {
+        long total = 0;
+        for (Cassette cassette : cassettes) {
+            total += cassette.getDenomination() * cassette.getNotes();
+        }
+        return total;
+    }
+
+    public long getDispensedAmount() {
+        return dispensedAmount.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    // takes the notes for the amount out of the cassettes, or empty if the machine cannot pay it out
+    public Optional<DispensePlan> reserve(long amount) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long[] available = new long[cassettes.length];
+            for (int i = 0; i < cassettes.length; i++) {
+                available[i] = cassettes[i].getNotes();
+            }
+            Optional<DispensePlan> plan = planner.plan(amount, available);
+            if (plan.isEmpty()) {
+                break;
+            }
+            if (take(plan.get())) {
+                return plan;
+            }
+        }
+        rejected.increment();
+        log.info("cannot dispense {} from the notes left", amount);
+        return Optional.empty();
+    }
+
+    // the withdrawal went through and the notes were paid out
+    public void dispensed(DispensePlan plan) {
+        int[] notes = plan.getNotes();
+        for (int i = 0; i < cassettes.length; i++) {
+            if (notes[i] > 0) {
+                cassettes[i].recordDispensed(notes[i]);
+            }
+        }
+        dispensedAmount.add(plan.getAmount());
+    }
+
+    // the withdrawal failed, the notes go back in the cassettes
+    public void release(DispensePlan plan) {
+        int[] notes = plan.getNotes();
+        for (int i = 0; i < cassettes.length; i++) {
+            if (notes[i] > 0) {
+                cassettes[i].giveBack(notes[i]);
+            }
+        }
+    }
+
+    // all or nothing, notes already taken are given back if a later cassette has run short
+    private boolean take(DispensePlan plan) {
+        int[] notes = plan.getNotes();
+        for (int i = 0; i < cassettes.length; i++) {
+            if (notes[i] > 0 && !cassettes[i].tryTake(notes[i])) {
+                for (int j = 0; j < i; j++) {
+                    if (notes[j] > 0) {
+                        cassettes[j].giveBack(notes[j]);
+                    }
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,69 @@
+package sandbox.cash;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One cassette of notes of a single denomination. The note count is taken with compare-and-set so
+ * concurrent withdrawals can never take more notes than are loaded. Dispensing statistics are LongAdders,
+ * they are written on every withdrawal and only read for reporting.
+ */
+public class Cassette {
+
+    private final long denomination;
+    private final AtomicLong notes;
+    private final LongAdder dispensedNotes = new LongAdder();
+
+    public Cassette(long denomination, long notes) {
+        if (denomination <= 0) {
+            throw new IllegalArgumentException("denomination must be positive");
+        }
+        if (notes < 0) {
+            throw new IllegalArgumentException("notes must not be negative");
+        }
+        this.denomination = denomination;
+        this.notes = new AtomicLong(notes);
+    }
+
+    // in cents
+    public long getDenomination() {
+        return denomination;
+    }
+
+    public long getNotes() {
+        return notes.get();
+    }
+
+    public long getDispensedNotes() {
+        return dispensedNotes.sum();
+    }
+
+    // false, taking nothing, if fewer than count notes are left
+    boolean tryTake(long count) {
+        while (true) {
+            long current = notes.get();
+            if (current < count) {
+                return false;
+            }
+            if (notes.compareAndSet(current, current - count)) {
+                return true;
+            }
+        }
+    }
+
+    // notes taken for a withdrawal that did not go through
+    void giveBack(long count) {
+        notes.addAndGet(count);
+    }
+
+    void recordDispensed(long count) {
+        dispensedNotes.add(count);
+    }
+
+    public void load(long count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("must load at least one note");
+        }
+        notes.addAndGet(count);
+    }
+}
@@ -0,0 +1,29 @@
+package sandbox.cash;
+
+import lombok.Value;
+
+import java.util.Arrays;
+
+/**
+ * The notes to pay out for one withdrawal, as a count per denomination. Denominations are in cents,
+ * largest first, in the same order as the dispenser's cassettes.
+ */
+@Value
+public class DispensePlan {
+    long amount;
+    long[] denominations;
+    int[] notes;
+
+    public int notesOf(long denomination) {
+        for (int i = 0; i < denominations.length; i++) {
+            if (denominations[i] == denomination) {
+                return notes[i];
+            }
+        }
+        return 0;
+    }
+
+    public int totalNotes() {
+        return Arrays.stream(notes).sum();
+    }
+}
@@ -0,0 +1,146 @@
+package sandbox.cash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Finds the notes to pay out an amount from the notes left in the cassettes.
+ *
+ * Every payable amount up to maxAmount gets a lookup table entry, built once, holding its best few note
+ * combinations ordered by fewest notes. Planning a withdrawal reads the entry and returns the first
+ * combination the cassettes can cover, a fixed amount of work however large the amount. Only when a
+ * cassette is so low that none of them fit does it fall back to a bounded search over what is left.
+ */
+public class DispensePlanner {
+
+    // combinations kept per amount
+    private static final int CANDIDATES = 16;
+    // nodes the fallback search may visit before it gives up
+    private static final int SEARCH_BUDGET = 10_000;
+
+    private final long[] denominations;
+    // every denomination is a multiple of the unit, amounts are indexed in units
+    private final long unit;
+    private final int[][][] candidates;
+
+    // denominations in cents, in any order
+    public DispensePlanner(long[] denominations, long maxAmount) {
+        if (denominations.length == 0) {
+            throw new IllegalArgumentException("at least one denomination is required");
+        }
+        this.denominations = Arrays.stream(denominations)
+                .boxed()
+                .sorted(Comparator.reverseOrder())
+                .mapToLong(Long::longValue)
+                .toArray();
+        for (int i = 1; i < this.denominations.length; i++) {
+            if (this.denominations[i] == this.denominations[i - 1]) {
+                throw new IllegalArgumentException("duplicate denomination " + this.denominations[i]);
+            }
+        }
+        long gcd = 0;
+        for (long denomination : this.denominations) {
+            if (denomination <= 0) {
+                throw new IllegalArgumentException("denominations must be positive");
+            }
+            gcd = gcd(gcd, denomination);
+        }
+        this.unit = gcd;
+        this.candidates = buildTable((int) (maxAmount / unit));
+    }
+
+    public long[] getDenominations() {
+        return denominations.clone();
+    }
+
+    // available notes per denomination, in the order of getDenominations
+    public Optional<DispensePlan> plan(long amount, long[] available) {
+        if (amount <= 0 || amount % unit != 0) {
+            return Optional.empty();
+        }
+        long units = amount / unit;
+        if (units < candidates.length) {
+            for (int[] candidate : candidates[(int) units]) {
+                if (fits(candidate, available)) {
+                    return Optional.of(new DispensePlan(amount, denominations.clone(), candidate.clone()));
+                }
+            }
+        }
+        return search(amount, available);
+    }
+
+    // k-best dynamic programming: the combinations for an amount are those for a smaller amount plus one note
+    private int[][][] buildTable(int maxUnits) {
+        int[][][] table = new int[maxUnits + 1][][];
+        table[0] = new int[][]{new int[denominations.length]};
+        for (int units = 1; units <= maxUnits; units++) {
+            Set<String> seen = new HashSet<>();
+            List<int[]> combinations = new ArrayList<>();
+            for (int i = 0; i < denominations.length; i++) {
+                int noteUnits = (int) (denominations[i] / unit);
+                if (noteUnits > units) {
+                    continue;
+                }
+                for (int[] smaller : table[units - noteUnits]) {
+                    int[] combination = smaller.clone();
+                    combination[i]++;
+                    if (seen.add(Arrays.toString(combination))) {
+                        combinations.add(combination);
+                    }
+                }
+            }
+            // fewest notes first, then the most large notes, so cassettes of small notes last longest
+            combinations.sort(Comparator.<int[]>comparingInt(c -> Arrays.stream(c).sum())
+                    .thenComparing((a, b) -> Arrays.compare(b, a)));
+            table[units] = combinations.subList(0, Math.min(CANDIDATES, combinations.size()))
+                    .toArray(new int[0][]);
+        }
+        return table;
+    }
+
+    private Optional<DispensePlan> search(long amount, long[] available) {
+        int[] notes = new int[denominations.length];
+        int[] budget = {SEARCH_BUDGET};
+        if (search(0, amount, available, notes, budget)) {
+            return Optional.of(new DispensePlan(amount, denominations.clone(), notes));
+        }
+        return Optional.empty();
+    }
+
+    // largest notes first, as many as possible, backing off one at a time
+    private boolean search(int index, long remaining, long[] available, int[] notes, int[] budget) {
+        if (remaining == 0) {
+            return true;
+        }
+        if (index == denominations.length || --budget[0] < 0) {
+            return false;
+        }
+        long most = Math.min(available[index], remaining / denominations[index]);
+        for (long count = most; count >= 0; count--) {
+            notes[index] = (int) count;
+            if (search(index + 1, remaining - count * denominations[index], available, notes, budget)) {
+                return true;
+            }
+        }
+        notes[index] = 0;
+        return false;
+    }
+
+    private static boolean fits(int[] combination, long[] available) {
+        for (int i = 0; i < combination.length; i++) {
+            if (combination[i] > available[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+}
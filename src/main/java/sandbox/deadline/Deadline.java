@@ -0,0 +1,139 @@
+package sandbox.deadline;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The time by which an operation has to be finished. It is carried by the thread running the operation, so
+ * SqliteDao sees it without every method between the two taking it as a parameter. The dao starts no work
+ * once the deadline has passed, and interrupts a statement that is still running when it does.
+ *
+ * Deadlines nest, running under a new one keeps the current one if that expires sooner. Work that follows a
+ * change already committed, such as recording the transaction for a balance just written, runs unbounded so
+ * the change is never left half done.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+    private static final ScheduledThreadPoolExecutor TIMER = timer();
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline after(Duration timeout) {
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    // the deadline of the operation running on this thread, if it has one
+    public static Optional<Deadline> current() {
+        return Optional.ofNullable(CURRENT.get());
+    }
+
+    // runs the call under this deadline, or under the current one if that expires first
+    public <T> T run(Supplier<T> call) {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(previous != null && previous.expiresAtNanos - expiresAtNanos < 0 ? previous : this);
+        try {
+            return call.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    // runs the work with no deadline at all, however late it already is
+    public static void runUnbounded(Runnable work) {
+        callUnbounded(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    public static <T> T callUnbounded(Supplier<T> call) {
+        Deadline previous = CURRENT.get();
+        CURRENT.remove();
+        try {
+            return call.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    public long remainingNanos() {
+        return expiresAtNanos - System.nanoTime();
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    // throws instead of starting the work once the deadline has passed
+    public void check(String work) {
+        long remaining = remainingNanos();
+        if (remaining <= 0) {
+            throw new DeadlineExceededException("deadline passed " + TimeUnit.NANOSECONDS.toMillis(-remaining)
+                    + "ms ago, " + work + " was not started");
+        }
+    }
+
+    // runs the action when the deadline passes, unless the expiry is closed first
+    public Expiry onExpiry(Runnable action) {
+        Expiry expiry = new Expiry(action);
+        expiry.future = TIMER.schedule(expiry::fire, Math.max(0, remainingNanos()), TimeUnit.NANOSECONDS);
+        return expiry;
+    }
+
+    private static void restore(Deadline previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor timer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "atm-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // nearly every expiry is closed long before it is due
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * An action waiting for a deadline. Once close returns the action will not start, so it can safely
+     * act on a resource the closing thread is about to hand to someone else.
+     */
+    public static final class Expiry implements AutoCloseable {
+
+        private final Runnable action;
+        private Future<?> future;
+        private boolean closed;
+
+        private Expiry(Runnable action) {
+            this.action = action;
+        }
+
+        private synchronized void fire() {
+            if (!closed) {
+                action.run();
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                closed = true;
+            }
+            future.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package sandbox.deadline;
+
+import sandbox.AtmSimulator;
+import sandbox.model.Transaction;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Gives every call to the simulator it wraps a deadline. A terminal gives up on a request after a few
+ * seconds, and a request still queued for the sqlite writer after that only holds up the ones behind it, so
+ * once its deadline passes it fails with a DeadlineExceededException instead.
+ */
+public class DeadlineAtmSimulator implements AtmSimulator {
+
+    private final AtmSimulator delegate;
+    private final Duration timeout;
+
+    public DeadlineAtmSimulator(AtmSimulator delegate, Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be positive");
+        }
+        this.delegate = delegate;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public Optional<String> login(String username, String pin) {
+        return within(() -> delegate.login(username, pin));
+    }
+
+    @Override
+    public void logout(String token) {
+        within(() -> {
+            delegate.logout(token);
+            return null;
+        });
+    }
+
+    @Override
+    public long viewBalance(String token) {
+        return within(() -> delegate.viewBalance(token));
+    }
+
+    @Override
+    public boolean deposit(String token, long amount) {
+        return within(() -> delegate.deposit(token, amount));
+    }
+
+    @Override
+    public boolean deposit(String token, long amount, String requestId) {
+        return within(() -> delegate.deposit(token, amount, requestId));
+    }
+
+    @Override
+    public boolean withdraw(String token, long amount) {
+        return within(() -> delegate.withdraw(token, amount));
+    }
+
+    @Override
+    public boolean withdraw(String token, long amount, String requestId) {
+        return within(() -> delegate.withdraw(token, amount, requestId));
+    }
+
+    @Override
+    public boolean transfer(String token, int targetAccountId, long amount) {
+        return within(() -> delegate.transfer(token, targetAccountId, amount));
+    }
+
+    @Override
+    public List<Transaction> recentTransactions(String token, int count) {
+        return within(() -> delegate.recentTransactions(token, count));
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    private <T> T within(Supplier<T> call) {
+        return Deadline.after(timeout).run(call);
+    }
+}
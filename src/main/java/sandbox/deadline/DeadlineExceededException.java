@@ -0,0 +1,16 @@
+package sandbox.deadline;
+
+/**
+ * The operation's deadline passed before its work could start or finish. Any statement that was cut short
+ * was rolled back, so nothing it would have changed has been changed.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,28 @@
+package sandbox.feed;
+
+import lombok.Builder;
+import lombok.ToString;
+import lombok.Value;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * A committed change to a balance, session or account row. Sequence numbers are gapless and follow commit
+ * order. Balance events carry the new balance, session events the token and expiry time, and account events
+ * the username and pin of a new account.
+ */
+@Value
+@Builder
+public class ChangeEvent {
+    long sequence;
+    ChangeType type;
+    int accountId;
+    Long balance;
+    UUID token;
+    Timestamp expires;
+    String username;
+    @ToString.Exclude
+    String pin;
+    long committedAtMillis;
+}
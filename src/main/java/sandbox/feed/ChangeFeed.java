@@ -0,0 +1,202 @@
+package sandbox.feed;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Publishes every committed balance, session and account change to in-process subscribers, in commit order.
+ *
+ * The dao publishes while it still holds its connection, so sequence numbers match commit order. Each
+ * subscriber has a bounded buffer and requests events at its own pace, and is delivered to on the feed's own
+ * threads, so unrelated work on the common pool can't hold delivery up. Publishing never waits for a
+ * subscriber, it would hold up every db call in the process: when a buffer is full the subscriber is cut off
+ * instead, its subscription is cancelled and it gets onError. A subscriber that must see every change
+ * reconnects and catches up from the db, the way a replication follower takes a fresh snapshot.
+ *
+ * Listeners are the exception, they are called on the publishing thread before the write returns. They are
+ * for in-memory copies that must never lag the db, such as the off-heap balances, and must not block.
+ */
+@Slf4j
+public class ChangeFeed implements Flow.Publisher<ChangeEvent>, AutoCloseable {
+
+    // a buffer only grows to this while its subscriber is behind, so bursts are absorbed without holding memory
+    private static final int DEFAULT_MAX_BUFFER_PER_SUBSCRIBER = 8192;
+
+    private final ExecutorService executor;
+    private final SubmissionPublisher<ChangeEvent> publisher;
+    private final int maxBufferPerSubscriber;
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder overflows = new LongAdder();
+    private final List<Consumer<ChangeEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    public ChangeFeed() {
+        this(DEFAULT_MAX_BUFFER_PER_SUBSCRIBER);
+    }
+
+    public ChangeFeed(int maxBufferPerSubscriber) {
+        this.maxBufferPerSubscriber = maxBufferPerSubscriber;
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "atm-change-feed-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        publisher = new SubmissionPublisher<>(executor, maxBufferPerSubscriber);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ChangeEvent> subscriber) {
+        publisher.subscribe(new CutOffSubscriber(subscriber));
+    }
+
+    public void addListener(Consumer<ChangeEvent> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<ChangeEvent> listener) {
+        listeners.remove(listener);
+    }
+
+    // subscribers cut off for falling a full buffer behind
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    // subscribers are still sent onComplete, the threads go once they have nothing left to deliver
+    @Override
+    public void close() {
+        publisher.close();
+        executor.shutdown();
+    }
+
+    public void balanceChanged(int accountId, long balance) {
+        publish(ChangeEvent.builder()
+                .type(ChangeType.BALANCE)
+                .accountId(accountId)
+                .balance(balance));
+    }
+
+    public void sessionChanged(int accountId, UUID token, Timestamp expires) {
+        publish(ChangeEvent.builder()
+                .type(ChangeType.SESSION)
+                .accountId(accountId)
+                .token(token)
+                .expires(expires));
+    }
+
+    public void accountCreated(int accountId, String username, String pin) {
+        publish(ChangeEvent.builder()
+                .type(ChangeType.ACCOUNT)
+                .accountId(accountId)
+                .username(username)
+                .pin(pin));
+    }
+
+    public long lastSequence() {
+        return sequence.get();
+    }
+
+    // callers serialize publishing, so sequence numbers are handed out in the same order events are submitted
+    private void publish(ChangeEvent.ChangeEventBuilder builder) {
+        if (publisher.isClosed()) {
+            log.warn("change feed is closed, dropping event for accountId={}", builder.build().getAccountId());
+            return;
+        }
+        ChangeEvent event = builder
+                .sequence(sequence.incrementAndGet())
+                .committedAtMillis(System.currentTimeMillis())
+                .build();
+        // the change has committed, a failing listener must not make the write look failed
+        for (Consumer<ChangeEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                log.error("change feed listener failed at sequence={}", event.getSequence(), e);
+            }
+        }
+        publisher.offer(event,
+                (subscriber, dropped) -> {
+                    ((CutOffSubscriber) subscriber).cutOff(dropped);
+                    return false;
+                });
+    }
+
+    /**
+     * passes signals through to a subscriber until it is cut off. the error is delivered on the executor, not
+     * the publishing thread, and under the same lock as onNext so the subscriber still sees signals one at a time
+     */
+    private final class CutOffSubscriber implements Flow.Subscriber<ChangeEvent> {
+        private final Flow.Subscriber<? super ChangeEvent> subscriber;
+        private final AtomicBoolean cutOff = new AtomicBoolean();
+        private volatile Flow.Subscription subscription;
+        private boolean terminated;
+
+        CutOffSubscriber(Flow.Subscriber<? super ChangeEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscriber.onSubscribe(subscription);
+        }
+
+        @Override
+        public synchronized void onNext(ChangeEvent item) {
+            if (!terminated) {
+                subscriber.onNext(item);
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable throwable) {
+            if (!terminated) {
+                terminated = true;
+                subscriber.onError(throwable);
+            }
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            if (!terminated) {
+                terminated = true;
+                subscriber.onComplete();
+            }
+        }
+
+        // called on the publishing thread, which holds the dao's connection, so it must not wait on the subscriber
+        void cutOff(ChangeEvent dropped) {
+            // later events can still be offered to it before the publisher notices the cancel
+            if (!cutOff.compareAndSet(false, true)) {
+                return;
+            }
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+            overflows.increment();
+            log.warn("change feed subscriber is more than {} events behind, cutting it off at sequence={}",
+                    maxBufferPerSubscriber, dropped.getSequence());
+            try {
+                executor.execute(() -> onError(
+                        new IllegalStateException("fell more than " + maxBufferPerSubscriber + " change events behind")));
+            } catch (RejectedExecutionException e) {
+                log.debug("change feed closed before the cut off subscriber was told");
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package sandbox.feed;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.Flow;
+
+/**
+ * Appends change events to a file, one tab separated line per event, so other processes can tail the feed
+ * without querying sqlite. Lines are sequence, type, accountId, balance, expires and commit time in epoch
+ * millis, with empty fields where the event type has no value. Session tokens and pins are never written.
+ *
+ * When the sink falls so far behind that the feed cuts it off, it subscribes again and writes a GAP line in
+ * place of the events it missed, its sequence the first one missing, so a reader knows to catch up from the
+ * db rather than finding the file has quietly stopped.
+ */
+@Slf4j
+public class ChangeFeedFileSink implements Flow.Subscriber<ChangeEvent>, AutoCloseable {
+
+    private static final int BATCH_SIZE = 256;
+
+    private final Flow.Publisher<ChangeEvent> feed;
+    private final BufferedWriter writer;
+    private volatile Flow.Subscription subscription;
+    private volatile boolean closed;
+    private int remainingInBatch;
+    // the last sequence written, 0 until the first event
+    private long lastSequence;
+
+    public ChangeFeedFileSink(Flow.Publisher<ChangeEvent> feed, Path file) throws IOException {
+        this.feed = feed;
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    public void start() {
+        feed.subscribe(this);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        remainingInBatch = BATCH_SIZE;
+        subscription.request(BATCH_SIZE);
+    }
+
+    // flushed per event so tailing readers see it straight away
+    @Override
+    public void onNext(ChangeEvent event) {
+        try {
+            if (lastSequence != 0 && event.getSequence() > lastSequence + 1) {
+                writer.write(formatGap(lastSequence + 1));
+                writer.newLine();
+            }
+            lastSequence = event.getSequence();
+            writer.write(format(event));
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            log.error("could not write change event sequence={}, cancelling the file sink", event.getSequence(), e);
+            subscription.cancel();
+            return;
+        }
+        if (--remainingInBatch == 0) {
+            remainingInBatch = BATCH_SIZE;
+            subscription.request(BATCH_SIZE);
+        }
+    }
+
+    // the feed only fails a subscriber to cut it off, so this one catches up by subscribing again
+    @Override
+    public void onError(Throwable throwable) {
+        if (closed) {
+            return;
+        }
+        log.warn("change feed file sink was cut off, subscribing again: {}", throwable.getMessage());
+        feed.subscribe(this);
+    }
+
+    @Override
+    public void onComplete() {
+        close();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Flow.Subscription s = subscription;
+        if (s != null) {
+            s.cancel();
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.error("could not close change feed file", e);
+        }
+    }
+
+    static String format(ChangeEvent event) {
+        return event.getSequence() + "\t" +
+                event.getType() + "\t" +
+                event.getAccountId() + "\t" +
+                Optional.ofNullable(event.getBalance()).map(String::valueOf).orElse("") + "\t" +
+                Optional.ofNullable(event.getExpires()).map(e -> String.valueOf(e.getTime())).orElse("") + "\t" +
+                event.getCommittedAtMillis();
+    }
+
+    static String formatGap(long firstMissing) {
+        return firstMissing + "\tGAP\t\t\t\t" + System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,10 @@
+package sandbox.feed;
+
+/**
+ * the kinds of rows a change event can describe
+ */
+public enum ChangeType {
+    BALANCE,
+    SESSION,
+    ACCOUNT
+}
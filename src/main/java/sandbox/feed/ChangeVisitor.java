@@ -0,0 +1,11 @@
+package sandbox.feed;
+
+import java.io.IOException;
+
+/**
+ * Receives one change event at a time from a snapshot scan, so no scan ever holds the whole db in memory.
+ */
+@FunctionalInterface
+public interface ChangeVisitor {
+    void visit(ChangeEvent event) throws IOException;
+}
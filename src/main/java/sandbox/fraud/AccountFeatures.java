@@ -0,0 +1,83 @@
+package sandbox.fraud;
+
+/**
+ * The recent activity of one account, held in fixed size rings of primitives so updating it allocates
+ * nothing. Running sums give the mean and standard deviation of the amounts in the ring without a pass
+ * over it. Callers synchronize on the instance.
+ */
+class AccountFeatures {
+
+    final Window withdrawals;
+    final Window deposits;
+    long lastLoginNanos;
+    volatile long lastAccessNanos;
+
+    AccountFeatures(int windowSize, long nowNanos) {
+        withdrawals = new Window(windowSize);
+        deposits = new Window(windowSize);
+        lastLoginNanos = Long.MIN_VALUE;
+        lastAccessNanos = nowNanos;
+    }
+
+    Window window(boolean withdrawal) {
+        return withdrawal ? withdrawals : deposits;
+    }
+
+    static final class Window {
+        private final long[] amounts;
+        private final long[] times;
+        private int next;
+        private int size;
+        private double sum;
+        private double sumOfSquares;
+
+        Window(int capacity) {
+            amounts = new long[capacity];
+            times = new long[capacity];
+        }
+
+        void add(long amount, long nowNanos) {
+            if (size == amounts.length) {
+                long evicted = amounts[next];
+                sum -= evicted;
+                sumOfSquares -= (double) evicted * evicted;
+            } else {
+                size++;
+            }
+            amounts[next] = amount;
+            times[next] = nowNanos;
+            sum += amount;
+            sumOfSquares += (double) amount * amount;
+            next = (next + 1) % amounts.length;
+        }
+
+        int size() {
+            return size;
+        }
+
+        // entries newer than the given time, newest first, stopping at the first older one
+        int countSince(long sinceNanos) {
+            int count = 0;
+            for (int i = 1; i <= size; i++) {
+                if (times[Math.floorMod(next - i, times.length)] - sinceNanos < 0) {
+                    break;
+                }
+                count++;
+            }
+            return count;
+        }
+
+        // how many standard deviations above the mean of the window the amount is, 0 if it cannot be told
+        double zScore(long amount) {
+            if (size < 2) {
+                return 0;
+            }
+            double mean = sum / size;
+            double variance = sumOfSquares / size - mean * mean;
+            if (variance <= 0) {
+                return amount > mean ? Double.POSITIVE_INFINITY : 0;
+            }
+            return (amount - mean) / Math.sqrt(variance);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package sandbox.fraud;
+
+import sandbox.model.TransactionType;
+
+/**
+ * A fraud check run inline before a deposit or withdrawal is applied. Checks run on the request thread, so
+ * they must keep whatever they need in memory and return within the deadline. A result returned after the
+ * deadline is ignored and the operation allowed.
+ *
+ * Times are System.nanoTime values.
+ */
+public interface FraudCheck {
+
+    FraudDecision check(int accountId, TransactionType type, long amount, long nowNanos, long deadlineNanos);
+
+    // a successful login, for features such as time since login
+    default void loggedIn(int accountId, long nowNanos) {
+    }
+
+    // an operation that was allowed and then applied
+    default void completed(int accountId, TransactionType type, long amount, long nowNanos) {
+    }
+}
@@ -0,0 +1,53 @@
+package sandbox.fraud;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Thresholds for the VelocityAndAmountCheck. Everything has a default, so only the values that differ need
+ * to be set on the builder.
+ */
+@Builder
+@Getter
+public class FraudCheckSettings {
+
+    // recent deposits and withdrawals remembered per account
+    @Builder.Default
+    private final int windowSize = 32;
+
+    @Builder.Default
+    private final Duration velocityWindow = Duration.ofMinutes(10);
+
+    // withdrawals within the velocity window before the next one is declined
+    @Builder.Default
+    private final int maxWithdrawalsPerWindow = 5;
+
+    // amounts are only judged against an account's history once it has this many
+    @Builder.Default
+    private final int minSamples = 8;
+
+    // in cents, smaller amounts are never declined for being unusual
+    @Builder.Default
+    private final long minAnomalousAmount = 20_000L;
+
+    // standard deviations above the account's mean amount before an amount is declined
+    @Builder.Default
+    private final double zScoreLimit = 6.0;
+
+    // a tighter limit shortly after login, when a stolen card and pin are most likely to be used
+    @Builder.Default
+    private final double freshLoginZScoreLimit = 3.0;
+
+    @Builder.Default
+    private final Duration freshLogin = Duration.ofSeconds(60);
+
+    // bounds the memory used, the least recently seen accounts are forgotten first
+    @Builder.Default
+    private final int maxAccounts = 1_000_000;
+
+    public static FraudCheckSettings defaults() {
+        return FraudCheckSettings.builder().build();
+    }
+}
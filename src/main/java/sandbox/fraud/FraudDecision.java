@@ -0,0 +1,9 @@
+package sandbox.fraud;
+
+/**
+ * The outcome of a fraud check on one deposit or withdrawal
+ */
+public enum FraudDecision {
+    ALLOW,
+    DECLINE
+}
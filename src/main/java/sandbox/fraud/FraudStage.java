@@ -0,0 +1,96 @@
+package sandbox.fraud;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.metrics.LatencyRecorder;
+import sandbox.model.TransactionType;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a fraud check inline with a latency budget. Every check is timed into a latency histogram. A check
+ * that overruns its budget or throws fails open: the operation is allowed and the overrun or error
+ * counted, so a slow or broken check can never stop customers getting their money.
+ */
+@Slf4j
+public class FraudStage {
+
+    private final FraudCheck check;
+    private final long budgetNanos;
+    private final LatencyRecorder latency = new LatencyRecorder();
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder declines = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    public FraudStage(FraudCheck check, Duration budget) {
+        this.check = check;
+        this.budgetNanos = budget.toNanos();
+    }
+
+    // false if the check declined the operation within its budget
+    public boolean allow(int accountId, TransactionType type, long amount) {
+        long start = System.nanoTime();
+        FraudDecision decision;
+        try {
+            decision = check.check(accountId, type, amount, start, start + budgetNanos);
+        } catch (RuntimeException e) {
+            latency.record(System.nanoTime() - start);
+            errors.increment();
+            log.warn("fraud check failed, allowing {} for accountId={}", type, accountId, e);
+            return true;
+        }
+        long elapsed = System.nanoTime() - start;
+        latency.record(elapsed);
+        checks.increment();
+        if (elapsed > budgetNanos) {
+            overruns.increment();
+            log.debug("fraud check took {}ns, over its budget, allowing {} for accountId={}", elapsed, type, accountId);
+            return true;
+        }
+        if (decision == FraudDecision.DECLINE) {
+            declines.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public void loggedIn(int accountId) {
+        try {
+            check.loggedIn(accountId, System.nanoTime());
+        } catch (RuntimeException e) {
+            errors.increment();
+            log.warn("fraud check could not record a login for accountId={}", accountId, e);
+        }
+    }
+
+    public void completed(int accountId, TransactionType type, long amount) {
+        try {
+            check.completed(accountId, type, amount, System.nanoTime());
+        } catch (RuntimeException e) {
+            errors.increment();
+            log.warn("fraud check could not record {} for accountId={}", type, accountId, e);
+        }
+    }
+
+    public LatencyRecorder getLatency() {
+        return latency;
+    }
+
+    public long getChecks() {
+        return checks.sum();
+    }
+
+    public long getDeclines() {
+        return declines.sum();
+    }
+
+    // checks that took longer than the budget and were allowed regardless
+    public long getOverruns() {
+        return overruns.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+}
@@ -0,0 +1,118 @@
+package sandbox.fraud;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.model.TransactionType;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The default fraud check, scoring an operation against the account's own recent activity:
+ *
+ *   velocity, too many withdrawals within the velocity window
+ *   amount, an amount far above the account's usual, with a tighter limit shortly after login
+ *
+ * Features are kept per account in memory, see AccountFeatures. A check is a map lookup and a scan of at
+ * most one small ring, well inside the budget, so the deadline is not consulted. Accounts with no history
+ * are allowed.
+ */
+@Slf4j
+public class VelocityAndAmountCheck implements FraudCheck {
+
+    private static final int EVICTION_SAMPLE_SIZE = 32;
+
+    private final FraudCheckSettings settings;
+    private final long velocityNanos;
+    private final long freshLoginNanos;
+    private final ConcurrentHashMap<Integer, AccountFeatures> features = new ConcurrentHashMap<>();
+
+    public VelocityAndAmountCheck() {
+        this(FraudCheckSettings.defaults());
+    }
+
+    public VelocityAndAmountCheck(FraudCheckSettings settings) {
+        this.settings = settings;
+        this.velocityNanos = settings.getVelocityWindow().toNanos();
+        this.freshLoginNanos = settings.getFreshLogin().toNanos();
+    }
+
+    @Override
+    public FraudDecision check(int accountId, TransactionType type, long amount, long nowNanos, long deadlineNanos) {
+        AccountFeatures account = features.get(accountId);
+        if (account == null) {
+            return FraudDecision.ALLOW;
+        }
+        boolean withdrawal = type == TransactionType.WITHDRAWAL;
+        account.lastAccessNanos = nowNanos;
+        synchronized (account) {
+            if (withdrawal && account.withdrawals.countSince(nowNanos - velocityNanos) >= settings.getMaxWithdrawalsPerWindow()) {
+                log.info("declining withdrawal, too many recent withdrawals for accountId={}", accountId);
+                return FraudDecision.DECLINE;
+            }
+            AccountFeatures.Window window = account.window(withdrawal);
+            if (amount < settings.getMinAnomalousAmount() || window.size() < settings.getMinSamples()) {
+                return FraudDecision.ALLOW;
+            }
+            boolean freshLogin = account.lastLoginNanos != Long.MIN_VALUE && nowNanos - account.lastLoginNanos < freshLoginNanos;
+            double limit = freshLogin ? settings.getFreshLoginZScoreLimit() : settings.getZScoreLimit();
+            if (window.zScore(amount) >= limit) {
+                log.info("declining {} of {}, far above the usual amount for accountId={}", type, amount, accountId);
+                return FraudDecision.DECLINE;
+            }
+            return FraudDecision.ALLOW;
+        }
+    }
+
+    @Override
+    public void loggedIn(int accountId, long nowNanos) {
+        AccountFeatures account = featuresOf(accountId, nowNanos);
+        synchronized (account) {
+            account.lastLoginNanos = nowNanos;
+        }
+    }
+
+    @Override
+    public void completed(int accountId, TransactionType type, long amount, long nowNanos) {
+        if (type != TransactionType.WITHDRAWAL && type != TransactionType.DEPOSIT) {
+            return;
+        }
+        AccountFeatures account = featuresOf(accountId, nowNanos);
+        synchronized (account) {
+            account.window(type == TransactionType.WITHDRAWAL).add(amount, nowNanos);
+        }
+    }
+
+    int trackedAccounts() {
+        return features.size();
+    }
+
+    private AccountFeatures featuresOf(int accountId, long nowNanos) {
+        AccountFeatures account = features.get(accountId);
+        if (account == null) {
+            account = features.computeIfAbsent(accountId, id -> new AccountFeatures(settings.getWindowSize(), nowNanos));
+            if (features.size() > settings.getMaxAccounts()) {
+                evictOne(accountId);
+            }
+        }
+        account.lastAccessNanos = nowNanos;
+        return account;
+    }
+
+    // approximate lru, the oldest of a sample of entries is dropped
+    private void evictOne(int justAdded) {
+        Integer oldestKey = null;
+        long oldestAccess = Long.MAX_VALUE;
+        Iterator<Map.Entry<Integer, AccountFeatures>> entries = features.entrySet().iterator();
+        for (int i = 0; i < EVICTION_SAMPLE_SIZE && entries.hasNext(); i++) {
+            Map.Entry<Integer, AccountFeatures> entry = entries.next();
+            if (entry.getKey() != justAdded && entry.getValue().lastAccessNanos - oldestAccess < 0) {
+                oldestAccess = entry.getValue().lastAccessNanos;
+                oldestKey = entry.getKey();
+            }
+        }
+        if (oldestKey != null) {
+            features.remove(oldestKey);
+        }
+    }
+}
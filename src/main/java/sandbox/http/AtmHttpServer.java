@@ -0,0 +1,240 @@
+package sandbox.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import sandbox.AtmSimulator;
+import sandbox.InvalidTokenException;
+import sandbox.SqliteBusyException;
+import sandbox.admission.OverloadedException;
+import sandbox.deadline.DeadlineExceededException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A json api over http for branch apps, on the jdk's built in HttpServer.
+ *
+ *   POST /login     {"username":"bob","pin":"1234"}          -> {"token":"..."}
+ *   POST /logout                                              -> {"ok":true}
+ *   GET  /balance                                             -> {"balance":100}
+ *   POST /deposit   {"amount":100,"requestId":"optional"}     -> {"ok":true}
+ *   POST /withdraw  {"amount":100,"requestId":"optional"}     -> {"ok":true}
+ *
+ * Everything but login takes the session token as "Authorization: Bearer <token>". A failed login or a
+ * missing, expired or forged token is a 401, a malformed or rejected request a 400, each with
+ * {"error":"..."}. A request shed under load or kept out by a locked db is a 503 with Retry-After, one that
+ * ran out of time waiting on the db a 504. Anything else is a 500 and is logged, not echoed to the client.
+ *
+ * Each exchange runs on its own virtual thread when the jvm has them, otherwise on a cached pool, since the
+ * simulator calls block on sqlite. Responses are sent with a fixed length so http/1.1 connections are kept
+ * alive between requests.
+ */
+@Slf4j
+public class AtmHttpServer implements AutoCloseable {
+
+    private static final int MAX_BODY_BYTES = 4 * 1024;
+    private static final String BEARER = "Bearer ";
+
+    static {
+        // headers and body go out in separate writes, with nagle on every keep-alive request waits for a
+        // delayed ack. read once when the jdk server first starts, so it must be set before that
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final AtmSimulator atm;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public AtmHttpServer(AtmSimulator atm, InetSocketAddress address) throws IOException {
+        this.atm = atm;
+        this.executor = newExecutor();
+        this.server = HttpServer.create(address, 1_024);
+        server.createContext("/login", exchange -> handle(exchange, "POST", this::login));
+        server.createContext("/logout", exchange -> handle(exchange, "POST", this::logout));
+        server.createContext("/balance", exchange -> handle(exchange, "GET", this::balance));
+        server.createContext("/deposit", exchange -> handle(exchange, "POST", this::deposit));
+        server.createContext("/withdraw", exchange -> handle(exchange, "POST", this::withdraw));
+        server.setExecutor(executor);
+        server.start();
+        log.info("atm http server listening on {}", server.getAddress());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        server.stop(1);
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private int login(HttpExchange exchange, JsonWriter json) throws IOException {
+        Map<String, String> body = readBody(exchange);
+        String username = JsonReader.getString(body, "username")
+                .orElseThrow(() -> new IllegalArgumentException("username is required"));
+        String pin = JsonReader.getString(body, "pin")
+                .orElseThrow(() -> new IllegalArgumentException("pin is required"));
+
+        Optional<String> token = atm.login(username, pin);
+        if (token.isEmpty()) {
+            json.beginObject().name("error").value("login failed").endObject();
+            return 401;
+        }
+        json.beginObject().name("token").value(token.get()).endObject();
+        return 200;
+    }
+
+    private int logout(HttpExchange exchange, JsonWriter json) throws IOException {
+        atm.logout(token(exchange));
+        json.beginObject().name("ok").value(true).endObject();
+        return 200;
+    }
+
+    private int balance(HttpExchange exchange, JsonWriter json) throws IOException {
+        long balance = atm.viewBalance(token(exchange));
+        json.beginObject().name("balance").value(balance).endObject();
+        return 200;
+    }
+
+    private int deposit(HttpExchange exchange, JsonWriter json) throws IOException {
+        String token = token(exchange);
+        Map<String, String> body = readBody(exchange);
+        boolean ok = atm.deposit(token, amount(body), JsonReader.getString(body, "requestId").orElse(null));
+        json.beginObject().name("ok").value(ok).endObject();
+        return 200;
+    }
+
+    private int withdraw(HttpExchange exchange, JsonWriter json) throws IOException {
+        String token = token(exchange);
+        Map<String, String> body = readBody(exchange);
+        boolean ok = atm.withdraw(token, amount(body), JsonReader.getString(body, "requestId").orElse(null));
+        json.beginObject().name("ok").value(ok).endObject();
+        return 200;
+    }
+
+    // runs on the executor. the response is buffered so it can be sent with a content length
+    private void handle(HttpExchange exchange, String method, Endpoint endpoint) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+        Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+        int status;
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", method);
+                new JsonWriter(writer).beginObject().name("error").value("method not allowed").endObject();
+                status = 405;
+            } else {
+                status = endpoint.handle(exchange, new JsonWriter(writer));
+            }
+        } catch (InvalidTokenException e) {
+            writer = error(buffer, e.getMessage());
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            status = 401;
+        } catch (OverloadedException | SqliteBusyException e) {
+            writer = error(buffer, e.getMessage());
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            status = 503;
+        } catch (DeadlineExceededException e) {
+            writer = error(buffer, e.getMessage());
+            status = 504;
+        } catch (IllegalArgumentException e) {
+            log.debug("request to {} rejected", exchange.getRequestURI(), e);
+            writer = error(buffer, String.valueOf(e.getMessage()));
+            status = 400;
+        } catch (RuntimeException e) {
+            // a db or programming error, the detail stays in the log
+            log.error("request to {} failed", exchange.getRequestURI(), e);
+            writer = error(buffer, "internal error");
+            status = 500;
+        }
+        writer.flush();
+
+        // leftover request bytes would stop the connection being reused
+        drain(exchange.getRequestBody());
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, buffer.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            buffer.writeTo(out);
+        }
+    }
+
+    // replaces whatever the endpoint had written with {"error":"..."}
+    private static Writer error(ByteArrayOutputStream buffer, String message) throws IOException {
+        buffer.reset();
+        Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+        new JsonWriter(writer).beginObject().name("error").value(message).endObject();
+        return writer;
+    }
+
+    private static String token(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith(BEARER)) {
+            throw new InvalidTokenException("a bearer token is required");
+        }
+        return authorization.substring(BEARER.length());
+    }
+
+    // a negative deposit would be a withdrawal that skips every withdrawal check
+    private static long amount(Map<String, String> body) {
+        long amount = JsonReader.getLong(body, "amount")
+                .orElseThrow(() -> new IllegalArgumentException("amount is required"));
+        if (amount <= 0) {
+            throw new IllegalArgumentException("amount must be positive");
+        }
+        return amount;
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        byte[] bytes = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+        if (bytes.length > MAX_BODY_BYTES) {
+            throw new IllegalArgumentException("request body is too large");
+        }
+        return JsonReader.readObject(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] skip = new byte[512];
+        while (in.read(skip) >= 0) {
+            // discard
+        }
+    }
+
+    // virtual threads when the jvm has them (21+), looked up reflectively so the build still targets 11
+    static ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.debug("virtual threads are not available, using a cached thread pool");
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "atm-http-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+        // writes the response body and returns the status code
+        int handle(HttpExchange exchange, JsonWriter json) throws IOException;
+    }
+}
@@ -0,0 +1,177 @@
+package sandbox.http;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Reads the flat json objects the api accepts as request bodies, e.g. {"username":"bob","pin":"1234"}.
+ * Members may be strings, numbers, booleans or null, nested objects and arrays are rejected. Values are
+ * kept as their text and converted by the typed getters.
+ */
+public class JsonReader {
+
+    private final String json;
+    private int pos;
+
+    private JsonReader(String json) {
+        this.json = json;
+    }
+
+    // throws IllegalArgumentException on anything that is not a flat object
+    public static Map<String, String> readObject(String json) {
+        JsonReader reader = new JsonReader(json);
+        reader.skipWhitespace();
+        Map<String, String> members = reader.object();
+        reader.skipWhitespace();
+        if (reader.pos != json.length()) {
+            throw reader.error("unexpected content after the object");
+        }
+        return members;
+    }
+
+    public static Optional<String> getString(Map<String, String> members, String name) {
+        return Optional.ofNullable(members.get(name));
+    }
+
+    public static Optional<Long> getLong(Map<String, String> members, String name) {
+        String value = members.get(name);
+        if (value == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number");
+        }
+    }
+
+    private Map<String, String> object() {
+        Map<String, String> members = new HashMap<>();
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return members;
+        }
+        while (true) {
+            skipWhitespace();
+            String name = string();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            members.put(name, value());
+            skipWhitespace();
+            char c = next();
+            if (c == '}') {
+                return members;
+            }
+            if (c != ',') {
+                throw error("expected , or }");
+            }
+        }
+    }
+
+    // strings are unescaped, literals and numbers are returned as written, null as java null
+    private String value() {
+        char c = peek();
+        if (c == '"') {
+            return string();
+        }
+        if (c == '{' || c == '[') {
+            throw error("nested values are not supported");
+        }
+        int start = pos;
+        while (pos < json.length() && ",} \t\r\n".indexOf(json.charAt(pos)) < 0) {
+            pos++;
+        }
+        String literal = json.substring(start, pos);
+        if (literal.equals("null")) {
+            return null;
+        }
+        if (literal.equals("true") || literal.equals("false") || literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+            return literal;
+        }
+        throw error("invalid value " + literal);
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char escaped = next();
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append(escaped);
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > json.length()) {
+                        throw error("truncated unicode escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw error("invalid unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    throw error("invalid escape \\" + escaped);
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private void expect(char expected) {
+        if (next() != expected) {
+            throw error("expected " + expected);
+        }
+    }
+
+    private char peek() {
+        if (pos >= json.length()) {
+            throw error("unexpected end of json");
+        }
+        return json.charAt(pos);
+    }
+
+    private char next() {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + pos);
+    }
+}
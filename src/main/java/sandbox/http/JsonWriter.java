@@ -0,0 +1,130 @@
+package sandbox.http;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A small streaming json writer. Values are written straight to the underlying writer as they are added,
+ * no object tree is built and nothing is mapped by reflection. Only what the api needs is supported:
+ * objects, strings, longs, booleans and nulls.
+ */
+public class JsonWriter {
+
+    private static final int MAX_DEPTH = 16;
+
+    private final Writer out;
+    // per nesting level, true once the level has written its first member
+    private final boolean[] hasMembers = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        if (depth == MAX_DEPTH - 1) {
+            throw new IllegalStateException("json nested too deeply");
+        }
+        out.write('{');
+        hasMembers[++depth] = false;
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        if (depth == 0 || afterName) {
+            throw new IllegalStateException("no object to end");
+        }
+        out.write('}');
+        depth--;
+        return this;
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        if (depth == 0 || afterName) {
+            throw new IllegalStateException("a name must be inside an object, before a value");
+        }
+        if (hasMembers[depth]) {
+            out.write(',');
+        }
+        hasMembers[depth] = true;
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        out.write("null");
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private void beforeValue() {
+        if (depth > 0 && !afterName) {
+            throw new IllegalStateException("a value inside an object needs a name");
+        }
+        afterName = false;
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.write(value, start, i - start);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write(String.format("\\u%04x", (int) c));
+                    break;
+            }
+            start = i + 1;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
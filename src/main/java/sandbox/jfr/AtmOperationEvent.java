@@ -0,0 +1,61 @@
+package sandbox.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One AtmSimulator call, from entry to return. The sql events it caused are on the same thread within
+ * its duration, so a slow operation can be broken down into the statements behind it.
+ *
+ * When the event is disabled begin and commit do nothing, and the jit removes the allocation.
+ */
+@Name("sandbox.AtmOperation")
+@Label("ATM Operation")
+@Category({"ATM Simulator"})
+@Description("A call to the atm simulator")
+@StackTrace(false)
+public class AtmOperationEvent extends Event {
+
+    public static final String LOGIN = "login";
+    public static final String LOGOUT = "logout";
+    public static final String VIEW_BALANCE = "viewBalance";
+    public static final String DEPOSIT = "deposit";
+    public static final String WITHDRAW = "withdraw";
+    public static final String TRANSFER = "transfer";
+    public static final String RECENT_TRANSACTIONS = "recentTransactions";
+
+    @Label("Operation")
+    String operation;
+
+    // -1 until the token or username has been resolved, so it stays -1 for rejected tokens
+    @Label("Account Id")
+    int accountId = -1;
+
+    @Label("Amount")
+    @Description("In cents, 0 for operations without an amount")
+    long amount;
+
+    @Label("Succeeded")
+    @Description("False when the operation was declined or threw")
+    boolean succeeded;
+
+    public static AtmOperationEvent start(String operation, long amount) {
+        AtmOperationEvent event = new AtmOperationEvent();
+        event.operation = operation;
+        event.amount = amount;
+        event.begin();
+        return event;
+    }
+
+    public void setAccountId(int accountId) {
+        this.accountId = accountId;
+    }
+
+    public void setSucceeded(boolean succeeded) {
+        this.succeeded = succeeded;
+    }
+}
@@ -0,0 +1,99 @@
+package sandbox.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One statement or transaction run by the SqliteDao on its shared connection. The duration includes the
+ * wait for the connection, which is also recorded on its own, so lock contention and slow sql can be
+ * told apart.
+ */
+@Name("sandbox.SqlStatement")
+@Label("SQL Statement")
+@Category({"ATM Simulator", "SQL"})
+@Description("A statement run on the shared sqlite connection")
+@StackTrace(false)
+public class SqlStatementEvent extends Event {
+
+    public static final String TRANSACTION = "TRANSACTION";
+
+    private static final ConcurrentHashMap<String, String> SQL_IDS = new ConcurrentHashMap<>();
+
+    @Label("SQL Id")
+    @Description("The verb and table, e.g. SELECT balance, or TRANSACTION for a unit of work")
+    String sqlId;
+
+    @Label("SQL")
+    String sql;
+
+    @Label("Rows")
+    @Description("Rows written, or rows returned by a query. -1 when unknown")
+    int rows = -1;
+
+    @Label("Connection Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long connectionWait;
+
+    @Label("Succeeded")
+    boolean succeeded;
+
+    private transient long startNanos;
+
+    public static SqlStatementEvent start(String sqlId, String sql) {
+        SqlStatementEvent event = new SqlStatementEvent();
+        if (event.isEnabled()) {
+            event.sqlId = sqlId;
+            event.sql = sql;
+            event.startNanos = System.nanoTime();
+        }
+        event.begin();
+        return event;
+    }
+
+    public static SqlStatementEvent start(String sql) {
+        return start(sqlIdOf(sql), sql);
+    }
+
+    // called once the shared connection is held
+    public void connectionAcquired() {
+        if (startNanos != 0) {
+            connectionWait = System.nanoTime() - startNanos;
+        }
+    }
+
+    public void setRows(int rows) {
+        this.rows = rows;
+    }
+
+    public void setSucceeded(boolean succeeded) {
+        this.succeeded = succeeded;
+    }
+
+    // the statements are constants, so each id is worked out once
+    static String sqlIdOf(String sql) {
+        return SQL_IDS.computeIfAbsent(sql, SqlStatementEvent::parseSqlId);
+    }
+
+    private static String parseSqlId(String sql) {
+        String[] words = sql.trim().split("[\\s(,;]+");
+        String verb = words[0].toUpperCase(Locale.ROOT);
+        if (verb.equals("UPDATE") && words.length > 1) {
+            return verb + " " + words[1];
+        }
+        for (int i = 1; i < words.length - 1; i++) {
+            String word = words[i].toUpperCase(Locale.ROOT);
+            if (word.equals("FROM") || word.equals("INTO") || word.equals("EXISTS")) {
+                return verb + " " + words[i + 1];
+            }
+        }
+        return verb;
+    }
+}
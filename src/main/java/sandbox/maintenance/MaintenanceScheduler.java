@@ -0,0 +1,313 @@
+package sandbox.maintenance;
+
+import lombok.extern.slf4j.Slf4j;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.Codes;
+import sandbox.SqliteDao;
+import sandbox.model.ColdTier;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the db healthy while the simulator runs: hot backups, incremental vacuum and ANALYZE, all on
+ * connections of their own so the shared connection is never held.
+ *
+ * Backups use sqlite's online backup api a few pages at a time with a pause between steps, into a partial
+ * file that is renamed once complete, with the archive tier backed up alongside the hot db when attached.
+ * The copy runs inside a read transaction: in WAL mode it never blocks writers and their commits cannot
+ * restart it, at the cost of the WAL not being checkpointed past the snapshot until the backup is done.
+ *
+ * Vacuum and ANALYZE only run in quiet windows, when the statement rate on the shared connection has been
+ * low for several checks in a row. The vacuum frees pages in small steps and stops as soon as traffic
+ * picks up again. It needs auto_vacuum=INCREMENTAL, which SqliteDao sets on new dbs, an older db only
+ * shrinks with a full VACUUM.
+ */
+@Slf4j
+public class MaintenanceScheduler implements AutoCloseable {
+
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    private static final DateTimeFormatter BACKUP_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    private final SqliteDao sqliteDao;
+    private final MaintenanceSettings settings;
+    private final ScheduledExecutorService executor;
+    private final LongAdder backups = new LongAdder();
+    private final LongAdder backupRestarts = new LongAdder();
+    private final LongAdder pagesVacuumed = new LongAdder();
+    private final LongAdder analyzes = new LongAdder();
+
+    // only touched on the executor thread
+    private long lastStatementCount;
+    private long lastCheckNanos;
+    private int quietChecksInARow;
+    private Instant lastBackup = Instant.EPOCH;
+    private Instant lastVacuum = Instant.EPOCH;
+    private Instant lastAnalyze = Instant.EPOCH;
+    private volatile double statementsPerSecond;
+
+    public MaintenanceScheduler(SqliteDao sqliteDao, MaintenanceSettings settings) {
+        this.sqliteDao = sqliteDao;
+        this.settings = settings;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "atm-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        lastStatementCount = sqliteDao.getStatementCount();
+        lastCheckNanos = System.nanoTime();
+        long interval = settings.getCheckInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("maintenance started, backups to {}", settings.getBackupDir().toAbsolutePath());
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    // runs on the executor, one piece of work at a time
+    void check() {
+        try {
+            long now = System.nanoTime();
+            long count = sqliteDao.getStatementCount();
+            statementsPerSecond = (count - lastStatementCount) / ((now - lastCheckNanos) / 1e9);
+            lastStatementCount = count;
+            lastCheckNanos = now;
+            quietChecksInARow = statementsPerSecond <= settings.getQuietStatementsPerSecond() ? quietChecksInARow + 1 : 0;
+
+            if (due(lastBackup, settings.getBackupInterval())) {
+                backup();
+                lastBackup = Instant.now();
+            }
+            if (isQuiet() && due(lastVacuum, settings.getVacuumInterval())) {
+                incrementalVacuum();
+                lastVacuum = Instant.now();
+            }
+            if (isQuiet() && due(lastAnalyze, settings.getAnalyzeInterval())) {
+                analyze();
+                lastAnalyze = Instant.now();
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            // tried again at the next check
+            log.error("maintenance failed", e);
+        }
+    }
+
+    // backs up the db into the backup dir, and the archive next to it when the dao has one attached, returning
+    // the backup of the hot db. both are copied inside one read transaction, which pins the snapshot they are
+    // taken from: a write from another connection no longer restarts the copy, and the two files agree
+    public Path backup() throws SQLException, IOException {
+        Files.createDirectories(settings.getBackupDir());
+        String time = BACKUP_TIME.format(Instant.now());
+        Path target = settings.getBackupDir().resolve("atm-" + time + ".db");
+        Path archiveTarget = settings.getBackupDir().resolve("atm-archive-" + time + ".db");
+        long started = System.nanoTime();
+        BackupProgress progress;
+        BackupProgress archiveProgress = new BackupProgress();
+        boolean archived;
+        try (Connection connection = sqliteDao.openConnection();
+             Statement stmt = connection.createStatement()) {
+            archived = sqliteDao.isArchiveAttached(connection);
+            stmt.execute("BEGIN");
+            try {
+                // a deferred transaction only takes its snapshot of each db at the first read
+                pragma(stmt, "SELECT COUNT(*) FROM " + ColdTier.HOT + ".sqlite_master");
+                if (archived) {
+                    pragma(stmt, "SELECT COUNT(*) FROM " + ColdTier.ARCHIVE + ".sqlite_master");
+                }
+                progress = copy(connection, ColdTier.HOT, target);
+                if (archived) {
+                    archiveProgress = copy(connection, ColdTier.ARCHIVE, archiveTarget);
+                }
+            } finally {
+                stmt.execute("ROLLBACK");
+            }
+        }
+        backups.increment();
+        int restarts = progress.restarts + archiveProgress.restarts;
+        backupRestarts.add(restarts);
+        log.info("backed up {} pages to {}{} in {}ms, restarts={}", progress.pageCount + archiveProgress.pageCount,
+                target, archived ? " and " + archiveTarget : "", (System.nanoTime() - started) / 1_000_000, restarts);
+        deleteOldBackups("atm-\\d{8}-\\d{6}\\.db");
+        deleteOldBackups("atm-archive-\\d{8}-\\d{6}\\.db");
+        return target;
+    }
+
+    // copies one attached db into a partial file, renamed once complete
+    private BackupProgress copy(Connection connection, String db, Path target) throws SQLException, IOException {
+        Path partial = target.resolveSibling(target.getFileName() + ".partial");
+        BackupProgress progress = new BackupProgress();
+        try {
+            int rc = connection.unwrap(SQLiteConnection.class).getDatabase()
+                    .backup(db, partial.toString(), progress::step, 100, 50, settings.getBackupPagesPerStep());
+            if (rc != Codes.SQLITE_OK) {
+                throw new SQLException("backup of " + db + " failed with sqlite code " + rc);
+            }
+        } catch (SQLException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+        return progress;
+    }
+
+    // frees pages at the end of the file in small steps while it stays quiet, returning the pages freed
+    public long incrementalVacuum() throws SQLException {
+        long freed = 0;
+        try (Connection connection = sqliteDao.openConnection();
+             Statement stmt = connection.createStatement()) {
+            if (pragma(stmt, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                log.warn("auto_vacuum is not incremental, the db only shrinks with a full VACUUM");
+                return 0;
+            }
+            long pagesPerStep = settings.getVacuumPagesPerStep();
+            long free;
+            while ((free = pragma(stmt, "PRAGMA freelist_count")) > 0) {
+                long step = Math.min(free, pagesPerStep);
+                long before = sqliteDao.getStatementCount();
+                long stepStarted = System.nanoTime();
+                vacuumStep(stmt, step);
+                freed += step;
+                pause(settings.getVacuumPause().toMillis());
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                if (busySince(before, stepStarted)) {
+                    log.info("traffic picked up, vacuum stopped with {} pages still free", free - step);
+                    break;
+                }
+            }
+        }
+        pagesVacuumed.add(freed);
+        log.info("incremental vacuum freed {} pages", freed);
+        return freed;
+    }
+
+    public void analyze() throws SQLException {
+        long started = System.nanoTime();
+        try (Connection connection = sqliteDao.openConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA analysis_limit = " + settings.getAnalysisLimit());
+            stmt.execute("ANALYZE");
+        }
+        analyzes.increment();
+        log.info("analyzed in {}ms", (System.nanoTime() - started) / 1_000_000);
+    }
+
+    public boolean isQuiet() {
+        return quietChecksInARow >= settings.getQuietChecks();
+    }
+
+    public double getStatementsPerSecond() {
+        return statementsPerSecond;
+    }
+
+    public long getBackups() {
+        return backups.sum();
+    }
+
+    public long getBackupRestarts() {
+        return backupRestarts.sum();
+    }
+
+    public long getPagesVacuumed() {
+        return pagesVacuumed.sum();
+    }
+
+    public long getAnalyzes() {
+        return analyzes.sum();
+    }
+
+    // the pragma frees one page per row it returns and drivers differ in how far they step a statement,
+    // so each statement frees a single page, all in one transaction
+    private static void vacuumStep(Statement stmt, long pages) throws SQLException {
+        stmt.execute("BEGIN IMMEDIATE");
+        try {
+            for (long i = 0; i < pages; i++) {
+                stmt.execute("PRAGMA incremental_vacuum(1)");
+            }
+            stmt.execute("COMMIT");
+        } catch (SQLException e) {
+            stmt.execute("ROLLBACK");
+            throw e;
+        }
+    }
+
+    private boolean busySince(long statementCount, long sinceNanos) {
+        double seconds = (System.nanoTime() - sinceNanos) / 1e9;
+        return (sqliteDao.getStatementCount() - statementCount) / seconds > settings.getQuietStatementsPerSecond();
+    }
+
+    private void deleteOldBackups(String pattern) throws IOException {
+        List<Path> existing;
+        try (Stream<Path> files = Files.list(settings.getBackupDir())) {
+            existing = files
+                    .filter(file -> file.getFileName().toString().matches(pattern))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (int i = 0; i < existing.size() - settings.getBackupsKept(); i++) {
+            Files.delete(existing.get(i));
+            log.debug("deleted old backup {}", existing.get(i));
+        }
+    }
+
+    private static boolean due(Instant last, Duration interval) {
+        return !Instant.now().isBefore(last.plus(interval));
+    }
+
+    private static long pragma(Statement stmt, String sql) throws SQLException {
+        try (ResultSet resultSet = stmt.executeQuery(sql)) {
+            return resultSet.next() ? resultSet.getLong(1) : 0L;
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // called by sqlite after every step of a backup. restarts should stay at zero with the snapshot held, they
+    // are counted so a change in sqlite or the driver shows up in getBackupRestarts rather than as slow backups
+    private class BackupProgress {
+        private int lastRemaining = Integer.MAX_VALUE;
+        private int restarts;
+        private int pageCount;
+
+        void step(int remaining, int pageCount) {
+            if (remaining > lastRemaining) {
+                restarts++;
+            }
+            this.pageCount = pageCount;
+            lastRemaining = remaining;
+            if (remaining > 0) {
+                pause(settings.getBackupPause().toMillis());
+            }
+        }
+    }
+}
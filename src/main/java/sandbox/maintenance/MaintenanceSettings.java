@@ -0,0 +1,65 @@
+package sandbox.maintenance;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * When and how gently the MaintenanceScheduler works. Everything has a default, so only the values that
+ * differ need to be set on the builder.
+ */
+@Builder
+@Getter
+public class MaintenanceSettings {
+
+    // how often the request rate is sampled and due work is started
+    @Builder.Default
+    private final Duration checkInterval = Duration.ofSeconds(10);
+
+    // statements per second on the shared connection at or under which a check counts as quiet
+    @Builder.Default
+    private final double quietStatementsPerSecond = 5.0;
+
+    // quiet checks in a row before vacuum and analyze may run
+    @Builder.Default
+    private final int quietChecks = 6;
+
+    @Builder.Default
+    private final Path backupDir = Path.of("backups");
+
+    @Builder.Default
+    private final Duration backupInterval = Duration.ofHours(1);
+
+    // older backups are deleted once there are more than this many
+    @Builder.Default
+    private final int backupsKept = 24;
+
+    // pages copied per step, 1MB with the default page size
+    @Builder.Default
+    private final int backupPagesPerStep = 256;
+
+    @Builder.Default
+    private final Duration backupPause = Duration.ofMillis(20);
+
+    @Builder.Default
+    private final Duration vacuumInterval = Duration.ofHours(1);
+
+    @Builder.Default
+    private final int vacuumPagesPerStep = 128;
+
+    @Builder.Default
+    private final Duration vacuumPause = Duration.ofMillis(50);
+
+    @Builder.Default
+    private final Duration analyzeInterval = Duration.ofHours(24);
+
+    // rows sampled per index by ANALYZE, 0 reads them all
+    @Builder.Default
+    private final int analysisLimit = 1_000;
+
+    public static MaintenanceSettings defaults() {
+        return MaintenanceSettings.builder().build();
+    }
+}
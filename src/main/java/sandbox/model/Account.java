@@ -21,6 +21,8 @@ import java.util.Optional;
 public class Account implements SqliteTable {
     private Integer id;
     private String username;
+    // kept out of logs, including the slow query log
+    @ToString.Exclude
     private String pin;
 
     public static String accountTableCreation =
@@ -29,6 +31,40 @@ public class Account implements SqliteTable {
                     "username       TEXT    NOT NULL       UNIQUE, " +
                     "pin            CHAR(4) NOT NULL) ";
 
+    // when the account was last used, by a login or a change to its balance. the archive job reads it to find
+    // dormant accounts, it does not depend on which kind of session token the customer logged in with
+    public static String activityTableCreation =
+            "CREATE TABLE IF NOT EXISTS account_activity " +
+                    "(account_id     INTEGER PRIMARY KEY, " +
+                    "last_active     TIMESTAMP NOT NULL)";
+
+    // dormancy is measured in days, so a row less than an hour old is left alone rather than rewritten on
+    // every login and balance change
+    public static String recordActivityQuery =
+            "INSERT INTO account_activity (account_id, last_active) VALUES (?, ?) " +
+                    "ON CONFLICT(account_id) DO UPDATE SET last_active = excluded.last_active " +
+                    "WHERE last_active < excluded.last_active - 3600000";
+
+    // a follower keeps the primary's ids, so balances and sessions still point at the right account
+    public static String replicateQuery = "INSERT INTO account (id, username, pin) VALUES (?, ?, ?) " +
+            "ON CONFLICT(id) DO UPDATE SET username=excluded.username, pin=excluded.pin";
+
+    public static String selectAllQuery = "SELECT id, username, pin FROM account ORDER BY id";
+
+    public static String deleteAllQuery = "DELETE FROM account";
+
+    public static String accountExistsQuery = "SELECT id FROM account WHERE id = ? LIMIT 1";
+
+    public static String usernameQuery = "SELECT username FROM account WHERE id = ? LIMIT 1";
+
+    public static String idBoundsQuery = "SELECT MIN(id) AS min_id, MAX(id) AS max_id FROM account";
+
+    // every account in an id range with its balance, accounts without a balance row have a zero balance
+    public static String scanBalancesQuery =
+            "SELECT a.id AS account_id, a.username, COALESCE(b.balance, 0) AS balance " +
+                    "FROM account a LEFT JOIN balance b ON b.account_id = a.id " +
+                    "WHERE a.id >= ? AND a.id <= ? ORDER BY a.id";
+
     public static Account mapAccountFromResultSet(@NonNull ResultSet resultSet) {
         try {
             if (!resultSet.next()) {
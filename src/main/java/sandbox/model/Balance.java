@@ -28,6 +28,25 @@ public class Balance implements SqliteTable {
             "balance          LONG    NOT NULL, " +
             "FOREIGN KEY(account_id) REFERENCES account(id))";
 
+    // used by batch jobs to split the table into id ranges
+    public static String idBoundsQuery = "SELECT MIN(id) AS min_id, MAX(id) AS max_id FROM balance";
+
+    public static String selectIdRangeQuery = "SELECT * FROM balance WHERE id >= ? AND id < ? ORDER BY id";
+
+    public static String upsertQuery = "INSERT INTO balance (account_id, balance) VALUES (?, ?)" +
+            " ON CONFLICT(account_id) DO UPDATE SET balance=excluded.balance;";
+
+    // adds to whatever the row holds when the statement runs, so a concurrent writer's change is never overwritten
+    public static String addQuery = "INSERT INTO balance (account_id, balance) VALUES (?, ?)" +
+            " ON CONFLICT(account_id) DO UPDATE SET balance = balance + excluded.balance;";
+
+    public static String selectAllQuery = "SELECT account_id, balance FROM balance ORDER BY account_id";
+
+    public static String deleteAllQuery = "DELETE FROM balance";
+
+    // only succeeds if the balance has not changed since it was read
+    public static String compareAndSetQuery = "UPDATE balance SET balance = ? WHERE account_id = ? AND balance = ?";
+
     public static Balance mapAccountFromResultSet(@NonNull ResultSet resultSet) {
         try {
             if (!resultSet.next()) {
@@ -47,8 +66,7 @@ public class Balance implements SqliteTable {
 
     @Override
     public String getInsertSqlStatement() {
-        return "INSERT INTO balance (account_id, balance) VALUES (?, ?)" +
-                " ON CONFLICT(account_id) DO UPDATE SET balance=excluded.balance;";
+        return upsertQuery;
     }
 
     @Override
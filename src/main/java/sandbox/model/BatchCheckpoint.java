@@ -0,0 +1,85 @@
+package sandbox.model;
+
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A chunk of a batch job that has been completed. It is written in the same transaction as the chunk's
+ * changes, so a restarted job skips exactly the chunks that were committed.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Data
+@Slf4j
+public class BatchCheckpoint implements SqliteTable {
+    private String jobId;
+    // first id of the chunk
+    private Long chunkStart;
+    // epoch millis
+    private Long completed;
+
+    public static String batchCheckpointTableCreation =
+            "CREATE TABLE IF NOT EXISTS batch_checkpoint " +
+                    "(job_id           TEXT    NOT NULL, " +
+                    "chunk_start      LONG    NOT NULL, " +
+                    "completed        LONG    NOT NULL, " +
+                    "PRIMARY KEY (job_id, chunk_start)) WITHOUT ROWID";
+
+    public static List<BatchCheckpoint> mapCheckpointsFromResultSet(@NonNull ResultSet resultSet) {
+        List<BatchCheckpoint> checkpoints = new ArrayList<>();
+        try {
+            while (resultSet.next()) {
+                checkpoints.add(BatchCheckpoint.builder()
+                        .jobId(resultSet.getString("job_id"))
+                        .chunkStart(resultSet.getLong("chunk_start"))
+                        .completed(resultSet.getLong("completed"))
+                        .build());
+            }
+        } catch (SQLException e) {
+            log.error("could not create BatchCheckpoint from query results", e);
+        }
+        return checkpoints;
+    }
+
+    @Override
+    public String getInsertSqlStatement() {
+        return "INSERT INTO batch_checkpoint (job_id, chunk_start, completed) VALUES (?, ?, ?)";
+    }
+
+    @Override
+    public void setInsertValues(PreparedStatement stmt) throws SQLException {
+        if (Objects.isNull(jobId)) {
+            throw new IllegalArgumentException("jobId is required");
+        }
+        stmt.setString(1, jobId);
+
+        if (Objects.isNull(chunkStart)) {
+            throw new IllegalArgumentException("chunkStart is required");
+        }
+        stmt.setLong(2, chunkStart);
+
+        if (Objects.isNull(completed)) {
+            throw new IllegalArgumentException("completed is required");
+        }
+        stmt.setLong(3, completed);
+    }
+
+    // every completed chunk of a job
+    @Override
+    public String getSelectSqlStatement() {
+        return "SELECT * FROM batch_checkpoint WHERE job_id = ?";
+    }
+
+    @Override
+    public void setSelectValues(PreparedStatement stmt) throws SQLException {
+        stmt.setString(1, jobId);
+    }
+}
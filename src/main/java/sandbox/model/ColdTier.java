@@ -0,0 +1,168 @@
+package sandbox.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Statements for the archive tier, a second sqlite file attached to the shared connection as "archive".
+ * Its tables have the same columns as the hot ones, so rows move between the tiers with INSERT ... SELECT *.
+ *
+ * A move copies the rows in one transaction and deletes them from the other tier in a second one. sqlite
+ * does not commit attached WAL dbs atomically together, so a crash in between leaves the account in both
+ * tiers, never in neither. The hot copy always wins: lookups try the hot tier first, scans skip archive
+ * rows of hot accounts and attaching drops archive rows that are also hot.
+ *
+ * Scans and the batch jobs cover both tiers, so archiving changes where an account is stored, not whether
+ * it is reconciled, exported or paid interest.
+ */
+public final class ColdTier {
+
+    public static final String HOT = "main";
+    public static final String ARCHIVE = "archive";
+
+    public static String attachQuery = "ATTACH DATABASE ? AS " + ARCHIVE;
+
+    public static String attachedQuery = "SELECT 1 FROM pragma_database_list WHERE name = '" + ARCHIVE + "'";
+
+    // accounts last active before the cutoff, in id order after a cursor. accounts with no recorded activity
+    // never logged in and stay hot
+    public static String dormantAccountsQuery =
+            "SELECT account_id FROM " + HOT + ".account_activity " +
+                    "WHERE last_active < ? AND account_id > ? " +
+                    "ORDER BY account_id LIMIT ?";
+
+    // Account.idBoundsQuery over both tiers
+    public static String accountIdBoundsQuery =
+            "SELECT MIN(min_id) AS min_id, MAX(max_id) AS max_id FROM (" +
+                    "SELECT MIN(id) AS min_id, MAX(id) AS max_id FROM " + HOT + ".account UNION ALL " +
+                    "SELECT MIN(id), MAX(id) FROM " + ARCHIVE + ".account)";
+
+    // Account.scanBalancesQuery over both tiers, taking the id range twice. each side is read in id order and
+    // merged, and an account left in both tiers by an interrupted move is only read from the hot one
+    public static String scanBalancesQuery =
+            "SELECT a.id AS account_id, a.username, COALESCE(b.balance, 0) AS balance " +
+                    "FROM " + HOT + ".account a LEFT JOIN " + HOT + ".balance b ON b.account_id = a.id " +
+                    "WHERE a.id >= ? AND a.id <= ? " +
+                    "UNION ALL " +
+                    "SELECT a.id, a.username, COALESCE(b.balance, 0) " +
+                    "FROM " + ARCHIVE + ".account a LEFT JOIN " + ARCHIVE + ".balance b ON b.account_id = a.id " +
+                    "WHERE a.id >= ? AND a.id <= ? AND a.id NOT IN (SELECT id FROM " + HOT + ".account) " +
+                    "ORDER BY account_id";
+
+    // Balance.idBoundsQuery over both tiers
+    public static String balanceIdBoundsQuery =
+            "SELECT MIN(min_id) AS min_id, MAX(max_id) AS max_id FROM (" +
+                    "SELECT MIN(id) AS min_id, MAX(id) AS max_id FROM " + HOT + ".balance UNION ALL " +
+                    "SELECT MIN(id), MAX(id) FROM " + ARCHIVE + ".balance)";
+
+    // Balance.selectIdRangeQuery over both tiers, taking the range twice. archived balances keep the row id
+    // they had when hot, a new hot row can reuse it, so a chunk may hold one row of each for the same id
+    public static String selectBalanceIdRangeQuery =
+            "SELECT * FROM " + HOT + ".balance WHERE id >= ? AND id < ? " +
+                    "UNION ALL " +
+                    "SELECT * FROM " + ARCHIVE + ".balance WHERE id >= ? AND id < ? " +
+                    "AND account_id NOT IN (SELECT id FROM " + HOT + ".account) " +
+                    "ORDER BY id";
+
+    // the interest job's writes for an account that is archived, which stays where it is
+    public static String archivedCompareAndSetQuery =
+            "UPDATE " + ARCHIVE + ".balance SET balance = ? WHERE account_id = ? AND balance = ? " +
+                    "AND account_id NOT IN (SELECT id FROM " + HOT + ".account)";
+
+    public static String archivedBalanceQuery = "SELECT balance FROM " + ARCHIVE + ".balance WHERE account_id = ? LIMIT 1";
+
+    public static String archivedSetBalanceQuery = "UPDATE " + ARCHIVE + ".balance SET balance = ? WHERE account_id = ?";
+
+    public static String archivedTransactionInsertQuery =
+            "INSERT INTO " + ARCHIVE + ".account_transaction (account_id, type, amount, balance, created) VALUES (?, ?, ?, ?, ?)";
+
+    public static String archivedAccountQuery = "SELECT id FROM " + ARCHIVE + ".account WHERE username = ? AND pin = ? LIMIT 1";
+
+    public static String archivedUsernameQuery = "SELECT id FROM " + ARCHIVE + ".account WHERE username = ? LIMIT 1";
+
+    public static String archivedAccountIdQuery = "SELECT id FROM " + ARCHIVE + ".account WHERE id = ? LIMIT 1";
+
+    // Account.usernameQuery over both tiers, without promoting an archived account
+    public static String usernameQuery =
+            "SELECT username FROM " + HOT + ".account WHERE id = ? " +
+                    "UNION ALL SELECT username FROM " + ARCHIVE + ".account WHERE id = ? LIMIT 1";
+
+    // the replication snapshot's Account, Balance and Session selectAllQuery over both tiers. a follower has
+    // no archive, archived accounts are replicated into its hot tables
+    public static String selectAllAccountsQuery =
+            "SELECT id, username, pin FROM " + HOT + ".account " +
+                    "UNION ALL " +
+                    "SELECT id, username, pin FROM " + ARCHIVE + ".account WHERE id NOT IN (SELECT id FROM " + HOT + ".account) " +
+                    "ORDER BY id";
+
+    public static String selectAllBalancesQuery =
+            "SELECT account_id, balance FROM " + HOT + ".balance " +
+                    "UNION ALL " +
+                    "SELECT account_id, balance FROM " + ARCHIVE + ".balance " +
+                    "WHERE account_id NOT IN (SELECT id FROM " + HOT + ".account) " +
+                    "ORDER BY account_id";
+
+    public static String selectAllSessionsQuery =
+            "SELECT account_id, token, expires FROM " + HOT + ".session " +
+                    "UNION ALL " +
+                    "SELECT account_id, token, expires FROM " + ARCHIVE + ".session " +
+                    "WHERE account_id NOT IN (SELECT id FROM " + HOT + ".account) " +
+                    "ORDER BY account_id";
+
+    // the tables holding an account's rows, each with the column naming the account. parents first
+    private static final String[][] ACCOUNT_TABLES = {
+            {"account", "id"},
+            {"balance", "account_id"},
+            {"session", "account_id"},
+            {"account_activity", "account_id"},
+            {"account_transaction", "account_id"},
+    };
+
+    private ColdTier() {
+    }
+
+    public static List<String> archiveTableCreations() {
+        return Stream.of(
+                        Account.accountTableCreation,
+                        Account.activityTableCreation,
+                        Session.sessionTableCreation,
+                        Balance.balanceTableCreation,
+                        Transaction.transactionTableCreation,
+                        Transaction.transactionIndexCreation)
+                .map(sql -> sql
+                        .replaceFirst("CREATE TABLE IF NOT EXISTS ", "CREATE TABLE IF NOT EXISTS " + ARCHIVE + ".")
+                        .replaceFirst("CREATE INDEX IF NOT EXISTS ", "CREATE INDEX IF NOT EXISTS " + ARCHIVE + "."))
+                .collect(Collectors.toList());
+    }
+
+    // parents first, each statement takes the account id
+    public static List<String> copyAccountStatements(String from, String to) {
+        List<String> statements = new ArrayList<>();
+        for (String[] table : ACCOUNT_TABLES) {
+            statements.add("INSERT OR REPLACE INTO " + to + "." + table[0] +
+                    " SELECT * FROM " + from + "." + table[0] + " WHERE " + table[1] + " = ?");
+        }
+        return statements;
+    }
+
+    // children first, each statement takes the account id
+    public static List<String> deleteAccountStatements(String from) {
+        List<String> statements = new ArrayList<>();
+        for (int i = ACCOUNT_TABLES.length - 1; i >= 0; i--) {
+            statements.add("DELETE FROM " + from + "." + ACCOUNT_TABLES[i][0] + " WHERE " + ACCOUNT_TABLES[i][1] + " = ?");
+        }
+        return statements;
+    }
+
+    // archive rows of accounts that are also hot, left behind by a move interrupted between its transactions
+    public static List<String> reconcileStatements() {
+        List<String> statements = new ArrayList<>();
+        for (int i = ACCOUNT_TABLES.length - 1; i >= 0; i--) {
+            statements.add("DELETE FROM " + ARCHIVE + "." + ACCOUNT_TABLES[i][0] +
+                    " WHERE " + ACCOUNT_TABLES[i][1] + " IN (SELECT id FROM " + HOT + ".account)");
+        }
+        return statements;
+    }
+}
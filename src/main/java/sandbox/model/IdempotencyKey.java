@@ -0,0 +1,100 @@
+package sandbox.model;
+
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The result of a deposit or withdrawal made with a client request id, so a retried request returns the
+ * original result instead of moving money again. The key combines the account, operation and request id.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Data
+@Slf4j
+public class IdempotencyKey implements SqliteTable {
+    private String key;
+    private Boolean result;
+    // epoch millis
+    private Long created;
+
+    // without rowid, the key is the only index the rows need
+    public static String idempotencyKeyTableCreation =
+            "CREATE TABLE IF NOT EXISTS idempotency_key " +
+                    "(key              TEXT    PRIMARY KEY, " +
+                    "result           INT     NOT NULL, " +
+                    "created          LONG    NOT NULL) WITHOUT ROWID";
+
+    public static String idempotencyKeyIndexCreation =
+            "CREATE INDEX IF NOT EXISTS idempotency_key_created ON idempotency_key (created)";
+
+    // a plain insert, so a key that is already there fails the transaction it is written in
+    public static String insertOnceQuery = "INSERT INTO idempotency_key (key, result, created) VALUES (?, ?, ?)";
+
+    public static String selectKeyQuery = "SELECT * FROM idempotency_key WHERE key = ?";
+
+    // the newest keys created at or after a time, at most a limit of them
+    public static String selectRecentQuery =
+            "SELECT * FROM idempotency_key WHERE created >= ? ORDER BY created DESC LIMIT ?";
+
+    public static String deleteExpiredKeys =
+            "DELETE FROM idempotency_key WHERE key IN " +
+                    "(SELECT key FROM idempotency_key WHERE created < ? LIMIT ?)";
+
+    public static List<IdempotencyKey> mapKeysFromResultSet(@NonNull ResultSet resultSet) {
+        List<IdempotencyKey> keys = new ArrayList<>();
+        try {
+            while (resultSet.next()) {
+                keys.add(IdempotencyKey.builder()
+                        .key(resultSet.getString("key"))
+                        .result(resultSet.getInt("result") != 0)
+                        .created(resultSet.getLong("created"))
+                        .build());
+            }
+        } catch (SQLException e) {
+            log.error("could not create IdempotencyKey from query results", e);
+        }
+        return keys;
+    }
+
+    @Override
+    public String getInsertSqlStatement() {
+        return "INSERT OR IGNORE INTO idempotency_key (key, result, created) VALUES (?, ?, ?)";
+    }
+
+    @Override
+    public void setInsertValues(PreparedStatement stmt) throws SQLException {
+        if (Objects.isNull(key)) {
+            throw new IllegalArgumentException("key is required");
+        }
+        stmt.setString(1, key);
+
+        if (Objects.isNull(result)) {
+            throw new IllegalArgumentException("result is required");
+        }
+        stmt.setInt(2, result ? 1 : 0);
+
+        if (Objects.isNull(created)) {
+            throw new IllegalArgumentException("created is required");
+        }
+        stmt.setLong(3, created);
+    }
+
+    // every key created at or after the given time
+    @Override
+    public String getSelectSqlStatement() {
+        return "SELECT * FROM idempotency_key WHERE created >= ?";
+    }
+
+    @Override
+    public void setSelectValues(PreparedStatement stmt) throws SQLException {
+        stmt.setLong(1, created);
+    }
+}
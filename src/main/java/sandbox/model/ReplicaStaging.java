@@ -0,0 +1,39 @@
+package sandbox.model;
+
+import java.util.List;
+
+/**
+ * Statements for the temp tables a follower loads a snapshot into. They belong to the shared connection, so
+ * they go away with it, and have names of their own so they never shadow the real tables. Live reads keep
+ * seeing the previous snapshot until the staged one is swapped in, in one transaction.
+ */
+public final class ReplicaStaging {
+
+    public static final List<String> TABLE_CREATIONS = List.of(
+            "CREATE TEMP TABLE IF NOT EXISTS staged_account " +
+                    "(id INTEGER PRIMARY KEY, username TEXT NOT NULL, pin TEXT NOT NULL)",
+            "CREATE TEMP TABLE IF NOT EXISTS staged_balance " +
+                    "(account_id INTEGER PRIMARY KEY, balance LONG NOT NULL)",
+            "CREATE TEMP TABLE IF NOT EXISTS staged_session " +
+                    "(account_id INTEGER PRIMARY KEY, token UUID NOT NULL, expires datetime NOT NULL)");
+
+    public static final List<String> DELETE_ALL = List.of(
+            "DELETE FROM temp.staged_session",
+            "DELETE FROM temp.staged_balance",
+            "DELETE FROM temp.staged_account");
+
+    public static String stageAccountQuery = "INSERT OR REPLACE INTO temp.staged_account (id, username, pin) VALUES (?, ?, ?)";
+
+    public static String stageBalanceQuery = "INSERT OR REPLACE INTO temp.staged_balance (account_id, balance) VALUES (?, ?)";
+
+    public static String stageSessionQuery = "INSERT OR REPLACE INTO temp.staged_session (account_id, token, expires) VALUES (?, ?, ?)";
+
+    // run after the real tables are emptied, parents first
+    public static final List<String> SWAP_IN = List.of(
+            "INSERT INTO main.account (id, username, pin) SELECT id, username, pin FROM temp.staged_account",
+            "INSERT INTO main.balance (account_id, balance) SELECT account_id, balance FROM temp.staged_balance",
+            "INSERT INTO main.session (account_id, token, expires) SELECT account_id, token, expires FROM temp.staged_session");
+
+    private ReplicaStaging() {
+    }
+}
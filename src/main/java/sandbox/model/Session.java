@@ -23,6 +23,8 @@ import java.util.UUID;
 public class Session implements SqliteTable {
     private Integer id;
     private Integer accountId;
+    // a bearer credential, kept out of logs
+    @ToString.Exclude
     private UUID token;
     private Timestamp expires;
 
@@ -34,6 +36,33 @@ public class Session implements SqliteTable {
                     "expires          datetime NOT NULL, " +
                     "FOREIGN KEY(account_id) REFERENCES account(id))";
 
+    public static String upsertQuery = "INSERT INTO session (account_id, token, expires) VALUES (?, ?, ?) " +
+            "ON CONFLICT(account_id) DO UPDATE SET token=excluded.token, expires=excluded.expires;";
+
+    public static String selectAllQuery = "SELECT account_id, token, expires FROM session ORDER BY account_id";
+
+    public static String deleteAllQuery = "DELETE FROM session";
+
+    public static String expireSessionQuery = "UPDATE session SET expires = ? WHERE token = ?";
+
+    // only extends a session whose row still has the expiry the extension was made from. the session was
+    // active then, so it is extended even if that expiry passed while the extension waited to be written.
+    // a logout or a new login changes the row and the extension is dropped
+    public static String extendSessionQuery = "UPDATE session SET expires = ? WHERE token = ? AND expires = ?";
+
+    // a token as sent by a client, empty unless it is a uuid. anything else can't name a session, so callers
+    // treat it like an unknown token rather than a malformed request
+    public static Optional<UUID> parseToken(String token) {
+        if (token == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(UUID.fromString(token));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
     public static Session mapAccountFromResultSet(@NonNull ResultSet resultSet) {
         try {
             if (!resultSet.next()) {
@@ -54,8 +83,7 @@ public class Session implements SqliteTable {
 
     @Override
     public String getInsertSqlStatement() {
-        return "INSERT INTO session (account_id, token, expires) VALUES (?, ?, ?) " +
-                "ON CONFLICT(id) DO UPDATE SET token=excluded.token, expires=excluded.expires;";
+        return upsertQuery;
     }
 
     @Override
@@ -0,0 +1,114 @@
+package sandbox.model;
+
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * One balance change on an account, with the balance after the change was applied.
+ * Used to print mini statements of recent activity.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Data
+@Slf4j
+public class Transaction implements SqliteTable {
+    // the most rows a mini statement can show
+    public static final int MAX_STATEMENT_ROWS = 32;
+
+    private Integer id;
+    private Integer accountId;
+    private TransactionType type;
+    private Long amount;
+    private Long balance;
+    private Timestamp created;
+
+    public static String transactionTableCreation =
+            "CREATE TABLE IF NOT EXISTS account_transaction " +
+                    "(id              INTEGER PRIMARY KEY    AUTOINCREMENT, " +
+                    "account_id       INT      NOT NULL, " +
+                    "type             TEXT     NOT NULL, " +
+                    "amount           LONG     NOT NULL, " +
+                    "balance          LONG     NOT NULL, " +
+                    "created          datetime NOT NULL, " +
+                    "FOREIGN KEY(account_id) REFERENCES account(id))";
+
+    public static String transactionIndexCreation =
+            "CREATE INDEX IF NOT EXISTS account_transaction_account_id ON account_transaction (account_id, id)";
+
+    // the newest row for an account, one lookup in the index above
+    public static String latestIdQuery = "SELECT MAX(id) FROM account_transaction WHERE account_id = ?";
+
+    public static String insertedIdQuery = "SELECT last_insert_rowid()";
+
+    // newest first
+    public static List<Transaction> mapTransactionsFromResultSet(@NonNull ResultSet resultSet) {
+        List<Transaction> transactions = new ArrayList<>();
+        try {
+            while (resultSet.next()) {
+                transactions.add(Transaction.builder()
+                        .id(resultSet.getInt("id"))
+                        .accountId(resultSet.getInt("account_id"))
+                        .type(TransactionType.valueOf(resultSet.getString("type")))
+                        .amount(resultSet.getLong("amount"))
+                        .balance(resultSet.getLong("balance"))
+                        .created(resultSet.getTimestamp("created"))
+                        .build());
+            }
+        } catch (SQLException e) {
+            log.error("could not create Transaction from query results", e);
+        }
+        return transactions;
+    }
+
+    @Override
+    public String getInsertSqlStatement() {
+        return "INSERT INTO account_transaction (account_id, type, amount, balance, created) VALUES (?, ?, ?, ?, ?)";
+    }
+
+    @Override
+    public void setInsertValues(PreparedStatement stmt) throws SQLException {
+        if (Objects.isNull(accountId)) {
+            throw new IllegalArgumentException("accountId is required");
+        }
+        stmt.setInt(1, accountId);
+
+        if (Objects.isNull(type)) {
+            throw new IllegalArgumentException("type is required");
+        }
+        stmt.setString(2, type.name());
+
+        if (Objects.isNull(amount)) {
+            throw new IllegalArgumentException("amount is required");
+        }
+        stmt.setLong(3, amount);
+
+        if (Objects.isNull(balance)) {
+            throw new IllegalArgumentException("balance field is required");
+        }
+        stmt.setLong(4, balance);
+
+        if (Objects.isNull(created)) {
+            throw new IllegalArgumentException("created is required");
+        }
+        stmt.setTimestamp(5, created);
+    }
+
+    @Override
+    public String getSelectSqlStatement() {
+        return "SELECT * FROM account_transaction WHERE account_id = ? ORDER BY id DESC LIMIT " + MAX_STATEMENT_ROWS;
+    }
+
+    @Override
+    public void setSelectValues(PreparedStatement stmt) throws SQLException {
+        stmt.setInt(1, accountId);
+    }
+}
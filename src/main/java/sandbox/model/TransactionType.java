@@ -0,0 +1,23 @@
+package sandbox.model;
+
+/**
+ * the kinds of balance changes recorded in the account_transaction table
+ */
+public enum TransactionType {
+    DEPOSIT(1),
+    WITHDRAWAL(-1),
+    TRANSFER_IN(1),
+    TRANSFER_OUT(-1),
+    INTEREST(1);
+
+    private final int sign;
+
+    TransactionType(int sign) {
+        this.sign = sign;
+    }
+
+    // the change to the balance of a transaction of this type, amounts are always recorded as positive
+    public long delta(long amount) {
+        return sign * amount;
+    }
+}
@@ -0,0 +1,87 @@
+package sandbox.model;
+
+import lombok.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The total withdrawn from an account during one hour, used to restore the daily withdrawal limit
+ * counters after a restart. Each row is keyed by account and hour since the epoch.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Data
+@Slf4j
+public class WithdrawalWindow implements SqliteTable {
+    private Integer accountId;
+    private Long hour;
+    private Long amount;
+
+    public static String withdrawalWindowTableCreation =
+            "CREATE TABLE IF NOT EXISTS withdrawal_window " +
+                    "(account_id       INT     NOT NULL, " +
+                    "hour             LONG    NOT NULL, " +
+                    "amount           LONG    NOT NULL, " +
+                    "PRIMARY KEY(account_id, hour), " +
+                    "FOREIGN KEY(account_id) REFERENCES account(id))";
+
+    public static String deleteExpiredWindows = "DELETE FROM withdrawal_window WHERE hour <= ?";
+
+    public static List<WithdrawalWindow> mapWindowsFromResultSet(@NonNull ResultSet resultSet) {
+        List<WithdrawalWindow> windows = new ArrayList<>();
+        try {
+            while (resultSet.next()) {
+                windows.add(WithdrawalWindow.builder()
+                        .accountId(resultSet.getInt("account_id"))
+                        .hour(resultSet.getLong("hour"))
+                        .amount(resultSet.getLong("amount"))
+                        .build());
+            }
+        } catch (SQLException e) {
+            log.error("could not create WithdrawalWindow from query results", e);
+        }
+        return windows;
+    }
+
+    @Override
+    public String getInsertSqlStatement() {
+        return "INSERT INTO withdrawal_window (account_id, hour, amount) VALUES (?, ?, ?)" +
+                " ON CONFLICT(account_id, hour) DO UPDATE SET amount=excluded.amount;";
+    }
+
+    @Override
+    public void setInsertValues(PreparedStatement stmt) throws SQLException {
+        if (Objects.isNull(accountId)) {
+            throw new IllegalArgumentException("accountId is required");
+        }
+        stmt.setInt(1, accountId);
+
+        if (Objects.isNull(hour)) {
+            throw new IllegalArgumentException("hour is required");
+        }
+        stmt.setLong(2, hour);
+
+        if (Objects.isNull(amount)) {
+            throw new IllegalArgumentException("amount is required");
+        }
+        stmt.setLong(3, amount);
+    }
+
+    // every window newer than the given hour
+    @Override
+    public String getSelectSqlStatement() {
+        return "SELECT * FROM withdrawal_window WHERE hour > ?";
+    }
+
+    @Override
+    public void setSelectValues(PreparedStatement stmt) throws SQLException {
+        stmt.setLong(1, hour);
+    }
+}
@@ -0,0 +1,104 @@
+package sandbox.net;
+
+import sandbox.admission.OverloadedException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A blocking loopback client for the AtmServer, used by tests and benchmarks. A client is one connection
+ * and is not thread safe. pipeline sends a batch of requests before reading any response.
+ */
+public class AtmClient implements AutoCloseable {
+
+    private final SocketChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private int nextRequestId;
+
+    public AtmClient(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        readBuffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public Optional<String> login(String username, String pin) throws IOException {
+        AtmResponse response = call(AtmRequest.login(username, pin));
+        return response.isOk() ? Optional.of(response.getText()) : Optional.empty();
+    }
+
+    public long viewBalance(String token) throws IOException {
+        return call(AtmRequest.viewBalance(token)).getValue();
+    }
+
+    public boolean deposit(String token, long amount) throws IOException {
+        return call(AtmRequest.deposit(token, amount)).isOk();
+    }
+
+    public boolean withdraw(String token, long amount) throws IOException {
+        return call(AtmRequest.withdraw(token, amount)).isOk();
+    }
+
+    // responses are returned in request order
+    public List<AtmResponse> pipeline(List<AtmRequest> requests) throws IOException {
+        send(requests);
+        return receive(requests.size());
+    }
+
+    public void send(List<AtmRequest> requests) throws IOException {
+        for (AtmRequest request : requests) {
+            if (writeBuffer.remaining() < AtmProtocol.MAX_FRAME_BYTES) {
+                flush();
+            }
+            request.encode(writeBuffer, ++nextRequestId);
+        }
+        flush();
+    }
+
+    public List<AtmResponse> receive(int count) throws IOException {
+        List<AtmResponse> responses = new ArrayList<>(count);
+        while (responses.size() < count) {
+            while (!AtmProtocol.hasFrame(readBuffer)) {
+                readBuffer.compact();
+                if (channel.read(readBuffer) < 0) {
+                    throw new EOFException("server closed the connection");
+                }
+                readBuffer.flip();
+            }
+            responses.add(AtmResponse.decode(readBuffer));
+        }
+        return responses;
+    }
+
+    // errors and overloads are thrown, failures are returned for the caller to check
+    private AtmResponse call(AtmRequest request) throws IOException {
+        AtmResponse response = pipeline(List.of(request)).get(0);
+        if (response.getStatus() == AtmProtocol.ERROR) {
+            throw new RuntimeException(response.getText());
+        }
+        if (response.getStatus() == AtmProtocol.OVERLOADED) {
+            throw new OverloadedException("opcode " + request.getOpcode());
+        }
+        return response;
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+}
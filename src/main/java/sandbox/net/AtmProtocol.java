@@ -0,0 +1,83 @@
+package sandbox.net;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The length prefixed binary protocol spoken between terminals and the AtmServer.
+ *
+ * Every frame starts with an int length of the bytes that follow it, then an int request id chosen by the
+ * client. Requests continue with a one byte opcode and its arguments, responses with a one byte status and
+ * the result. Strings are an unsigned short byte length followed by utf-8 bytes, amounts and balances are
+ * longs. Responses carry the id of their request, a connection can send many requests without waiting.
+ *
+ * login: username, pin -> token
+ * viewBalance: token -> balance
+ * deposit / withdraw: token, amount -> status only
+ */
+public final class AtmProtocol {
+
+    public static final byte LOGIN = 1;
+    public static final byte VIEW_BALANCE = 2;
+    public static final byte DEPOSIT = 3;
+    public static final byte WITHDRAW = 4;
+
+    // the operation succeeded
+    public static final byte OK = 0;
+    // the operation ran and said no: a failed login, or a deposit or withdrawal that returned false
+    public static final byte FAILED = 1;
+    // the operation threw, the payload is the error message
+    public static final byte ERROR = 2;
+    // the server turned the operation away without running it, it can be sent again later
+    public static final byte OVERLOADED = 3;
+
+    public static final int LENGTH_BYTES = 4;
+    public static final int MAX_FRAME_BYTES = 4096;
+
+    private AtmProtocol() {
+    }
+
+    public static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("string is too long for the protocol");
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        int length = Short.toUnsignedInt(buffer.getShort());
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // reserves the length prefix, returning its position for endFrame
+    public static int beginFrame(ByteBuffer buffer, int requestId) {
+        int start = buffer.position();
+        buffer.putInt(0);
+        buffer.putInt(requestId);
+        return start;
+    }
+
+    public static void endFrame(ByteBuffer buffer, int start) {
+        buffer.putInt(start, buffer.position() - start - LENGTH_BYTES);
+    }
+
+    // true if the buffer, in read mode, holds at least one whole frame at its position
+    public static boolean hasFrame(ByteBuffer buffer) {
+        if (buffer.remaining() < LENGTH_BYTES) {
+            return false;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IllegalStateException("invalid frame length " + length);
+        }
+        return buffer.remaining() >= LENGTH_BYTES + length;
+    }
+}
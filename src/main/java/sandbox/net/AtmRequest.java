@@ -0,0 +1,83 @@
+package sandbox.net;
+
+import lombok.Value;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One request frame. Clients build requests with the factory methods and encode them with a request id,
+ * the server decodes them back with the id filled in.
+ */
+@Value
+public class AtmRequest {
+    int requestId;
+    byte opcode;
+    String username;
+    String pin;
+    String token;
+    long amount;
+
+    public static AtmRequest login(String username, String pin) {
+        return new AtmRequest(0, AtmProtocol.LOGIN, username, pin, null, 0L);
+    }
+
+    public static AtmRequest viewBalance(String token) {
+        return new AtmRequest(0, AtmProtocol.VIEW_BALANCE, null, null, token, 0L);
+    }
+
+    public static AtmRequest deposit(String token, long amount) {
+        return new AtmRequest(0, AtmProtocol.DEPOSIT, null, null, token, amount);
+    }
+
+    public static AtmRequest withdraw(String token, long amount) {
+        return new AtmRequest(0, AtmProtocol.WITHDRAW, null, null, token, amount);
+    }
+
+    public void encode(ByteBuffer buffer, int requestId) {
+        int start = AtmProtocol.beginFrame(buffer, requestId);
+        buffer.put(opcode);
+        switch (opcode) {
+            case AtmProtocol.LOGIN:
+                AtmProtocol.putString(buffer, username);
+                AtmProtocol.putString(buffer, pin);
+                break;
+            case AtmProtocol.VIEW_BALANCE:
+                AtmProtocol.putString(buffer, token);
+                break;
+            case AtmProtocol.DEPOSIT:
+            case AtmProtocol.WITHDRAW:
+                AtmProtocol.putString(buffer, token);
+                buffer.putLong(amount);
+                break;
+            default:
+                throw new IllegalStateException("unknown opcode " + opcode);
+        }
+        AtmProtocol.endFrame(buffer, start);
+    }
+
+    // the buffer must hold a whole frame at its position, it is left positioned after the frame
+    public static AtmRequest decode(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        int end = buffer.position() + length;
+        int requestId = buffer.getInt();
+        byte opcode = buffer.get();
+        AtmRequest request;
+        switch (opcode) {
+            case AtmProtocol.LOGIN:
+                request = new AtmRequest(requestId, opcode, AtmProtocol.getString(buffer), AtmProtocol.getString(buffer), null, 0L);
+                break;
+            case AtmProtocol.VIEW_BALANCE:
+                request = new AtmRequest(requestId, opcode, null, null, AtmProtocol.getString(buffer), 0L);
+                break;
+            case AtmProtocol.DEPOSIT:
+            case AtmProtocol.WITHDRAW:
+                request = new AtmRequest(requestId, opcode, null, null, AtmProtocol.getString(buffer), buffer.getLong());
+                break;
+            default:
+                request = new AtmRequest(requestId, opcode, null, null, null, 0L);
+                break;
+        }
+        buffer.position(end);
+        return request;
+    }
+}
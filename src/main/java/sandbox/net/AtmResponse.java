@@ -0,0 +1,80 @@
+package sandbox.net;
+
+import lombok.Value;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One response frame. The opcode of the request is echoed back, so the payload can be decoded without
+ * remembering what was asked. Successful logins carry the token in text and balances carry value, errors
+ * carry their message in text.
+ */
+@Value
+public class AtmResponse {
+    // error messages are cut to this many characters so they always fit in a frame
+    private static final int MAX_MESSAGE_LENGTH = 512;
+
+    int requestId;
+    byte opcode;
+    byte status;
+    long value;
+    String text;
+
+    public static AtmResponse ok(AtmRequest request, long value, String text) {
+        return new AtmResponse(request.getRequestId(), request.getOpcode(), AtmProtocol.OK, value, text);
+    }
+
+    public static AtmResponse failed(AtmRequest request) {
+        return new AtmResponse(request.getRequestId(), request.getOpcode(), AtmProtocol.FAILED, 0L, null);
+    }
+
+    public static AtmResponse error(AtmRequest request, String message) {
+        String text = String.valueOf(message);
+        if (text.length() > MAX_MESSAGE_LENGTH) {
+            text = text.substring(0, MAX_MESSAGE_LENGTH);
+        }
+        return new AtmResponse(request.getRequestId(), request.getOpcode(), AtmProtocol.ERROR, 0L, text);
+    }
+
+    public static AtmResponse overloaded(AtmRequest request) {
+        return new AtmResponse(request.getRequestId(), request.getOpcode(), AtmProtocol.OVERLOADED, 0L, null);
+    }
+
+    public boolean isOk() {
+        return status == AtmProtocol.OK;
+    }
+
+    public void encode(ByteBuffer buffer) {
+        int start = AtmProtocol.beginFrame(buffer, requestId);
+        buffer.put(opcode);
+        buffer.put(status);
+        if (status == AtmProtocol.ERROR) {
+            AtmProtocol.putString(buffer, text);
+        } else if (status == AtmProtocol.OK && opcode == AtmProtocol.LOGIN) {
+            AtmProtocol.putString(buffer, text);
+        } else if (status == AtmProtocol.OK && opcode == AtmProtocol.VIEW_BALANCE) {
+            buffer.putLong(value);
+        }
+        AtmProtocol.endFrame(buffer, start);
+    }
+
+    // the buffer must hold a whole frame at its position, it is left positioned after the frame
+    public static AtmResponse decode(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        int end = buffer.position() + length;
+        int requestId = buffer.getInt();
+        byte opcode = buffer.get();
+        byte status = buffer.get();
+        long value = 0L;
+        String text = null;
+        if (status == AtmProtocol.ERROR) {
+            text = AtmProtocol.getString(buffer);
+        } else if (status == AtmProtocol.OK && opcode == AtmProtocol.LOGIN) {
+            text = AtmProtocol.getString(buffer);
+        } else if (status == AtmProtocol.OK && opcode == AtmProtocol.VIEW_BALANCE) {
+            value = buffer.getLong();
+        }
+        buffer.position(end);
+        return new AtmResponse(requestId, opcode, status, value, text);
+    }
+}
@@ -0,0 +1,360 @@
+package sandbox.net;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.AtmSimulator;
+import sandbox.admission.OverloadedException;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking front end for terminals, speaking the AtmProtocol over persistent tcp connections.
+ *
+ * One acceptor thread hands new connections to a few reactor threads, each with its own selector, so
+ * thousands of idle terminals cost no threads. Reactors only move bytes, the simulator calls block on
+ * sqlite and run on a worker pool. Requests pipelined on one connection run one after another in the order
+ * they arrived, so their responses come back in order too. Read buffers and response buffers are direct
+ * buffers taken from a shared pool.
+ *
+ * A connection has at most maxInFlightPerConnection requests between being decoded and having their response
+ * written. At the cap the reactor stops reading from it, so a client that pipelines faster than it reads its
+ * responses is held back by tcp instead of filling the worker queue and the write queue.
+ */
+@Slf4j
+public class AtmServer implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int DEFAULT_MAX_IN_FLIGHT_PER_CONNECTION = 64;
+
+    private final AtmSimulator atm;
+    private final ServerSocketChannel serverChannel;
+    private final Reactor[] reactors;
+    private final ExecutorService workers;
+    private final BufferPool bufferPool;
+    private final Thread acceptor;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final int maxInFlightPerConnection;
+    private volatile boolean running = true;
+
+    public AtmServer(AtmSimulator atm, InetSocketAddress address) throws IOException {
+        this(atm, address, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), 16);
+    }
+
+    public AtmServer(AtmSimulator atm, InetSocketAddress address, int reactorThreads, int workerThreads) throws IOException {
+        this(atm, address, reactorThreads, workerThreads, DEFAULT_MAX_IN_FLIGHT_PER_CONNECTION);
+    }
+
+    public AtmServer(AtmSimulator atm, InetSocketAddress address, int reactorThreads, int workerThreads,
+                     int maxInFlightPerConnection) throws IOException {
+        if (maxInFlightPerConnection < 1) {
+            throw new IllegalArgumentException("maxInFlightPerConnection must be at least 1");
+        }
+        this.atm = atm;
+        this.maxInFlightPerConnection = maxInFlightPerConnection;
+        this.bufferPool = new BufferPool(BUFFER_SIZE, 4_096);
+        this.workers = Executors.newFixedThreadPool(workerThreads, namedThreads("atm-server-worker"));
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address, 1_024);
+
+        reactors = new Reactor[reactorThreads];
+        for (int i = 0; i < reactorThreads; i++) {
+            reactors[i] = new Reactor(i);
+            reactors[i].start();
+        }
+
+        acceptor = new Thread(this::acceptLoop, "atm-server-acceptor");
+        acceptor.start();
+        log.info("atm server listening on {}", serverChannel.getLocalAddress());
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    // blocks until the server is closed
+    public void join() throws InterruptedException {
+        acceptor.join();
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        running = false;
+        serverChannel.close();
+        acceptor.join();
+        for (Reactor reactor : reactors) {
+            reactor.shutdown();
+        }
+        workers.shutdown();
+        workers.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                reactors[next++ % reactors.length].register(channel);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                log.error("caught exception accepting a connection", e);
+            }
+        }
+    }
+
+    // runs on a worker thread
+    private AtmResponse handle(AtmRequest request) {
+        try {
+            switch (request.getOpcode()) {
+                case AtmProtocol.LOGIN:
+                    Optional<String> token = atm.login(request.getUsername(), request.getPin());
+                    return token.map(t -> AtmResponse.ok(request, 0L, t))
+                            .orElseGet(() -> AtmResponse.failed(request));
+                case AtmProtocol.VIEW_BALANCE:
+                    return AtmResponse.ok(request, atm.viewBalance(request.getToken()), null);
+                case AtmProtocol.DEPOSIT:
+                    return atm.deposit(request.getToken(), request.getAmount())
+                            ? AtmResponse.ok(request, 0L, null)
+                            : AtmResponse.failed(request);
+                case AtmProtocol.WITHDRAW:
+                    return atm.withdraw(request.getToken(), request.getAmount())
+                            ? AtmResponse.ok(request, 0L, null)
+                            : AtmResponse.failed(request);
+                default:
+                    return AtmResponse.error(request, "unknown opcode " + request.getOpcode());
+            }
+        } catch (OverloadedException e) {
+            return AtmResponse.overloaded(request);
+        } catch (RuntimeException e) {
+            log.debug("request failed. requestId={}", request.getRequestId(), e);
+            return AtmResponse.error(request, e.getMessage());
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private class Reactor extends Thread {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+        private volatile boolean open = true;
+
+        Reactor(int index) throws IOException {
+            super("atm-server-reactor-" + index);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        void requestWrite(Connection connection) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+
+        void shutdown() throws InterruptedException {
+            open = false;
+            selector.wakeup();
+            join(5_000);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (open) {
+                    selector.select();
+                    registerNewChannels();
+                    enableWrites();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            log.debug("closing connection after error", e);
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.error("reactor failed", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    log.error("could not close selector", e);
+                }
+            }
+        }
+
+        private void registerNewChannels() {
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                try {
+                    Connection connection = new Connection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    openConnections.incrementAndGet();
+                } catch (IOException e) {
+                    log.error("could not register connection", e);
+                }
+            }
+        }
+
+        private void enableWrites() {
+            Connection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                if (connection.key.isValid()) {
+                    connection.updateInterest();
+                }
+            }
+        }
+    }
+
+    private class Connection {
+        private final Reactor reactor;
+        private final SocketChannel channel;
+        private final ByteBuffer readBuffer;
+        private final ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+        private SelectionKey key;
+        // requests run in arrival order, each one chained after the previous
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        // decoded requests whose response is not fully written yet, only touched by the reactor thread
+        private int inFlight;
+        private boolean readPaused;
+        private volatile boolean closed;
+
+        Connection(Reactor reactor, SocketChannel channel) {
+            this.reactor = reactor;
+            this.channel = channel;
+            this.readBuffer = bufferPool.acquire();
+        }
+
+        void onReadable() throws IOException {
+            if (channel.read(readBuffer) < 0) {
+                close();
+                return;
+            }
+            decodeFrames();
+        }
+
+        // frames left in the buffer at the cap are decoded once responses drain
+        private void decodeFrames() {
+            readBuffer.flip();
+            while (inFlight < maxInFlightPerConnection && AtmProtocol.hasFrame(readBuffer)) {
+                AtmRequest request = AtmRequest.decode(readBuffer);
+                inFlight++;
+                tail = tail.handleAsync((ignored, error) -> {
+                    respond(request);
+                    return null;
+                }, workers);
+            }
+            readBuffer.compact();
+            readPaused = inFlight >= maxInFlightPerConnection;
+            updateInterest();
+        }
+
+        void onWritable() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = writeQueue.peek()) != null) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                writeQueue.poll();
+                bufferPool.release(buffer);
+                inFlight--;
+            }
+            // a worker that queues after this point also asks the reactor to enable writes again
+            if (readPaused && inFlight < maxInFlightPerConnection) {
+                decodeFrames();
+            } else {
+                updateInterest();
+            }
+        }
+
+        void updateInterest() {
+            int ops = readPaused ? 0 : SelectionKey.OP_READ;
+            if (!writeQueue.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        private void respond(AtmRequest request) {
+            AtmResponse response = handle(request);
+            if (closed) {
+                return;
+            }
+            ByteBuffer buffer = bufferPool.acquire();
+            response.encode(buffer);
+            buffer.flip();
+            writeQueue.add(buffer);
+            reactor.requestWrite(this);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            openConnections.decrementAndGet();
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("could not close connection", e);
+            }
+            bufferPool.release(readBuffer);
+            ByteBuffer buffer;
+            while ((buffer = writeQueue.poll()) != null) {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package sandbox.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reuses direct buffers of one size, so connections and responses do not allocate off-heap memory per
+ * request. At most maxPooled idle buffers are kept, extras are left to the garbage collector.
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        idleCount.decrementAndGet();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (idleCount.incrementAndGet() > maxPooled) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        idle.offer(buffer);
+    }
+
+    int idleBuffers() {
+        return idleCount.get();
+    }
+}
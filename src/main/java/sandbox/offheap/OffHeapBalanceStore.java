@@ -0,0 +1,189 @@
+package sandbox.offheap;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.SqliteDao;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Balances held outside the java heap, one 8 byte slot per account id, so tens of millions of accounts
+ * cost no objects and no gc work. Slots live in direct buffers, or in a memory mapped file that the os
+ * writes back on its own, and are split into segments of 16M accounts since a buffer cannot exceed 2GB.
+ *
+ * Every access goes through a VarHandle view of the buffer: reads and writes are volatile and updates
+ * are lock free compare and set loops, so concurrent callers need no locks. The file layout is little
+ * endian longs whatever the platform.
+ */
+@Slf4j
+public class OffHeapBalanceStore implements AutoCloseable {
+
+    private static final int SEGMENT_SHIFT = 24;
+    private static final int SLOTS_PER_SEGMENT = 1 << SEGMENT_SHIFT;
+    private static final int SLOT_MASK = SLOTS_PER_SEGMENT - 1;
+    private static final VarHandle SLOT = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // slots hold balance ^ ABSENT, so a zero filled slot, as in a new buffer or file, reads as absent.
+    // the price is that Long.MIN_VALUE itself cannot be stored
+    private static final long ABSENT = Long.MIN_VALUE;
+
+    private final int capacity;
+    private final ByteBuffer[] segments;
+    private final boolean mapped;
+
+    private OffHeapBalanceStore(int capacity, ByteBuffer[] segments, boolean mapped) {
+        this.capacity = capacity;
+        this.segments = segments;
+        this.mapped = mapped;
+    }
+
+    // direct memory for account ids 0 until capacity, freed when the store is garbage collected
+    public static OffHeapBalanceStore allocate(int capacity) {
+        ByteBuffer[] segments = new ByteBuffer[segmentCount(capacity)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentBytes(capacity, i));
+        }
+        log.info("allocated off-heap balances for {} accounts", capacity);
+        return new OffHeapBalanceStore(capacity, segments, false);
+    }
+
+    // backed by the file, created if missing. balances written before a restart are still there after it
+    public static OffHeapBalanceStore map(Path file, int capacity) {
+        ByteBuffer[] segments = new ByteBuffer[segmentCount(capacity)];
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // mappings stay valid after the channel is closed
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long) i * SLOTS_PER_SEGMENT * Long.BYTES;
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, segmentBytes(capacity, i));
+            }
+        } catch (IOException e) {
+            log.error("could not map balance file={}", file, e);
+            throw new RuntimeException(e);
+        }
+        log.info("mapped off-heap balances for {} accounts from file={}", capacity, file);
+        return new OffHeapBalanceStore(capacity, segments, true);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean covers(int accountId) {
+        return accountId >= 0 && accountId < capacity;
+    }
+
+    public boolean contains(int accountId) {
+        return (long) SLOT.getVolatile(segment(accountId), offset(accountId)) != 0L;
+    }
+
+    // the balance, or absentValue if the account has none stored
+    public long get(int accountId, long absentValue) {
+        long stored = (long) SLOT.getVolatile(segment(accountId), offset(accountId));
+        return stored == 0L ? absentValue : stored ^ ABSENT;
+    }
+
+    public void set(int accountId, long balance) {
+        SLOT.setVolatile(segment(accountId), offset(accountId), encode(balance));
+    }
+
+    // false if the account already has a balance, which is left as it is
+    public boolean putIfAbsent(int accountId, long balance) {
+        return SLOT.compareAndSet(segment(accountId), offset(accountId), 0L, encode(balance));
+    }
+
+    // false if the balance is absent or no longer the expected one
+    public boolean compareAndSet(int accountId, long expected, long update) {
+        return SLOT.compareAndSet(segment(accountId), offset(accountId), encode(expected), encode(update));
+    }
+
+    // adds to the balance, an absent one counting as zero, and returns the new balance
+    public long add(int accountId, long delta) {
+        ByteBuffer segment = segment(accountId);
+        int offset = offset(accountId);
+        while (true) {
+            long stored = (long) SLOT.getVolatile(segment, offset);
+            long balance = stored == 0L ? 0L : stored ^ ABSENT;
+            long updated = Math.addExact(balance, delta);
+            if (SLOT.compareAndSet(segment, offset, stored, encode(updated))) {
+                return updated;
+            }
+        }
+    }
+
+    // forgets every balance, e.g. whatever a mapped file held from a previous run
+    public void clear() {
+        for (ByteBuffer segment : segments) {
+            for (int offset = 0; offset < segment.capacity(); offset += Long.BYTES) {
+                SLOT.setVolatile(segment, offset, 0L);
+            }
+        }
+    }
+
+    // fills the empty slots from every account in the db, returning how many were loaded. a slot already
+    // filled by a write committed during the scan is newer than what the scan read, so it is left alone
+    public long loadFrom(SqliteDao sqliteDao) {
+        long[] loaded = new long[1];
+        sqliteDao.scanBalances((accountId, username, balance) -> {
+            if (covers(accountId)) {
+                putIfAbsent(accountId, balance);
+                loaded[0]++;
+            } else {
+                log.warn("accountId={} is beyond the off-heap capacity={}, it will be read from the db", accountId, capacity);
+            }
+        });
+        log.info("loaded {} balances off-heap", loaded[0]);
+        return loaded[0];
+    }
+
+    // writes a mapped store back to its file now, rather than whenever the os gets round to it
+    public void force() {
+        if (!mapped) {
+            return;
+        }
+        for (ByteBuffer segment : segments) {
+            ((MappedByteBuffer) segment).force();
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+    }
+
+    private ByteBuffer segment(int accountId) {
+        Objects.checkIndex(accountId, capacity);
+        return segments[accountId >>> SEGMENT_SHIFT];
+    }
+
+    private static int offset(int accountId) {
+        return (accountId & SLOT_MASK) << 3;
+    }
+
+    private static long encode(long balance) {
+        if (balance == ABSENT) {
+            throw new IllegalArgumentException("balance out of range");
+        }
+        return balance ^ ABSENT;
+    }
+
+    private static int segmentCount(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        return (capacity + SLOTS_PER_SEGMENT - 1) >>> SEGMENT_SHIFT;
+    }
+
+    private static int segmentBytes(int capacity, int segment) {
+        int slots = Math.min(SLOTS_PER_SEGMENT, capacity - segment * SLOTS_PER_SEGMENT);
+        return slots * Long.BYTES;
+    }
+}
@@ -0,0 +1,136 @@
+package sandbox.replication;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.AtmSimulator;
+import sandbox.AtmSimulatorImpl;
+import sandbox.InvalidTokenException;
+import sandbox.SignedSessionTokens;
+import sandbox.SqliteDao;
+import sandbox.model.Balance;
+import sandbox.model.Session;
+import sandbox.model.Transaction;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Serves balance reads from a follower's replicated db, taking read traffic off the primary. Reads may be
+ * a little behind the primary, see ReplicationFollower for the lag. Everything else is refused until the
+ * follower is promoted, after which every call goes to a full AtmSimulatorImpl over the same db.
+ *
+ * Only uuid session tokens can be checked here, signed tokens need the primary's signing key.
+ */
+@Slf4j
+public class FollowerAtmSimulator implements AtmSimulator, AutoCloseable {
+
+    private final SqliteDao sqliteDao;
+    private final ReplicationFollower follower;
+    private volatile AtmSimulatorImpl promoted;
+
+    public FollowerAtmSimulator(SqliteDao sqliteDao, ReplicationFollower follower) {
+        this.sqliteDao = sqliteDao;
+        this.follower = follower;
+    }
+
+    // stops following and starts taking writes, returning the last sequence replicated. idempotency keys and
+    // withdrawal windows are not replicated, see ReplicationFollower
+    public synchronized long promote() throws InterruptedException {
+        if (promoted != null) {
+            throw new IllegalStateException("already promoted");
+        }
+        long sequence = follower.promote();
+        promoted = new AtmSimulatorImpl(sqliteDao);
+        return sequence;
+    }
+
+    public boolean isPromoted() {
+        return promoted != null;
+    }
+
+    public ReplicationFollower getFollower() {
+        return follower;
+    }
+
+    @Override
+    public void close() throws Exception {
+        follower.close();
+        AtmSimulatorImpl atm = promoted;
+        if (atm != null) {
+            // closes the dao as well
+            atm.close();
+        } else {
+            sqliteDao.close();
+        }
+    }
+
+    @Override
+    public Optional<String> login(String username, String pin) {
+        return primary().login(username, pin);
+    }
+
+    @Override
+    public void logout(String token) {
+        primary().logout(token);
+    }
+
+    @Override
+    public long viewBalance(String token) {
+        AtmSimulatorImpl atm = promoted;
+        if (atm != null) {
+            return atm.viewBalance(token);
+        }
+        if (!follower.isReady()) {
+            throw new IllegalStateException("follower has not loaded a snapshot yet");
+        }
+        if (SignedSessionTokens.isSigned(token)) {
+            throw new IllegalStateException("signed tokens are only checked by the primary");
+        }
+        Integer accountId = sqliteDao.getSession(token)
+                .filter(session -> session.getExpires().toInstant().isAfter(Instant.now()))
+                .map(Session::getAccountId)
+                .orElseThrow(InvalidTokenException::new);
+        return sqliteDao.getBalance(accountId)
+                .map(Balance::getBalance)
+                .orElse(0L);
+    }
+
+    @Override
+    public boolean deposit(String token, long amount) {
+        return primary().deposit(token, amount);
+    }
+
+    @Override
+    public boolean deposit(String token, long amount, String requestId) {
+        return primary().deposit(token, amount, requestId);
+    }
+
+    @Override
+    public boolean withdraw(String token, long amount) {
+        return primary().withdraw(token, amount);
+    }
+
+    @Override
+    public boolean withdraw(String token, long amount, String requestId) {
+        return primary().withdraw(token, amount, requestId);
+    }
+
+    @Override
+    public boolean transfer(String token, int targetAccountId, long amount) {
+        return primary().transfer(token, targetAccountId, amount);
+    }
+
+    // transaction history is not replicated, a follower starts recording it once promoted
+    @Override
+    public List<Transaction> recentTransactions(String token, int count) {
+        return primary().recentTransactions(token, count);
+    }
+
+    private AtmSimulatorImpl primary() {
+        AtmSimulatorImpl atm = promoted;
+        if (atm == null) {
+            throw new IllegalStateException("this is a read-only follower, send writes to the primary");
+        }
+        return atm;
+    }
+}
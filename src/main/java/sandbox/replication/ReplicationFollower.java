@@ -0,0 +1,266 @@
+package sandbox.replication;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.SqliteDao;
+import sandbox.feed.ChangeEvent;
+import sandbox.metrics.LatencyRecorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a local db in step with a ReplicationPrimary. On every connect it loads a fresh snapshot, then
+ * applies the primary's changes in order, a batch per transaction. The snapshot is staged and swapped in
+ * whole, so a connection lost part way through leaves the db as it was before the snapshot started. When the connection drops it keeps
+ * what it has, so reads carry on from slightly stale data, and reconnects after a delay.
+ *
+ * Lag is tracked in changes, the primary's last sequence less the last one applied here, and in time, how
+ * long this follower has been behind. The delay between a change committing on the primary and being
+ * applied here is recorded per change, which includes any clock skew between the two hosts.
+ *
+ * Every connect starts over from the snapshot's sequence, since a restarted primary numbers its changes
+ * from zero again.
+ *
+ * Once the primary is gone for good, promote stops replicating and leaves the local db as it is, ready to
+ * take writes. It refuses until a snapshot has been loaded, and warns when the last one was cut short. Only accounts, balances and sessions are replicated: idempotency keys and withdrawal windows
+ * are not, so after a promotion a retried deposit or withdrawal the primary already applied is applied
+ * again, and the daily withdrawal limits start from nothing.
+ */
+@Slf4j
+public class ReplicationFollower implements AutoCloseable {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final Duration DEFAULT_RECONNECT_DELAY = Duration.ofSeconds(1);
+
+    private final SqliteDao sqliteDao;
+    private final InetSocketAddress primary;
+    private final byte[] secret;
+    private final Duration reconnectDelay;
+    private final Thread thread;
+    private final LatencyRecorder applyDelays = new LatencyRecorder();
+    private volatile Socket socket;
+    private volatile boolean stopped;
+    private volatile boolean ready;
+    private volatile boolean snapshotLoaded;
+    private volatile boolean snapshotInterrupted;
+    private volatile long appliedSequence;
+    private volatile long primarySequence;
+    // when this follower was last fully caught up, in epoch millis
+    private volatile long caughtUpAtMillis = System.currentTimeMillis();
+
+    public ReplicationFollower(SqliteDao sqliteDao, InetSocketAddress primary, String secret) {
+        this(sqliteDao, primary, secret, DEFAULT_RECONNECT_DELAY);
+    }
+
+    public ReplicationFollower(SqliteDao sqliteDao, InetSocketAddress primary, String secret, Duration reconnectDelay) {
+        this.sqliteDao = sqliteDao;
+        this.primary = primary;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.reconnectDelay = reconnectDelay;
+        this.thread = new Thread(this::replicateLoop, "atm-replication-follower");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+        log.info("following primary {}", primary);
+    }
+
+    // stops replicating for good, returning the last sequence applied. the db has no idempotency keys or
+    // withdrawal windows from the primary
+    public long promote() throws InterruptedException {
+        if (!snapshotLoaded) {
+            throw new IllegalStateException("no snapshot has been loaded from the primary, the db is not a replica yet");
+        }
+        if (snapshotInterrupted) {
+            log.warn("PROMOTING A STALE REPLICA: the last snapshot from the primary did not finish, the db holds the "
+                    + "one before it and the changes applied since, up to sequence={}", appliedSequence);
+        }
+        stop();
+        log.info("promoted at sequence={}, {} changes behind the primary when last heard from", appliedSequence, getLagEvents());
+        return appliedSequence;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        stop();
+    }
+
+    // true once a snapshot has been loaded, until promoted
+    public boolean isReady() {
+        return ready && !stopped;
+    }
+
+    public boolean isConnected() {
+        Socket s = socket;
+        return s != null && !s.isClosed();
+    }
+
+    public long getAppliedSequence() {
+        return appliedSequence;
+    }
+
+    // the primary's last sequence, as of the last change or heartbeat received
+    public long getPrimarySequence() {
+        return primarySequence;
+    }
+
+    public long getLagEvents() {
+        return Math.max(0, primarySequence - appliedSequence);
+    }
+
+    // how long since this follower was last caught up, 0 while it is. an upper bound, heartbeats only come
+    // when the primary is quiet
+    public long getLagMillis() {
+        return getLagEvents() == 0 ? 0 : System.currentTimeMillis() - caughtUpAtMillis;
+    }
+
+    // nanos from a change committing on the primary to it being applied here
+    public LatencyRecorder getApplyDelays() {
+        return applyDelays;
+    }
+
+    private void stop() throws InterruptedException {
+        stopped = true;
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                log.debug("could not close the primary's socket", e);
+            }
+        }
+        thread.interrupt();
+        if (thread.isAlive()) {
+            thread.join();
+        }
+    }
+
+    private void replicateLoop() {
+        while (!stopped) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                if (stopped) {
+                    break;
+                }
+                s.connect(primary);
+                s.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                ReplicationProtocol.writeHello(out, secret);
+                out.flush();
+                follow(in);
+            } catch (IOException | RuntimeException e) {
+                if (!stopped) {
+                    log.warn("lost the primary {}, reconnecting in {}ms: {}", primary, reconnectDelay.toMillis(), e.toString());
+                }
+            }
+            if (!stopped) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(reconnectDelay.toMillis());
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void follow(DataInputStream in) throws IOException {
+        List<ChangeEvent> batch = new ArrayList<>(BATCH_SIZE);
+        while (!stopped) {
+            byte frame = in.readByte();
+            switch (frame) {
+                case ReplicationProtocol.SNAPSHOT:
+                    loadSnapshot(in, in.readLong());
+                    break;
+                case ReplicationProtocol.CHANGE:
+                    batch.add(ReplicationProtocol.readChange(in));
+                    // keep reading while more is already buffered, so a burst goes in one transaction
+                    while (batch.size() < BATCH_SIZE && in.available() > 0 && nextIsChange(in)) {
+                        batch.add(ReplicationProtocol.readChange(in));
+                    }
+                    apply(batch);
+                    batch.clear();
+                    break;
+                case ReplicationProtocol.HEARTBEAT:
+                    heardOf(in.readLong());
+                    break;
+                default:
+                    throw new IOException("unexpected replication frame " + frame);
+            }
+        }
+    }
+
+    private void loadSnapshot(DataInputStream in, long snapshotSequence) throws IOException {
+        ready = false;
+        snapshotInterrupted = true;
+        long started = System.nanoTime();
+        sqliteDao.beginReplicatedSnapshot();
+        List<ChangeEvent> chunk = new ArrayList<>(BATCH_SIZE);
+        long rows = 0;
+        byte frame;
+        while ((frame = in.readByte()) == ReplicationProtocol.CHANGE) {
+            chunk.add(ReplicationProtocol.readChange(in));
+            if (chunk.size() == BATCH_SIZE) {
+                rows += chunk.size();
+                sqliteDao.stageReplicatedChanges(chunk);
+                chunk.clear();
+            }
+        }
+        if (frame != ReplicationProtocol.SNAPSHOT_END) {
+            throw new IOException("unexpected replication frame " + frame + " in a snapshot");
+        }
+        if (!chunk.isEmpty()) {
+            rows += chunk.size();
+            sqliteDao.stageReplicatedChanges(chunk);
+        }
+        sqliteDao.swapInReplicatedSnapshot();
+        snapshotLoaded = true;
+        snapshotInterrupted = false;
+        // not a max, the primary may have restarted with a lower sequence than this follower last saw
+        appliedSequence = snapshotSequence;
+        primarySequence = snapshotSequence;
+        heardOf(snapshotSequence);
+        ready = true;
+        log.info("loaded a snapshot of {} rows at sequence={} in {}ms", rows, snapshotSequence,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private void apply(List<ChangeEvent> batch) {
+        sqliteDao.applyReplicatedChanges(batch);
+        long now = System.currentTimeMillis();
+        for (ChangeEvent event : batch) {
+            applyDelays.record(TimeUnit.MILLISECONDS.toNanos(now - event.getCommittedAtMillis()));
+        }
+        // changes already in the snapshot can arrive again, they are applied but never move the sequence back
+        appliedSequence = Math.max(appliedSequence, batch.get(batch.size() - 1).getSequence());
+        heardOf(appliedSequence);
+    }
+
+    private void heardOf(long sequence) {
+        primarySequence = Math.max(primarySequence, sequence);
+        if (appliedSequence >= primarySequence) {
+            caughtUpAtMillis = System.currentTimeMillis();
+        }
+    }
+
+    // consumes the next frame byte only when it starts another change
+    private static boolean nextIsChange(DataInputStream in) throws IOException {
+        in.mark(1);
+        if (in.readByte() == ReplicationProtocol.CHANGE) {
+            return true;
+        }
+        in.reset();
+        return false;
+    }
+}
@@ -0,0 +1,234 @@
+package sandbox.replication;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.SqliteDao;
+import sandbox.feed.ChangeEvent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streams the dao's committed changes to follower processes over a socket, see ReplicationProtocol.
+ *
+ * Each follower gets a thread of its own, subscribed to the change feed before its snapshot is taken, so
+ * every change after the snapshot is already queued by the time the snapshot has been sent. Changes carry
+ * absolute values, so replaying one the snapshot already holds is harmless. A follower never slows the
+ * primary down: when one falls so far behind that its queue fills up it is disconnected, and it catches up
+ * again with a fresh snapshot when it reconnects.
+ *
+ * Live changes come from this process's change feed only. Writers in other processes, such as
+ * action=createAccount, action=accrueInterest and action=archiveDormant, each open a dao with a feed of
+ * their own, so their commits reach a follower only when it next takes a snapshot, which is when it
+ * reconnects. A follower promoted before then is missing them. Run those jobs inside the serving process,
+ * or restart the followers after them, while any follower may be promoted. Snapshots cover the archive
+ * tier when it is attached.
+ *
+ * The stream holds every pin and session token, so a follower has to open with the shared secret before
+ * anything is sent, and one that says nothing is dropped after a few seconds. Bind to loopback unless the
+ * followers reach it through a tunnel, see ReplicationProtocol.
+ */
+@Slf4j
+public class ReplicationPrimary implements AutoCloseable {
+
+    private static final int DEFAULT_MAX_QUEUED_EVENTS = 100_000;
+    private static final Duration DEFAULT_HEARTBEAT_INTERVAL = Duration.ofSeconds(1);
+    private static final int HELLO_TIMEOUT_MILLIS = 5_000;
+
+    private final SqliteDao sqliteDao;
+    private final byte[] secret;
+    private final ServerSocket serverSocket;
+    private final int maxQueuedEvents;
+    private final Duration heartbeatInterval;
+    private final Thread acceptor;
+    private final Set<FollowerLink> followers = ConcurrentHashMap.newKeySet();
+    private final LongAdder eventsSent = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private volatile boolean closed;
+
+    public ReplicationPrimary(SqliteDao sqliteDao, InetSocketAddress address, String secret) throws IOException {
+        this(sqliteDao, address, secret, DEFAULT_MAX_QUEUED_EVENTS, DEFAULT_HEARTBEAT_INTERVAL);
+    }
+
+    public ReplicationPrimary(SqliteDao sqliteDao, InetSocketAddress address, String secret,
+                              int maxQueuedEvents, Duration heartbeatInterval) throws IOException {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("replication needs a shared secret");
+        }
+        this.sqliteDao = sqliteDao;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.heartbeatInterval = heartbeatInterval;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+        acceptor = new Thread(this::acceptLoop, "atm-replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("replicating to followers on {}", serverSocket.getLocalSocketAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    public long getEventsSent() {
+        return eventsSent.sum();
+    }
+
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        closed = true;
+        serverSocket.close();
+        acceptor.join();
+        for (FollowerLink follower : followers) {
+            follower.disconnect();
+        }
+        for (FollowerLink follower : followers) {
+            follower.join();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                FollowerLink follower = new FollowerLink(socket);
+                followers.add(follower);
+                follower.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("could not accept a follower", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * One follower's connection. The feed hands events to it on the feed's own threads, and it only queues
+     * them, the socket is written from the link's thread.
+     */
+    private class FollowerLink extends Thread implements Flow.Subscriber<ChangeEvent> {
+
+        private final Socket socket;
+        private final BlockingQueue<ChangeEvent> queue = new ArrayBlockingQueue<>(maxQueuedEvents);
+        private volatile Flow.Subscription subscription;
+
+        FollowerLink(Socket socket) {
+            super("atm-replication-" + socket.getRemoteSocketAddress());
+            setDaemon(true);
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try (Socket s = socket;
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+                s.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+                ReplicationProtocol.readHello(in, secret);
+                s.setSoTimeout(0);
+                sqliteDao.getChangeFeed().subscribe(this);
+                // everything up to this sequence is in the snapshot, later changes are in the queue
+                long snapshotSequence = sqliteDao.getChangeFeed().lastSequence();
+                out.writeByte(ReplicationProtocol.SNAPSHOT);
+                out.writeLong(snapshotSequence);
+                long rows = sqliteDao.scanReplicationSnapshot(snapshotSequence, event -> ReplicationProtocol.writeChange(out, event));
+                out.writeByte(ReplicationProtocol.SNAPSHOT_END);
+                out.flush();
+                log.info("sent a snapshot of {} rows at sequence={} to {}", rows, snapshotSequence, s.getRemoteSocketAddress());
+                stream(out);
+            } catch (SocketException e) {
+                log.info("follower {} disconnected: {}", socket.getRemoteSocketAddress(), e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    log.error("replication to {} failed", socket.getRemoteSocketAddress(), e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                Flow.Subscription s = subscription;
+                if (s != null) {
+                    s.cancel();
+                }
+                followers.remove(this);
+                disconnects.increment();
+            }
+        }
+
+        // sends queued changes as they arrive, flushing once the queue is drained
+        private void stream(DataOutputStream out) throws IOException, InterruptedException {
+            long heartbeatMillis = heartbeatInterval.toMillis();
+            while (!closed && !socket.isClosed()) {
+                ChangeEvent event = queue.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+                if (event == null) {
+                    ReplicationProtocol.writeHeartbeat(out, sqliteDao.getChangeFeed().lastSequence());
+                    out.flush();
+                    continue;
+                }
+                do {
+                    ReplicationProtocol.writeChange(out, event);
+                    eventsSent.increment();
+                } while ((event = queue.poll()) != null);
+                out.flush();
+            }
+        }
+
+        void disconnect() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("could not close follower socket", e);
+            }
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(ChangeEvent event) {
+            if (!queue.offer(event)) {
+                log.warn("follower {} is more than {} changes behind, disconnecting it", socket.getRemoteSocketAddress(), maxQueuedEvents);
+                subscription.cancel();
+                disconnect();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            log.error("change feed failed, disconnecting follower {}", socket.getRemoteSocketAddress(), throwable);
+            disconnect();
+        }
+
+        @Override
+        public void onComplete() {
+            disconnect();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package sandbox.replication;
+
+import sandbox.feed.ChangeEvent;
+import sandbox.feed.ChangeType;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+/**
+ * The stream between a ReplicationPrimary and its followers, over a plain socket.
+ *
+ *   follower to primary, once: magic "ATMR", version and the shared secret, nothing is sent back unless the
+ *     secret matches
+ *   primary to follower: SNAPSHOT with the feed sequence it was taken at, every account, balance and session
+ *     as a CHANGE, SNAPSHOT_END, then a CHANGE per committed change in sequence order. HEARTBEAT carries the
+ *     primary's last sequence whenever the feed is quiet
+ *
+ * A change is the sequence, a type byte, the account id and the commit time in epoch millis, then the fields
+ * of its type: the balance, the token and expiry in epoch millis, or the username and pin.
+ *
+ * Nothing is encrypted, the secret included, so off a single host the stream belongs in a tunnel.
+ */
+public final class ReplicationProtocol {
+
+    public static final int MAGIC = 0x41544D52;
+    public static final int VERSION = 2;
+
+    public static final byte SNAPSHOT = 1;
+    public static final byte SNAPSHOT_END = 2;
+    public static final byte CHANGE = 3;
+    public static final byte HEARTBEAT = 4;
+
+    private static final byte BALANCE = 1;
+    private static final byte SESSION = 2;
+    private static final byte ACCOUNT = 3;
+
+    private static final int MAX_SECRET_LENGTH = 1024;
+
+    private ReplicationProtocol() {
+    }
+
+    public static void writeHello(DataOutputStream out, byte[] secret) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeShort(secret.length);
+        out.write(secret);
+    }
+
+    public static void readHello(DataInputStream in, byte[] secret) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a replication follower");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported replication version " + version);
+        }
+        int length = in.readUnsignedShort();
+        if (length > MAX_SECRET_LENGTH) {
+            throw new IOException("replication secret of " + length + " bytes is too long");
+        }
+        byte[] offered = new byte[length];
+        in.readFully(offered);
+        // constant time, so the secret can't be guessed a byte at a time
+        if (!MessageDigest.isEqual(secret, offered)) {
+            throw new IOException("wrong replication secret");
+        }
+    }
+
+    public static void writeChange(DataOutputStream out, ChangeEvent event) throws IOException {
+        out.writeByte(CHANGE);
+        out.writeLong(event.getSequence());
+        out.writeByte(typeCode(event.getType()));
+        out.writeInt(event.getAccountId());
+        out.writeLong(event.getCommittedAtMillis());
+        switch (event.getType()) {
+            case BALANCE:
+                out.writeLong(event.getBalance());
+                break;
+            case SESSION:
+                out.writeLong(event.getToken().getMostSignificantBits());
+                out.writeLong(event.getToken().getLeastSignificantBits());
+                out.writeLong(event.getExpires().getTime());
+                break;
+            case ACCOUNT:
+                out.writeUTF(event.getUsername());
+                out.writeUTF(event.getPin());
+                break;
+            default:
+                throw new IllegalArgumentException("unknown change type " + event.getType());
+        }
+    }
+
+    // reads the rest of a change, once its CHANGE byte has been read
+    public static ChangeEvent readChange(DataInputStream in) throws IOException {
+        ChangeEvent.ChangeEventBuilder event = ChangeEvent.builder()
+                .sequence(in.readLong());
+        byte type = in.readByte();
+        event.accountId(in.readInt())
+                .committedAtMillis(in.readLong());
+        switch (type) {
+            case BALANCE:
+                return event.type(ChangeType.BALANCE)
+                        .balance(in.readLong())
+                        .build();
+            case SESSION:
+                return event.type(ChangeType.SESSION)
+                        .token(new UUID(in.readLong(), in.readLong()))
+                        .expires(new Timestamp(in.readLong()))
+                        .build();
+            case ACCOUNT:
+                return event.type(ChangeType.ACCOUNT)
+                        .username(in.readUTF())
+                        .pin(in.readUTF())
+                        .build();
+            default:
+                throw new IOException("unknown change type " + type);
+        }
+    }
+
+    public static void writeHeartbeat(DataOutputStream out, long lastSequence) throws IOException {
+        out.writeByte(HEARTBEAT);
+        out.writeLong(lastSequence);
+    }
+
+    private static byte typeCode(ChangeType type) {
+        switch (type) {
+            case BALANCE:
+                return BALANCE;
+            case SESSION:
+                return SESSION;
+            case ACCOUNT:
+                return ACCOUNT;
+            default:
+                throw new IllegalArgumentException("unknown change type " + type);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package sandbox.report;
+
+import java.util.Arrays;
+
+/**
+ * Count, total, min, max and a histogram of balances. Not thread safe, each scanning thread fills its own
+ * and they are merged at the end.
+ */
+public class BalanceSummary implements BalanceVisitor {
+
+    // upper bounds in cents, exclusive. the last bucket holds everything above
+    private static final long[] BUCKET_BOUNDS = {0L, 1L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L};
+    private static final String[] BUCKET_LABELS = {
+            "overdrawn", "$0", "under $1", "$1 - $10", "$10 - $100", "$100 - $1k", "$1k - $10k", "$10k - $100k", "$100k+"};
+
+    private long count;
+    private long total;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private final long[] histogram = new long[BUCKET_BOUNDS.length + 1];
+
+    @Override
+    public void visit(int accountId, String username, long balance) {
+        add(balance);
+    }
+
+    public void add(long balance) {
+        count++;
+        total = Math.addExact(total, balance);
+        min = Math.min(min, balance);
+        max = Math.max(max, balance);
+        histogram[bucketOf(balance)]++;
+    }
+
+    public BalanceSummary merge(BalanceSummary other) {
+        count += other.count;
+        total = Math.addExact(total, other.total);
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] += other.histogram[i];
+        }
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    // in cents
+    public long getTotal() {
+        return total;
+    }
+
+    // zero when there are no balances
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    public static String[] getBucketLabels() {
+        return BUCKET_LABELS.clone();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder()
+                .append("accounts=").append(count)
+                .append(" total=").append(total)
+                .append(" min=").append(getMin())
+                .append(" max=").append(getMax());
+        for (int i = 0; i < histogram.length; i++) {
+            sb.append(System.lineSeparator()).append("  ").append(BUCKET_LABELS[i]).append(": ").append(histogram[i]);
+        }
+        return sb.toString();
+    }
+
+    private static int bucketOf(long balance) {
+        int index = Arrays.binarySearch(BUCKET_BOUNDS, balance);
+        // an exact bound starts the next bucket
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+}
@@ -0,0 +1,11 @@
+package sandbox.report;
+
+import java.io.IOException;
+
+/**
+ * Receives one row at a time from a balance scan, so no scan ever holds the whole table in memory.
+ */
+@FunctionalInterface
+public interface BalanceVisitor {
+    void visit(int accountId, String username, long balance) throws IOException;
+}
@@ -0,0 +1,113 @@
+package sandbox.report;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact binary export of balances, stored by column in blocks of rows:
+ *
+ *   magic "ATMC", version
+ *   per block: row count, account ids, balances, usernames (length prefixed utf-8)
+ *   a row count of 0 ends the file
+ *
+ * Keeping a block's balances together lets a reader total them without decoding the usernames.
+ */
+public final class ColumnarBalanceFile {
+
+    private static final int MAGIC = 0x41544D43;
+    private static final int VERSION = 1;
+    private static final int BLOCK_ROWS = 4_096;
+
+    private ColumnarBalanceFile() {
+    }
+
+    public static class Writer implements BalanceVisitor, AutoCloseable {
+        private final DataOutputStream out;
+        private final int[] accountIds = new int[BLOCK_ROWS];
+        private final long[] balances = new long[BLOCK_ROWS];
+        private final String[] usernames = new String[BLOCK_ROWS];
+        private int rows;
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+        }
+
+        @Override
+        public void visit(int accountId, String username, long balance) throws IOException {
+            accountIds[rows] = accountId;
+            balances[rows] = balance;
+            usernames[rows] = username;
+            if (++rows == BLOCK_ROWS) {
+                writeBlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (rows > 0) {
+                writeBlock();
+            }
+            out.writeInt(0);
+            out.close();
+        }
+
+        private void writeBlock() throws IOException {
+            out.writeInt(rows);
+            for (int i = 0; i < rows; i++) {
+                out.writeInt(accountIds[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeLong(balances[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                byte[] bytes = usernames[i].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                usernames[i] = null;
+            }
+            rows = 0;
+        }
+    }
+
+    // streams the rows of a file to the visitor, returning the row count
+    public static long read(InputStream in, BalanceVisitor visitor) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not a columnar balance file");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported columnar balance file version " + version);
+        }
+        int[] accountIds = new int[BLOCK_ROWS];
+        long[] balances = new long[BLOCK_ROWS];
+        long total = 0;
+        int rows;
+        while ((rows = data.readInt()) > 0) {
+            if (rows > BLOCK_ROWS) {
+                throw new IOException("block of " + rows + " rows is larger than " + BLOCK_ROWS);
+            }
+            for (int i = 0; i < rows; i++) {
+                accountIds[i] = data.readInt();
+            }
+            for (int i = 0; i < rows; i++) {
+                balances[i] = data.readLong();
+            }
+            for (int i = 0; i < rows; i++) {
+                byte[] bytes = new byte[data.readInt()];
+                data.readFully(bytes);
+                visitor.visit(accountIds[i], new String(bytes, StandardCharsets.UTF_8), balances[i]);
+            }
+            total += rows;
+        }
+        return total;
+    }
+}
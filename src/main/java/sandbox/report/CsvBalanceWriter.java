@@ -0,0 +1,48 @@
+package sandbox.report;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes scanned balances as gzip compressed csv, one line per account: account_id,username,balance.
+ */
+public class CsvBalanceWriter implements BalanceVisitor, AutoCloseable {
+
+    private final Writer out;
+
+    public CsvBalanceWriter(OutputStream out) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(out, 64 * 1024), StandardCharsets.UTF_8), 64 * 1024);
+        this.out.write("account_id,username,balance\n");
+    }
+
+    @Override
+    public void visit(int accountId, String username, long balance) throws IOException {
+        out.write(Integer.toString(accountId));
+        out.write(',');
+        writeField(username);
+        out.write(',');
+        out.write(Long.toString(balance));
+        out.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    // quoted only when it has to be
+    private void writeField(String value) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
@@ -0,0 +1,129 @@
+package sandbox.report;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.SqliteDao;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * End of day reconciliation and export over every account. Everything streams rows from the dao's scan,
+ * so memory use does not grow with the number of accounts.
+ *
+ * The reconciliation splits the account ids into ranges and reads them all in one read transaction, so
+ * the figure is a point in time total rather than ranges read at different moments. Each range is
+ * summarized on its own thread and the summaries are merged.
+ */
+@Slf4j
+public class EndOfDayReport {
+
+    // ranges per thread, so a range of mostly deleted ids does not leave the other threads idle
+    private static final int RANGES_PER_THREAD = 4;
+    // ids per range, bounds the balances held while waiting to be summarized
+    private static final long MAX_RANGE_SIZE = 16_384;
+
+    private final SqliteDao sqliteDao;
+    private final int parallelism;
+
+    public EndOfDayReport(SqliteDao sqliteDao) {
+        this(sqliteDao, Runtime.getRuntime().availableProcessors());
+    }
+
+    public EndOfDayReport(SqliteDao sqliteDao, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.sqliteDao = sqliteDao;
+        this.parallelism = parallelism;
+    }
+
+    // one read transaction covers every range, so the total is of the db at a single instant even while
+    // deposits and transfers commit. ranges are read one after another on that connection and summarized on
+    // the executor while the next is read, with at most parallelism of them waiting
+    public BalanceSummary reconcile() {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            BalanceSummary total = sqliteDao.inReadSnapshot(connection -> {
+                BalanceSummary summary = new BalanceSummary();
+                Optional<long[]> bounds = sqliteDao.getAccountIdBounds(connection);
+                if (bounds.isEmpty()) {
+                    return summary;
+                }
+                long minId = bounds.get()[0];
+                long maxId = bounds.get()[1];
+                long rangeSize = Math.min(MAX_RANGE_SIZE,
+                        Math.max(1, (maxId - minId + 1) / ((long) parallelism * RANGES_PER_THREAD) + 1));
+
+                Deque<CompletableFuture<BalanceSummary>> pending = new ArrayDeque<>();
+                for (long from = minId; from <= maxId; from += rangeSize) {
+                    BalanceRange range = new BalanceRange();
+                    sqliteDao.scanBalances(connection, from, Math.min(maxId, from + rangeSize - 1), range);
+                    pending.addLast(CompletableFuture.supplyAsync(range::summarize, executor));
+                    if (pending.size() > parallelism) {
+                        summary.merge(pending.removeFirst().join());
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    summary.merge(pending.removeFirst().join());
+                }
+                return summary;
+            });
+            log.info("end of day reconciliation: {}", total);
+            return total;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // gzip compressed csv, returns the row count
+    public long exportCsv(Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path);
+             CsvBalanceWriter writer = new CsvBalanceWriter(out)) {
+            long rows = sqliteDao.scanBalances(writer);
+            log.info("exported {} balances to {}", rows, path);
+            return rows;
+        }
+    }
+
+    // see ColumnarBalanceFile, returns the row count
+    public long exportColumnar(Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path);
+             ColumnarBalanceFile.Writer writer = new ColumnarBalanceFile.Writer(out)) {
+            long rows = sqliteDao.scanBalances(writer);
+            log.info("exported {} balances to {}", rows, path);
+            return rows;
+        }
+    }
+
+    // the balances of one range, handed from the reading thread to a summarizing one
+    private static class BalanceRange implements BalanceVisitor {
+
+        private long[] balances = new long[64];
+        private int size;
+
+        @Override
+        public void visit(int accountId, String username, long balance) {
+            if (size == balances.length) {
+                balances = Arrays.copyOf(balances, size * 2);
+            }
+            balances[size++] = balance;
+        }
+
+        BalanceSummary summarize() {
+            BalanceSummary summary = new BalanceSummary();
+            for (int i = 0; i < size; i++) {
+                summary.add(balances[i]);
+            }
+            return summary;
+        }
+    }
+}
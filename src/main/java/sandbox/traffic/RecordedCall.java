@@ -0,0 +1,23 @@
+package sandbox.traffic;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A call as the RecordingAtmSimulator saw it, with the real values. It only lives in the recorder's queue,
+ * the writer thread turns it into an anonymized TrafficEvent so the caller never pays for the hashing.
+ */
+@Value
+@Builder
+class RecordedCall {
+    TrafficOp op;
+    long offsetNanos;
+    String username;
+    String token;
+    long amount;
+    // transfer only, null otherwise
+    Integer targetAccountId;
+    String requestId;
+    int count;
+    boolean succeeded;
+}
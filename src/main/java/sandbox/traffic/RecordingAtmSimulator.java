@@ -0,0 +1,143 @@
+package sandbox.traffic;
+
+import sandbox.AtmSimulator;
+import sandbox.model.Transaction;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Records every call made to the simulator it wraps, then passes it on unchanged. A call that throws is
+ * recorded as failed and the exception still reaches the caller.
+ */
+public class RecordingAtmSimulator implements AtmSimulator {
+
+    private final AtmSimulator delegate;
+    private final TrafficRecorder recorder;
+
+    public RecordingAtmSimulator(AtmSimulator delegate, TrafficRecorder recorder) {
+        this.delegate = delegate;
+        this.recorder = recorder;
+    }
+
+    @Override
+    public Optional<String> login(String username, String pin) {
+        long start = recorder.now();
+        Optional<String> token = Optional.empty();
+        try {
+            token = delegate.login(username, pin);
+            return token;
+        } finally {
+            recorder.record(RecordedCall.builder()
+                    .op(TrafficOp.LOGIN)
+                    .offsetNanos(start)
+                    .username(username)
+                    .token(token.orElse(null))
+                    .succeeded(token.isPresent())
+                    .build());
+        }
+    }
+
+    @Override
+    public void logout(String token) {
+        long start = recorder.now();
+        boolean succeeded = false;
+        try {
+            delegate.logout(token);
+            succeeded = true;
+        } finally {
+            recorder.record(event(TrafficOp.LOGOUT, start, token, succeeded).build());
+        }
+    }
+
+    @Override
+    public long viewBalance(String token) {
+        long start = recorder.now();
+        boolean succeeded = false;
+        try {
+            long balance = delegate.viewBalance(token);
+            succeeded = true;
+            return balance;
+        } finally {
+            recorder.record(event(TrafficOp.VIEW_BALANCE, start, token, succeeded).build());
+        }
+    }
+
+    @Override
+    public boolean deposit(String token, long amount) {
+        return deposit(token, amount, null);
+    }
+
+    @Override
+    public boolean deposit(String token, long amount, String requestId) {
+        long start = recorder.now();
+        boolean succeeded = false;
+        try {
+            succeeded = requestId == null ? delegate.deposit(token, amount) : delegate.deposit(token, amount, requestId);
+            return succeeded;
+        } finally {
+            recorder.record(event(TrafficOp.DEPOSIT, start, token, succeeded)
+                    .amount(amount)
+                    .requestId(requestId)
+                    .build());
+        }
+    }
+
+    @Override
+    public boolean withdraw(String token, long amount) {
+        return withdraw(token, amount, null);
+    }
+
+    @Override
+    public boolean withdraw(String token, long amount, String requestId) {
+        long start = recorder.now();
+        boolean succeeded = false;
+        try {
+            succeeded = requestId == null ? delegate.withdraw(token, amount) : delegate.withdraw(token, amount, requestId);
+            return succeeded;
+        } finally {
+            recorder.record(event(TrafficOp.WITHDRAW, start, token, succeeded)
+                    .amount(amount)
+                    .requestId(requestId)
+                    .build());
+        }
+    }
+
+    @Override
+    public boolean transfer(String token, int targetAccountId, long amount) {
+        long start = recorder.now();
+        boolean succeeded = false;
+        try {
+            succeeded = delegate.transfer(token, targetAccountId, amount);
+            return succeeded;
+        } finally {
+            recorder.record(event(TrafficOp.TRANSFER, start, token, succeeded)
+                    .amount(amount)
+                    .targetAccountId(targetAccountId)
+                    .build());
+        }
+    }
+
+    @Override
+    public List<Transaction> recentTransactions(String token, int count) {
+        long start = recorder.now();
+        boolean succeeded = false;
+        try {
+            List<Transaction> transactions = delegate.recentTransactions(token, count);
+            succeeded = true;
+            return transactions;
+        } finally {
+            recorder.record(event(TrafficOp.RECENT_TRANSACTIONS, start, token, succeeded)
+                    .count(count)
+                    .build());
+        }
+    }
+
+    private RecordedCall.RecordedCallBuilder event(TrafficOp op, long start, String token, boolean succeeded) {
+        return RecordedCall.builder()
+                .op(op)
+                .offsetNanos(start)
+                .token(token)
+                .succeeded(succeeded);
+    }
+}
@@ -0,0 +1,29 @@
+package sandbox.traffic;
+
+import lombok.Builder;
+import lombok.Value;
+import sandbox.metrics.LatencyRecorder;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * What a replay did: counts, how far it fell behind the recorded schedule, and call latency by op.
+ */
+@Value
+@Builder
+public class ReplayResult {
+    long events;
+    // calls that threw, e.g. with a token that was invalid in the recording too
+    long errors;
+    // calls whose outcome differed from the recording
+    long mismatches;
+    Duration elapsed;
+    // the furthest any call started behind its scheduled time. large values mean the replay could not keep up
+    Duration maxLag;
+    Map<TrafficOp, LatencyRecorder> latencies;
+
+    public double getEventsPerSecond() {
+        return elapsed.isZero() ? 0 : events * 1_000_000_000.0 / elapsed.toNanos();
+    }
+}
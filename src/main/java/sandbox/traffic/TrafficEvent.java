@@ -0,0 +1,26 @@
+package sandbox.traffic;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * One recorded AtmSimulator call. Usernames, tokens, request ids and target accounts are replaced by
+ * anonymous ids, the same value always getting the same id within one recording. 0 means not given.
+ */
+@Value
+@Builder
+public class TrafficEvent {
+    TrafficOp op;
+    // when the call started, from the start of the recording
+    long offsetNanos;
+    // login only
+    long user;
+    long session;
+    long amount;
+    // transfer only
+    long target;
+    long request;
+    // recent transactions only
+    int count;
+    boolean succeeded;
+}
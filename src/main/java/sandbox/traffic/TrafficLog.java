@@ -0,0 +1,169 @@
+package sandbox.traffic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+
+/**
+ * The binary traffic log format:
+ *
+ *   magic "ATMT", version, recording start in epoch millis
+ *   per event: op byte, start time as a varint delta from the previous event, the anonymous session id,
+ *     then only the fields the op uses, and an outcome byte
+ *   an op byte of 0 ends the file
+ *
+ * Anonymous ids are 8 bytes, amounts and time deltas zigzag varints, so a typical deposit takes about
+ * 24 bytes.
+ */
+public final class TrafficLog {
+
+    private static final int MAGIC = 0x41544D54;
+    // 2 widened the anonymous ids to 64 bits
+    private static final int VERSION = 2;
+    private static final int END = 0;
+
+    private TrafficLog() {
+    }
+
+    public static class Writer implements AutoCloseable {
+        private final DataOutputStream out;
+        private long previousOffset;
+
+        public Writer(OutputStream out, long startEpochMillis) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(VERSION);
+            this.out.writeLong(startEpochMillis);
+        }
+
+        public void write(TrafficEvent event) throws IOException {
+            out.writeByte(event.getOp().getCode());
+            // events are queued from many threads, so a delta can be negative
+            writeVarLong(out, event.getOffsetNanos() - previousOffset);
+            previousOffset = event.getOffsetNanos();
+            out.writeLong(event.getSession());
+            switch (event.getOp()) {
+                case LOGIN:
+                    out.writeLong(event.getUser());
+                    break;
+                case DEPOSIT:
+                case WITHDRAW:
+                    writeVarLong(out, event.getAmount());
+                    out.writeLong(event.getRequest());
+                    break;
+                case TRANSFER:
+                    writeVarLong(out, event.getAmount());
+                    out.writeLong(event.getTarget());
+                    break;
+                case RECENT_TRANSACTIONS:
+                    writeVarLong(out, event.getCount());
+                    break;
+                default:
+                    break;
+            }
+            out.writeByte(event.isSucceeded() ? 1 : 0);
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeByte(END);
+            out.close();
+        }
+    }
+
+    public static class Reader implements AutoCloseable {
+        private final DataInputStream in;
+        private final long startEpochMillis;
+        private long previousOffset;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+            if (this.in.readInt() != MAGIC) {
+                throw new IOException("not a traffic log");
+            }
+            int version = this.in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported traffic log version " + version);
+            }
+            this.startEpochMillis = this.in.readLong();
+        }
+
+        public long getStartEpochMillis() {
+            return startEpochMillis;
+        }
+
+        // empty at the end of the log. a log cut short by a crash ends at its last whole event
+        public Optional<TrafficEvent> next() throws IOException {
+            try {
+                int code = in.readUnsignedByte();
+                if (code == END) {
+                    return Optional.empty();
+                }
+                TrafficEvent.TrafficEventBuilder event = TrafficEvent.builder()
+                        .op(TrafficOp.ofCode(code));
+                previousOffset += readVarLong(in);
+                event.offsetNanos(previousOffset)
+                        .session(in.readLong());
+                switch (TrafficOp.ofCode(code)) {
+                    case LOGIN:
+                        event.user(in.readLong());
+                        break;
+                    case DEPOSIT:
+                    case WITHDRAW:
+                        event.amount(readVarLong(in))
+                                .request(in.readLong());
+                        break;
+                    case TRANSFER:
+                        event.amount(readVarLong(in))
+                                .target(in.readLong());
+                        break;
+                    case RECENT_TRANSACTIONS:
+                        event.count((int) readVarLong(in));
+                        break;
+                    default:
+                        break;
+                }
+                return Optional.of(event.succeeded(in.readUnsignedByte() == 1).build());
+            } catch (EOFException e) {
+                return Optional.empty();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // zigzag, then 7 bits a byte with the high bit set on all but the last
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
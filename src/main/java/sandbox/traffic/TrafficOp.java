@@ -0,0 +1,39 @@
+package sandbox.traffic;
+
+/**
+ * The AtmSimulator calls a traffic log can hold, with the byte each is written as.
+ */
+public enum TrafficOp {
+    LOGIN(1),
+    LOGOUT(2),
+    VIEW_BALANCE(3),
+    DEPOSIT(4),
+    WITHDRAW(5),
+    TRANSFER(6),
+    RECENT_TRANSACTIONS(7);
+
+    private static final TrafficOp[] BY_CODE = new TrafficOp[8];
+
+    static {
+        for (TrafficOp op : values()) {
+            BY_CODE[op.code] = op;
+        }
+    }
+
+    private final int code;
+
+    TrafficOp(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public static TrafficOp ofCode(int code) {
+        if (code <= 0 || code >= BY_CODE.length || BY_CODE[code] == null) {
+            throw new IllegalArgumentException("unknown traffic op " + code);
+        }
+        return BY_CODE[code];
+    }
+}
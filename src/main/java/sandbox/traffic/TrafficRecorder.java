@@ -0,0 +1,163 @@
+package sandbox.traffic;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Writes TrafficEvents to a traffic log without holding up the calls being recorded. Callers only offer
+ * the call to a bounded queue, a writer thread anonymizes, encodes and writes them, and if the writer falls
+ * behind calls are dropped and counted rather than making callers wait.
+ *
+ * Anonymous ids are the first 64 bits of an HmacSHA256 of the real value, keyed with random bytes that are
+ * never written out and are gone once the recorder is. The same value gets the same id for the whole
+ * recording and nothing is kept per value. Without the key an id can only be matched to a value by
+ * guessing, and two values share an id with a chance of about n^2 / 2^65 for n distinct values.
+ *
+ * A transfer target is recorded as the id of the target account's username, the same id its owner's logins
+ * get, so a replay moves money between the accounts that logged in. The writer looks the username up, a
+ * target with no account is recorded as 0.
+ */
+@Slf4j
+public class TrafficRecorder implements AutoCloseable {
+
+    private static final int QUEUE_SIZE = 65_536;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_BYTES = 32;
+
+    private final long startNanos = System.nanoTime();
+    private final ThreadLocal<Mac> macs;
+    private final IntFunction<Optional<String>> usernames;
+    private final TrafficLog.Writer writer;
+    private final BlockingQueue<RecordedCall> pending = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // usernames looks up the username of an account id, on the writer thread
+    public TrafficRecorder(Path file, IntFunction<Optional<String>> usernames) {
+        this.usernames = usernames;
+        byte[] keyBytes = new byte[KEY_BYTES];
+        new SecureRandom().nextBytes(keyBytes);
+        SecretKeySpec key = new SecretKeySpec(keyBytes, ALGORITHM);
+        // a Mac is not thread safe, each thread keeps its own
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("could not create " + ALGORITHM, e);
+            }
+        });
+        try {
+            this.writer = new TrafficLog.Writer(Files.newOutputStream(file), Instant.now().toEpochMilli());
+        } catch (IOException e) {
+            log.error("could not open traffic log file={}", file, e);
+            throw new RuntimeException(e);
+        }
+        this.writerThread = new Thread(this::writeLoop, "traffic-recorder");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        log.info("recording traffic to file={}", file);
+    }
+
+    // nanos since the recording started
+    public long now() {
+        return System.nanoTime() - startNanos;
+    }
+
+    void record(RecordedCall call) {
+        if (pending.offer(call)) {
+            recorded.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    // 0 for null, otherwise never 0
+    public long anonymize(String value) {
+        return value == null ? 0 : id(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        writerThread.join(10_000);
+        log.info("traffic recording closed, recorded={} dropped={}", getRecorded(), getDropped());
+    }
+
+    private long id(byte[] value) {
+        long id = ByteBuffer.wrap(macs.get().doFinal(value)).getLong();
+        return id == 0 ? 1 : id;
+    }
+
+    private void writeLoop() {
+        try (TrafficLog.Writer out = writer) {
+            while (running || !pending.isEmpty()) {
+                RecordedCall call;
+                try {
+                    call = pending.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (call == null) {
+                    // idle, so whatever is buffered reaches the file
+                    out.flush();
+                    continue;
+                }
+                out.write(anonymize(call));
+            }
+        } catch (IOException e) {
+            log.error("traffic recorder stopped writing", e);
+        }
+    }
+
+    private TrafficEvent anonymize(RecordedCall call) {
+        return TrafficEvent.builder()
+                .op(call.getOp())
+                .offsetNanos(call.getOffsetNanos())
+                .user(anonymize(call.getUsername()))
+                .session(anonymize(call.getToken()))
+                .amount(call.getAmount())
+                .target(call.getTargetAccountId() == null ? 0 : targetId(call.getTargetAccountId()))
+                .request(anonymize(call.getRequestId()))
+                .count(call.getCount())
+                .succeeded(call.isSucceeded())
+                .build();
+    }
+
+    private long targetId(int accountId) {
+        try {
+            return anonymize(usernames.apply(accountId).orElse(null));
+        } catch (RuntimeException e) {
+            log.debug("could not look up transfer target accountId={}", accountId, e);
+            return 0;
+        }
+    }
+}
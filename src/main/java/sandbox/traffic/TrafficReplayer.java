@@ -0,0 +1,276 @@
+package sandbox.traffic;
+
+import lombok.extern.slf4j.Slf4j;
+import sandbox.AtmSimulator;
+import sandbox.SqliteDao;
+import sandbox.metrics.LatencyRecorder;
+import sandbox.model.Balance;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a traffic log against a simulator, usually one on a fresh db prepared with prepare.
+ *
+ * Events keep their recorded spacing divided by the speed, so speed 10 replays an hour in six minutes, and
+ * MAX_SPEED ignores the timestamps. Events are spread over the workers by session, so each session's calls
+ * run in their recorded order while different sessions run concurrently. At max speed every event is due
+ * at once, so the reported lag is just queueing time.
+ */
+@Slf4j
+public class TrafficReplayer {
+
+    public static final double MAX_SPEED = 0;
+
+    // every replayed account has this pin. logins that failed in the recording use the wrong one
+    static final String PIN = "0000";
+    static final String WRONG_PIN = "9999";
+    private static final String INVALID_TOKEN = "00000000-0000-0000-0000-000000000000";
+    private static final int WORKER_QUEUE_SIZE = 1_024;
+
+    private final AtmSimulator atm;
+    private final double speed;
+    private final int concurrency;
+    // users and transfer targets in the log, to the accounts created for them
+    private final Map<Long, Integer> accountIds = new ConcurrentHashMap<>();
+    // sessions in the log, to the tokens the replay got for them
+    private final Map<Long, String> tokens = new ConcurrentHashMap<>();
+
+    public TrafficReplayer(AtmSimulator atm, double speed, int concurrency) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("speed must be positive, or MAX_SPEED");
+        }
+        this.atm = atm;
+        this.speed = speed;
+        this.concurrency = concurrency;
+    }
+
+    // creates an account for every user and transfer target in the log, each starting with the balance.
+    // targets are recorded in the same ids as users, so a transfer to someone who logged in goes to their
+    // account. returns the number of accounts created
+    public int prepare(Path logFile, SqliteDao sqliteDao, long startingBalance) throws IOException {
+        Set<Long> users = new HashSet<>();
+        Set<Long> targets = new HashSet<>();
+        try (TrafficLog.Reader reader = new TrafficLog.Reader(Files.newInputStream(logFile))) {
+            Optional<TrafficEvent> next;
+            while ((next = reader.next()).isPresent()) {
+                TrafficEvent event = next.get();
+                if (event.getOp() == TrafficOp.LOGIN) {
+                    users.add(event.getUser());
+                } else if (event.getOp() == TrafficOp.TRANSFER && event.getTarget() != 0) {
+                    targets.add(event.getTarget());
+                }
+            }
+        }
+        targets.removeAll(users);
+        for (long user : users) {
+            accountIds.put(user, createAccount(sqliteDao, username(user), startingBalance));
+        }
+        // accounts that were sent money but never logged in during the recording
+        for (long target : targets) {
+            accountIds.put(target, createAccount(sqliteDao, username(target), startingBalance));
+        }
+        log.info("prepared {} user and {} target only accounts for replay", users.size(), targets.size());
+        return users.size() + targets.size();
+    }
+
+    public ReplayResult replay(Path logFile) throws IOException, InterruptedException {
+        Map<TrafficOp, LatencyRecorder> latencies = new EnumMap<>(TrafficOp.class);
+        for (TrafficOp op : TrafficOp.values()) {
+            latencies.put(op, new LatencyRecorder());
+        }
+        LongAdder events = new LongAdder();
+        LongAdder errors = new LongAdder();
+        LongAdder mismatches = new LongAdder();
+        AtomicLong maxLag = new AtomicLong();
+
+        long replayStart = System.nanoTime();
+        Worker[] workers = new Worker[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            workers[i] = new Worker(i, latencies, events, errors, mismatches, maxLag);
+            workers[i].start();
+        }
+
+        try (TrafficLog.Reader reader = new TrafficLog.Reader(Files.newInputStream(logFile))) {
+            Optional<TrafficEvent> next;
+            long firstOffset = -1;
+            while ((next = reader.next()).isPresent()) {
+                TrafficEvent event = next.get();
+                if (firstOffset < 0) {
+                    firstOffset = event.getOffsetNanos();
+                }
+                long due = dueNanos(replayStart, event.getOffsetNanos() - firstOffset);
+                // only the dispatcher waits for the schedule, workers run whatever they are given
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                workers[Math.floorMod(partitionOf(event), concurrency)].submit(event, due);
+            }
+        } finally {
+            for (Worker worker : workers) {
+                worker.finish();
+            }
+        }
+
+        ReplayResult result = ReplayResult.builder()
+                .events(events.sum())
+                .errors(errors.sum())
+                .mismatches(mismatches.sum())
+                .elapsed(Duration.ofNanos(System.nanoTime() - replayStart))
+                .maxLag(Duration.ofNanos(maxLag.get()))
+                .latencies(latencies)
+                .build();
+        log.info("replayed {} events in {}, errors={} mismatches={} maxLag={}",
+                result.getEvents(), result.getElapsed(), result.getErrors(), result.getMismatches(), result.getMaxLag());
+        return result;
+    }
+
+    private long dueNanos(long replayStart, long offsetNanos) {
+        return speed == MAX_SPEED ? replayStart : replayStart + (long) (offsetNanos / speed);
+    }
+
+    // a session's calls all go to one worker. a failed login has no session, its user decides instead
+    private static long partitionOf(TrafficEvent event) {
+        return event.getSession() != 0 ? event.getSession() : event.getUser();
+    }
+
+    // returns whether the call succeeded, exceptions are left to the caller
+    private boolean execute(TrafficEvent event) {
+        String token = tokens.getOrDefault(event.getSession(), INVALID_TOKEN);
+        switch (event.getOp()) {
+            case LOGIN:
+                Optional<String> loggedIn = atm.login(username(event.getUser()), event.isSucceeded() ? PIN : WRONG_PIN);
+                loggedIn.ifPresent(t -> tokens.put(event.getSession(), t));
+                return loggedIn.isPresent();
+            case LOGOUT:
+                atm.logout(token);
+                tokens.remove(event.getSession());
+                return true;
+            case VIEW_BALANCE:
+                atm.viewBalance(token);
+                return true;
+            case DEPOSIT:
+                return atm.deposit(token, event.getAmount(), requestId(event.getRequest()));
+            case WITHDRAW:
+                return atm.withdraw(token, event.getAmount(), requestId(event.getRequest()));
+            case TRANSFER:
+                return atm.transfer(token, accountIds.getOrDefault(event.getTarget(), -1), event.getAmount());
+            case RECENT_TRANSACTIONS:
+                atm.recentTransactions(token, event.getCount());
+                return true;
+            default:
+                throw new IllegalStateException("unknown op " + event.getOp());
+        }
+    }
+
+    static String username(long user) {
+        return "user-" + Long.toHexString(user);
+    }
+
+    private static String requestId(long request) {
+        return request == 0 ? null : "request-" + Long.toHexString(request);
+    }
+
+    private static int createAccount(SqliteDao sqliteDao, String username, long startingBalance) {
+        sqliteDao.createAccount(username, PIN);
+        int accountId = sqliteDao.getAccount(username, PIN)
+                .orElseThrow(() -> new RuntimeException("could not create replay account " + username))
+                .getId();
+        sqliteDao.persistBalance(Balance.builder()
+                .accountId(accountId)
+                .balance(startingBalance)
+                .build());
+        return accountId;
+    }
+
+    private static class Scheduled {
+        private final TrafficEvent event;
+        private final long dueNanos;
+
+        Scheduled(TrafficEvent event, long dueNanos) {
+            this.event = event;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    private class Worker extends Thread {
+        private final BlockingQueue<Scheduled> queue = new ArrayBlockingQueue<>(WORKER_QUEUE_SIZE);
+        private final Map<TrafficOp, LatencyRecorder> latencies;
+        private final LongAdder events;
+        private final LongAdder errors;
+        private final LongAdder mismatches;
+        private final AtomicLong maxLag;
+        private volatile boolean finished;
+
+        Worker(int index, Map<TrafficOp, LatencyRecorder> latencies, LongAdder events, LongAdder errors,
+               LongAdder mismatches, AtomicLong maxLag) {
+            super("traffic-replay-" + index);
+            setDaemon(true);
+            this.latencies = latencies;
+            this.events = events;
+            this.errors = errors;
+            this.mismatches = mismatches;
+            this.maxLag = maxLag;
+        }
+
+        // blocks while the worker is behind, so a max speed replay never reads the whole log into memory
+        void submit(TrafficEvent event, long dueNanos) throws InterruptedException {
+            queue.put(new Scheduled(event, dueNanos));
+        }
+
+        void finish() throws InterruptedException {
+            finished = true;
+            join();
+        }
+
+        @Override
+        public void run() {
+            while (!finished || !queue.isEmpty()) {
+                Scheduled scheduled;
+                try {
+                    scheduled = queue.poll(10, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (scheduled != null) {
+                    run(scheduled.event, scheduled.dueNanos);
+                }
+            }
+        }
+
+        private void run(TrafficEvent event, long dueNanos) {
+            long start = System.nanoTime();
+            maxLag.accumulateAndGet(start - dueNanos, Math::max);
+            try {
+                boolean succeeded = execute(event);
+                if (succeeded != event.isSucceeded()) {
+                    mismatches.increment();
+                }
+            } catch (RuntimeException e) {
+                errors.increment();
+                if (event.isSucceeded()) {
+                    mismatches.increment();
+                }
+                log.debug("replayed {} failed", event.getOp(), e);
+            }
+            latencies.get(event.getOp()).record(System.nanoTime() - start);
+            events.increment();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package sandbox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccountLocksTest {
+
+    @Test
+    void lockBoth_oppositeOrderDoesNotDeadlock() throws Exception {
+        AccountLocks underTest = new AccountLocks(16);
+        CountDownLatch done = new CountDownLatch(2);
+
+        Runnable forward = () -> {
+            for (int i = 0; i < 10_000; i++) {
+                underTest.lockBoth(1, 2);
+                underTest.unlockBoth(1, 2);
+            }
+            done.countDown();
+        };
+        Runnable backward = () -> {
+            for (int i = 0; i < 10_000; i++) {
+                underTest.lockBoth(2, 1);
+                underTest.unlockBoth(2, 1);
+            }
+            done.countDown();
+        };
+        new Thread(forward).start();
+        new Thread(backward).start();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS), "both threads finished");
+    }
+
+    @Test
+    void lockBoth_sameStripe() throws Exception {
+        AccountLocks underTest = new AccountLocks(4);
+        assertEquals(underTest.stripeIndex(1), underTest.stripeIndex(5), "accounts share a stripe");
+
+        // the shared stripe is only taken once, so a single unlock fully releases it
+        underTest.lockBoth(1, 5);
+        underTest.unlockBoth(1, 5);
+
+        CountDownLatch locked = new CountDownLatch(1);
+        new Thread(() -> {
+            underTest.lock(5);
+            locked.countDown();
+            underTest.unlock(5);
+        }).start();
+
+        assertTrue(locked.await(10, TimeUnit.SECONDS), "stripe was released");
+    }
+}
@@ -7,18 +7,28 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import sandbox.feed.ChangeFeed;
+import sandbox.fraud.FraudDecision;
 import sandbox.model.Account;
 import sandbox.model.Balance;
+import sandbox.model.IdempotencyKey;
 import sandbox.model.Session;
+import sandbox.model.Transaction;
+import sandbox.model.TransactionType;
 
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -35,6 +45,27 @@ public class AtmSimulatorImplTest {
         underTest = new AtmSimulatorImpl(sqliteDao);
     }
 
+    // the dao adds to the balance in sql, this answers as if the row held the starting balance
+    // the account already has one transaction row, with id 1
+    private void givenBalanceChanges(Integer accountId, long startingBalance) {
+        AtomicLong balance = new AtomicLong(startingBalance);
+        AtomicInteger latestId = new AtomicInteger(1);
+        when(sqliteDao.getLatestTransactionId(accountId)).thenAnswer(invocation -> latestId.get());
+        when(sqliteDao.changeBalance(eq(accountId), any(TransactionType.class), anyLong(), any()))
+                .thenAnswer(invocation -> {
+                    TransactionType type = invocation.getArgument(1);
+                    long amount = invocation.getArgument(2);
+                    return Transaction.builder()
+                            .id(latestId.incrementAndGet())
+                            .accountId(accountId)
+                            .type(type)
+                            .amount(amount)
+                            .balance(balance.addAndGet(type.delta(amount)))
+                            .created(Timestamp.from(Instant.now()))
+                            .build();
+                });
+    }
+
     @Test
     void login_makeANewSession() {
         // given
@@ -142,6 +173,249 @@ public class AtmSimulatorImplTest {
         verify(sqliteDao, never()).persistSession(eq(accountId), any(UUID.class), any(Timestamp.class));
     }
 
+    @Test
+    void login_throttledAfterFailedAttempts() {
+        // given
+        String userName = "tester";
+        String pin = "1234";
+        underTest = new AtmSimulatorImpl(sqliteDao, AtmSimulatorConfig.builder()
+                .loginAttemptsPerBucket(3)
+                .build());
+
+        when(sqliteDao.getAccount(userName, pin))
+                .thenReturn(Optional.empty());
+
+        // when
+        for (int i = 0; i < 5; i++) {
+            assertFalse(underTest.login(userName, pin).isPresent(), "login failed");
+        }
+
+        // verify
+        verify(sqliteDao, times(3)).getAccount(userName, pin);
+    }
+
+    @Test
+    void login_signedSessionSkipsTheSessionTable() {
+        // given
+        String userName = "tester";
+        String pin = "1234";
+        Integer accountId = 1;
+        underTest = new AtmSimulatorImpl(sqliteDao, AtmSimulatorConfig.builder()
+                .sessionSigningKey(new byte[32])
+                .build());
+
+        when(sqliteDao.getAccount(userName, pin))
+                .thenReturn(Optional.of(Account.builder()
+                        .username(userName)
+                        .pin(pin)
+                        .id(accountId)
+                        .build()));
+        when(sqliteDao.getBalance(accountId))
+                .thenReturn(Optional.of(Balance.builder()
+                        .balance(100L)
+                        .accountId(accountId)
+                        .build()));
+
+        // when
+        String token = underTest.login(userName, pin).get();
+        long balance = underTest.viewBalance(token);
+
+        // verify
+        assertTrue(SignedSessionTokens.isSigned(token), "token is signed");
+        assertEquals(100L, balance, "balance matches");
+        verify(sqliteDao, never()).getSession(any(Integer.class));
+        verify(sqliteDao, never()).getSession(any(String.class));
+        verify(sqliteDao, never()).persistSession(any(), any(), any());
+        verify(sqliteDao).recordActivity(eq(accountId), any(Timestamp.class));
+        verify(sqliteDao).ensureHot(accountId);
+    }
+
+    @Test
+    void logout_signedSession() {
+        // given
+        Integer accountId = 1;
+        SignedSessionTokens signer = new SignedSessionTokens(new byte[32]);
+        underTest = new AtmSimulatorImpl(sqliteDao, AtmSimulatorConfig.builder()
+                .sessionSigningKey(new byte[32])
+                .build());
+        String token = signer.issue(accountId, Instant.now().plus(1, ChronoUnit.MINUTES).toEpochMilli());
+        when(sqliteDao.getBalance(accountId))
+                .thenReturn(Optional.empty());
+
+        // when
+        assertEquals(0L, underTest.viewBalance(token), "token works before logout");
+        underTest.logout(token);
+
+        // verify
+        assertThrows(RuntimeException.class, () -> underTest.viewBalance(token));
+        verify(sqliteDao, never()).expireSession(any(), any());
+    }
+
+    @Test
+    void logout_uuidSession() {
+        // given
+        Integer accountId = 1;
+        UUID token = UUID.randomUUID();
+        when(sqliteDao.getSession(token.toString()))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(Timestamp.from(Instant.now().plus(1, ChronoUnit.MINUTES)))
+                        .build()));
+
+        // when
+        underTest.logout(token.toString());
+
+        // verify
+        verify(sqliteDao).expireSession(accountId, token);
+    }
+
+    @Test
+    void signedToken_rejectedWithoutASigningKey() {
+        // given
+        String token = new SignedSessionTokens(new byte[32])
+                .issue(1, Instant.now().plus(1, ChronoUnit.MINUTES).toEpochMilli());
+
+        // verify
+        assertThrows(RuntimeException.class, () -> underTest.viewBalance(token));
+        verify(sqliteDao, never()).getSession(any(String.class));
+    }
+
+    @Test
+    void viewBalance_extendsSessionNearExpiry() throws Exception {
+        // given
+        Integer accountId = 1;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        Timestamp expiryTime = Timestamp.from(Instant.now().plus(1, ChronoUnit.MINUTES));
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(expiryTime)
+                        .build()));
+        when(sqliteDao.getBalance(accountId))
+                .thenReturn(Optional.empty());
+
+        // when
+        for (int i = 0; i < 10; i++) {
+            underTest.viewBalance(tokenStr);
+        }
+        underTest.close();
+
+        // verify, one write for all ten requests
+        verify(sqliteDao, times(1)).extendSessions(any(), any());
+    }
+
+    @Test
+    void withdraw_rejectedWhenTheNotesCannotBePaidOut() {
+        // given, only $20 notes
+        Integer accountId = 1;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        underTest = new AtmSimulatorImpl(sqliteDao, AtmSimulatorConfig.builder()
+                .cassettes(Map.of(2_000L, 100L))
+                .build());
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(Timestamp.from(Instant.now().plus(10, ChronoUnit.MINUTES)))
+                        .build()));
+        givenBalanceChanges(accountId, 100_000L);
+
+        // when
+        boolean rejected = underTest.withdraw(tokenStr, 5_000L);
+        boolean paid = underTest.withdraw(tokenStr, 6_000L);
+
+        // verify
+        assertFalse(rejected, "$50 cannot be paid in $20 notes");
+        assertTrue(paid, "$60 can");
+        verify(sqliteDao, times(1)).changeBalance(accountId, TransactionType.WITHDRAWAL, 6_000L, null);
+        assertEquals(97L, underTest.getCashDispenser().get().getCassettes().get(0).getNotes());
+    }
+
+    @Test
+    void withdraw_declinedByTheFraudCheck() {
+        // given, a check that declines every withdrawal
+        Integer accountId = 1;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        underTest = new AtmSimulatorImpl(sqliteDao, AtmSimulatorConfig.builder()
+                .fraudCheck((id, type, amount, now, deadline) ->
+                        type == TransactionType.WITHDRAWAL ? FraudDecision.DECLINE : FraudDecision.ALLOW)
+                .build());
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(Timestamp.from(Instant.now().plus(10, ChronoUnit.MINUTES)))
+                        .build()));
+
+        // when
+        boolean withdrawn = underTest.withdraw(tokenStr, 2_000L);
+
+        // verify
+        assertFalse(withdrawn, "withdrawal was declined");
+        verify(sqliteDao, never()).changeBalance(any(), any(), anyLong(), any());
+        assertEquals(1L, underTest.getFraudStage().get().getDeclines());
+    }
+
+    @Test
+    void viewBalance_servedOffHeapAfterTheFirstRead() {
+        // given
+        Integer accountId = 1;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        ChangeFeed changeFeed = new ChangeFeed();
+        when(sqliteDao.getChangeFeed())
+                .thenReturn(changeFeed);
+        underTest = new AtmSimulatorImpl(sqliteDao, AtmSimulatorConfig.builder()
+                .offHeapBalanceCapacity(1_000)
+                .build());
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(Timestamp.from(Instant.now().plus(10, ChronoUnit.MINUTES)))
+                        .build()));
+        when(sqliteDao.getBalance(accountId))
+                .thenReturn(Optional.of(Balance.builder()
+                        .balance(100L)
+                        .accountId(accountId)
+                        .build()));
+        // the dao publishes every balance it commits
+        when(sqliteDao.changeBalance(eq(accountId), eq(TransactionType.DEPOSIT), eq(50L), any()))
+                .thenAnswer(invocation -> {
+                    changeFeed.balanceChanged(accountId, 150L);
+                    return Transaction.builder()
+                            .accountId(accountId)
+                            .type(TransactionType.DEPOSIT)
+                            .amount(50L)
+                            .balance(150L)
+                            .build();
+                });
+
+        // when
+        long first = underTest.viewBalance(tokenStr);
+        underTest.deposit(tokenStr, 50L);
+        long second = underTest.viewBalance(tokenStr);
+        // e.g. an interest credit, written by the batch job rather than the simulator
+        changeFeed.balanceChanged(accountId, 152L);
+        long third = underTest.viewBalance(tokenStr);
+
+        // verify, only the first read reached the db
+        assertEquals(100L, first);
+        assertEquals(150L, second);
+        assertEquals(152L, third, "other writers reach the store through the change feed");
+        verify(sqliteDao, times(1)).getBalance(accountId);
+        changeFeed.close();
+    }
+
     @Test
     void viewBalance() {
         // given
@@ -249,11 +523,7 @@ public class AtmSimulatorImplTest {
                         .expires(expiryTime)
                         .build()));
 
-        when(sqliteDao.getBalance(accountId))
-                .thenReturn(Optional.of(Balance.builder()
-                        .balance(100L)
-                        .accountId(accountId)
-                        .build()));
+        givenBalanceChanges(accountId, 100L);
 
         // when
         boolean success = underTest.deposit(tokenStr, 10L);
@@ -262,14 +532,41 @@ public class AtmSimulatorImplTest {
         assertTrue(success, "deposit success");
 
         verify(sqliteDao).getSession(tokenStr);
-        verify(sqliteDao).getBalance(accountId);
+        // the balance is never read, the amount is added to it in sql
+        verify(sqliteDao, never()).getBalance(accountId);
+        verify(sqliteDao, never()).persistBalance(any(Balance.class));
+        verify(sqliteDao).changeBalance(accountId, TransactionType.DEPOSIT, 10L, null);
+    }
+
+    @Test
+    void deposit_repeatedRequestId() {
+        // given
+        Integer accountId = 1;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        Timestamp expiryTime = Timestamp.from(Instant.now().plus(1, ChronoUnit.MINUTES));
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(expiryTime)
+                        .build()));
+
+        givenBalanceChanges(accountId, 100L);
+
+        // when
+        boolean first = underTest.deposit(tokenStr, 10L, "request-1");
+        boolean retry = underTest.deposit(tokenStr, 10L, "request-1");
 
-        ArgumentCaptor<Balance> newBalanceCap = ArgumentCaptor.forClass(Balance.class);
-        verify(sqliteDao).persistBalance(newBalanceCap.capture());
+        // verify
+        assertTrue(first, "deposit success");
+        assertTrue(retry, "retry returns the original result");
 
-        Balance balanceRow = newBalanceCap.getValue();
-        assertEquals(accountId, balanceRow.getAccountId());
-        assertEquals(110L, balanceRow.getBalance());
+        ArgumentCaptor<IdempotencyKey> keyCap = ArgumentCaptor.forClass(IdempotencyKey.class);
+        verify(sqliteDao, times(1)).changeBalance(eq(accountId), eq(TransactionType.DEPOSIT), eq(10L), keyCap.capture());
+        assertEquals("1:deposit:request-1", keyCap.getValue().getKey(), "key written with the balance");
+        verify(sqliteDao, never()).persistIdempotencyKey(any());
     }
 
     @Test
@@ -298,7 +595,7 @@ public class AtmSimulatorImplTest {
         // verify
         verify(sqliteDao).getSession(tokenStr);
         verify(sqliteDao, never()).getBalance(accountId);
-        verify(sqliteDao, never()).persistBalance(any(Balance.class));
+        verify(sqliteDao, never()).changeBalance(any(), any(), anyLong(), any());
     }
 
     @Test
@@ -332,7 +629,7 @@ public class AtmSimulatorImplTest {
         // verify
         verify(sqliteDao).getSession(tokenStr);
         verify(sqliteDao, never()).getBalance(accountId);
-        verify(sqliteDao, never()).persistBalance(any(Balance.class));
+        verify(sqliteDao, never()).changeBalance(any(), any(), anyLong(), any());
     }
 
     @Test
@@ -350,11 +647,7 @@ public class AtmSimulatorImplTest {
                         .expires(expiryTime)
                         .build()));
 
-        when(sqliteDao.getBalance(accountId))
-                .thenReturn(Optional.of(Balance.builder()
-                        .balance(100L)
-                        .accountId(accountId)
-                        .build()));
+        givenBalanceChanges(accountId, 100L);
 
         // when
         boolean success = underTest.withdraw(tokenStr, 10L);
@@ -363,14 +656,38 @@ public class AtmSimulatorImplTest {
         assertTrue(success, "withdraw success");
 
         verify(sqliteDao).getSession(tokenStr);
-        verify(sqliteDao).getBalance(accountId);
+        verify(sqliteDao, never()).getBalance(accountId);
+        verify(sqliteDao, never()).persistBalance(any(Balance.class));
+        verify(sqliteDao).changeBalance(accountId, TransactionType.WITHDRAWAL, 10L, null);
+    }
 
-        ArgumentCaptor<Balance> newBalanceCap = ArgumentCaptor.forClass(Balance.class);
-        verify(sqliteDao).persistBalance(newBalanceCap.capture());
+    @Test
+    void withdraw_overTheLimit() {
+        // given
+        Integer accountId = 1;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        Timestamp expiryTime = Timestamp.from(Instant.now().plus(1, ChronoUnit.MINUTES));
+        underTest = new AtmSimulatorImpl(sqliteDao, AtmSimulatorConfig.builder()
+                .perTransactionWithdrawalLimit(50L)
+                .build());
 
-        Balance balanceRow = newBalanceCap.getValue();
-        assertEquals(accountId, balanceRow.getAccountId());
-        assertEquals(90L, balanceRow.getBalance());
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(expiryTime)
+                        .build()));
+
+        // when
+        boolean success = underTest.withdraw(tokenStr, 60L);
+
+        // verify
+        assertFalse(success, "withdraw rejected");
+
+        verify(sqliteDao).getSession(tokenStr);
+        verify(sqliteDao, never()).getBalance(accountId);
+        verify(sqliteDao, never()).changeBalance(any(), any(), anyLong(), any());
     }
 
     @Test
@@ -399,7 +716,7 @@ public class AtmSimulatorImplTest {
         // verify
         verify(sqliteDao).getSession(tokenStr);
         verify(sqliteDao, never()).getBalance(accountId);
-        verify(sqliteDao, never()).persistBalance(any(Balance.class));
+        verify(sqliteDao, never()).changeBalance(any(), any(), anyLong(), any());
     }
 
     @Test
@@ -433,6 +750,249 @@ public class AtmSimulatorImplTest {
         // verify
         verify(sqliteDao).getSession(tokenStr);
         verify(sqliteDao, never()).getBalance(accountId);
-        verify(sqliteDao, never()).persistBalance(any(Balance.class));
+        verify(sqliteDao, never()).changeBalance(any(), any(), anyLong(), any());
+    }
+
+    @Test
+    void transfer_sunnyday() {
+        // given
+        Integer accountId = 1;
+        int targetAccountId = 2;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        Timestamp expiryTime = Timestamp.from(Instant.now().plus(1, ChronoUnit.MINUTES));
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(expiryTime)
+                        .build()));
+
+        when(sqliteDao.transferBalance(accountId, targetAccountId, 10L))
+                .thenReturn(List.of(
+                        Transaction.builder()
+                                .accountId(accountId)
+                                .type(TransactionType.TRANSFER_OUT)
+                                .amount(10L)
+                                .balance(90L)
+                                .build(),
+                        Transaction.builder()
+                                .accountId(targetAccountId)
+                                .type(TransactionType.TRANSFER_IN)
+                                .amount(10L)
+                                .balance(10L)
+                                .build()));
+
+        // when
+        boolean success = underTest.transfer(tokenStr, targetAccountId, 10L);
+
+        // verify
+        assertTrue(success, "transfer success");
+
+        verify(sqliteDao).getSession(tokenStr);
+        verify(sqliteDao).transferBalance(accountId, targetAccountId, 10L);
+        verify(sqliteDao, never()).changeBalance(any(), any(), anyLong(), any());
+    }
+
+    @Test
+    void transfer_rejectedByDao() {
+        // given
+        Integer accountId = 1;
+        int targetAccountId = 2;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        Timestamp expiryTime = Timestamp.from(Instant.now().plus(1, ChronoUnit.MINUTES));
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(expiryTime)
+                        .build()));
+
+        when(sqliteDao.transferBalance(accountId, targetAccountId, 10L))
+                .thenReturn(List.of());
+
+        // when
+        boolean success = underTest.transfer(tokenStr, targetAccountId, 10L);
+
+        // verify
+        assertFalse(success, "transfer failed");
+        verify(sqliteDao).transferBalance(accountId, targetAccountId, 10L);
+    }
+
+    @Test
+    void depositAndWithdraw_rejectAmountsThatAreNotPositive() {
+        // given
+        Integer accountId = 1;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        Timestamp expiryTime = Timestamp.from(Instant.now().plus(1, ChronoUnit.MINUTES));
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(expiryTime)
+                        .build()));
+
+        // when
+        IllegalArgumentException negativeDeposit = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> underTest.deposit(tokenStr, -100L));
+        IllegalArgumentException zeroWithdrawal = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> underTest.withdraw(tokenStr, 0L, "request-1"));
+
+        // verify
+        Assertions.assertEquals("deposit amount must be positive", negativeDeposit.getMessage());
+        Assertions.assertEquals("withdrawal amount must be positive", zeroWithdrawal.getMessage());
+        verify(sqliteDao, never()).changeBalance(any(), any(), anyLong(), any());
+    }
+
+    @Test
+    void transfer_sameAccount() {
+        // given
+        Integer accountId = 1;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        Timestamp expiryTime = Timestamp.from(Instant.now().plus(1, ChronoUnit.MINUTES));
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(expiryTime)
+                        .build()));
+
+        // when
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            underTest.transfer(tokenStr, accountId, 10L);
+        });
+
+        Assertions.assertEquals("cannot transfer to the same account", thrown.getMessage());
+
+        // verify
+        verify(sqliteDao, never()).transferBalance(any(Integer.class), any(Integer.class), anyLong());
+    }
+
+    @Test
+    void transfer_invalidToken() {
+        // given
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.empty());
+
+        // when
+        RuntimeException thrown = Assertions.assertThrows(RuntimeException.class, () -> {
+            underTest.transfer(tokenStr, 2, 10L);
+        });
+
+        Assertions.assertEquals("invalid token", thrown.getMessage());
+
+        // verify
+        verify(sqliteDao).getSession(tokenStr);
+        verify(sqliteDao, never()).transferBalance(any(Integer.class), any(Integer.class), anyLong());
+    }
+
+    @Test
+    void recentTransactions_servedFromMemoryOnceHot() {
+        // given
+        Integer accountId = 1;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        Timestamp expiryTime = Timestamp.from(Instant.now().plus(1, ChronoUnit.MINUTES));
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(expiryTime)
+                        .build()));
+
+        when(sqliteDao.getRecentTransactions(accountId))
+                .thenReturn(List.of(Transaction.builder()
+                        .id(1)
+                        .accountId(accountId)
+                        .type(TransactionType.DEPOSIT)
+                        .amount(100L)
+                        .balance(100L)
+                        .build()));
+
+        givenBalanceChanges(accountId, 100L);
+
+        // when
+        List<Transaction> first = underTest.recentTransactions(tokenStr, 5);
+        underTest.withdraw(tokenStr, 10L);
+        List<Transaction> second = underTest.recentTransactions(tokenStr, 5);
+
+        // verify
+        assertEquals(1, first.size());
+        assertEquals(2, second.size());
+        assertEquals(TransactionType.WITHDRAWAL, second.get(0).getType(), "newest first");
+        assertEquals(TransactionType.DEPOSIT, second.get(1).getType());
+
+        verify(sqliteDao, times(1)).getRecentTransactions(accountId);
+    }
+
+    @Test
+    void recentTransactions_reloadedOnceAnotherWriterAddsARow() {
+        // given
+        Integer accountId = 1;
+        UUID token = UUID.randomUUID();
+        String tokenStr = token.toString();
+        Timestamp expiryTime = Timestamp.from(Instant.now().plus(1, ChronoUnit.MINUTES));
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.of(Session.builder()
+                        .token(token)
+                        .accountId(accountId)
+                        .expires(expiryTime)
+                        .build()));
+        Transaction deposit = Transaction.builder()
+                .id(1)
+                .accountId(accountId)
+                .type(TransactionType.DEPOSIT)
+                .amount(100L)
+                .balance(100L)
+                .build();
+        Transaction interest = Transaction.builder()
+                .id(2)
+                .accountId(accountId)
+                .type(TransactionType.INTEREST)
+                .amount(1L)
+                .balance(101L)
+                .build();
+        when(sqliteDao.getRecentTransactions(accountId))
+                .thenReturn(List.of(deposit))
+                .thenReturn(List.of(interest, deposit));
+        when(sqliteDao.getLatestTransactionId(accountId)).thenReturn(2);
+
+        // when, the interest row is written by another process between the two statements
+        List<Transaction> first = underTest.recentTransactions(tokenStr, 5);
+        List<Transaction> second = underTest.recentTransactions(tokenStr, 5);
+
+        // verify
+        assertEquals(List.of(deposit), first);
+        assertEquals(List.of(interest, deposit), second, "the ring was reloaded");
+        verify(sqliteDao, times(2)).getRecentTransactions(accountId);
+    }
+
+    @Test
+    void recentTransactions_invalidToken() {
+        // given
+        String tokenStr = UUID.randomUUID().toString();
+
+        when(sqliteDao.getSession(tokenStr))
+                .thenReturn(Optional.empty());
+
+        // when
+        RuntimeException thrown = Assertions.assertThrows(RuntimeException.class, () -> {
+            underTest.recentTransactions(tokenStr, 5);
+        });
+
+        Assertions.assertEquals("invalid token", thrown.getMessage());
+        verify(sqliteDao, never()).getRecentTransactions(any(Integer.class));
     }
 }
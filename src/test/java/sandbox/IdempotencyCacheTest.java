@@ -0,0 +1,205 @@
+package sandbox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import sandbox.model.IdempotencyKey;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class IdempotencyCacheTest {
+    @Mock
+    SqliteDao sqliteDao;
+
+    MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+    IdempotencyCache underTest;
+
+    @BeforeEach
+    void init_mocks() {
+        MockitoAnnotations.openMocks(this);
+        underTest = new IdempotencyCache(sqliteDao, AtmSimulatorConfig.builder()
+                .idempotencyKeyTtl(Duration.ofHours(1))
+                .idempotencyCleanupBatchSize(2)
+                .build(),
+                clock);
+    }
+
+    @AfterEach
+    void close() {
+        underTest.close();
+    }
+
+    @Test
+    void execute_repeatedKeyReturnsTheFirstResult() {
+        AtomicInteger runs = new AtomicInteger();
+        List<IdempotencyKey> pendingKeys = new ArrayList<>();
+
+        assertTrue(underTest.execute("1:deposit:abc", key -> pendingKeys.add(key) && runs.incrementAndGet() == 1));
+        assertTrue(underTest.execute("1:deposit:abc", key -> runs.incrementAndGet() == 1), "first result returned");
+
+        assertEquals(1, runs.get(), "operation ran once");
+        assertEquals("1:deposit:abc", pendingKeys.get(0).getKey());
+        assertTrue(pendingKeys.get(0).getResult());
+        // the operation wrote the key with its change
+        verify(sqliteDao, never()).persistIdempotencyKey(any(IdempotencyKey.class));
+    }
+
+    @Test
+    void execute_falseResultsAreWrittenHere() {
+        assertFalse(underTest.execute("1:withdraw:abc", key -> false));
+
+        ArgumentCaptor<IdempotencyKey> keyCap = ArgumentCaptor.forClass(IdempotencyKey.class);
+        verify(sqliteDao).persistIdempotencyKey(keyCap.capture());
+        assertEquals("1:withdraw:abc", keyCap.getValue().getKey());
+        assertFalse(keyCap.getValue().getResult());
+    }
+
+    @Test
+    void execute_failuresAreNotRemembered() {
+        assertThrows(IllegalStateException.class, () -> underTest.execute("1:withdraw:abc", key -> {
+            throw new IllegalStateException("db unavailable");
+        }));
+
+        assertFalse(underTest.contains("1:withdraw:abc"));
+        assertTrue(underTest.execute("1:withdraw:abc", key -> true), "retry runs the operation");
+    }
+
+    @Test
+    void execute_failureAfterTheCommitKeepsTheCommittedResult() {
+        AtomicInteger runs = new AtomicInteger();
+        when(sqliteDao.getIdempotencyKey("1:deposit:abc"))
+                .thenReturn(Optional.of(IdempotencyKey.builder()
+                        .key("1:deposit:abc")
+                        .result(true)
+                        .created(clock.millis())
+                        .build()));
+
+        assertTrue(underTest.execute("1:deposit:abc", key -> {
+            runs.incrementAndGet();
+            throw new IllegalStateException("failed after the commit");
+        }), "committed result returned");
+        assertTrue(underTest.execute("1:deposit:abc", key -> runs.incrementAndGet() > 0));
+
+        assertEquals(1, runs.get(), "not run again");
+    }
+
+    @Test
+    void execute_expiredKeyRunsAgain() {
+        AtomicInteger runs = new AtomicInteger();
+        underTest.execute("1:deposit:abc", key -> runs.incrementAndGet() > 0);
+
+        clock.advance(Duration.ofHours(1));
+        underTest.execute("1:deposit:abc", key -> runs.incrementAndGet() > 0);
+
+        assertEquals(2, runs.get(), "operation ran again after the ttl");
+    }
+
+    @Test
+    void cleanUp_deletesInBatchesAndDropsExpiredKeys() {
+        underTest.execute("1:deposit:abc", key -> true);
+        clock.advance(Duration.ofHours(2));
+        when(sqliteDao.deleteExpiredIdempotencyKeys(anyLong(), eq(2)))
+                .thenReturn(2, 2, 1);
+
+        underTest.cleanUp();
+
+        assertFalse(underTest.contains("1:deposit:abc"), "expired key dropped from memory");
+        verify(sqliteDao, times(3)).deleteExpiredIdempotencyKeys(anyLong(), eq(2));
+    }
+
+    @Test
+    void execute_forgottenKeyFallsBackToTheTable() {
+        IdempotencyCache bounded = new IdempotencyCache(sqliteDao, AtmSimulatorConfig.builder()
+                .maxCachedIdempotencyKeys(2)
+                .build(),
+                clock);
+        bounded.execute("1:deposit:a", key -> true);
+        bounded.execute("1:deposit:b", key -> true);
+        bounded.execute("1:deposit:c", key -> true);
+
+        assertFalse(bounded.contains("1:deposit:a"), "oldest key forgotten");
+        assertTrue(bounded.contains("1:deposit:c"));
+
+        // the table refuses the key a second time, which rolls the repeated change back
+        when(sqliteDao.getIdempotencyKey("1:deposit:a"))
+                .thenReturn(Optional.of(IdempotencyKey.builder()
+                        .key("1:deposit:a")
+                        .result(true)
+                        .created(clock.millis())
+                        .build()));
+        assertTrue(bounded.execute("1:deposit:a", key -> {
+            throw new IllegalStateException("UNIQUE constraint failed: idempotency_key.key");
+        }), "committed result returned");
+        bounded.close();
+    }
+
+    @Test
+    void load_onlyAsksForTheMostRecentKeys() {
+        IdempotencyCache restarted = new IdempotencyCache(sqliteDao, AtmSimulatorConfig.builder()
+                .maxCachedIdempotencyKeys(10)
+                .build(),
+                clock);
+
+        verify(sqliteDao).getIdempotencyKeys(anyLong(), eq(10));
+        restarted.close();
+    }
+
+    @Test
+    void load_restoresKeysFromTheTable() {
+        when(sqliteDao.getIdempotencyKeys(anyLong(), anyInt()))
+                .thenReturn(List.of(IdempotencyKey.builder()
+                        .key("2:withdraw:xyz")
+                        .result(false)
+                        .created(clock.millis())
+                        .build()));
+
+        IdempotencyCache restarted = new IdempotencyCache(sqliteDao, AtmSimulatorConfig.defaults(), clock);
+
+        assertFalse(restarted.execute("2:withdraw:xyz", key -> true), "stored result returned");
+        restarted.close();
+    }
+
+    static class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
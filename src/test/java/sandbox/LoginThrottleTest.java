@@ -0,0 +1,75 @@
+package sandbox;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoginThrottleTest {
+
+    AtomicLong nanos = new AtomicLong(1_000L);
+
+    LoginThrottle underTest = new LoginThrottle(AtmSimulatorConfig.builder()
+            .loginAttemptsPerBucket(3)
+            .loginAttemptRefillInterval(Duration.ofSeconds(10))
+            .loginLockout(Duration.ofMinutes(1))
+            .maxThrottledUsernames(4)
+            .build(),
+            nanos::get);
+
+    @Test
+    void tryAcquire_locksOutAfterTheBurst() {
+        assertTrue(underTest.tryAcquire("tester"));
+        assertTrue(underTest.tryAcquire("tester"));
+        assertTrue(underTest.tryAcquire("tester"));
+        assertFalse(underTest.tryAcquire("tester"), "bucket is empty");
+
+        // a refill interval is not enough while locked out
+        advance(Duration.ofSeconds(10));
+        assertFalse(underTest.tryAcquire("tester"), "still locked out");
+
+        advance(Duration.ofMinutes(1));
+        assertTrue(underTest.tryAcquire("tester"), "lockout is over");
+        assertTrue(underTest.tryAcquire("other"), "other usernames are not affected");
+    }
+
+    @Test
+    void tryAcquire_refillsOverTime() {
+        assertTrue(underTest.tryAcquire("tester"));
+        assertTrue(underTest.tryAcquire("tester"));
+        assertTrue(underTest.tryAcquire("tester"));
+
+        advance(Duration.ofSeconds(10));
+        assertTrue(underTest.tryAcquire("tester"), "one attempt was refilled");
+        assertFalse(underTest.tryAcquire("tester"));
+    }
+
+    @Test
+    void onSuccess_forgetsTheUsername() {
+        underTest.tryAcquire("tester");
+        underTest.tryAcquire("tester");
+        underTest.onSuccess("tester");
+
+        assertFalse(underTest.isTracked("tester"));
+        assertTrue(underTest.tryAcquire("tester"));
+        assertTrue(underTest.tryAcquire("tester"));
+        assertTrue(underTest.tryAcquire("tester"));
+    }
+
+    @Test
+    void tryAcquire_boundedNumberOfUsernames() {
+        for (int i = 0; i < 10; i++) {
+            advance(Duration.ofMillis(1));
+            underTest.tryAcquire("user-" + i);
+        }
+
+        assertTrue(underTest.trackedUsernames() <= 4, "old usernames were evicted");
+        assertTrue(underTest.isTracked("user-9"), "the newest username is kept");
+    }
+
+    private void advance(Duration duration) {
+        nanos.addAndGet(duration.toNanos());
+    }
+}
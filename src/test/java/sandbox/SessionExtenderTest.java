@@ -0,0 +1,150 @@
+package sandbox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import sandbox.model.Session;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class SessionExtenderTest {
+    @Mock
+    SqliteDao sqliteDao;
+
+    SessionExtender underTest;
+    AtomicLong nowMillis = new AtomicLong(Instant.parse("2026-01-01T12:00:00Z").toEpochMilli());
+
+    @BeforeEach
+    void init_mocks() {
+        MockitoAnnotations.openMocks(this);
+        underTest = new SessionExtender(sqliteDao, AtmSimulatorConfig.builder()
+                .sessionTtl(Duration.ofMinutes(10))
+                .sessionRefreshThreshold(Duration.ofMinutes(5))
+                .sessionFlushInterval(Duration.ofHours(1))
+                .build(),
+                new Clock() {
+                    @Override
+                    public ZoneId getZone() {
+                        return ZoneOffset.UTC;
+                    }
+
+                    @Override
+                    public Clock withZone(ZoneId zone) {
+                        return this;
+                    }
+
+                    @Override
+                    public Instant instant() {
+                        return Instant.ofEpochMilli(nowMillis.get());
+                    }
+                });
+        when(sqliteDao.extendSessions(any(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @AfterEach
+    void close() {
+        underTest.close();
+    }
+
+    @Test
+    void touch_plentyLeft_nothingChanges() {
+        Session session = session(Duration.ofMinutes(9));
+
+        underTest.touch(session);
+
+        assertEquals(0, underTest.pendingExtensions());
+        assertEquals(session.getExpires().getTime(), underTest.expiresAt(session));
+    }
+
+    @Test
+    void touch_nearExpiry_extendsInMemory() {
+        // given
+        Session session = session(Duration.ofMinutes(1));
+
+        // when
+        underTest.touch(session);
+        underTest.touch(session);
+        nowMillis.addAndGet(Duration.ofMinutes(2).toMillis());
+
+        // verify
+        assertEquals(1, underTest.pendingExtensions());
+        assertTrue(underTest.isActive(session), "active past the stored expiry");
+        verify(sqliteDao, never()).extendSessions(any(), any());
+    }
+
+    @Test
+    void flush_writesOneBatch() {
+        // given
+        Session first = session(Duration.ofMinutes(1));
+        Session second = session(Duration.ofMinutes(2));
+        underTest.touch(first);
+        underTest.touch(second);
+
+        // when
+        underTest.flush();
+        underTest.flush();
+
+        // verify
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Session>> captor = ArgumentCaptor.forClass(List.class);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Timestamp>> fromCaptor = ArgumentCaptor.forClass(List.class);
+        verify(sqliteDao, times(1)).extendSessions(captor.capture(), fromCaptor.capture());
+        assertEquals(2, captor.getValue().size());
+        int firstAt = captor.getValue().get(0).getToken().equals(first.getToken()) ? 0 : 1;
+        assertEquals(first.getExpires(), fromCaptor.getValue().get(firstAt), "matched on the stored expiry");
+        long extendedTo = nowMillis.get() + Duration.ofMinutes(10).toMillis();
+        assertEquals(extendedTo, captor.getValue().get(0).getExpires().getTime());
+        assertEquals(0, underTest.pendingExtensions());
+    }
+
+    @Test
+    void staleExtension_ignoredOnceTheRowChanges() {
+        // given
+        Session session = session(Duration.ofMinutes(1));
+        underTest.touch(session);
+
+        // when, e.g. a logout expired the row
+        Session loggedOut = Session.builder()
+                .accountId(session.getAccountId())
+                .token(session.getToken())
+                .expires(new Timestamp(nowMillis.get()))
+                .build();
+
+        // verify
+        assertFalse(underTest.isActive(loggedOut), "logged out session stays expired");
+    }
+
+    @Test
+    void touch_expiredSession_notExtended() {
+        Session session = session(Duration.ofMinutes(-1));
+
+        underTest.touch(session);
+
+        assertEquals(0, underTest.pendingExtensions());
+        assertFalse(underTest.isActive(session));
+    }
+
+    private Session session(Duration remaining) {
+        return Session.builder()
+                .accountId(1)
+                .token(UUID.randomUUID())
+                .expires(new Timestamp(nowMillis.get() + remaining.toMillis()))
+                .build();
+    }
+}
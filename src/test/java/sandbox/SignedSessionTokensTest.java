@@ -0,0 +1,86 @@
+package sandbox;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SignedSessionTokensTest {
+
+    private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes();
+    private static final Instant NOW = Instant.parse("2024-01-01T12:00:00Z");
+
+    SignedSessionTokens underTest = new SignedSessionTokens(KEY, Clock.fixed(NOW, ZoneOffset.UTC));
+
+    @Test
+    void issueAndVerify() {
+        // when
+        String token = underTest.issue(42, NOW.plusSeconds(60).toEpochMilli());
+
+        // verify
+        assertTrue(SignedSessionTokens.isSigned(token), "token is signed");
+        assertEquals(Optional.of(42), underTest.verify(token));
+        assertNotEquals(token, underTest.issue(42, NOW.plusSeconds(60).toEpochMilli()), "every token is unique");
+    }
+
+    @Test
+    void verify_expired() {
+        String token = underTest.issue(42, NOW.minusSeconds(1).toEpochMilli());
+
+        assertEquals(Optional.empty(), underTest.verify(token));
+    }
+
+    @Test
+    void verify_tamperedOrForeign() {
+        String token = underTest.issue(42, NOW.plusSeconds(60).toEpochMilli());
+        int start = SignedSessionTokens.PREFIX.length();
+        char flipped = token.charAt(start) == 'A' ? 'B' : 'A';
+        String tampered = token.substring(0, start) + flipped + token.substring(start + 1);
+
+        byte[] otherKey = Arrays.copyOf(KEY, KEY.length);
+        otherKey[0] ^= 1;
+        String foreign = new SignedSessionTokens(otherKey, Clock.fixed(NOW, ZoneOffset.UTC))
+                .issue(42, NOW.plusSeconds(60).toEpochMilli());
+
+        assertEquals(Optional.empty(), underTest.verify(tampered), "payload was changed");
+        assertEquals(Optional.empty(), underTest.verify(foreign), "signed with another key");
+        assertEquals(Optional.empty(), underTest.verify("v1.not-base64!.x"), "malformed");
+        assertEquals(Optional.empty(), underTest.verify("v1.abc"), "no signature");
+        assertEquals(Optional.empty(), underTest.verify("8a1f6c3e-0000-0000-0000-000000000000"), "uuid token");
+    }
+
+    @Test
+    void revoke() {
+        String token = underTest.issue(42, NOW.plusSeconds(60).toEpochMilli());
+        String other = underTest.issue(42, NOW.plusSeconds(60).toEpochMilli());
+
+        assertTrue(underTest.revoke(token), "token was revoked");
+
+        assertEquals(Optional.empty(), underTest.verify(token), "revoked token is rejected");
+        assertEquals(Optional.of(42), underTest.verify(other), "other sessions still work");
+        assertFalse(underTest.revoke("v1.abc.def"), "unknown tokens are not revoked");
+    }
+
+    @Test
+    void revoke_denyListForgetsExpiredTokens() {
+        SignedSessionTokens later = new SignedSessionTokens(KEY, Clock.fixed(NOW.plusSeconds(120), ZoneOffset.UTC));
+        String shortLived = underTest.issue(1, NOW.plusSeconds(60).toEpochMilli());
+        String longLived = underTest.issue(2, NOW.plusSeconds(600).toEpochMilli());
+
+        later.revoke(underTest.issue(3, NOW.plusSeconds(600).toEpochMilli()));
+        assertTrue(later.revoke(shortLived), "already expired tokens are accepted");
+        later.revoke(longLived);
+
+        assertEquals(2, later.deniedCount(), "expired tokens are not held");
+    }
+
+    @Test
+    void shortKeysAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new SignedSessionTokens(new byte[16]));
+    }
+}
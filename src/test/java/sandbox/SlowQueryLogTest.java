@@ -0,0 +1,132 @@
+package sandbox;
+
+import org.junit.jupiter.api.Test;
+import sandbox.model.Account;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SlowQueryLogTest {
+
+    @Test
+    void recordIfSlow_onlyOverTheThreshold() throws Exception {
+        // given
+        Path file = tempFile();
+        SlowQueryLog underTest = new SlowQueryLog(Duration.ofMillis(10), file);
+        Connection connection = unexplainable();
+
+        // when
+        underTest.recordIfSlow(connection, "SELECT 1", "fast", 1_000_000L);
+        underTest.recordIfSlow(connection, "SELECT 2", "slow", 20_000_000L);
+        underTest.close();
+
+        // verify
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("duration=20.000ms sql=SELECT 2 params=slow plan=unavailable"), lines.get(0));
+    }
+
+    @Test
+    void recordIfSlow_rateLimited() throws Exception {
+        // given, one entry a second
+        Path file = tempFile();
+        SlowQueryLog underTest = new SlowQueryLog(Duration.ZERO, file, 1_024 * 1_024, 2, 1);
+        Connection connection = unexplainable();
+
+        // when
+        for (int i = 0; i < 100; i++) {
+            underTest.recordIfSlow(connection, "SELECT 1", i, 1_000L);
+        }
+        underTest.close();
+
+        // verify
+        assertEquals(1L, underTest.getRecorded());
+        assertEquals(99L, underTest.getDropped());
+        assertEquals(1, Files.readAllLines(file).size());
+    }
+
+    @Test
+    void recordIfSlow_rotatesTheFile() throws Exception {
+        // given, files of about two lines each
+        Path file = tempFile();
+        SlowQueryLog underTest = new SlowQueryLog(Duration.ZERO, file, 200, 3, 1_000_000_000);
+        Connection connection = unexplainable();
+
+        // when
+        for (int i = 0; i < 20; i++) {
+            underTest.recordIfSlow(connection, "SELECT " + i, i, 1_000L);
+            Thread.sleep(5);
+        }
+        underTest.close();
+
+        // verify, the current file and two rotated ones, the oldest lines are gone
+        Path first = file.resolveSibling(file.getFileName() + ".1");
+        Path second = file.resolveSibling(file.getFileName() + ".2");
+        first.toFile().deleteOnExit();
+        second.toFile().deleteOnExit();
+        assertTrue(Files.exists(first));
+        assertTrue(Files.exists(second));
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".3")));
+        assertTrue(Files.readString(file).contains("SELECT 19"), "newest line is in the current file");
+    }
+
+    @Test
+    void sqliteDao_logsThePlanWithoutThePin() throws Exception {
+        // given
+        File dbFile = File.createTempFile("atm-slow-query", ".db");
+        dbFile.deleteOnExit();
+        Path file = tempFile();
+
+        // when
+        try (SqliteDao dao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath(), SqliteTuningProfile.DURABLE,
+                new SlowQueryLog(Duration.ZERO, file, 1_024 * 1_024, 2, 1))) {
+            dao.getAccount("someone", "9876");
+        }
+
+        // verify
+        String line = Files.readString(file);
+        assertTrue(line.contains("sql=" + Account.builder().build().getSelectSqlStatement()), line);
+        assertTrue(line.contains("username=someone"), line);
+        assertTrue(line.contains("SEARCH account"), "plan was captured: " + line);
+        assertFalse(line.contains("9876"), "pin was not logged");
+    }
+
+    @Test
+    void sqliteDao_logsTransactionsWithTheirCaller() throws Exception {
+        // given
+        File dbFile = File.createTempFile("atm-slow-transaction", ".db");
+        dbFile.deleteOnExit();
+        Path file = tempFile();
+
+        // when
+        try (SqliteDao dao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath(), SqliteTuningProfile.DURABLE,
+                new SlowQueryLog(Duration.ZERO, file, 1_024 * 1_024, 2, 1))) {
+            dao.inTransaction(connection -> null);
+        }
+
+        // verify
+        String line = Files.readString(file);
+        assertTrue(line.contains("sql=TRANSACTION caller=SlowQueryLogTest.sqliteDao_logsTransactionsWithTheirCaller"), line);
+    }
+
+    private static Path tempFile() throws Exception {
+        File file = File.createTempFile("slow-queries", ".log");
+        file.deleteOnExit();
+        return file.toPath();
+    }
+
+    private static Connection unexplainable() throws SQLException {
+        Connection connection = mock(Connection.class);
+        when(connection.createStatement()).thenThrow(new SQLException("no db"));
+        return connection;
+    }
+}
@@ -0,0 +1,121 @@
+package sandbox;
+
+import org.junit.jupiter.api.Test;
+import sandbox.deadline.Deadline;
+import sandbox.deadline.DeadlineExceededException;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SqliteBusyRetryTest {
+
+    SqliteBusyRetry underTest = new SqliteBusyRetry(Duration.ofMillis(1), Duration.ofMillis(4), Duration.ofMillis(200));
+
+    @Test
+    void execute_retriesUntilTheLockIsFree() throws Exception {
+        // given
+        AtomicInteger attempts = new AtomicInteger();
+
+        // when
+        String result = underTest.execute(null, connection -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new SQLException("[SQLITE_BUSY] The database file is locked", null, 5);
+            }
+            return "written";
+        });
+
+        // verify
+        assertEquals("written", result);
+        assertEquals(3, attempts.get(), "two busy attempts, then success");
+        assertEquals(2, underTest.getBusyErrors());
+        assertEquals(2, underTest.getRetries());
+        assertEquals(1, underTest.getWaits().getCount(), "one call waited");
+        assertEquals(0, underTest.getExhausted());
+    }
+
+    @Test
+    void execute_otherErrorsAreNotRetried() {
+        // given
+        AtomicInteger attempts = new AtomicInteger();
+
+        // when
+        SQLException thrown = assertThrows(SQLException.class, () -> underTest.execute(null, connection -> {
+            attempts.incrementAndGet();
+            throw new SQLException("[SQLITE_CONSTRAINT] UNIQUE constraint failed", null, 19);
+        }));
+
+        // verify
+        assertEquals(19, thrown.getErrorCode());
+        assertEquals(1, attempts.get(), "ran once");
+        assertEquals(0, underTest.getBusyErrors());
+    }
+
+    @Test
+    void execute_givesUpAtTheDeadline() {
+        // when
+        SqliteBusyException thrown = assertThrows(SqliteBusyException.class, () -> underTest.execute(null, connection -> {
+            throw new SQLException("[SQLITE_LOCKED] A table in the database is locked", null, 6);
+        }));
+
+        // verify
+        assertTrue(thrown.getCause() instanceof SQLException, "keeps the last busy error");
+        assertEquals(1, underTest.getExhausted());
+        assertTrue(underTest.getTotalWait().toMillis() >= 200, "waited until the deadline");
+    }
+
+    @Test
+    void execute_stopsAtTheOperationDeadline() {
+        // given
+        AtomicInteger attempts = new AtomicInteger();
+        SqliteBusyRetry patient = new SqliteBusyRetry(Duration.ofMillis(1), Duration.ofMillis(4), Duration.ofSeconds(10));
+
+        // when
+        long start = System.nanoTime();
+        assertThrows(DeadlineExceededException.class, () -> Deadline.after(Duration.ofMillis(50)).run(() -> {
+            try {
+                return patient.execute(null, connection -> {
+                    attempts.incrementAndGet();
+                    throw new SQLException("[SQLITE_BUSY] The database file is locked", null, 5);
+                });
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+
+        // verify
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "gave up with the operation, not after 10s");
+        assertTrue(attempts.get() > 1, "retried while there was time");
+        assertEquals(0, patient.getExhausted(), "the retry deadline was not reached");
+    }
+
+    @Test
+    void execute_nothingStartsPastTheDeadline() throws Exception {
+        // given
+        AtomicInteger attempts = new AtomicInteger();
+        Deadline expired = Deadline.after(Duration.ofMillis(1));
+        Thread.sleep(5);
+
+        // when
+        assertThrows(DeadlineExceededException.class, () -> expired.run(() -> {
+            try {
+                return underTest.execute(null, connection -> attempts.incrementAndGet());
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+
+        // verify
+        assertEquals(0, attempts.get(), "never ran");
+    }
+
+    @Test
+    void isBusy_extendedResultCodes() {
+        assertTrue(SqliteBusyRetry.isBusy(new SQLException("busy snapshot", null, 517)), "SQLITE_BUSY_SNAPSHOT");
+        assertTrue(SqliteBusyRetry.isBusy(new SQLException("[SQLITE_BUSY] locked")), "code only in the message");
+        assertFalse(SqliteBusyRetry.isBusy(new SQLException("[SQLITE_IOERR] disk I/O error", null, 10)));
+    }
+}
@@ -3,15 +3,33 @@ package sandbox;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import sandbox.deadline.Deadline;
+import sandbox.deadline.DeadlineExceededException;
+import sandbox.feed.ChangeEvent;
+import sandbox.feed.ChangeType;
 import sandbox.model.Account;
 import sandbox.model.Balance;
+import sandbox.model.IdempotencyKey;
 import sandbox.model.Session;
+import sandbox.model.Transaction;
+import sandbox.model.TransactionType;
 
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -137,4 +155,412 @@ public class SqliteDaoTest {
         assertFalse(balanceOpt.isPresent(), "balancee" +
                 " was not found");
     }
+
+    @Test
+    void changeBalance_addsToTheRowAsItIsNow() {
+        // given
+        String changedUsername = UUID.randomUUID().toString();
+        underTest.createAccount(changedUsername, pin);
+        Integer changedAccountId = underTest.getAccount(changedUsername, pin).get().getId();
+
+        // when, another writer replaces the balance between the two changes
+        Transaction deposit = underTest.changeBalance(changedAccountId, TransactionType.DEPOSIT, 10L, null);
+        underTest.persistBalance(Balance.builder()
+                .accountId(changedAccountId)
+                .balance(500L)
+                .build());
+        Transaction withdrawal = underTest.changeBalance(changedAccountId, TransactionType.WITHDRAWAL, 20L, null);
+
+        // verify
+        assertEquals(10L, deposit.getBalance(), "a missing row starts from zero");
+        assertEquals(480L, withdrawal.getBalance(), "taken off the other writer's balance");
+        assertEquals(480L, underTest.getBalance(changedAccountId).get().getBalance());
+
+        List<Transaction> history = underTest.getRecentTransactions(changedAccountId);
+        assertEquals(2, history.size(), "each change recorded with its balance");
+        assertEquals(20L, history.get(0).getAmount());
+        assertEquals(480L, history.get(0).getBalance());
+    }
+
+    @Test
+    void changeBalance_refusesAKeyThatWasAlreadyCommitted() {
+        // given
+        String keyedUsername = UUID.randomUUID().toString();
+        underTest.createAccount(keyedUsername, pin);
+        Integer keyedAccountId = underTest.getAccount(keyedUsername, pin).get().getId();
+        IdempotencyKey key = IdempotencyKey.builder()
+                .key(IdempotencyCache.key(keyedAccountId, "deposit", UUID.randomUUID().toString()))
+                .result(true)
+                .created(System.currentTimeMillis())
+                .build();
+
+        // when
+        underTest.changeBalance(keyedAccountId, TransactionType.DEPOSIT, 10L, key);
+        assertThrows(RuntimeException.class,
+                () -> underTest.changeBalance(keyedAccountId, TransactionType.DEPOSIT, 10L, key));
+
+        // verify
+        assertEquals(10L, underTest.getBalance(keyedAccountId).get().getBalance(), "applied once");
+        assertEquals(1, underTest.getRecentTransactions(keyedAccountId).size());
+        assertTrue(underTest.getIdempotencyKey(key.getKey()).get().getResult(), "key committed with the change");
+    }
+
+    @Test
+    void transferBalance_sunnyDay() {
+        // given
+        String targetUsername = UUID.randomUUID().toString();
+        underTest.createAccount(targetUsername, pin);
+        Integer targetAccountId = underTest.getAccount(targetUsername, pin).get().getId();
+        String sourceUsername = UUID.randomUUID().toString();
+        underTest.createAccount(sourceUsername, pin);
+        Integer sourceAccountId = underTest.getAccount(sourceUsername, pin).get().getId();
+        underTest.persistBalance(Balance.builder()
+                .accountId(sourceAccountId)
+                .balance(50L)
+                .build());
+
+        // when
+        List<Transaction> transactions = underTest.transferBalance(sourceAccountId, targetAccountId, 20L);
+
+        // verify
+        assertEquals(2, transactions.size(), "transfer succeeded");
+        assertEquals(30L, underTest.getBalance(sourceAccountId).get().getBalance(), "source balance matches");
+        assertEquals(20L, underTest.getBalance(targetAccountId).get().getBalance(), "target balance matches");
+
+        List<Transaction> sourceHistory = underTest.getRecentTransactions(sourceAccountId);
+        assertEquals(1, sourceHistory.size(), "one row for the source");
+        assertEquals(TransactionType.TRANSFER_OUT, sourceHistory.get(0).getType());
+        assertEquals(30L, sourceHistory.get(0).getBalance());
+    }
+
+    @Test
+    void transferBalance_insufficientFunds() {
+        // given
+        String targetUsername = UUID.randomUUID().toString();
+        underTest.createAccount(targetUsername, pin);
+        Integer targetAccountId = underTest.getAccount(targetUsername, pin).get().getId();
+
+        // when
+        List<Transaction> transactions = underTest.transferBalance(targetAccountId, accountId, 20L);
+
+        // verify
+        assertTrue(transactions.isEmpty(), "transfer was rejected");
+        assertFalse(underTest.getBalance(targetAccountId).isPresent(), "no balance was written");
+    }
+
+    @Test
+    void transferBalance_unknownTarget() {
+        // when
+        List<Transaction> transactions = underTest.transferBalance(accountId, -1, 20L);
+
+        // verify
+        assertTrue(transactions.isEmpty(), "transfer was rejected");
+        assertEquals(100L, underTest.getBalance(accountId).get().getBalance(), "balance unchanged");
+    }
+
+    @Test
+    void getRecentTransactions_newestFirst() {
+        // given
+        String username = UUID.randomUUID().toString();
+        underTest.createAccount(username, pin);
+        Integer historyAccountId = underTest.getAccount(username, pin).get().getId();
+        for (long i = 1; i <= 3; i++) {
+            underTest.persistTransaction(Transaction.builder()
+                    .accountId(historyAccountId)
+                    .type(TransactionType.DEPOSIT)
+                    .amount(i)
+                    .balance(i)
+                    .created(Timestamp.from(Instant.now()))
+                    .build());
+        }
+
+        // when
+        List<Transaction> transactions = underTest.getRecentTransactions(historyAccountId);
+
+        // verify
+        assertEquals(3, transactions.size(), "all rows found");
+        assertEquals(3L, transactions.get(0).getAmount(), "newest first");
+        assertEquals(1L, transactions.get(2).getAmount(), "oldest last");
+    }
+
+    @Test
+    void persistBalance_publishesToTheChangeFeed() throws Exception {
+        // given
+        CountDownLatch received = new CountDownLatch(1);
+        List<ChangeEvent> events = new CopyOnWriteArrayList<>();
+        underTest.getChangeFeed().subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ChangeEvent item) {
+                if (item.getAccountId() == accountId && item.getType() == ChangeType.BALANCE) {
+                    events.add(item);
+                    received.countDown();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        // when
+        underTest.persistBalance(Balance.builder()
+                .accountId(accountId)
+                .balance(100L)
+                .build());
+
+        // verify
+        assertTrue(received.await(5, TimeUnit.SECONDS), "event was published");
+        assertEquals(100L, events.get(0).getBalance(), "balance matches");
+    }
+
+    @Test
+    void persistSession_replacesAndExpires() {
+        // given
+        String otherUsername = UUID.randomUUID().toString();
+        underTest.createAccount(otherUsername, pin);
+        Integer otherAccountId = underTest.getAccount(otherUsername, pin).get().getId();
+        UUID firstToken = UUID.randomUUID();
+        UUID secondToken = UUID.randomUUID();
+
+        // when
+        underTest.persistSession(otherAccountId, firstToken, expiryTime);
+        underTest.persistSession(otherAccountId, secondToken, expiryTime);
+        underTest.expireSession(otherAccountId, secondToken);
+
+        // verify
+        assertFalse(underTest.getSession(firstToken.toString()).isPresent(), "first session was replaced");
+        Session session = underTest.getSession(otherAccountId).get();
+        assertEquals(secondToken, session.getToken(), "token matches");
+        assertFalse(session.getExpires().toInstant().isAfter(Instant.now()), "session has expired");
+    }
+
+    @Test
+    void extendSessions_onlyUnchangedSessions() {
+        // given
+        String activeUsername = UUID.randomUUID().toString();
+        String loggedOutUsername = UUID.randomUUID().toString();
+        String lapsedUsername = UUID.randomUUID().toString();
+        underTest.createAccount(activeUsername, pin);
+        underTest.createAccount(loggedOutUsername, pin);
+        underTest.createAccount(lapsedUsername, pin);
+        Integer activeAccountId = underTest.getAccount(activeUsername, pin).get().getId();
+        Integer loggedOutAccountId = underTest.getAccount(loggedOutUsername, pin).get().getId();
+        Integer lapsedAccountId = underTest.getAccount(lapsedUsername, pin).get().getId();
+        UUID activeToken = UUID.randomUUID();
+        UUID loggedOutToken = UUID.randomUUID();
+        UUID lapsedToken = UUID.randomUUID();
+        // touched just before its stored expiry, which then passed before the flush
+        Timestamp lapsedExpiry = Timestamp.from(Instant.now().minus(1, ChronoUnit.SECONDS));
+        lapsedExpiry.setNanos(0);
+        underTest.persistSession(activeAccountId, activeToken, expiryTime);
+        underTest.persistSession(loggedOutAccountId, loggedOutToken, expiryTime);
+        underTest.persistSession(lapsedAccountId, lapsedToken, lapsedExpiry);
+        underTest.expireSession(loggedOutAccountId, loggedOutToken);
+        Timestamp extendedTo = Timestamp.from(Instant.now().plus(10, ChronoUnit.MINUTES));
+        extendedTo.setNanos(0);
+
+        // when
+        List<Session> extended = underTest.extendSessions(List.of(
+                Session.builder().accountId(activeAccountId).token(activeToken).expires(extendedTo).build(),
+                Session.builder().accountId(loggedOutAccountId).token(loggedOutToken).expires(extendedTo).build(),
+                Session.builder().accountId(lapsedAccountId).token(lapsedToken).expires(extendedTo).build()),
+                List.of(expiryTime, expiryTime, lapsedExpiry));
+
+        // verify
+        assertEquals(2, extended.size(), "the logged out session was not extended");
+        assertEquals(extendedTo, underTest.getSession(activeAccountId).get().getExpires());
+        assertEquals(extendedTo, underTest.getSession(lapsedAccountId).get().getExpires(), "extended from the expiry it was made from");
+        assertTrue(underTest.getSession(loggedOutAccountId).get().getExpires().before(extendedTo), "logged out session is left alone");
+    }
+
+    @Test
+    void openConnection_appliesTheProfile() throws Exception {
+        // when
+        try (Connection connection = underTest.openConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet journalMode = stmt.executeQuery("PRAGMA journal_mode")) {
+
+            // verify
+            assertTrue(journalMode.next());
+            assertEquals("wal", journalMode.getString(1), "durable uses the write ahead log");
+        }
+        try (Connection connection = underTest.openConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet synchronous = stmt.executeQuery("PRAGMA synchronous")) {
+            assertTrue(synchronous.next());
+            assertEquals(2, synchronous.getInt(1), "synchronous is FULL");
+        }
+    }
+
+    @Test
+    void archiveDormantAccounts_promotedBackOnLogin() throws Exception {
+        // given
+        try (SqliteDao tiered = new SqliteDao("jdbc:sqlite:atm-tier-test.db")) {
+            tiered.attachArchive("atm-tier-test-archive.db");
+            String dormantUsername = UUID.randomUUID().toString();
+            tiered.createAccount(dormantUsername, pin);
+            Integer dormantAccountId = tiered.getAccount(dormantUsername, pin).get().getId();
+            tiered.persistBalance(Balance.builder()
+                    .accountId(dormantAccountId)
+                    .balance(500L)
+                    .build());
+            tiered.recordActivity(dormantAccountId, Timestamp.from(Instant.now().minus(100, ChronoUnit.DAYS)));
+
+            // when
+            List<Integer> archived = tiered.archiveDormantAccounts(Timestamp.from(Instant.now().minus(30, ChronoUnit.DAYS)),
+                    dormantAccountId - 1, 100);
+
+            // verify
+            assertTrue(archived.contains(dormantAccountId), "dormant account was archived");
+            assertFalse(tiered.getBalance(dormantAccountId).isPresent(), "balance left the hot tier");
+            assertFalse(tiered.getAccount(dormantUsername, "0000").isPresent(), "a wrong pin does not promote");
+
+            Optional<Account> promoted = tiered.getAccount(dormantUsername, pin);
+            assertTrue(promoted.isPresent(), "login finds the archived account");
+            assertEquals(dormantAccountId, promoted.get().getId(), "account keeps its id");
+            assertEquals(500L, tiered.getBalance(dormantAccountId).get().getBalance(), "balance is hot again");
+        }
+    }
+
+    @Test
+    void archiveDormantAccounts_keepsRecentlyActiveAccountsHot() throws Exception {
+        // given, one account last active long ago and one that logged in since
+        try (SqliteDao tiered = new SqliteDao("jdbc:sqlite:atm-tier-test.db")) {
+            tiered.attachArchive("atm-tier-test-archive.db");
+            String dormantUsername = UUID.randomUUID().toString();
+            String activeUsername = UUID.randomUUID().toString();
+            tiered.createAccount(dormantUsername, pin);
+            tiered.createAccount(activeUsername, pin);
+            Integer dormantAccountId = tiered.getAccount(dormantUsername, pin).get().getId();
+            Integer activeAccountId = tiered.getAccount(activeUsername, pin).get().getId();
+            tiered.recordActivity(dormantAccountId, Timestamp.from(Instant.now().minus(100, ChronoUnit.DAYS)));
+            tiered.recordActivity(activeAccountId, Timestamp.from(Instant.now().minus(100, ChronoUnit.DAYS)));
+            tiered.recordActivity(activeAccountId, Timestamp.from(Instant.now()));
+
+            // when
+            List<Integer> archived = tiered.archiveDormantAccounts(Timestamp.from(Instant.now().minus(30, ChronoUnit.DAYS)),
+                    dormantAccountId - 1, 100);
+
+            // verify
+            assertTrue(archived.contains(dormantAccountId));
+            assertFalse(archived.contains(activeAccountId), "a later login keeps the account hot");
+        }
+    }
+
+    @Test
+    void scanBalances_includesArchivedAccounts() throws Exception {
+        // given
+        try (SqliteDao tiered = new SqliteDao("jdbc:sqlite:atm-tier-test.db")) {
+            tiered.attachArchive("atm-tier-test-archive.db");
+            String dormantUsername = UUID.randomUUID().toString();
+            tiered.createAccount(dormantUsername, pin);
+            Integer dormantAccountId = tiered.getAccount(dormantUsername, pin).get().getId();
+            tiered.persistBalance(Balance.builder()
+                    .accountId(dormantAccountId)
+                    .balance(700L)
+                    .build());
+            tiered.recordActivity(dormantAccountId, Timestamp.from(Instant.now().minus(100, ChronoUnit.DAYS)));
+            tiered.archiveDormantAccounts(Timestamp.from(Instant.now().minus(30, ChronoUnit.DAYS)), dormantAccountId - 1, 100);
+
+            // when
+            Map<Integer, Long> scanned = new HashMap<>();
+            tiered.scanBalances(dormantAccountId, dormantAccountId, (accountId, username, balance) -> scanned.put(accountId, balance));
+
+            // verify
+            assertFalse(tiered.getBalance(dormantAccountId).isPresent(), "still archived");
+            assertEquals(Map.of(dormantAccountId, 700L), scanned);
+            assertTrue(tiered.getAccountIdBounds().get()[1] >= dormantAccountId, "bounds cover the archive");
+        }
+    }
+
+    @Test
+    void persistBalance_waitsForAnotherWriter() throws Exception {
+        // given
+        CountDownLatch locked = new CountDownLatch(1);
+        Thread otherWriter = new Thread(() -> {
+            try (Connection connection = underTest.openConnection();
+                 Statement stmt = connection.createStatement()) {
+                stmt.execute("BEGIN IMMEDIATE");
+                locked.countDown();
+                Thread.sleep(300);
+                stmt.execute("COMMIT");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        otherWriter.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS), "other writer holds the lock");
+
+        // when
+        underTest.persistBalance(Balance.builder()
+                .accountId(accountId)
+                .balance(100L)
+                .build());
+        otherWriter.join();
+
+        // verify
+        assertEquals(100L, underTest.getBalance(accountId).get().getBalance(), "write was not lost");
+        assertEquals(0, underTest.getBusyRetry().getExhausted(), "nothing was given up");
+    }
+
+    @Test
+    void persistBalance_givesUpAtTheDeadlineWhileAnotherWriterHoldsTheLock() throws Exception {
+        // given
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread otherWriter = new Thread(() -> {
+            try (Connection connection = underTest.openConnection();
+                 Statement stmt = connection.createStatement()) {
+                stmt.execute("BEGIN IMMEDIATE");
+                locked.countDown();
+                done.await(5, TimeUnit.SECONDS);
+                stmt.execute("COMMIT");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Optional<Balance> before = underTest.getBalance(accountId);
+        otherWriter.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS), "other writer holds the lock");
+
+        // when
+        long start = System.nanoTime();
+        assertThrows(DeadlineExceededException.class, () -> Deadline.after(Duration.ofMillis(200)).run(() -> {
+            underTest.persistBalance(Balance.builder()
+                    .accountId(accountId)
+                    .balance(777L)
+                    .build());
+            return null;
+        }));
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        done.countDown();
+        otherWriter.join();
+
+        // verify
+        assertTrue(waitedMillis < 1_000, "stopped at the deadline, not the 5s busy timeout");
+        assertEquals(before.map(Balance::getBalance), underTest.getBalance(accountId).map(Balance::getBalance), "nothing was written");
+        underTest.persistBalance(before.get());
+        assertTrue(underTest.getBalance(accountId).isPresent(), "the connection works after the deadline");
+    }
+
+    @Test
+    void getBalance_pastTheDeadlineThrowsInsteadOfEmpty() throws Exception {
+        // given
+        Deadline expired = Deadline.after(Duration.ofMillis(1));
+        Thread.sleep(5);
+
+        // verify
+        assertThrows(DeadlineExceededException.class, () -> expired.run(() -> underTest.getBalance(accountId)),
+                "a read that never ran is not a missing row");
+        assertTrue(Deadline.current().isEmpty(), "the deadline ends with the call");
+    }
 }
@@ -0,0 +1,212 @@
+package sandbox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import sandbox.model.WithdrawalWindow;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class WithdrawalLimiterTest {
+    @Mock
+    SqliteDao sqliteDao;
+
+    WithdrawalLimiter underTest;
+    Instant now = Instant.parse("2026-01-01T12:00:00Z");
+
+    @BeforeEach
+    void init_mocks() {
+        MockitoAnnotations.openMocks(this);
+        underTest = new WithdrawalLimiter(sqliteDao, AtmSimulatorConfig.builder()
+                .perTransactionWithdrawalLimit(500L)
+                .dailyWithdrawalLimit(1_000L)
+                .build(),
+                Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    @AfterEach
+    void close() {
+        underTest.close();
+    }
+
+    @Test
+    void tryReserve_perTransactionLimit() {
+        assertTrue(underTest.tryReserve(1, 500L, now).isPresent(), "at the limit is allowed");
+        assertFalse(underTest.tryReserve(1, 501L, now).isPresent(), "over the limit is rejected");
+        assertEquals(500L, underTest.withdrawnToday(1, now));
+    }
+
+    @Test
+    void tryReserve_dailyLimit() {
+        assertTrue(underTest.tryReserve(1, 500L, now).isPresent());
+        assertTrue(underTest.tryReserve(1, 400L, now.plus(1, ChronoUnit.HOURS)).isPresent());
+        assertFalse(underTest.tryReserve(1, 200L, now.plus(2, ChronoUnit.HOURS)).isPresent(), "over the daily limit");
+        assertTrue(underTest.tryReserve(2, 500L, now).isPresent(), "other accounts are not affected");
+    }
+
+    @Test
+    void tryReserve_windowSlides() {
+        assertTrue(underTest.tryReserve(1, 500L, now).isPresent());
+        assertTrue(underTest.tryReserve(1, 500L, now.plus(1, ChronoUnit.HOURS)).isPresent());
+        assertFalse(underTest.tryReserve(1, 500L, now.plus(23, ChronoUnit.HOURS)).isPresent());
+
+        // the first withdrawal is more than a day old
+        assertTrue(underTest.tryReserve(1, 500L, now.plus(24, ChronoUnit.HOURS)).isPresent());
+    }
+
+    @Test
+    void tryReserve_nonPositiveAmount() {
+        IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, () -> {
+            underTest.tryReserve(1, 0L, now);
+        });
+
+        assertEquals("withdrawal amount must be positive", thrown.getMessage());
+    }
+
+    @Test
+    void release_returnsTheReservation() {
+        underTest.release(underTest.tryReserve(1, 500L, now).get());
+
+        assertEquals(0L, underTest.withdrawnToday(1, now));
+    }
+
+    @Test
+    void release_comesOffTheHourOfTheReservation() {
+        WithdrawalLimiter.Reservation reservation = underTest.tryReserve(1, 500L, now).get();
+        assertTrue(underTest.tryReserve(1, 300L, now.plus(1, ChronoUnit.HOURS)).isPresent());
+
+        // released after the hour has turned
+        underTest.release(reservation);
+
+        assertEquals(300L, underTest.withdrawnToday(1, now.plus(1, ChronoUnit.HOURS)));
+    }
+
+    @Test
+    void release_ignoredOnceTheHourLeftTheWindow() {
+        WithdrawalLimiter.Reservation reservation = underTest.tryReserve(1, 500L, now).get();
+        assertTrue(underTest.tryReserve(1, 300L, now.plus(24, ChronoUnit.HOURS)).isPresent());
+
+        // the slot now holds a day later, which must keep its amount
+        underTest.release(reservation);
+
+        assertEquals(300L, underTest.withdrawnToday(1, now.plus(24, ChronoUnit.HOURS)));
+    }
+
+    @Test
+    void tryReserve_concurrentWithdrawalsNeverExceedTheLimit() throws Exception {
+        AtomicLong reserved = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 100; j++) {
+                    if (underTest.tryReserve(1, 7L, now).isPresent()) {
+                        reserved.addAndGet(7L);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(7L * (1_000L / 7L), reserved.get(), "filled up to the limit and no further");
+        assertEquals(reserved.get(), underTest.withdrawnToday(1, now));
+    }
+
+    @Test
+    void flush_writesChangedAccounts() {
+        underTest.tryReserve(1, 100L, now);
+        underTest.tryReserve(1, 50L, now);
+
+        underTest.flush();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<WithdrawalWindow>> rowsCap = ArgumentCaptor.forClass(List.class);
+        verify(sqliteDao).persistWithdrawalWindows(rowsCap.capture(), anyLong());
+
+        List<WithdrawalWindow> rows = rowsCap.getValue();
+        assertEquals(1, rows.size());
+        assertEquals(1, rows.get(0).getAccountId());
+        assertEquals(150L, rows.get(0).getAmount());
+
+        // nothing changed since, so nothing to write
+        underTest.flush();
+        verify(sqliteDao, times(1)).persistWithdrawalWindows(any(), anyLong());
+    }
+
+    @Test
+    void flush_writesBucketsEmptiedByARelease() {
+        WithdrawalLimiter.Reservation reservation = underTest.tryReserve(1, 100L, now).get();
+        underTest.flush();
+        underTest.release(reservation);
+
+        underTest.flush();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<WithdrawalWindow>> rowsCap = ArgumentCaptor.forClass(List.class);
+        verify(sqliteDao, times(2)).persistWithdrawalWindows(rowsCap.capture(), anyLong());
+
+        List<WithdrawalWindow> rows = rowsCap.getValue();
+        assertEquals(1, rows.size());
+        assertEquals(0L, rows.get(0).getAmount(), "the zeroed bucket overwrites the stored amount");
+    }
+
+    @Test
+    void flush_dropsWindowsThatLeftTheDayAndPrunesTheTable() {
+        underTest.tryReserve(1, 100L, now);
+        underTest.flush(now);
+        assertEquals(1, underTest.trackedAccounts());
+
+        Instant nextDay = now.plus(24, ChronoUnit.HOURS);
+        underTest.flush(nextDay);
+
+        assertEquals(0, underTest.trackedAccounts(), "nothing left in the last day");
+        long hour = nextDay.getEpochSecond() / 3600;
+        verify(sqliteDao).persistWithdrawalWindows(eq(List.of()), eq(hour - 24));
+        assertTrue(underTest.tryReserve(1, 500L, nextDay).isPresent(), "a fresh window for the account");
+    }
+
+    @Test
+    void load_restoresCountersFromTheTable() {
+        long hour = now.getEpochSecond() / 3600;
+        when(sqliteDao.getWithdrawalWindows(eq(hour - 24)))
+                .thenReturn(List.of(WithdrawalWindow.builder()
+                        .accountId(3)
+                        .hour(hour)
+                        .amount(900L)
+                        .build()));
+
+        WithdrawalLimiter restarted = new WithdrawalLimiter(sqliteDao, AtmSimulatorConfig.builder()
+                .dailyWithdrawalLimit(1_000L)
+                .build(),
+                Clock.fixed(now, ZoneOffset.UTC));
+
+        assertFalse(restarted.tryReserve(3, 200L, now).isPresent(), "restored total counts against the limit");
+        assertTrue(restarted.tryReserve(3, 100L, now).isPresent());
+        restarted.close();
+    }
+}
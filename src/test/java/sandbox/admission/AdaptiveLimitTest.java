@@ -0,0 +1,71 @@
+package sandbox.admission;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveLimitTest {
+
+    AdaptiveLimit underTest = new AdaptiveLimit(10, 2, 100);
+
+    @Test
+    void tryAcquire_upToTheLimit() {
+        // when
+        for (int i = 0; i < 10; i++) {
+            assertTrue(underTest.tryAcquire(), "under the limit");
+        }
+
+        // verify
+        assertFalse(underTest.tryAcquire(), "at the limit");
+        assertTrue(underTest.isSaturated());
+        assertEquals(1, underTest.getRejected());
+        underTest.release(1_000L);
+        assertTrue(underTest.tryAcquire(), "a release makes room");
+    }
+
+    @Test
+    void release_growsWhileLatencyHolds() {
+        // when
+        runWindows(20, 10, 1_000_000L);
+
+        // verify
+        assertTrue(underTest.getLimit() > 10, "limit grew to " + underTest.getLimit());
+    }
+
+    @Test
+    void release_shrinksWhenLatencyRises() {
+        // given
+        runWindows(5, 10, 1_000_000L);
+        int before = underTest.getLimit();
+
+        // when
+        runWindows(10, underTest.getLimit(), 20_000_000L);
+
+        // verify
+        assertTrue(underTest.getLimit() < before, "limit fell from " + before + " to " + underTest.getLimit());
+    }
+
+    @Test
+    void release_idleLimitDoesNotGrow() {
+        // when
+        runWindows(20, 1, 1_000_000L);
+
+        // verify
+        assertEquals(10, underTest.getLimit(), "one in flight never tests a limit of 10");
+    }
+
+    // each window is 50 samples taken with the given number in flight
+    private void runWindows(int windows, int inFlight, long latencyNanos) {
+        for (int w = 0; w < windows; w++) {
+            for (int sample = 0; sample < 50; sample += inFlight) {
+                int acquired = 0;
+                while (acquired < inFlight && underTest.tryAcquire()) {
+                    acquired++;
+                }
+                for (int i = 0; i < acquired; i++) {
+                    underTest.release(latencyNanos);
+                }
+            }
+        }
+    }
+}
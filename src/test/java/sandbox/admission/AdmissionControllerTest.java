@@ -0,0 +1,91 @@
+package sandbox.admission;
+
+import org.junit.jupiter.api.Test;
+import sandbox.AtmSimulator;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class AdmissionControllerTest {
+
+    AtmSimulator atm = mock(AtmSimulator.class);
+    AdaptiveLimit reads = new AdaptiveLimit(2, 1, 2);
+    AdaptiveLimit writes = new AdaptiveLimit(1, 1, 1);
+    AdmissionController underTest = new AdmissionController(atm, reads, writes);
+
+    @Test
+    void deposit_shedOverTheWriteLimit() throws Exception {
+        // given
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        when(atm.deposit("token-1", 10L)).thenAnswer(invocation -> {
+            running.countDown();
+            finish.await(5, TimeUnit.SECONDS);
+            return true;
+        });
+        when(atm.viewBalance("token-2")).thenReturn(250L);
+        Thread first = new Thread(() -> underTest.deposit("token-1", 10L));
+        first.start();
+        assertTrue(running.await(5, TimeUnit.SECONDS), "first deposit is in flight");
+
+        // when
+        assertThrows(OverloadedException.class, () -> underTest.withdraw("token-2", 10L), "second write is shed");
+        long balance = underTest.viewBalance("token-2");
+        finish.countDown();
+        first.join();
+
+        // verify
+        assertEquals(250L, balance, "reads still run");
+        verify(atm, never()).withdraw("token-2", 10L);
+        assertEquals(1, writes.getRejected());
+        assertEquals(0, writes.getInFlight(), "released after the deposit");
+    }
+
+    @Test
+    void withdraw_shedWhileReadsAreSaturated() {
+        // given
+        assertTrue(reads.tryAcquire());
+        assertTrue(reads.tryAcquire());
+
+        // verify
+        assertThrows(OverloadedException.class, () -> underTest.withdraw("token-1", 10L), "reads come first");
+        assertThrows(OverloadedException.class, () -> underTest.viewBalance("token-1"), "reads have their own limit");
+        verifyNoInteractions(atm);
+    }
+
+    @Test
+    void rejectedCalls_leaveTheLatencyOut() {
+        // given
+        AdaptiveLimit sampledWrites = spy(new AdaptiveLimit(1, 1, 1));
+        AdmissionController controller = new AdmissionController(atm, reads, sampledWrites);
+        when(atm.deposit("forged", 10L)).thenThrow(new IllegalStateException("invalid token"));
+        when(atm.login("tester", "0000")).thenReturn(Optional.empty());
+        when(atm.deposit("token-1", 10L)).thenReturn(true);
+
+        // when
+        assertThrows(IllegalStateException.class, () -> controller.deposit("forged", 10L));
+        controller.login("tester", "0000");
+        controller.deposit("token-1", 10L);
+
+        // verify
+        verify(sampledWrites, times(2)).releaseWithoutSample();
+        verify(sampledWrites, times(1)).release(anyLong());
+        assertEquals(0, sampledWrites.getInFlight());
+    }
+
+    @Test
+    void logout_neverShed() {
+        // given
+        assertTrue(writes.tryAcquire());
+
+        // when
+        underTest.logout("token-1");
+
+        // verify
+        verify(atm).logout("token-1");
+    }
+}
@@ -0,0 +1,125 @@
+package sandbox.batch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sandbox.SqliteDao;
+import sandbox.model.Balance;
+import sandbox.model.BatchCheckpoint;
+import sandbox.model.Transaction;
+import sandbox.model.TransactionType;
+
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InterestAccrualJobTest {
+
+    File dbFile;
+    SqliteDao sqliteDao;
+    List<Integer> accountIds = new ArrayList<>();
+
+    @BeforeEach
+    void setup() throws Exception {
+        dbFile = File.createTempFile("atm-interest-test", ".db");
+        sqliteDao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        for (int i = 0; i < 25; i++) {
+            String username = "interest-" + i;
+            sqliteDao.createAccount(username, "1234");
+            Integer accountId = sqliteDao.getAccount(username, "1234").get().getId();
+            sqliteDao.persistBalance(Balance.builder()
+                    .accountId(accountId)
+                    .balance(10_000L * i)
+                    .build());
+            accountIds.add(accountId);
+        }
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        sqliteDao.close();
+        dbFile.delete();
+    }
+
+    @Test
+    void interestOf_roundsHalfUp() {
+        InterestAccrualJob underTest = new InterestAccrualJob(sqliteDao, "rounding", 25);
+
+        assertEquals(25L, underTest.interestOf(10_000L));
+        assertEquals(1L, underTest.interestOf(200L), "0.5 rounds up");
+        assertEquals(0L, underTest.interestOf(199L));
+        assertEquals(0L, underTest.interestOf(-10_000L), "no interest on an overdrawn balance");
+    }
+
+    @Test
+    void run_creditsEveryBalanceInChunks() throws Exception {
+        // given
+        List<BatchProgress> reports = new CopyOnWriteArrayList<>();
+        InterestAccrualJob underTest = new InterestAccrualJob(sqliteDao, "2026-01", 100, 4, 3, reports::add);
+
+        // when
+        BatchProgress result = underTest.run();
+
+        // verify, 1% of 0 + 100 + ... + 2400 dollars
+        assertEquals(24L, result.getAccountsCredited(), "the zero balance earns nothing");
+        assertEquals(30_000L, result.getAmountCredited());
+        assertEquals(result.getChunksTotal(), result.getChunksDone());
+        assertEquals(result.getChunksTotal(), reports.size(), "progress after every chunk");
+        assertEquals(100.0, result.percentDone(), 0.001);
+
+        Integer lastAccount = accountIds.get(24);
+        assertEquals(240_000L + 2_400L, sqliteDao.getBalance(lastAccount).get().getBalance());
+        Transaction credit = sqliteDao.getRecentTransactions(lastAccount).get(0);
+        assertEquals(TransactionType.INTEREST, credit.getType());
+        assertEquals(2_400L, credit.getAmount());
+    }
+
+    @Test
+    void run_restartSkipsCompletedChunks() throws Exception {
+        // given
+        new InterestAccrualJob(sqliteDao, "2026-02", 100, 4, 2, progress -> { }).run();
+
+        // when
+        BatchProgress rerun = new InterestAccrualJob(sqliteDao, "2026-02", 100, 4, 2, progress -> { }).run();
+
+        // verify
+        assertEquals(0, rerun.getChunksDone());
+        assertEquals(rerun.getChunksTotal(), rerun.getChunksSkipped());
+        assertEquals(0L, rerun.getAccountsCredited());
+        assertEquals(240_000L + 2_400L, sqliteDao.getBalance(accountIds.get(24)).get().getBalance(), "credited once");
+    }
+
+    @Test
+    void applyInterestChunk_recomputesChangedBalances() {
+        // given, a credit computed from a balance that has since changed
+        Integer accountId = accountIds.get(10);
+        InterestAccrualJob job = new InterestAccrualJob(sqliteDao, "2026-03", 100);
+        Transaction stale = Transaction.builder()
+                .accountId(accountId)
+                .type(TransactionType.INTEREST)
+                .amount(1_000L)
+                .balance(101_000L)
+                .created(new Timestamp(System.currentTimeMillis()))
+                .build();
+        sqliteDao.persistBalance(Balance.builder()
+                .accountId(accountId)
+                .balance(200_000L)
+                .build());
+
+        // when
+        List<Transaction> written = sqliteDao.applyInterestChunk(BatchCheckpoint.builder()
+                .jobId("2026-03")
+                .chunkStart(0L)
+                .completed(System.currentTimeMillis())
+                .build(), List.of(stale), job::interestOf);
+
+        // verify
+        assertEquals(1, written.size());
+        assertEquals(2_000L, written.get(0).getAmount());
+        assertEquals(202_000L, sqliteDao.getBalance(accountId).get().getBalance());
+    }
+}
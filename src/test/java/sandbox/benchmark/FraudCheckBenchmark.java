@@ -0,0 +1,74 @@
+package sandbox.benchmark;
+
+import sandbox.fraud.FraudStage;
+import sandbox.fraud.VelocityAndAmountCheck;
+import sandbox.metrics.LatencyRecorder;
+import sandbox.model.TransactionType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency of the default fraud check as the FraudStage sees it, with every account's windows full.
+ * Needs no database, the check only reads in-memory features.
+ * args: [threads] [accounts] [checksPerThread]
+ */
+public class FraudCheckBenchmark {
+
+    private static final long HOUR = 3_600_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int checks = args.length > 2 ? Integer.parseInt(args[2]) : 1_000_000;
+
+        // an hour between past transactions, so only unusual amounts are declined
+        VelocityAndAmountCheck check = new VelocityAndAmountCheck();
+        long now = System.nanoTime();
+        for (int accountId = 0; accountId < accounts; accountId++) {
+            for (int i = 0; i < 32; i++) {
+                check.completed(accountId, i % 4 == 0 ? TransactionType.DEPOSIT : TransactionType.WITHDRAWAL,
+                        2_000L * (1 + i % 5), now - (32 - i) * HOUR);
+            }
+        }
+        FraudStage stage = new FraudStage(check, Duration.ofNanos(50_000));
+
+        // warm up, then measure from a clean histogram
+        run(stage, threads, accounts, checks / 10);
+        stage.getLatency().reset();
+        long declinedInWarmUp = stage.getDeclines();
+        long overrunInWarmUp = stage.getOverruns();
+        long start = System.nanoTime();
+        run(stage, threads, accounts, checks);
+        long elapsed = System.nanoTime() - start;
+
+        LatencyRecorder latency = stage.getLatency();
+        System.out.printf("threads=%d accounts=%d checks=%d throughput=%d/s p50=%dns p99=%dns p999=%dns max=%dns overruns=%d declines=%d%n",
+                threads, accounts, latency.getCount(),
+                latency.getCount() * 1_000_000_000L / elapsed,
+                latency.percentile(50), latency.percentile(99), latency.percentile(99.9), latency.getMax(),
+                stage.getOverruns() - overrunInWarmUp, stage.getDeclines() - declinedInWarmUp);
+    }
+
+    private static void run(FraudStage stage, int threads, int accounts, int checks) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < checks; i++) {
+                    int accountId = random.nextInt(accounts);
+                    // one in a hundred is far above the usual amount
+                    long amount = random.nextInt(100) == 0 ? 200_000L : 2_000L * (1 + random.nextInt(5));
+                    stage.allow(accountId, TransactionType.WITHDRAWAL, amount);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package sandbox.benchmark;
+
+import sandbox.AtmSimulatorImpl;
+import sandbox.SqliteDao;
+import sandbox.http.AtmHttpServer;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Balance reads through the json api over loopback. Each client thread sends requests one at a time on a
+ * kept alive http/1.1 connection, and records every latency so the p99 is exact.
+ * args: [clientThreads] [seconds]
+ */
+public class HttpBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        File dbFile = File.createTempFile("atm-http-bench", ".db");
+        dbFile.deleteOnExit();
+
+        try (SqliteDao dao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath());
+             AtmSimulatorImpl atm = new AtmSimulatorImpl(dao);
+             AtmHttpServer server = new AtmHttpServer(atm, new InetSocketAddress("127.0.0.1", 0))) {
+
+            dao.createAccount("bench", "1234");
+            String token = atm.login("bench", "1234").orElseThrow();
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getPort() + "/balance"))
+                    .header("Authorization", "Bearer " + token)
+                    .build();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long[][] latencies = new long[threads][];
+            int[] counts = new int[threads];
+            int[] errors = new int[threads];
+
+            List<Thread> clients = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int index = t;
+                Thread client = new Thread(() -> {
+                    HttpClient http = HttpClient.newBuilder()
+                            .version(HttpClient.Version.HTTP_1_1)
+                            .build();
+                    long[] recorded = new long[1 << 16];
+                    int count = 0;
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try {
+                            if (http.send(request, HttpResponse.BodyHandlers.ofString()).statusCode() != 200) {
+                                errors[index]++;
+                            }
+                        } catch (Exception e) {
+                            errors[index]++;
+                        }
+                        if (count == recorded.length) {
+                            recorded = Arrays.copyOf(recorded, count * 2);
+                        }
+                        recorded[count++] = System.nanoTime() - start;
+                    }
+                    latencies[index] = recorded;
+                    counts[index] = count;
+                });
+                clients.add(client);
+                client.start();
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+
+            int total = Arrays.stream(counts).sum();
+            long[] all = new long[total];
+            int offset = 0;
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(latencies[t], 0, all, offset, counts[t]);
+                offset += counts[t];
+            }
+            Arrays.sort(all);
+
+            System.out.printf("clientThreads=%d seconds=%d%n", threads, seconds);
+            System.out.printf("requests=%d errors=%d throughput=%.1f req/s%n",
+                    total, Arrays.stream(errors).sum(), total / (double) seconds);
+            System.out.printf("p50=%.3fms p99=%.3fms max=%.3fms%n",
+                    percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6, percentile(all, 1.0) / 1e6);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,52 @@
+package sandbox.benchmark;
+
+import sandbox.AtmSimulatorConfig;
+import sandbox.IdempotencyCache;
+import sandbox.SqliteDao;
+
+import java.io.File;
+
+/**
+ * Cost of the idempotency check on the hot path. Retries are a map lookup, new keys also write a row to the
+ * dedupe table. The operation itself is a no-op, so the numbers are the overhead alone.
+ * args: [keys] [retriesPerKey]
+ */
+public class IdempotencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int retries = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        File dbFile = File.createTempFile("atm-idempotency-bench", ".db");
+        dbFile.deleteOnExit();
+
+        try (SqliteDao dao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath());
+             IdempotencyCache cache = new IdempotencyCache(dao, AtmSimulatorConfig.defaults())) {
+
+            String[] ids = new String[keys];
+            for (int i = 0; i < keys; i++) {
+                ids[i] = IdempotencyCache.key(i % 1_000, "deposit", "request-" + i);
+            }
+
+            long start = System.nanoTime();
+            for (String id : ids) {
+                cache.execute(id, () -> true);
+            }
+            long newKeyNanos = (System.nanoTime() - start) / keys;
+
+            boolean sink = false;
+            start = System.nanoTime();
+            for (int r = 0; r < retries; r++) {
+                for (String id : ids) {
+                    sink ^= cache.execute(id, () -> false);
+                }
+            }
+            long retryNanos = (System.nanoTime() - start) / ((long) keys * retries);
+
+            System.out.printf("keys=%d retriesPerKey=%d%n", keys, retries);
+            System.out.printf("new key (lookup + row insert) = %d ns/op%n", newKeyNanos);
+            System.out.printf("retry (lookup only)          = %d ns/op%n", retryNanos);
+            System.out.printf("(ignore) %b%n", sink);
+        }
+    }
+}
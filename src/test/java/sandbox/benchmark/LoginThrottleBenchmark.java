@@ -0,0 +1,82 @@
+package sandbox.benchmark;
+
+import sandbox.AtmSimulatorConfig;
+import sandbox.AtmSimulatorImpl;
+import sandbox.SqliteDao;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Legitimate login latency while other threads brute force PINs. Runs three phases: no attack, an attack
+ * with the default throttle, and an attack with throttling effectively disabled for comparison.
+ * args: [attackerThreads] [legitimateLogins]
+ */
+public class LoginThrottleBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int attackers = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int logins = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+
+        AtmSimulatorConfig unthrottled = AtmSimulatorConfig.builder()
+                .loginAttemptsPerBucket(Integer.MAX_VALUE)
+                .build();
+
+        run("quiet", AtmSimulatorConfig.defaults(), 0, logins);
+        run("attack, throttled", AtmSimulatorConfig.defaults(), attackers, logins);
+        run("attack, unthrottled", unthrottled, attackers, logins);
+    }
+
+    private static void run(String phase, AtmSimulatorConfig config, int attackers, int logins) throws Exception {
+        File dbFile = File.createTempFile("atm-login-bench", ".db");
+        dbFile.deleteOnExit();
+
+        try (SqliteDao dao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath());
+             AtmSimulatorImpl atm = new AtmSimulatorImpl(dao, config)) {
+            dao.createAccount("customer", "1234");
+            for (int i = 0; i < 10; i++) {
+                dao.createAccount("victim-" + i, "1234");
+            }
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            LongAdder attempts = new LongAdder();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < attackers; t++) {
+                Thread attacker = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (running.get()) {
+                        atm.login("victim-" + random.nextInt(10), String.format("%04d", random.nextInt(1234)));
+                        attempts.increment();
+                    }
+                });
+                threads.add(attacker);
+                attacker.start();
+            }
+
+            long[] latencies = new long[logins];
+            for (int i = 0; i < logins; i++) {
+                long start = System.nanoTime();
+                atm.login("customer", "1234").orElseThrow();
+                latencies[i] = System.nanoTime() - start;
+            }
+
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            Arrays.sort(latencies);
+            System.out.printf("%-20s attackerAttempts=%d p50=%dus p99=%dus max=%dus%n",
+                    phase,
+                    attempts.sum(),
+                    latencies[logins / 2] / 1_000,
+                    latencies[(int) (logins * 0.99)] / 1_000,
+                    latencies[logins - 1] / 1_000);
+        }
+    }
+}
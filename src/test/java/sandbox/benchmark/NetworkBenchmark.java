@@ -0,0 +1,86 @@
+package sandbox.benchmark;
+
+import sandbox.AtmSimulatorImpl;
+import sandbox.SqliteDao;
+import sandbox.net.AtmClient;
+import sandbox.net.AtmRequest;
+import sandbox.net.AtmServer;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Balance reads through the nio server over loopback. Many persistent connections are spread over a few
+ * client threads, each connection pipelining a batch of requests per round trip.
+ * args: [connections] [clientThreads] [pipelineDepth] [seconds]
+ */
+public class NetworkBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int clientThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+        File dbFile = File.createTempFile("atm-network-bench", ".db");
+        dbFile.deleteOnExit();
+
+        try (SqliteDao dao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath());
+             AtmSimulatorImpl atm = new AtmSimulatorImpl(dao);
+             AtmServer server = new AtmServer(atm, new InetSocketAddress("127.0.0.1", 0))) {
+
+            dao.createAccount("bench", "1234");
+            String token = atm.login("bench", "1234").orElseThrow();
+            InetSocketAddress address = new InetSocketAddress("127.0.0.1", server.getPort());
+
+            List<AtmRequest> batch = Collections.nCopies(depth, AtmRequest.viewBalance(token));
+            LongAdder completed = new LongAdder();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < clientThreads; t++) {
+                int share = connections / clientThreads;
+                Thread thread = new Thread(() -> {
+                    List<AtmClient> clients = new ArrayList<>();
+                    try {
+                        for (int i = 0; i < share; i++) {
+                            clients.add(new AtmClient(address));
+                        }
+                        while (System.nanoTime() < deadline) {
+                            for (AtmClient client : clients) {
+                                client.send(batch);
+                            }
+                            for (AtmClient client : clients) {
+                                client.receive(depth);
+                                completed.add(depth);
+                            }
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        for (AtmClient client : clients) {
+                            try {
+                                client.close();
+                            } catch (Exception ignored) {
+                            }
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            System.out.printf("connections=%d clientThreads=%d pipelineDepth=%d seconds=%d%n",
+                    connections, clientThreads, depth, seconds);
+            System.out.printf("requests=%d throughput=%.1f req/s%n", completed.sum(), completed.sum() / (double) seconds);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package sandbox.benchmark;
+
+import sandbox.offheap.OffHeapBalanceStore;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Random balance reads and updates against the off-heap store, reporting ns per operation and the gc
+ * collections that ran meanwhile, which should be none. Needs no database.
+ * args: [threads] [accounts] [seconds]
+ */
+public class OffHeapBalanceBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 20_000_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        OffHeapBalanceStore store = OffHeapBalanceStore.allocate(accounts);
+        for (int accountId = 0; accountId < accounts; accountId++) {
+            store.set(accountId, 10_000L);
+        }
+
+        long collectionsBefore = collections();
+        long heapBefore = usedHeap();
+        LongAdder operations = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                long sink = 0;
+                while ((count & 1023) != 0 || System.nanoTime() < deadline) {
+                    int accountId = random.nextInt(accounts);
+                    // three reads to every update
+                    if ((count & 3) == 0) {
+                        store.add(accountId, random.nextBoolean() ? 100L : -100L);
+                    } else {
+                        sink += store.get(accountId, 0L);
+                    }
+                    count++;
+                }
+                operations.add(count + (sink == 42 ? 1 : 0));
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long ops = operations.sum();
+        System.out.printf("threads=%d accounts=%d ops/s=%d ns/op/thread=%.1f gcCollections=%d heapGrowthKb=%d%n",
+                threads, accounts, ops / seconds,
+                (double) TimeUnit.SECONDS.toNanos(seconds) * threads / ops,
+                collections() - collectionsBefore,
+                (usedHeap() - heapBefore) / 1024);
+    }
+
+    private static long collections() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
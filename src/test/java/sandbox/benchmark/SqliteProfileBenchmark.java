@@ -0,0 +1,109 @@
+package sandbox.benchmark;
+
+import sandbox.AtmSimulatorConfig;
+import sandbox.AtmSimulatorImpl;
+import sandbox.SqliteDao;
+import sandbox.SqliteTuningProfile;
+import sandbox.metrics.LatencyRecorder;
+import sandbox.model.Balance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sweeps the sqlite tuning profiles over the same workload, a mix of balance reads, deposits and
+ * withdrawals on a fresh db file each time, reporting throughput and latency per profile.
+ * args: [threads] [accounts] [seconds] [profile,profile,...]
+ */
+public class SqliteProfileBenchmark {
+
+    private static final long STARTING_BALANCE = 100_000_000L;
+
+    // every withdrawal should reach the db, not stop at the daily limit
+    private static final AtmSimulatorConfig UNLIMITED = AtmSimulatorConfig.builder()
+            .dailyWithdrawalLimit(Long.MAX_VALUE)
+            .build();
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        List<SqliteTuningProfile> profiles = new ArrayList<>();
+        if (args.length > 3) {
+            for (String name : args[3].split(",")) {
+                profiles.add(SqliteTuningProfile.valueOf(name.trim().toUpperCase()));
+            }
+        } else {
+            profiles.addAll(List.of(SqliteTuningProfile.values()));
+        }
+
+        for (SqliteTuningProfile profile : profiles) {
+            run(profile, threads, accounts, seconds);
+        }
+    }
+
+    private static void run(SqliteTuningProfile profile, int threads, int accounts, int seconds) throws Exception {
+        File dbFile = File.createTempFile("atm-profile-bench", ".db");
+        dbFile.deleteOnExit();
+        new File(dbFile.getAbsolutePath() + "-wal").deleteOnExit();
+        new File(dbFile.getAbsolutePath() + "-shm").deleteOnExit();
+
+        try (SqliteDao dao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath(), profile);
+             AtmSimulatorImpl atm = new AtmSimulatorImpl(dao, UNLIMITED)) {
+
+            List<String> tokens = new ArrayList<>();
+            for (int i = 0; i < accounts; i++) {
+                String username = "bench-" + i;
+                dao.createAccount(username, "1234");
+                Integer accountId = dao.getAccount(username, "1234").orElseThrow().getId();
+                dao.persistBalance(Balance.builder()
+                        .accountId(accountId)
+                        .balance(STARTING_BALANCE)
+                        .build());
+                tokens.add(atm.login(username, "1234").orElseThrow());
+            }
+
+            LatencyRecorder reads = new LatencyRecorder();
+            LatencyRecorder writes = new LatencyRecorder();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread worker = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        String token = tokens.get(random.nextInt(accounts));
+                        int op = random.nextInt(10);
+                        long start = System.nanoTime();
+                        // half reads, the rest split between deposits and small withdrawals
+                        if (op < 5) {
+                            atm.viewBalance(token);
+                            reads.record(System.nanoTime() - start);
+                        } else if (op < 8) {
+                            atm.deposit(token, 2_000L);
+                            writes.record(System.nanoTime() - start);
+                        } else {
+                            atm.withdraw(token, 2_000L);
+                            writes.record(System.nanoTime() - start);
+                        }
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+
+            System.out.printf("%-10s ops/s=%d reads p50=%dus p99=%dus writes p50=%dus p99=%dus max=%dms%n",
+                    profile,
+                    (reads.getCount() + writes.getCount()) / seconds,
+                    reads.percentile(50) / 1_000, reads.percentile(99) / 1_000,
+                    writes.percentile(50) / 1_000, writes.percentile(99) / 1_000,
+                    writes.getMax() / 1_000_000);
+        }
+    }
+}
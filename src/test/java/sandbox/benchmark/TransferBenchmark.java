@@ -0,0 +1,84 @@
+package sandbox.benchmark;
+
+import sandbox.AtmSimulatorImpl;
+import sandbox.SqliteDao;
+import sandbox.model.Balance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Transfer throughput under contention. A small pool of accounts is shared by all threads, so most transfers
+ * contend on the same locks in both directions.
+ * args: [threads] [accounts] [seconds]
+ */
+public class TransferBenchmark {
+
+    private static final long STARTING_BALANCE = 1_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        File dbFile = File.createTempFile("atm-transfer-bench", ".db");
+        dbFile.deleteOnExit();
+
+        try (SqliteDao dao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath());
+             AtmSimulatorImpl atm = new AtmSimulatorImpl(dao)) {
+
+            List<Integer> accountIds = new ArrayList<>();
+            List<String> tokens = new ArrayList<>();
+            for (int i = 0; i < accounts; i++) {
+                String username = "bench-" + i;
+                dao.createAccount(username, "1234");
+                Integer accountId = dao.getAccount(username, "1234").orElseThrow().getId();
+                dao.persistBalance(Balance.builder()
+                        .accountId(accountId)
+                        .balance(STARTING_BALANCE)
+                        .build());
+                accountIds.add(accountId);
+                tokens.add(atm.login(username, "1234").orElseThrow());
+            }
+
+            LongAdder completed = new LongAdder();
+            LongAdder rejected = new LongAdder();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread worker = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        int from = random.nextInt(accounts);
+                        int to = random.nextInt(accounts - 1);
+                        if (to >= from) {
+                            to++;
+                        }
+                        boolean transferred = atm.transfer(tokens.get(from), accountIds.get(to), 1 + random.nextInt(100));
+                        (transferred ? completed : rejected).increment();
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+
+            long total = 0;
+            for (Integer accountId : accountIds) {
+                total += dao.getBalance(accountId).map(Balance::getBalance).orElse(0L);
+            }
+
+            System.out.printf("threads=%d accounts=%d seconds=%d%n", threads, accounts, seconds);
+            System.out.printf("transfers=%d rejected=%d throughput=%.1f ops/s%n",
+                    completed.sum(), rejected.sum(), (completed.sum() + rejected.sum()) / (double) seconds);
+            System.out.printf("money conserved=%b%n", total == STARTING_BALANCE * accounts);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package sandbox.benchmark;
+
+import sandbox.SqliteBusyRetry;
+import sandbox.SqliteDao;
+import sandbox.SqliteTuningProfile;
+import sandbox.metrics.LatencyRecorder;
+import sandbox.model.Balance;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Several writers, each with its own dao and so its own connection, like separate processes sharing one
+ * db file, transferring between random accounts. sqlite's busy_timeout waits out most locks itself, the busy
+ * retry metrics show the busy errors that got past it and the time spent retrying them. Every transfer
+ * either succeeds or is counted as failed, none are lost.
+ * args: [writers] [accounts] [seconds]
+ */
+public class WriteContentionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int writers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        File dbFile = File.createTempFile("atm-contention-bench", ".db");
+        dbFile.deleteOnExit();
+        new File(dbFile.getAbsolutePath() + "-wal").deleteOnExit();
+        new File(dbFile.getAbsolutePath() + "-shm").deleteOnExit();
+        String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
+
+        List<Integer> accountIds = new ArrayList<>();
+        try (SqliteDao setup = new SqliteDao(url, SqliteTuningProfile.BALANCED)) {
+            for (int i = 0; i < accounts; i++) {
+                String username = "bench-" + i;
+                setup.createAccount(username, "1234");
+                Integer accountId = setup.getAccount(username, "1234").orElseThrow().getId();
+                setup.persistBalance(Balance.builder()
+                        .accountId(accountId)
+                        .balance(1_000_000L)
+                        .build());
+                accountIds.add(accountId);
+            }
+        }
+
+        List<SqliteDao> daos = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            daos.add(new SqliteDao(url, SqliteTuningProfile.BALANCED, null,
+                    new SqliteBusyRetry(Duration.ofMillis(1), Duration.ofMillis(50), Duration.ofSeconds(5))));
+        }
+
+        LatencyRecorder latency = new LatencyRecorder();
+        LongAdder writes = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads = new ArrayList<>();
+        for (SqliteDao dao : daos) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    Integer from = accountIds.get(random.nextInt(accounts));
+                    Integer to = accountIds.get(random.nextInt(accounts));
+                    long start = System.nanoTime();
+                    try {
+                        dao.transferBalance(from, to, 1L);
+                        writes.increment();
+                    } catch (RuntimeException e) {
+                        failed.increment();
+                    }
+                    latency.record(System.nanoTime() - start);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long busyErrors = 0;
+        long retries = 0;
+        long exhausted = 0;
+        Duration waited = Duration.ZERO;
+        for (SqliteDao dao : daos) {
+            SqliteBusyRetry busyRetry = dao.getBusyRetry();
+            busyErrors += busyRetry.getBusyErrors();
+            retries += busyRetry.getRetries();
+            exhausted += busyRetry.getExhausted();
+            waited = waited.plus(busyRetry.getTotalWait());
+            dao.close();
+        }
+        System.out.printf("writers=%d transfers/s=%.0f failed=%d%n",
+                writers, writes.sum() / (double) seconds, failed.sum());
+        System.out.printf("latency %s%n", latency);
+        System.out.printf("busyErrors=%d retries=%d exhausted=%d waited=%dms%n",
+                busyErrors, retries, exhausted, waited.toMillis());
+    }
+}
@@ -0,0 +1,74 @@
+package sandbox.cash;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CashDispenserTest {
+
+    CashDispenser underTest = new CashDispenser(Map.of(10_000L, 10L, 2_000L, 10L), 100_000L);
+
+    @Test
+    void reserve_takesTheNotes() {
+        // when
+        DispensePlan plan = underTest.reserve(14_000L).get();
+        underTest.dispensed(plan);
+
+        // verify
+        assertEquals(9L, underTest.getCassettes().get(0).getNotes());
+        assertEquals(8L, underTest.getCassettes().get(1).getNotes());
+        assertEquals(2L, underTest.getCassettes().get(1).getDispensedNotes());
+        assertEquals(14_000L, underTest.getDispensedAmount());
+        assertEquals(120_000L - 14_000L, underTest.getCashAvailable());
+    }
+
+    @Test
+    void release_givesTheNotesBack() {
+        DispensePlan plan = underTest.reserve(14_000L).get();
+
+        underTest.release(plan);
+
+        assertEquals(120_000L, underTest.getCashAvailable());
+        assertEquals(0L, underTest.getDispensedAmount());
+    }
+
+    @Test
+    void reserve_rejectsWhatCannotBePaid() {
+        assertEquals(Optional.empty(), underTest.reserve(130_000L), "more than the machine holds");
+        assertEquals(Optional.empty(), underTest.reserve(5_000L), "no $50 notes");
+        assertEquals(2L, underTest.getRejected());
+        assertEquals(120_000L, underTest.getCashAvailable(), "nothing was taken");
+    }
+
+    @Test
+    void reserve_concurrentWithdrawalsNeverOverdrawTheCassettes() throws Exception {
+        // given
+        CashDispenser dispenser = new CashDispenser(Map.of(2_000L, 1_000L), 100_000L);
+        LongAdder reserved = new LongAdder();
+
+        // when
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    dispenser.reserve(6_000L).ifPresent(plan -> reserved.add(plan.getAmount()));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // verify, 333 withdrawals of 3 notes fit in 1000 notes
+        assertEquals(333 * 6_000L, reserved.sum());
+        assertEquals(1L, dispenser.getCassettes().get(0).getNotes());
+    }
+}
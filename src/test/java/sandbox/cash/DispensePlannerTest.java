@@ -0,0 +1,71 @@
+package sandbox.cash;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DispensePlannerTest {
+
+    // $100, $50, $20 in cents
+    DispensePlanner underTest = new DispensePlanner(new long[]{2_000L, 10_000L, 5_000L}, 100_000L);
+
+    @Test
+    void plan_fewestNotes() {
+        // when
+        DispensePlan plan = underTest.plan(17_000L, new long[]{100, 100, 100}).get();
+
+        // verify, $100 + $50 + $20
+        assertArrayEquals(new long[]{10_000L, 5_000L, 2_000L}, plan.getDenominations());
+        assertArrayEquals(new int[]{1, 1, 1}, plan.getNotes());
+        assertEquals(3, plan.totalNotes());
+    }
+
+    @Test
+    void plan_notPayableWithTheseNotes() {
+        assertEquals(Optional.empty(), underTest.plan(3_000L, new long[]{100, 100, 100}), "$30 needs a $10 note");
+        assertEquals(Optional.empty(), underTest.plan(2_500L, new long[]{100, 100, 100}), "not a multiple of $10");
+        assertEquals(Optional.empty(), underTest.plan(0L, new long[]{100, 100, 100}));
+    }
+
+    @Test
+    void plan_avoidsEmptyCassettes() {
+        // when no $100 notes are left
+        DispensePlan plan = underTest.plan(20_000L, new long[]{0, 100, 100}).get();
+
+        // verify
+        assertEquals(0, plan.notesOf(10_000L));
+        assertEquals(4, plan.notesOf(5_000L));
+    }
+
+    @Test
+    void plan_greedyWouldFail() {
+        // $60 is 3 x $20, taking the $50 first would leave an unpayable $10
+        DispensePlan plan = underTest.plan(6_000L, new long[]{100, 100, 100}).get();
+
+        assertEquals(3, plan.notesOf(2_000L));
+        assertEquals(0, plan.notesOf(5_000L));
+    }
+
+    @Test
+    void plan_fallsBackToSearchWhenCassettesAreLow() {
+        // the table only holds the best few combinations, none of them use this many $20 notes
+        DispensePlan plan = underTest.plan(100_000L, new long[]{0, 0, 50}).get();
+
+        assertEquals(50, plan.notesOf(2_000L));
+        assertEquals(Optional.empty(), underTest.plan(100_000L, new long[]{0, 0, 49}), "not enough notes");
+    }
+
+    @Test
+    void plan_aboveTheTable() {
+        DispensePlan plan = underTest.plan(1_000_000L, new long[]{100, 0, 0}).get();
+
+        assertEquals(100, plan.notesOf(10_000L));
+    }
+
+    @Test
+    void duplicateDenominationsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new DispensePlanner(new long[]{2_000L, 2_000L}, 10_000L));
+    }
+}
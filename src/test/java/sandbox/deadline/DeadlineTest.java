@@ -0,0 +1,98 @@
+package sandbox.deadline;
+
+import org.junit.jupiter.api.Test;
+import sandbox.AtmSimulator;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DeadlineTest {
+
+    @Test
+    void run_keepsTheSoonerDeadline() {
+        // given
+        Deadline outer = Deadline.after(Duration.ofMillis(100));
+        Deadline inner = Deadline.after(Duration.ofSeconds(10));
+
+        // when
+        Deadline seen = outer.run(() -> inner.run(() -> Deadline.current().get()));
+
+        // verify
+        assertSame(outer, seen, "a later deadline does not extend the current one");
+        assertSame(inner, inner.run(() -> Deadline.current().get()));
+        assertTrue(Deadline.current().isEmpty(), "restored after the call");
+    }
+
+    @Test
+    void runUnbounded_dropsTheDeadlineForTheWork() {
+        // given
+        Deadline deadline = Deadline.after(Duration.ofSeconds(1));
+
+        // when
+        AtomicReference<Optional<Deadline>> during = new AtomicReference<>();
+        deadline.run(() -> {
+            Deadline.runUnbounded(() -> during.set(Deadline.current()));
+            assertSame(deadline, Deadline.current().get(), "back once the work is done");
+            return null;
+        });
+
+        // verify
+        assertTrue(during.get().isEmpty());
+    }
+
+    @Test
+    void check_throwsOncePassed() throws Exception {
+        // given
+        Deadline deadline = Deadline.after(Duration.ofMillis(1));
+        Thread.sleep(5);
+
+        // verify
+        assertTrue(deadline.isExpired());
+        DeadlineExceededException thrown = assertThrows(DeadlineExceededException.class, () -> deadline.check("the query"));
+        assertTrue(thrown.getMessage().contains("the query was not started"), thrown.getMessage());
+        Deadline.after(Duration.ofSeconds(1)).check("the query");
+    }
+
+    @Test
+    void onExpiry_firesUnlessClosedFirst() throws Exception {
+        // given
+        CountDownLatch fired = new CountDownLatch(1);
+        AtomicBoolean closedFired = new AtomicBoolean();
+
+        // when
+        Deadline.after(Duration.ofMillis(10)).onExpiry(fired::countDown);
+        try (Deadline.Expiry expiry = Deadline.after(Duration.ofMillis(20)).onExpiry(() -> closedFired.set(true))) {
+            assertNotNull(expiry);
+        }
+
+        // verify
+        assertTrue(fired.await(5, TimeUnit.SECONDS), "fired at the deadline");
+        Thread.sleep(50);
+        assertFalse(closedFired.get(), "closed before the deadline, never fires");
+    }
+
+    @Test
+    void deadlineAtmSimulator_givesEachCallItsOwnDeadline() {
+        // given
+        AtmSimulator atm = mock(AtmSimulator.class);
+        DeadlineAtmSimulator underTest = new DeadlineAtmSimulator(atm, Duration.ofSeconds(3));
+        when(atm.viewBalance("token-1")).thenAnswer(invocation -> Deadline.current()
+                .map(d -> TimeUnit.NANOSECONDS.toMillis(d.remainingNanos()))
+                .orElse(-1L));
+
+        // when
+        long remainingMillis = underTest.viewBalance("token-1");
+
+        // verify
+        assertTrue(remainingMillis > 2_000 && remainingMillis <= 3_000, "the delegate runs under the deadline");
+        assertTrue(Deadline.current().isEmpty(), "none left behind on the caller's thread");
+        assertThrows(IllegalArgumentException.class, () -> new DeadlineAtmSimulator(atm, Duration.ZERO));
+    }
+}
@@ -0,0 +1,69 @@
+package sandbox.feed;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeFeedFileSinkTest {
+
+    @Test
+    void appendsOneLinePerEvent() throws Exception {
+        Path file = Files.createTempFile("change-feed", ".tsv");
+        file.toFile().deleteOnExit();
+
+        ChangeFeed feed = new ChangeFeed();
+        ChangeFeedFileSink underTest = new ChangeFeedFileSink(feed, file);
+        underTest.start();
+
+        feed.balanceChanged(7, 250L);
+        feed.sessionChanged(7, UUID.randomUUID(), new Timestamp(1_000L));
+        feed.close();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        List<String> lines = Files.readAllLines(file);
+        while (lines.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            lines = Files.readAllLines(file);
+        }
+
+        assertEquals(2, lines.size(), "both events written");
+        assertTrue(lines.get(0).startsWith("1\tBALANCE\t7\t250\t\t"), lines.get(0));
+        assertTrue(lines.get(1).startsWith("2\tSESSION\t7\t\t1000\t"), lines.get(1));
+    }
+
+    @Test
+    void cutOff_subscribesAgainAndMarksTheGap() throws Exception {
+        Path file = Files.createTempFile("change-feed", ".tsv");
+        file.toFile().deleteOnExit();
+
+        // a one event buffer, so a burst outruns the sink
+        ChangeFeed feed = new ChangeFeed(1);
+        ChangeFeedFileSink underTest = new ChangeFeedFileSink(feed, file);
+        underTest.start();
+        for (int i = 0; i < 10_000; i++) {
+            feed.balanceChanged(7, i);
+        }
+        assertTrue(feed.getOverflows() > 0, "the sink was cut off");
+
+        // keeps publishing until an event after the burst reaches the file
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        List<String> lines = Files.readAllLines(file);
+        while (lines.isEmpty() || !lines.get(lines.size() - 1).startsWith(feed.lastSequence() + "\t")) {
+            assertTrue(System.nanoTime() < deadline, "the sink subscribed again within 5s");
+            feed.balanceChanged(7, -1L);
+            Thread.sleep(10);
+            lines = Files.readAllLines(file);
+        }
+        feed.close();
+        underTest.close();
+
+        assertTrue(lines.stream().anyMatch(line -> line.contains("\tGAP\t")), "the missed events are marked");
+    }
+}
@@ -0,0 +1,134 @@
+package sandbox.feed;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeFeedTest {
+
+    @Test
+    void publish_orderedEventsToSubscribers() throws Exception {
+        ChangeFeed underTest = new ChangeFeed();
+        CollectingSubscriber subscriber = new CollectingSubscriber(3, 1);
+        underTest.subscribe(subscriber);
+
+        UUID token = UUID.randomUUID();
+        Timestamp expires = Timestamp.from(Instant.now());
+        underTest.balanceChanged(1, 100L);
+        underTest.sessionChanged(2, token, expires);
+        underTest.balanceChanged(1, 50L);
+
+        assertTrue(subscriber.received.await(5, TimeUnit.SECONDS), "all events delivered");
+        List<ChangeEvent> events = subscriber.events;
+        assertEquals(1L, events.get(0).getSequence());
+        assertEquals(2L, events.get(1).getSequence());
+        assertEquals(3L, events.get(2).getSequence());
+
+        assertEquals(ChangeType.BALANCE, events.get(0).getType());
+        assertEquals(100L, events.get(0).getBalance());
+        assertEquals(ChangeType.SESSION, events.get(1).getType());
+        assertEquals(token, events.get(1).getToken());
+        assertEquals(50L, events.get(2).getBalance());
+        assertEquals(3L, underTest.lastSequence());
+
+        underTest.close();
+    }
+
+    @Test
+    void publish_subscriberControlsTheRate() throws Exception {
+        ChangeFeed underTest = new ChangeFeed();
+        CollectingSubscriber subscriber = new CollectingSubscriber(2, 0);
+        underTest.subscribe(subscriber);
+        assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+
+        underTest.balanceChanged(1, 1L);
+        underTest.balanceChanged(1, 2L);
+        Thread.sleep(100);
+        assertTrue(subscriber.events.isEmpty(), "nothing delivered before it was requested");
+
+        subscriber.subscription.request(2);
+        assertTrue(subscriber.received.await(5, TimeUnit.SECONDS), "delivered once requested");
+
+        underTest.close();
+    }
+
+    @Test
+    void publish_cutsOffASubscriberThatFallsBehind() throws Exception {
+        ChangeFeed underTest = new ChangeFeed(1);
+        CollectingSubscriber subscriber = new CollectingSubscriber(1, 0);
+        underTest.subscribe(subscriber);
+        assertTrue(subscriber.subscribed.await(5, TimeUnit.SECONDS));
+
+        // never requested, so the buffer fills. publishing must not wait for it
+        for (int i = 0; i < 10; i++) {
+            underTest.balanceChanged(1, i);
+        }
+
+        assertTrue(subscriber.failed.await(5, TimeUnit.SECONDS), "subscriber was told it was cut off");
+        assertEquals(1L, underTest.getOverflows());
+        assertEquals(10L, underTest.lastSequence());
+
+        underTest.close();
+    }
+
+    @Test
+    void publish_callsListenersBeforeReturning() {
+        ChangeFeed underTest = new ChangeFeed();
+        List<ChangeEvent> heard = new CopyOnWriteArrayList<>();
+        underTest.addListener(heard::add);
+
+        underTest.balanceChanged(1, 100L);
+
+        assertEquals(1, heard.size(), "heard on the publishing thread");
+        assertEquals(100L, heard.get(0).getBalance());
+
+        underTest.close();
+    }
+
+    static class CollectingSubscriber implements Flow.Subscriber<ChangeEvent> {
+        final List<ChangeEvent> events = new CopyOnWriteArrayList<>();
+        final CountDownLatch received;
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        final CountDownLatch failed = new CountDownLatch(1);
+        final long initialRequest;
+        Flow.Subscription subscription;
+
+        CollectingSubscriber(int expected, long initialRequest) {
+            this.received = new CountDownLatch(expected);
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(Long.MAX_VALUE);
+            }
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onNext(ChangeEvent item) {
+            events.add(item);
+            received.countDown();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            failed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package sandbox.fraud;
+
+import org.junit.jupiter.api.Test;
+import sandbox.model.TransactionType;
+
+import java.time.Duration;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FraudStageTest {
+
+    @Test
+    void allow_declinedWithinTheBudget() {
+        // given
+        FraudStage underTest = new FraudStage((id, type, amount, now, deadline) -> FraudDecision.DECLINE,
+                Duration.ofSeconds(1));
+
+        // when
+        boolean allowed = underTest.allow(1, TransactionType.WITHDRAWAL, 2_000L);
+
+        // verify
+        assertFalse(allowed);
+        assertEquals(1L, underTest.getChecks());
+        assertEquals(1L, underTest.getDeclines());
+        assertEquals(1L, underTest.getLatency().getCount(), "the check was timed");
+    }
+
+    @Test
+    void allow_failsOpenWhenTheBudgetIsOverrun() {
+        // given, a check that takes a millisecond against a 50us budget
+        FraudStage underTest = new FraudStage((id, type, amount, now, deadline) -> {
+            LockSupport.parkNanos(1_000_000L);
+            return FraudDecision.DECLINE;
+        }, Duration.ofNanos(50_000));
+
+        // when
+        boolean allowed = underTest.allow(1, TransactionType.WITHDRAWAL, 2_000L);
+
+        // verify
+        assertTrue(allowed, "a late decline is ignored");
+        assertEquals(1L, underTest.getOverruns());
+        assertEquals(0L, underTest.getDeclines());
+        assertTrue(underTest.getLatency().getMax() >= 1_000_000L, "the overrun was recorded");
+    }
+
+    @Test
+    void allow_failsOpenWhenTheCheckThrows() {
+        // given
+        FraudStage underTest = new FraudStage((id, type, amount, now, deadline) -> {
+            throw new IllegalStateException("model not loaded");
+        }, Duration.ofSeconds(1));
+
+        // when
+        boolean allowed = underTest.allow(1, TransactionType.DEPOSIT, 2_000L);
+
+        // verify
+        assertTrue(allowed);
+        assertEquals(1L, underTest.getErrors());
+    }
+}
@@ -0,0 +1,101 @@
+package sandbox.fraud;
+
+import org.junit.jupiter.api.Test;
+import sandbox.model.TransactionType;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VelocityAndAmountCheckTest {
+
+    private static final long SECOND = 1_000_000_000L;
+    private static final long HOUR = 3_600 * SECOND;
+
+    VelocityAndAmountCheck underTest = new VelocityAndAmountCheck();
+
+    @Test
+    void check_unknownAccountsAreAllowed() {
+        assertEquals(FraudDecision.ALLOW, underTest.check(1, TransactionType.WITHDRAWAL, 1_000_000L, 0L, 0L));
+    }
+
+    @Test
+    void check_declinesTooManyWithdrawals() {
+        // given, five withdrawals a minute apart
+        for (int i = 0; i < 5; i++) {
+            underTest.completed(1, TransactionType.WITHDRAWAL, 2_000L, i * 60 * SECOND);
+        }
+
+        // when
+        FraudDecision sixth = underTest.check(1, TransactionType.WITHDRAWAL, 2_000L, 5 * 60 * SECOND, 0L);
+        FraudDecision later = underTest.check(1, TransactionType.WITHDRAWAL, 2_000L, 11 * 60 * SECOND, 0L);
+        FraudDecision deposit = underTest.check(1, TransactionType.DEPOSIT, 2_000L, 5 * 60 * SECOND, 0L);
+
+        // verify
+        assertEquals(FraudDecision.DECLINE, sixth, "a sixth withdrawal within ten minutes");
+        assertEquals(FraudDecision.ALLOW, later, "the first withdrawal has left the window");
+        assertEquals(FraudDecision.ALLOW, deposit, "deposits are not limited");
+    }
+
+    @Test
+    void check_declinesUnusualAmounts() {
+        // given, a history of $20 to $100 withdrawals spread over days
+        long now = 0L;
+        for (int i = 0; i < 10; i++) {
+            now += 24 * HOUR;
+            underTest.completed(1, TransactionType.WITHDRAWAL, 2_000L + (i % 5) * 2_000L, now);
+        }
+        now += 24 * HOUR;
+
+        // when
+        FraudDecision usual = underTest.check(1, TransactionType.WITHDRAWAL, 10_000L, now, 0L);
+        FraudDecision unusual = underTest.check(1, TransactionType.WITHDRAWAL, 100_000L, now, 0L);
+
+        // verify
+        assertEquals(FraudDecision.ALLOW, usual);
+        assertEquals(FraudDecision.DECLINE, unusual, "$1000 is far above the usual amount");
+    }
+
+    @Test
+    void check_tighterLimitRightAfterLogin() {
+        // given, withdrawals between $20 and $100
+        VelocityAndAmountCheck check = new VelocityAndAmountCheck(FraudCheckSettings.builder()
+                .minAnomalousAmount(0L)
+                .build());
+        long now = 0L;
+        for (int i = 0; i < 10; i++) {
+            now += 24 * HOUR;
+            check.completed(1, TransactionType.WITHDRAWAL, 2_000L + (i % 5) * 2_000L, now);
+        }
+        now += 24 * HOUR;
+        long amount = 18_000L; // roughly four standard deviations above the mean
+
+        // when
+        FraudDecision beforeLogin = check.check(1, TransactionType.WITHDRAWAL, amount, now, 0L);
+        check.loggedIn(1, now);
+        FraudDecision afterLogin = check.check(1, TransactionType.WITHDRAWAL, amount, now + SECOND, 0L);
+        FraudDecision muchLater = check.check(1, TransactionType.WITHDRAWAL, amount, now + HOUR, 0L);
+
+        // verify
+        assertEquals(FraudDecision.ALLOW, beforeLogin);
+        assertEquals(FraudDecision.DECLINE, afterLogin, "declined within a minute of login");
+        assertEquals(FraudDecision.ALLOW, muchLater);
+    }
+
+    @Test
+    void completed_forgetsTheLeastRecentlySeenAccounts() {
+        // given
+        VelocityAndAmountCheck check = new VelocityAndAmountCheck(FraudCheckSettings.builder()
+                .maxAccounts(100)
+                .velocityWindow(Duration.ofMinutes(1))
+                .build());
+
+        // when
+        for (int i = 0; i < 1_000; i++) {
+            check.completed(i, TransactionType.DEPOSIT, 100L, i);
+        }
+
+        // verify
+        assertTrue(check.trackedAccounts() <= 100, "tracked " + check.trackedAccounts());
+    }
+}
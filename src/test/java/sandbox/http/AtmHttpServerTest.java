@@ -0,0 +1,214 @@
+package sandbox.http;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import sandbox.AtmSimulator;
+import sandbox.AtmSimulatorImpl;
+import sandbox.InvalidTokenException;
+import sandbox.SqliteBusyException;
+import sandbox.SqliteDao;
+import sandbox.admission.OverloadedException;
+import sandbox.deadline.DeadlineExceededException;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class AtmHttpServerTest {
+    @Mock
+    AtmSimulator atm;
+
+    AtmHttpServer underTest;
+    HttpClient client;
+
+    @BeforeEach
+    void init() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        underTest = new AtmHttpServer(atm, new InetSocketAddress("127.0.0.1", 0));
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        underTest.close();
+    }
+
+    @Test
+    void login_returnsTheToken() throws Exception {
+        when(atm.login("tester", "1234")).thenReturn(Optional.of("token-1"));
+        when(atm.login("tester", "0000")).thenReturn(Optional.empty());
+
+        HttpResponse<String> ok = post("/login", null, "{\"username\":\"tester\",\"pin\":\"1234\"}");
+        assertEquals(200, ok.statusCode());
+        assertEquals("{\"token\":\"token-1\"}", ok.body());
+
+        HttpResponse<String> failed = post("/login", null, "{\"username\":\"tester\",\"pin\":\"0000\"}");
+        assertEquals(401, failed.statusCode());
+    }
+
+    @Test
+    void balance_readsTheBearerToken() throws Exception {
+        when(atm.viewBalance("token-1")).thenReturn(250L);
+
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri("/balance"))
+                .header("Authorization", "Bearer token-1")
+                .GET()
+                .build(), HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertEquals("{\"balance\":250}", response.body());
+        assertEquals(Optional.of("application/json"), response.headers().firstValue("Content-Type"));
+    }
+
+    @Test
+    void depositAndWithdraw() throws Exception {
+        when(atm.deposit("token-1", 100L, "r-1")).thenReturn(true);
+        when(atm.withdraw("token-1", 500L, null)).thenReturn(false);
+
+        HttpResponse<String> deposit = post("/deposit", "token-1", "{\"amount\":100,\"requestId\":\"r-1\"}");
+        assertEquals(200, deposit.statusCode());
+        assertEquals("{\"ok\":true}", deposit.body());
+
+        HttpResponse<String> withdraw = post("/withdraw", "token-1", "{\"amount\": 500}");
+        assertEquals(200, withdraw.statusCode());
+        assertEquals("{\"ok\":false}", withdraw.body());
+    }
+
+    @Test
+    void deposit_overloadedIsServiceUnavailable() throws Exception {
+        when(atm.deposit("token-1", 100L, null)).thenThrow(new OverloadedException("deposit"));
+
+        HttpResponse<String> response = post("/deposit", "token-1", "{\"amount\":100}");
+
+        assertEquals(503, response.statusCode());
+        assertEquals(Optional.of("1"), response.headers().firstValue("Retry-After"));
+    }
+
+    @Test
+    void deposit_lockedDbIsServiceUnavailable() throws Exception {
+        when(atm.deposit("token-1", 100L, null)).thenThrow(new SqliteBusyException("database is locked", null));
+
+        HttpResponse<String> response = post("/deposit", "token-1", "{\"amount\":100}");
+
+        assertEquals(503, response.statusCode());
+        assertEquals(Optional.of("1"), response.headers().firstValue("Retry-After"));
+    }
+
+    @Test
+    void balance_unexpectedErrorIsInternalAndNotEchoed() throws Exception {
+        when(atm.viewBalance("token-1")).thenThrow(new RuntimeException("[SQLITE_CORRUPT] database disk image is malformed"));
+
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri("/balance"))
+                .header("Authorization", "Bearer token-1")
+                .build(), HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(500, response.statusCode());
+        assertEquals("{\"error\":\"internal error\"}", response.body());
+    }
+
+    @Test
+    void withdraw_pastItsDeadlineIsGatewayTimeout() throws Exception {
+        when(atm.withdraw("token-1", 100L, null)).thenThrow(new DeadlineExceededException("deadline passed, statement interrupted"));
+
+        HttpResponse<String> response = post("/withdraw", "token-1", "{\"amount\":100}");
+
+        assertEquals(504, response.statusCode());
+        assertEquals("{\"error\":\"deadline passed, statement interrupted\"}", response.body());
+    }
+
+    @Test
+    void logout() throws Exception {
+        HttpResponse<String> response = post("/logout", "token-1", "");
+
+        assertEquals(200, response.statusCode());
+        verify(atm).logout("token-1");
+    }
+
+    @Test
+    void badRequests() throws Exception {
+        when(atm.viewBalance("expired")).thenThrow(new InvalidTokenException());
+
+        HttpResponse<String> invalidToken = client.send(HttpRequest.newBuilder(uri("/balance"))
+                .header("Authorization", "Bearer expired")
+                .build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(401, invalidToken.statusCode());
+        assertEquals(Optional.of("Bearer"), invalidToken.headers().firstValue("WWW-Authenticate"));
+        assertEquals("{\"error\":\"invalid token\"}", invalidToken.body());
+
+        assertEquals(401, post("/deposit", null, "{\"amount\":100}").statusCode(), "no token");
+        assertEquals(400, post("/deposit", "token-1", "{\"amount\":\"ten\"}").statusCode(), "amount not a number");
+        assertEquals(400, post("/withdraw", "token-1", "not json").statusCode(), "malformed body");
+        assertEquals(400, post("/deposit", "token-1", "{\"amount\":-100}").statusCode(), "negative deposit");
+        assertEquals(400, post("/withdraw", "token-1", "{\"amount\":0}").statusCode(), "zero withdrawal");
+        assertEquals(405, client.send(HttpRequest.newBuilder(uri("/login")).GET().build(),
+                HttpResponse.BodyHandlers.ofString()).statusCode(), "wrong method");
+        verify(atm, never()).deposit(anyString(), anyLong(), any());
+        verify(atm, never()).withdraw(anyString(), anyLong(), any());
+    }
+
+    @Test
+    void forgedTokens_areUnauthorizedOnTheRealSimulator() throws Exception {
+        // given, the server in front of a real simulator rather than the mock
+        File dbFile = File.createTempFile("atm-http-test", ".db");
+        dbFile.delete();
+        underTest.close();
+        try (AtmSimulatorImpl real = new AtmSimulatorImpl(new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath()))) {
+            underTest = new AtmHttpServer(real, new InetSocketAddress("127.0.0.1", 0));
+
+            // when
+            HttpResponse<String> notAUuid = client.send(HttpRequest.newBuilder(uri("/balance"))
+                    .header("Authorization", "Bearer forged")
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> unknownUuid = post("/deposit", UUID.randomUUID().toString(), "{\"amount\":100}");
+            HttpResponse<String> badSignature = post("/withdraw", "v1.forged", "{\"amount\":100}");
+
+            // verify
+            assertEquals(401, notAUuid.statusCode());
+            assertEquals("{\"error\":\"invalid token\"}", notAUuid.body(), "the uuid parser's message is not echoed");
+            assertEquals(401, unknownUuid.statusCode());
+            assertEquals(401, badSignature.statusCode());
+        } finally {
+            dbFile.delete();
+        }
+    }
+
+    @Test
+    void connectionIsKeptAlive() throws Exception {
+        when(atm.viewBalance("token-1")).thenReturn(5L);
+
+        for (int i = 0; i < 100; i++) {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri("/balance"))
+                    .header("Authorization", "Bearer token-1")
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+        }
+        verify(atm, times(100)).viewBalance("token-1");
+    }
+
+    private HttpResponse<String> post(String path, String token, String body) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+        if (token != null) {
+            request.header("Authorization", "Bearer " + token);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + underTest.getPort() + path);
+    }
+}
@@ -0,0 +1,39 @@
+package sandbox.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonReaderTest {
+
+    @Test
+    void readObject_flatMembers() {
+        Map<String, String> members = JsonReader.readObject(
+                " { \"name\" : \"a \\\"quoted\\\" \\u0041\\n\", \"amount\": -25, \"ok\":true, \"note\":null } ");
+
+        assertEquals("a \"quoted\" A\n", members.get("name"));
+        assertEquals(Optional.of(-25L), JsonReader.getLong(members, "amount"));
+        assertEquals("true", members.get("ok"));
+        assertTrue(members.containsKey("note"));
+        assertEquals(Optional.empty(), JsonReader.getString(members, "note"));
+        assertEquals(Optional.empty(), JsonReader.getLong(members, "missing"));
+    }
+
+    @Test
+    void readObject_empty() {
+        assertTrue(JsonReader.readObject("{}").isEmpty());
+    }
+
+    @Test
+    void readObject_rejectsInvalidJson() {
+        assertThrows(IllegalArgumentException.class, () -> JsonReader.readObject(""));
+        assertThrows(IllegalArgumentException.class, () -> JsonReader.readObject("{\"a\":1"));
+        assertThrows(IllegalArgumentException.class, () -> JsonReader.readObject("{\"a\":1}x"));
+        assertThrows(IllegalArgumentException.class, () -> JsonReader.readObject("{\"a\":{\"b\":1}}"));
+        assertThrows(IllegalArgumentException.class, () -> JsonReader.readObject("{\"a\":nope}"));
+        assertThrows(IllegalArgumentException.class, () -> JsonReader.getLong(Map.of("a", "1.5"), "a"));
+    }
+}
@@ -0,0 +1,36 @@
+package sandbox.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonWriterTest {
+
+    @Test
+    void writesObjects() throws Exception {
+        StringWriter out = new StringWriter();
+        new JsonWriter(out)
+                .beginObject()
+                .name("text").value("say \"hi\"\\\n\u0001")
+                .name("count").value(-3L)
+                .name("ok").value(true)
+                .name("missing").value((String) null)
+                .name("inner").beginObject().name("a").value(1L).endObject()
+                .endObject()
+                .flush();
+
+        assertEquals("{\"text\":\"say \\\"hi\\\"\\\\\\n\\u0001\",\"count\":-3,\"ok\":true,\"missing\":null,\"inner\":{\"a\":1}}",
+                out.toString());
+    }
+
+    @Test
+    void rejectsMisplacedValues() throws Exception {
+        JsonWriter writer = new JsonWriter(new StringWriter()).beginObject();
+
+        assertThrows(IllegalStateException.class, () -> writer.value(1L));
+        writer.name("a");
+        assertThrows(IllegalStateException.class, () -> writer.name("b"));
+    }
+}
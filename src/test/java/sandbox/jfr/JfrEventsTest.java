@@ -0,0 +1,69 @@
+package sandbox.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JfrEventsTest {
+
+    @Test
+    void sqlIdOf_verbAndTable() {
+        assertEquals("SELECT balance", SqlStatementEvent.sqlIdOf("SELECT * FROM balance WHERE account_id = ? LIMIT 1"));
+        assertEquals("INSERT balance", SqlStatementEvent.sqlIdOf(
+                "INSERT INTO balance (account_id, balance) VALUES (?, ?) ON CONFLICT(account_id) DO UPDATE SET balance=excluded.balance;"));
+        assertEquals("UPDATE session", SqlStatementEvent.sqlIdOf("UPDATE session SET expires = ? WHERE token = ?"));
+        assertEquals("CREATE account", SqlStatementEvent.sqlIdOf("CREATE TABLE IF NOT EXISTS account (id INTEGER)"));
+        assertEquals("DELETE idempotency_key", SqlStatementEvent.sqlIdOf("DELETE FROM idempotency_key WHERE created < ?"));
+    }
+
+    @Test
+    void events_areRecordedWithTheirFields() throws Exception {
+        // given
+        File file = File.createTempFile("atm-events", ".jfr");
+        file.deleteOnExit();
+
+        // when
+        try (Recording recording = new Recording()) {
+            recording.enable(AtmOperationEvent.class).withoutThreshold();
+            recording.enable(SqlStatementEvent.class).withoutThreshold();
+            recording.start();
+
+            AtmOperationEvent operation = AtmOperationEvent.start(AtmOperationEvent.WITHDRAW, 2_000L);
+            SqlStatementEvent statement = SqlStatementEvent.start("SELECT * FROM balance WHERE account_id = ?");
+            statement.connectionAcquired();
+            statement.setRows(1);
+            statement.setSucceeded(true);
+            statement.commit();
+            operation.setAccountId(42);
+            operation.setSucceeded(true);
+            operation.commit();
+
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+
+        // verify
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath()).stream()
+                .filter(e -> e.getEventType().getName().startsWith("sandbox."))
+                .collect(Collectors.toList());
+        assertEquals(2, events.size());
+
+        RecordedEvent sql = events.stream().filter(e -> e.getEventType().getName().equals("sandbox.SqlStatement")).findFirst().get();
+        assertEquals("SELECT balance", sql.getString("sqlId"));
+        assertEquals(1, sql.getInt("rows"));
+        assertTrue(sql.getBoolean("succeeded"));
+
+        RecordedEvent atm = events.stream().filter(e -> e.getEventType().getName().equals("sandbox.AtmOperation")).findFirst().get();
+        assertEquals("withdraw", atm.getString("operation"));
+        assertEquals(42, atm.getInt("accountId"));
+        assertEquals(2_000L, atm.getLong("amount"));
+        assertFalse(atm.getDuration().isNegative());
+    }
+}
@@ -0,0 +1,186 @@
+package sandbox.maintenance;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sandbox.SqliteDao;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MaintenanceSchedulerTest {
+
+    File dbFile;
+    Path backupDir;
+    SqliteDao sqliteDao;
+
+    @BeforeEach
+    void setup() throws Exception {
+        dbFile = File.createTempFile("atm-maintenance-test", ".db");
+        dbFile.delete();
+        backupDir = Files.createTempDirectory("atm-backups");
+        sqliteDao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        sqliteDao.createAccount("maintenance", "1234");
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        sqliteDao.close();
+        dbFile.delete();
+        try (Stream<Path> files = Files.list(backupDir)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(backupDir);
+    }
+
+    @Test
+    void backup_copiesTheDbAndKeepsTheNewest() throws Exception {
+        // given
+        Files.createFile(backupDir.resolve("atm-20200101-000000.db"));
+        Files.createFile(backupDir.resolve("atm-20200102-000000.db"));
+        MaintenanceSettings settings = MaintenanceSettings.builder()
+                .backupDir(backupDir)
+                .backupsKept(2)
+                .backupPagesPerStep(1)
+                .build();
+
+        // when
+        Path backup;
+        try (MaintenanceScheduler underTest = new MaintenanceScheduler(sqliteDao, settings)) {
+            backup = underTest.backup();
+            assertEquals(1L, underTest.getBackups());
+        }
+
+        // verify
+        List<Path> kept;
+        try (Stream<Path> files = Files.list(backupDir)) {
+            kept = files.sorted().collect(Collectors.toList());
+        }
+        assertEquals(List.of(backupDir.resolve("atm-20200102-000000.db"), backup), kept, "the oldest backup is deleted");
+        try (SqliteDao restored = new SqliteDao("jdbc:sqlite:" + backup.toAbsolutePath())) {
+            assertTrue(restored.getAccount("maintenance", "1234").isPresent(), "the backup has the account");
+        }
+    }
+
+    @Test
+    void backup_copiesTheAttachedArchiveToo() throws Exception {
+        // given, the only account archived
+        File archiveFile = File.createTempFile("atm-maintenance-test-archive", ".db");
+        archiveFile.delete();
+        sqliteDao.attachArchive(archiveFile.getAbsolutePath());
+        Integer accountId = sqliteDao.getAccount("maintenance", "1234").get().getId();
+        sqliteDao.recordActivity(accountId, Timestamp.from(Instant.now().minus(100, ChronoUnit.DAYS)));
+        assertEquals(List.of(accountId),
+                sqliteDao.archiveDormantAccounts(Timestamp.from(Instant.now().minus(30, ChronoUnit.DAYS)), 0, 100));
+        MaintenanceSettings settings = MaintenanceSettings.builder()
+                .backupDir(backupDir)
+                .backupPagesPerStep(1)
+                .build();
+
+        // when
+        Path backup;
+        try (MaintenanceScheduler underTest = new MaintenanceScheduler(sqliteDao, settings)) {
+            backup = underTest.backup();
+        }
+
+        // verify
+        Path archiveBackup = backup.resolveSibling(backup.getFileName().toString().replace("atm-", "atm-archive-"));
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + archiveBackup.toAbsolutePath());
+             Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("SELECT id FROM account")) {
+            assertTrue(resultSet.next(), "the archive backup has the account");
+            assertEquals(accountId, resultSet.getInt(1));
+        } finally {
+            archiveFile.delete();
+        }
+    }
+
+    @Test
+    void check_quietOnlyAfterQuietChecksInARow() throws Exception {
+        // given
+        MaintenanceSettings settings = MaintenanceSettings.builder()
+                .backupDir(backupDir)
+                .quietChecks(2)
+                .quietStatementsPerSecond(5.0)
+                .build();
+
+        try (MaintenanceScheduler underTest = new MaintenanceScheduler(sqliteDao, settings)) {
+            // when
+            underTest.check();
+
+            // verify
+            assertFalse(underTest.isQuiet(), "one quiet check is not enough");
+
+            // when
+            underTest.check();
+
+            // verify
+            assertTrue(underTest.isQuiet());
+            assertEquals(1L, underTest.getAnalyzes(), "analyze runs once it is quiet");
+
+            // when
+            for (int i = 0; i < 1_000; i++) {
+                sqliteDao.getAccount("maintenance", "1234");
+            }
+            underTest.check();
+
+            // verify
+            assertFalse(underTest.isQuiet(), "traffic ends the quiet window");
+            assertTrue(underTest.getStatementsPerSecond() > 5.0);
+            assertEquals(1L, underTest.getBackups(), "the next backup is not due for an hour");
+        }
+    }
+
+    @Test
+    void incrementalVacuum_freesEveryPage() throws Exception {
+        // given
+        try (Connection connection = sqliteDao.openConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE filler AS WITH RECURSIVE n(i) AS (SELECT 1 UNION ALL SELECT i + 1 FROM n WHERE i < 2000) "
+                    + "SELECT i, randomblob(1000) AS data FROM n");
+            stmt.execute("DROP TABLE filler");
+            stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        }
+        long sizeBefore = dbFile.length();
+        MaintenanceSettings settings = MaintenanceSettings.builder()
+                .backupDir(backupDir)
+                .vacuumPause(Duration.ZERO)
+                .build();
+
+        // when
+        long freed;
+        try (MaintenanceScheduler underTest = new MaintenanceScheduler(sqliteDao, settings)) {
+            freed = underTest.incrementalVacuum();
+        }
+
+        // verify
+        assertTrue(freed > 400, "the dropped table's pages are freed");
+        try (Connection connection = sqliteDao.openConnection();
+             Statement stmt = connection.createStatement();
+             ResultSet resultSet = stmt.executeQuery("PRAGMA freelist_count")) {
+            resultSet.next();
+            assertEquals(0L, resultSet.getLong(1));
+        }
+        try (Connection connection = sqliteDao.openConnection();
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        }
+        assertTrue(dbFile.length() < sizeBefore, "the file shrinks once checkpointed");
+    }
+}
@@ -0,0 +1,50 @@
+package sandbox.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyRecorderTest {
+
+    LatencyRecorder underTest = new LatencyRecorder();
+
+    @Test
+    void percentile_withinTheBucketPrecision() {
+        // given, 1us to 1000us
+        for (long i = 1; i <= 1_000; i++) {
+            underTest.record(i * 1_000L);
+        }
+
+        // when
+        long p50 = underTest.percentile(50);
+        long p99 = underTest.percentile(99);
+
+        // verify, buckets are at most 1/16 wide
+        assertEquals(1_000L, underTest.getCount());
+        assertEquals(1_000_000L, underTest.getMax());
+        assertEquals(500_500.0, underTest.getMean(), 0.001);
+        assertTrue(Math.abs(p50 - 500_000L) <= 500_000L / 16, "p50 was " + p50);
+        assertTrue(Math.abs(p99 - 990_000L) <= 990_000L / 16, "p99 was " + p99);
+        assertEquals(1_000_000L, underTest.percentile(100), "p100 is the max");
+    }
+
+    @Test
+    void percentile_smallValuesAreExact() {
+        underTest.record(3L);
+        underTest.record(7L);
+
+        assertEquals(3L, underTest.percentile(50));
+        assertEquals(7L, underTest.percentile(100));
+    }
+
+    @Test
+    void reset_clearsEverything() {
+        underTest.record(5_000L);
+
+        underTest.reset();
+
+        assertEquals(0L, underTest.getCount());
+        assertEquals(0L, underTest.getMax());
+        assertEquals(0L, underTest.percentile(99));
+    }
+}
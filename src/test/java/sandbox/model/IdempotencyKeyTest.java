@@ -0,0 +1,46 @@
+package sandbox.model;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.PreparedStatement;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class IdempotencyKeyTest {
+
+    @Test
+    void validateIdempotencyKey() throws Exception {
+        PreparedStatement stmt = mock(PreparedStatement.class);
+
+        IdempotencyKey idempotencyKey = IdempotencyKey.builder()
+                .key("1:deposit:abc")
+                .result(true)
+                .created(1_000L)
+                .build();
+
+        idempotencyKey.setInsertValues(stmt);
+
+        verify(stmt).setString(1, "1:deposit:abc");
+        verify(stmt).setInt(2, 1);
+        verify(stmt).setLong(3, 1_000L);
+    }
+
+    @Test
+    void validateIdempotencyKey_missingResult() throws Exception {
+        PreparedStatement stmt = mock(PreparedStatement.class);
+
+        IdempotencyKey idempotencyKey = IdempotencyKey.builder()
+                .key("1:deposit:abc")
+                .created(1_000L)
+                .build();
+
+
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            idempotencyKey.setInsertValues(stmt);
+        });
+
+        Assertions.assertEquals("result is required", thrown.getMessage());
+    }
+}
@@ -0,0 +1,74 @@
+package sandbox.model;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class TransactionTest {
+
+    @Test
+    void validateTransaction() throws Exception {
+        PreparedStatement stmt = mock(PreparedStatement.class);
+        Timestamp created = Timestamp.from(Instant.now());
+
+        Transaction transaction = Transaction.builder()
+                .accountId(1)
+                .type(TransactionType.DEPOSIT)
+                .amount(10L)
+                .balance(110L)
+                .created(created)
+                .build();
+
+        transaction.setInsertValues(stmt);
+
+        verify(stmt).setInt(1, 1);
+        verify(stmt).setString(2, "DEPOSIT");
+        verify(stmt).setLong(3, 10L);
+        verify(stmt).setLong(4, 110L);
+        verify(stmt).setTimestamp(5, created);
+    }
+
+    @Test
+    void validateTransaction_missingType() throws Exception {
+        PreparedStatement stmt = mock(PreparedStatement.class);
+
+        Transaction transaction = Transaction.builder()
+                .accountId(1)
+                .amount(10L)
+                .balance(110L)
+                .created(Timestamp.from(Instant.now()))
+                .build();
+
+
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            transaction.setInsertValues(stmt);
+        });
+
+        Assertions.assertEquals("type is required", thrown.getMessage());
+    }
+
+    @Test
+    void validateTransaction_missingCreated() throws Exception {
+        PreparedStatement stmt = mock(PreparedStatement.class);
+
+        Transaction transaction = Transaction.builder()
+                .accountId(1)
+                .type(TransactionType.WITHDRAWAL)
+                .amount(10L)
+                .balance(110L)
+                .build();
+
+
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            transaction.setInsertValues(stmt);
+        });
+
+        Assertions.assertEquals("created is required", thrown.getMessage());
+    }
+}
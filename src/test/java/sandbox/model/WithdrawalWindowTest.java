@@ -0,0 +1,46 @@
+package sandbox.model;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.PreparedStatement;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class WithdrawalWindowTest {
+
+    @Test
+    void validateWithdrawalWindow() throws Exception {
+        PreparedStatement stmt = mock(PreparedStatement.class);
+
+        WithdrawalWindow window = WithdrawalWindow.builder()
+                .accountId(1)
+                .hour(490_000L)
+                .amount(2_000L)
+                .build();
+
+        window.setInsertValues(stmt);
+
+        verify(stmt).setInt(1, 1);
+        verify(stmt).setLong(2, 490_000L);
+        verify(stmt).setLong(3, 2_000L);
+    }
+
+    @Test
+    void validateWithdrawalWindow_missingHour() throws Exception {
+        PreparedStatement stmt = mock(PreparedStatement.class);
+
+        WithdrawalWindow window = WithdrawalWindow.builder()
+                .accountId(1)
+                .amount(2_000L)
+                .build();
+
+
+        IllegalArgumentException thrown = Assertions.assertThrows(IllegalArgumentException.class, () -> {
+            window.setInsertValues(stmt);
+        });
+
+        Assertions.assertEquals("hour is required", thrown.getMessage());
+    }
+}
@@ -0,0 +1,139 @@
+package sandbox.net;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import sandbox.AtmSimulator;
+import sandbox.admission.OverloadedException;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class AtmServerTest {
+    @Mock
+    AtmSimulator atm;
+
+    AtmServer underTest;
+    AtmClient client;
+
+    @BeforeEach
+    void init() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        underTest = new AtmServer(atm, new InetSocketAddress("127.0.0.1", 0), 2, 4);
+        client = new AtmClient(new InetSocketAddress("127.0.0.1", underTest.getPort()));
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        client.close();
+        underTest.close();
+    }
+
+    @Test
+    void login_returnsTheToken() throws Exception {
+        when(atm.login("tester", "1234")).thenReturn(Optional.of("token-1"));
+        when(atm.login("tester", "0000")).thenReturn(Optional.empty());
+
+        assertEquals(Optional.of("token-1"), client.login("tester", "1234"));
+        assertEquals(Optional.empty(), client.login("tester", "0000"));
+    }
+
+    @Test
+    void viewBalance_returnsTheBalance() throws Exception {
+        when(atm.viewBalance("token-1")).thenReturn(250L);
+
+        assertEquals(250L, client.viewBalance("token-1"));
+    }
+
+    @Test
+    void withdraw_failureAndError() throws Exception {
+        when(atm.withdraw("token-1", 10L)).thenReturn(false);
+        when(atm.withdraw("token-2", 10L)).thenThrow(new RuntimeException("invalid token"));
+
+        assertFalse(client.withdraw("token-1", 10L), "withdraw failed");
+
+        RuntimeException thrown = assertThrows(RuntimeException.class, () -> client.withdraw("token-2", 10L));
+        assertEquals("invalid token", thrown.getMessage());
+    }
+
+    @Test
+    void deposit_overloadedIsItsOwnStatus() throws Exception {
+        when(atm.deposit("token-1", 10L)).thenThrow(new OverloadedException("deposit"));
+
+        assertThrows(OverloadedException.class, () -> client.deposit("token-1", 10L), "not a failure or an error");
+    }
+
+    @Test
+    void pipeline_requestsRunInOrder() throws Exception {
+        when(atm.deposit(eq("token-1"), anyLong())).thenReturn(true);
+        when(atm.viewBalance("token-1")).thenReturn(600L);
+
+        List<AtmRequest> requests = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            requests.add(AtmRequest.deposit("token-1", i));
+        }
+        requests.add(AtmRequest.viewBalance("token-1"));
+
+        List<AtmResponse> responses = client.pipeline(requests);
+
+        assertEquals(101, responses.size());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(responses.get(i).isOk());
+            assertEquals(i + 1, responses.get(i).getRequestId(), "responses in request order");
+        }
+        assertEquals(600L, responses.get(100).getValue());
+
+        InOrder inOrder = inOrder(atm);
+        for (int i = 1; i <= 100; i++) {
+            inOrder.verify(atm).deposit("token-1", i);
+        }
+        inOrder.verify(atm).viewBalance("token-1");
+    }
+
+    @Test
+    void pipeline_pastTheInFlightCapStillAnswersEveryRequest() throws Exception {
+        when(atm.deposit(eq("token-1"), anyLong())).thenReturn(true);
+
+        try (AtmServer capped = new AtmServer(atm, new InetSocketAddress("127.0.0.1", 0), 1, 4, 4);
+             AtmClient other = new AtmClient(new InetSocketAddress("127.0.0.1", capped.getPort()))) {
+            List<AtmRequest> requests = new ArrayList<>();
+            for (int i = 1; i <= 50; i++) {
+                requests.add(AtmRequest.deposit("token-1", i));
+            }
+
+            List<AtmResponse> responses = other.pipeline(requests);
+
+            assertEquals(50, responses.size());
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i + 1, responses.get(i).getRequestId(), "reading resumed as responses drained");
+            }
+        }
+    }
+
+    @Test
+    void manyConnections() throws Exception {
+        when(atm.viewBalance("token-1")).thenReturn(5L);
+
+        List<AtmClient> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < 50; i++) {
+                clients.add(new AtmClient(new InetSocketAddress("127.0.0.1", underTest.getPort())));
+            }
+            for (AtmClient other : clients) {
+                assertEquals(5L, other.viewBalance("token-1"));
+            }
+        } finally {
+            for (AtmClient other : clients) {
+                other.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package sandbox.offheap;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OffHeapBalanceStoreTest {
+
+    OffHeapBalanceStore underTest = OffHeapBalanceStore.allocate(1_000);
+
+    @Test
+    void get_absentUntilSet() {
+        // when
+        long before = underTest.get(7, -1L);
+        underTest.set(7, 0L);
+
+        // verify
+        assertEquals(-1L, before, "nothing stored yet");
+        assertTrue(underTest.contains(7), "a zero balance is still a balance");
+        assertEquals(0L, underTest.get(7, -1L));
+    }
+
+    @Test
+    void putIfAbsent_neverOverwrites() {
+        assertTrue(underTest.putIfAbsent(3, 100L));
+        assertFalse(underTest.putIfAbsent(3, 50L));
+        assertEquals(100L, underTest.get(3, -1L));
+    }
+
+    @Test
+    void compareAndSet_onlyFromTheExpectedBalance() {
+        // given
+        underTest.set(5, -20L);
+
+        // verify
+        assertFalse(underTest.compareAndSet(5, 0L, 10L), "balance was not 0");
+        assertTrue(underTest.compareAndSet(5, -20L, 10L));
+        assertEquals(10L, underTest.get(5, -1L));
+        assertFalse(underTest.compareAndSet(6, 0L, 10L), "absent is not 0");
+    }
+
+    @Test
+    void add_concurrentUpdatesAreNotLost() throws Exception {
+        // when
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    underTest.add(i % 10, 1L);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // verify
+        for (int accountId = 0; accountId < 10; accountId++) {
+            assertEquals(80_000L, underTest.get(accountId, -1L), "accountId=" + accountId);
+        }
+    }
+
+    @Test
+    void get_outsideTheCapacity() {
+        assertFalse(underTest.covers(1_000));
+        assertThrows(IndexOutOfBoundsException.class, () -> underTest.get(1_000, 0L));
+        assertThrows(IndexOutOfBoundsException.class, () -> underTest.set(-1, 0L));
+    }
+
+    @Test
+    void map_balancesSurviveReopening() throws Exception {
+        // given
+        File file = File.createTempFile("atm-balances", ".bin");
+        file.deleteOnExit();
+
+        // when
+        try (OffHeapBalanceStore store = OffHeapBalanceStore.map(file.toPath(), 20_000_000)) {
+            store.set(1, 100L);
+            store.set(19_999_999, -5L);
+        }
+
+        // verify, the second id is in the second segment
+        try (OffHeapBalanceStore store = OffHeapBalanceStore.map(file.toPath(), 20_000_000)) {
+            assertEquals(100L, store.get(1, 0L));
+            assertEquals(-5L, store.get(19_999_999, 0L));
+            assertFalse(store.contains(2));
+        }
+        assertEquals(20_000_000L * Long.BYTES, file.length(), "one slot per account");
+    }
+}
@@ -0,0 +1,107 @@
+package sandbox.replication;
+
+import org.junit.jupiter.api.Test;
+import sandbox.feed.ChangeEvent;
+import sandbox.feed.ChangeType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicationProtocolTest {
+
+    private static final byte[] SECRET = "replication-test".getBytes(StandardCharsets.UTF_8);
+
+    private final ChangeEvent balance = ChangeEvent.builder()
+            .sequence(1L)
+            .type(ChangeType.BALANCE)
+            .accountId(7)
+            .balance(-250L)
+            .committedAtMillis(1_000L)
+            .build();
+    private final ChangeEvent session = ChangeEvent.builder()
+            .sequence(2L)
+            .type(ChangeType.SESSION)
+            .accountId(7)
+            .token(UUID.randomUUID())
+            .expires(new Timestamp(5_000L))
+            .committedAtMillis(2_000L)
+            .build();
+    private final ChangeEvent account = ChangeEvent.builder()
+            .sequence(3L)
+            .type(ChangeType.ACCOUNT)
+            .accountId(8)
+            .username("follower")
+            .pin("1234")
+            .committedAtMillis(3_000L)
+            .build();
+
+    @Test
+    void writeChange_readsBackTheSameEvents() throws Exception {
+        // given
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            ReplicationProtocol.writeChange(out, balance);
+            ReplicationProtocol.writeChange(out, session);
+            ReplicationProtocol.writeChange(out, account);
+            ReplicationProtocol.writeHeartbeat(out, 3L);
+        }
+
+        // when
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+
+            // verify
+            assertEquals(ReplicationProtocol.CHANGE, in.readByte());
+            assertEquals(balance, ReplicationProtocol.readChange(in));
+            assertEquals(ReplicationProtocol.CHANGE, in.readByte());
+            assertEquals(session, ReplicationProtocol.readChange(in), "token and expiry round trip");
+            assertEquals(ReplicationProtocol.CHANGE, in.readByte());
+            assertEquals(account, ReplicationProtocol.readChange(in), "username and pin round trip");
+            assertEquals(ReplicationProtocol.HEARTBEAT, in.readByte());
+            assertEquals(3L, in.readLong());
+        }
+    }
+
+    @Test
+    void readHello_rejectsAnotherProtocol() throws Exception {
+        // given
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBytes("GET / HTTP/1.1\r\n");
+        }
+
+        // when
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+
+        // verify
+        assertThrows(IOException.class, () -> ReplicationProtocol.readHello(in, SECRET));
+    }
+
+    @Test
+    void readHello_checksTheSecret() throws Exception {
+        // given
+        ByteArrayOutputStream right = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(right)) {
+            ReplicationProtocol.writeHello(out, SECRET);
+        }
+        ByteArrayOutputStream wrong = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(wrong)) {
+            ReplicationProtocol.writeHello(out, "guess".getBytes(StandardCharsets.UTF_8));
+        }
+
+        // when
+        DataInputStream rightIn = new DataInputStream(new ByteArrayInputStream(right.toByteArray()));
+        DataInputStream wrongIn = new DataInputStream(new ByteArrayInputStream(wrong.toByteArray()));
+
+        // verify
+        assertDoesNotThrow(() -> ReplicationProtocol.readHello(rightIn, SECRET));
+        assertThrows(IOException.class, () -> ReplicationProtocol.readHello(wrongIn, SECRET));
+    }
+}
@@ -0,0 +1,246 @@
+package sandbox.replication;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sandbox.AtmSimulatorImpl;
+import sandbox.SqliteDao;
+import sandbox.feed.ChangeEvent;
+import sandbox.feed.ChangeType;
+import sandbox.model.Balance;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicationTest {
+
+    private static final String SECRET = "replication-test";
+
+    File primaryFile;
+    File followerFile;
+    SqliteDao primaryDao;
+    SqliteDao followerDao;
+    AtmSimulatorImpl primaryAtm;
+    ReplicationPrimary primary;
+    ReplicationFollower follower;
+
+    @BeforeEach
+    void setup() throws Exception {
+        primaryFile = File.createTempFile("atm-primary-test", ".db");
+        primaryFile.delete();
+        followerFile = File.createTempFile("atm-follower-test", ".db");
+        followerFile.delete();
+        primaryDao = new SqliteDao("jdbc:sqlite:" + primaryFile.getAbsolutePath());
+        primaryAtm = new AtmSimulatorImpl(primaryDao);
+        primaryDao.createAccount("before", "1234");
+        primary = new ReplicationPrimary(primaryDao, new InetSocketAddress("127.0.0.1", 0), SECRET, 1_000, Duration.ofMillis(50));
+        followerDao = new SqliteDao("jdbc:sqlite:" + followerFile.getAbsolutePath());
+        follower = new ReplicationFollower(followerDao, primary.getAddress(), SECRET, Duration.ofMillis(50));
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        follower.close();
+        primary.close();
+        primaryAtm.close();
+        followerDao.close();
+        primaryFile.delete();
+        followerFile.delete();
+    }
+
+    @Test
+    void follower_copiesTheSnapshotThenLiveChanges() throws Exception {
+        // given
+        String token = primaryAtm.login("before", "1234").orElseThrow();
+        primaryAtm.deposit(token, 100);
+
+        // when
+        follower.start();
+        awaitCaughtUp();
+
+        // verify
+        assertTrue(follower.isReady(), "the snapshot was loaded");
+        assertTrue(followerDao.getAccount("before", "1234").isPresent(), "the snapshot has the account");
+        int accountId = followerDao.getAccount("before", "1234").get().getId();
+        assertEquals(Optional.of(100L), followerDao.getBalance(accountId).map(Balance::getBalance));
+        assertTrue(followerDao.getSession(token).isPresent(), "the snapshot has the session");
+
+        // when
+        primaryAtm.withdraw(token, 30);
+        primaryDao.createAccount("after", "5678");
+        awaitCaughtUp();
+
+        // verify
+        assertEquals(Optional.of(70L), followerDao.getBalance(accountId).map(Balance::getBalance), "live changes are applied");
+        assertTrue(followerDao.getAccount("after", "5678").isPresent(), "new accounts are replicated");
+        assertEquals(0L, follower.getLagEvents());
+        assertEquals(0L, follower.getLagMillis(), "no lag once caught up");
+        assertTrue(follower.getApplyDelays().getCount() > 0, "apply delays are recorded");
+        assertTrue(primary.getEventsSent() > 0);
+    }
+
+    @Test
+    void followerAtm_servesReadsThenWritesOncePromoted() throws Exception {
+        // given
+        String token = primaryAtm.login("before", "1234").orElseThrow();
+        primaryAtm.deposit(token, 250);
+        try (FollowerAtmSimulator underTest = new FollowerAtmSimulator(followerDao, follower)) {
+            follower.start();
+            awaitCaughtUp();
+
+            // verify
+            assertEquals(250L, underTest.viewBalance(token), "reads come from the replica");
+            assertThrows(IllegalStateException.class, () -> underTest.deposit(token, 10), "writes are refused");
+            assertThrows(RuntimeException.class, () -> underTest.viewBalance("not-a-token"));
+
+            // when
+            primary.close();
+            long sequence = underTest.promote();
+
+            // verify
+            assertEquals(primaryDao.getChangeFeed().lastSequence(), sequence, "nothing was lost");
+            assertTrue(underTest.isPromoted());
+            assertTrue(underTest.deposit(token, 10), "the promoted follower takes writes");
+            assertEquals(260L, underTest.viewBalance(token));
+            assertTrue(underTest.login("before", "1234").isPresent(), "logins work once promoted");
+            assertThrows(IllegalStateException.class, underTest::promote, "promotes once");
+        }
+    }
+
+    @Test
+    void follower_snapshotIncludesArchivedAccounts() throws Exception {
+        // given, the only account moved to the archive
+        File archiveFile = File.createTempFile("atm-primary-test-archive", ".db");
+        archiveFile.delete();
+        try {
+            primaryDao.attachArchive(archiveFile.getAbsolutePath());
+            int accountId = primaryDao.getAccount("before", "1234").get().getId();
+            primaryDao.persistBalance(Balance.builder()
+                    .accountId(accountId)
+                    .balance(500L)
+                    .build());
+            primaryDao.recordActivity(accountId, Timestamp.from(Instant.now().minus(100, ChronoUnit.DAYS)));
+            assertEquals(List.of(accountId),
+                    primaryDao.archiveDormantAccounts(Timestamp.from(Instant.now().minus(30, ChronoUnit.DAYS)), 0, 100));
+
+            // when
+            follower.start();
+            awaitCaughtUp();
+
+            // verify
+            assertTrue(followerDao.getAccount("before", "1234").isPresent(), "the archived account was sent");
+            assertEquals(Optional.of(500L), followerDao.getBalance(accountId).map(Balance::getBalance));
+        } finally {
+            archiveFile.delete();
+        }
+    }
+
+    @Test
+    void promote_refusedBeforeASnapshotIsLoaded() {
+        // when, never started
+
+        // verify
+        assertThrows(IllegalStateException.class, follower::promote);
+    }
+
+    @Test
+    void snapshot_onlyReplacesTheTablesOnceSwappedIn() {
+        // given, a follower db holding an earlier snapshot
+        followerDao.applyReplicatedChanges(List.of(ChangeEvent.builder()
+                .sequence(1L)
+                .type(ChangeType.ACCOUNT)
+                .accountId(1)
+                .username("earlier")
+                .pin("1234")
+                .committedAtMillis(1_000L)
+                .build()));
+
+        // when, a new snapshot is part way through
+        followerDao.beginReplicatedSnapshot();
+        followerDao.stageReplicatedChanges(List.of(ChangeEvent.builder()
+                .sequence(2L)
+                .type(ChangeType.ACCOUNT)
+                .accountId(2)
+                .username("later")
+                .pin("5678")
+                .committedAtMillis(2_000L)
+                .build()));
+
+        // verify
+        assertTrue(followerDao.getAccount("earlier", "1234").isPresent(), "the earlier snapshot is untouched");
+        assertFalse(followerDao.getAccount("later", "5678").isPresent(), "staged rows are not visible");
+
+        // when
+        followerDao.swapInReplicatedSnapshot();
+
+        // verify
+        assertFalse(followerDao.getAccount("earlier", "1234").isPresent(), "the earlier snapshot is replaced");
+        assertTrue(followerDao.getAccount("later", "5678").isPresent());
+    }
+
+    @Test
+    void follower_withTheWrongSecretIsSentNothing() throws Exception {
+        // given
+        try (ReplicationFollower underTest = new ReplicationFollower(followerDao, primary.getAddress(), "guess", Duration.ofMillis(50))) {
+
+            // when
+            underTest.start();
+            long deadline = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+            while (primary.getDisconnects() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            // verify
+            assertTrue(primary.getDisconnects() > 0, "the primary hung up");
+            assertFalse(underTest.isReady(), "no snapshot was sent");
+            assertFalse(followerDao.getAccount("before", "1234").isPresent());
+        }
+    }
+
+    @Test
+    void follower_startsOverWhenThePrimaryRestarts() throws Exception {
+        // given, a follower that has seen more changes than the restarted primary will have made
+        String token = primaryAtm.login("before", "1234").orElseThrow();
+        for (int i = 0; i < 5; i++) {
+            primaryAtm.deposit(token, 10);
+        }
+        follower.start();
+        awaitCaughtUp();
+        long before = follower.getPrimarySequence();
+        InetSocketAddress address = primary.getAddress();
+        primary.close();
+
+        // when
+        try (SqliteDao restartedDao = new SqliteDao("jdbc:sqlite:" + primaryFile.getAbsolutePath());
+             ReplicationPrimary restarted = new ReplicationPrimary(restartedDao, address, SECRET, 1_000, Duration.ofMillis(50))) {
+            restartedDao.createAccount("restarted", "5678");
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (!followerDao.getAccount("restarted", "5678").isPresent()
+                    || follower.getAppliedSequence() < restartedDao.getChangeFeed().lastSequence()) {
+                assertTrue(System.nanoTime() < deadline, "follower reconnected within 10s");
+                Thread.sleep(10);
+            }
+
+            // verify
+            assertTrue(follower.getPrimarySequence() < before, "the sequence follows the restarted primary");
+            assertEquals(restartedDao.getChangeFeed().lastSequence(), follower.getAppliedSequence());
+            assertEquals(0L, follower.getLagEvents(), "not behind a primary that has fewer changes");
+        }
+    }
+
+    private void awaitCaughtUp() throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!follower.isReady() || follower.getAppliedSequence() < primaryDao.getChangeFeed().lastSequence()) {
+            assertTrue(System.nanoTime() < deadline, "follower caught up within 10s");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package sandbox.report;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BalanceSummaryTest {
+
+    @Test
+    void add_bucketsByDollarDecade() {
+        // given
+        BalanceSummary underTest = new BalanceSummary();
+
+        // when
+        underTest.add(-500L);
+        underTest.add(0L);
+        underTest.add(99L);
+        underTest.add(100L);
+        underTest.add(250_000L);
+        underTest.add(50_000_000L);
+
+        // verify
+        assertArrayEquals(new long[]{1, 1, 1, 1, 0, 0, 1, 0, 1}, underTest.getHistogram());
+        assertEquals(6L, underTest.getCount());
+        assertEquals(50_249_699L, underTest.getTotal());
+        assertEquals(-500L, underTest.getMin());
+        assertEquals(50_000_000L, underTest.getMax());
+    }
+
+    @Test
+    void merge() {
+        BalanceSummary first = new BalanceSummary();
+        first.add(10L);
+        BalanceSummary second = new BalanceSummary();
+        second.add(-10L);
+        second.add(30L);
+
+        BalanceSummary merged = first.merge(second).merge(new BalanceSummary());
+
+        assertEquals(3L, merged.getCount());
+        assertEquals(30L, merged.getTotal());
+        assertEquals(-10L, merged.getMin());
+        assertEquals(30L, merged.getMax());
+    }
+
+    @Test
+    void empty() {
+        BalanceSummary underTest = new BalanceSummary();
+
+        assertEquals(0L, underTest.getMin());
+        assertEquals(0L, underTest.getMax());
+        assertEquals(underTest.getHistogram().length, BalanceSummary.getBucketLabels().length);
+    }
+}
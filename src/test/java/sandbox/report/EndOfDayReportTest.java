@@ -0,0 +1,135 @@
+package sandbox.report;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sandbox.SqliteDao;
+import sandbox.model.Balance;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EndOfDayReportTest {
+
+    static final int ACCOUNTS = 5_000;
+
+    File dbFile;
+    SqliteDao sqliteDao;
+    long expectedTotal;
+
+    @BeforeEach
+    void setup() throws Exception {
+        dbFile = File.createTempFile("atm-eod-test", ".db");
+        sqliteDao = new SqliteDao("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        sqliteDao.inTransaction(connection -> {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                sqliteDao.createAccount(i == 0 ? "smith, \"jo\"" : "eod-" + i, "1234");
+            }
+            return null;
+        });
+        // every third account has no balance row
+        sqliteDao.inTransaction(connection -> {
+            for (int i = 1; i <= ACCOUNTS; i++) {
+                if (i % 3 != 0) {
+                    sqliteDao.persistBalance(Balance.builder()
+                            .accountId(i)
+                            .balance(i * 100L)
+                            .build());
+                    expectedTotal += i * 100L;
+                }
+            }
+            return null;
+        });
+    }
+
+    @AfterEach
+    void close() throws Exception {
+        sqliteDao.close();
+        dbFile.delete();
+    }
+
+    @Test
+    void reconcile_totalsEveryAccountInParallel() {
+        BalanceSummary summary = new EndOfDayReport(sqliteDao, 4).reconcile();
+
+        assertEquals(ACCOUNTS, summary.getCount());
+        assertEquals(expectedTotal, summary.getTotal());
+        assertEquals(0L, summary.getMin(), "accounts without a balance count as zero");
+        assertEquals(ACCOUNTS * 100L, summary.getMax());
+    }
+
+    @Test
+    void reconcile_scansOfOneSnapshotIgnoreLaterCommits() {
+        BalanceSummary summary = sqliteDao.inReadSnapshot(connection -> {
+            BalanceSummary first = new BalanceSummary();
+            sqliteDao.scanBalances(connection, 1, ACCOUNTS / 2, first);
+            // commits on the shared connection between the two halves
+            sqliteDao.persistBalance(Balance.builder()
+                    .accountId(ACCOUNTS)
+                    .balance(0L)
+                    .build());
+            BalanceSummary second = new BalanceSummary();
+            sqliteDao.scanBalances(connection, ACCOUNTS / 2 + 1, ACCOUNTS, second);
+            return first.merge(second);
+        });
+
+        assertEquals(expectedTotal, summary.getTotal());
+        assertEquals(ACCOUNTS * 100L, summary.getMax());
+    }
+
+    @Test
+    void exportCsv() throws Exception {
+        // given
+        Path path = Files.createTempFile("balances", ".csv.gz");
+
+        // when
+        long rows = new EndOfDayReport(sqliteDao).exportCsv(path);
+
+        // verify
+        List<String> lines;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            lines = reader.lines().collect(Collectors.toList());
+        }
+        assertEquals(ACCOUNTS, rows);
+        assertEquals(ACCOUNTS + 1, lines.size());
+        assertEquals("account_id,username,balance", lines.get(0));
+        assertEquals("1,\"smith, \"\"jo\"\"\",100", lines.get(1), "username is quoted");
+        assertEquals("3,eod-2,0", lines.get(3));
+        Files.delete(path);
+    }
+
+    @Test
+    void exportColumnar_roundTrips() throws Exception {
+        // given
+        Path path = Files.createTempFile("balances", ".atmc");
+
+        // when
+        long rows = new EndOfDayReport(sqliteDao).exportColumnar(path);
+
+        // verify
+        List<Integer> accountIds = new ArrayList<>();
+        BalanceSummary summary = new BalanceSummary();
+        try (InputStream in = Files.newInputStream(path)) {
+            assertEquals(rows, ColumnarBalanceFile.read(in, (accountId, username, balance) -> {
+                accountIds.add(accountId);
+                summary.add(balance);
+            }));
+        }
+        assertEquals(ACCOUNTS, accountIds.size());
+        assertEquals(ACCOUNTS, (int) accountIds.get(ACCOUNTS - 1));
+        assertEquals(expectedTotal, summary.getTotal());
+        Files.delete(path);
+    }
+}
@@ -0,0 +1,102 @@
+package sandbox.traffic;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrafficLogTest {
+
+    private final TrafficEvent login = TrafficEvent.builder()
+            .op(TrafficOp.LOGIN)
+            .offsetNanos(1_000L)
+            .user(0x7EDC_BA98_7654_3210L)
+            .session(7)
+            .succeeded(true)
+            .build();
+    private final TrafficEvent deposit = TrafficEvent.builder()
+            .op(TrafficOp.DEPOSIT)
+            .offsetNanos(5_000L)
+            .session(7)
+            .amount(250L)
+            .request(-3)
+            .succeeded(true)
+            .build();
+    // queued a little late by another thread, so it goes back in time
+    private final TrafficEvent transfer = TrafficEvent.builder()
+            .op(TrafficOp.TRANSFER)
+            .offsetNanos(4_000L)
+            .session(9)
+            .amount(Long.MAX_VALUE)
+            .target(11)
+            .succeeded(false)
+            .build();
+
+    @Test
+    void write_readsBackTheSameEvents() throws Exception {
+        // given
+        byte[] bytes = write(login, deposit, transfer);
+
+        // when
+        try (TrafficLog.Reader reader = new TrafficLog.Reader(new ByteArrayInputStream(bytes))) {
+
+            // verify
+            assertEquals(123L, reader.getStartEpochMillis(), "start time matches");
+            assertEquals(Optional.of(login), reader.next());
+            assertEquals(Optional.of(deposit), reader.next());
+            assertEquals(Optional.of(transfer), reader.next(), "negative deltas round trip");
+            assertFalse(reader.next().isPresent(), "log has ended");
+        }
+    }
+
+    @Test
+    void read_truncatedLogEndsAtTheLastWholeEvent() throws Exception {
+        // given
+        byte[] whole = write(login, deposit);
+        byte[] truncated = Arrays.copyOf(whole, whole.length - 3);
+
+        // when
+        try (TrafficLog.Reader reader = new TrafficLog.Reader(new ByteArrayInputStream(truncated))) {
+
+            // verify
+            assertEquals(Optional.of(login), reader.next());
+            assertFalse(reader.next().isPresent(), "partial event is ignored");
+        }
+    }
+
+    @Test
+    void read_rejectsOtherFiles() {
+        assertThrows(IOException.class, () -> new TrafficLog.Reader(new ByteArrayInputStream(new byte[16])));
+    }
+
+    @Test
+    void varLong_smallValuesTakeOneByte() throws Exception {
+        // given
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        // when
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            TrafficLog.writeVarLong(out, -1L);
+            TrafficLog.writeVarLong(out, 63L);
+        }
+
+        // verify
+        assertEquals(2, bytes.size(), "zigzag keeps small negatives small");
+    }
+
+    private static byte[] write(TrafficEvent... events) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (TrafficLog.Writer writer = new TrafficLog.Writer(bytes, 123L)) {
+            for (TrafficEvent event : events) {
+                writer.write(event);
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,124 @@
+package sandbox.traffic;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import sandbox.AtmSimulator;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class TrafficReplayerTest {
+
+    @Test
+    void replay_callsInTheRecordedOrderWithTheReplayToken() throws Exception {
+        // given
+        Path logFile = record(recording -> {
+            Optional<String> token = recording.login("alice", "1234");
+            recording.deposit(token.get(), 100L);
+            recording.withdraw(token.get(), 40L);
+            recording.login("bob", "bad pin");
+        });
+        AtmSimulator replayed = mock(AtmSimulator.class);
+        when(replayed.login(anyString(), eq(TrafficReplayer.PIN))).thenReturn(Optional.of("replay-token"));
+        when(replayed.login(anyString(), eq(TrafficReplayer.WRONG_PIN))).thenReturn(Optional.empty());
+        when(replayed.deposit(anyString(), anyLong(), any())).thenReturn(true);
+        when(replayed.withdraw(anyString(), anyLong(), any())).thenReturn(true);
+
+        // when
+        ReplayResult result = new TrafficReplayer(replayed, TrafficReplayer.MAX_SPEED, 4).replay(logFile);
+
+        // verify
+        assertEquals(4, result.getEvents(), "every event was replayed");
+        assertEquals(0, result.getMismatches(), "outcomes match the recording");
+        assertEquals(0, result.getErrors());
+        InOrder inOrder = inOrder(replayed);
+        inOrder.verify(replayed).login(anyString(), eq(TrafficReplayer.PIN));
+        inOrder.verify(replayed).deposit("replay-token", 100L, null);
+        inOrder.verify(replayed).withdraw("replay-token", 40L, null);
+        verify(replayed).login(anyString(), eq(TrafficReplayer.WRONG_PIN));
+    }
+
+    @Test
+    void record_neverWritesUsernamesOrTokens() throws Exception {
+        // given
+        Path logFile = record(recording -> recording.login("alice", "1234"));
+
+        // when
+        String contents = new String(Files.readAllBytes(logFile), StandardCharsets.ISO_8859_1);
+
+        // verify
+        assertFalse(contents.contains("alice"), "username is anonymized");
+        assertFalse(contents.contains("1234"), "pin is never recorded");
+        assertFalse(contents.contains("live-token"), "token is anonymized");
+    }
+
+    @Test
+    void anonymize_separatesValuesWithTheSameHashCode() throws Exception {
+        // given, "Aa" and "BB" share a String.hashCode
+        File file = File.createTempFile("traffic", ".log");
+        file.deleteOnExit();
+
+        // when
+        try (TrafficRecorder recorder = new TrafficRecorder(file.toPath(), accountId -> Optional.empty())) {
+            // verify
+            assertNotEquals(recorder.anonymize("Aa"), recorder.anonymize("BB"));
+            assertEquals(recorder.anonymize("Aa"), recorder.anonymize("Aa"), "stable within a recording");
+            assertEquals(0L, recorder.anonymize(null));
+        }
+    }
+
+    @Test
+    void record_transferTargetGetsTheIdOfItsOwnersLogins() throws Exception {
+        // given
+        Path logFile = record(recording -> {
+            Optional<String> token = recording.login("alice", "1234");
+            recording.login("bob", "bad pin");
+            recording.transfer(token.get(), 7, 25L);
+            recording.transfer(token.get(), 8, 25L);
+        });
+
+        // when
+        List<TrafficEvent> events = new ArrayList<>();
+        try (TrafficLog.Reader reader = new TrafficLog.Reader(Files.newInputStream(logFile))) {
+            Optional<TrafficEvent> next;
+            while ((next = reader.next()).isPresent()) {
+                events.add(next.get());
+            }
+        }
+
+        // verify
+        assertEquals(4, events.size());
+        assertEquals(events.get(1).getUser(), events.get(2).getTarget(), "account 7 is bob's");
+        assertEquals(0L, events.get(3).getTarget(), "account 8 does not exist");
+    }
+
+    private interface Traffic {
+        void run(AtmSimulator recording);
+    }
+
+    private static Path record(Traffic traffic) throws Exception {
+        File file = File.createTempFile("traffic", ".log");
+        file.deleteOnExit();
+        AtmSimulator live = mock(AtmSimulator.class);
+        when(live.login("alice", "1234")).thenReturn(Optional.of("live-token"));
+        when(live.login("bob", "bad pin")).thenReturn(Optional.empty());
+        when(live.deposit(anyString(), anyLong())).thenReturn(true);
+        when(live.withdraw(anyString(), anyLong())).thenReturn(true);
+        try (TrafficRecorder recorder = new TrafficRecorder(file.toPath(), accountId -> accountId == 7 ? Optional.of("bob") : Optional.empty())) {
+            traffic.run(new RecordingAtmSimulator(live, recorder));
+        }
+        return file.toPath();
+    }
+}